@@ -0,0 +1,48 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.api;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * An extension of the connections of this database, to run statements
+ * without blocking the calling thread. Use
+ * <code>conn.unwrap(AsyncConnection.class)</code> to get it.
+ * <p>
+ * Each method prepares a statement with the given parameters, and closes it
+ * once it is done. The statement of a query is closed when the result set is
+ * closed.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public interface AsyncConnection {
+
+    /**
+     * Run a query asynchronously. All rows are read from the data nodes
+     * before the result is done, so that reading the result set doesn't
+     * block.
+     *
+     * @param sql the SQL statement
+     * @param params the parameter values
+     * @return the future result set
+     * @throws SQLException if the connection is closed or the statement is
+     *             invalid
+     */
+    StatementFuture<ResultSet> executeQueryAsync(String sql, Object... params) throws SQLException;
+
+    /**
+     * Run an insert, update, delete or other statement asynchronously.
+     *
+     * @param sql the SQL statement
+     * @param params the parameter values
+     * @return the future update count
+     * @throws SQLException if the connection is closed or the statement is
+     *             invalid
+     */
+    StatementFuture<Integer> executeUpdateAsync(String sql, Object... params) throws SQLException;
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.api;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * An extension of the prepared statements of this database, to run them
+ * without blocking the calling thread. Use
+ * <code>prep.unwrap(AsyncPreparedStatement.class)</code> to get it.
+ * <p>
+ * The statement runs in a thread of the database. Like with the other
+ * execute methods, only one statement runs at a time: the parameters and
+ * the statement must not be changed until the statement is done.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public interface AsyncPreparedStatement {
+
+    /**
+     * Run the query asynchronously. All rows are read from the data nodes
+     * before the result is done, so that reading the result set doesn't
+     * block.
+     *
+     * @return the future result set
+     * @throws SQLException if the statement is closed
+     */
+    StatementFuture<ResultSet> executeQueryAsync() throws SQLException;
+
+    /**
+     * Run the insert, update, delete or other statement asynchronously.
+     *
+     * @return the future update count
+     * @throws SQLException if the statement is closed
+     */
+    StatementFuture<Integer> executeUpdateAsync() throws SQLException;
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.api;
+
+import java.sql.SQLException;
+
+/**
+ * A callback for the result of a statement which runs asynchronously.
+ *
+ * @param <T> the type of the result
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public interface StatementCallback<T> {
+
+    /**
+     * This method is called if the statement was successful.
+     *
+     * @param result the result
+     */
+    void onSuccess(T result);
+
+    /**
+     * This method is called if the statement failed or was canceled.
+     *
+     * @param e the exception
+     */
+    void onFailure(SQLException e);
+
+}
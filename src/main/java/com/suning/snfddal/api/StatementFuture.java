@@ -0,0 +1,32 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.api;
+
+import java.util.concurrent.Future;
+
+/**
+ * The result of a statement which runs asynchronously. Besides waiting with
+ * {@link #get()}, callbacks can be added which are called once the statement
+ * is done, so that no thread needs to wait for the result.
+ * <p>
+ * If the future is canceled, the statement is canceled as well.
+ *
+ * @param <T> the type of the result
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public interface StatementFuture<T> extends Future<T> {
+
+    /**
+     * Add a callback which is called once the statement is done. The
+     * callback is called in the thread which ran the statement, or in the
+     * calling thread if the statement is already done. It should return
+     * quickly and must not throw an exception.
+     *
+     * @param callback the callback
+     */
+    void addCallback(StatementCallback<? super T> callback);
+
+}
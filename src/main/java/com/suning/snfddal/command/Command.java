@@ -16,6 +16,7 @@ import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.message.Trace;
 import com.suning.snfddal.result.ResultInterface;
+import com.suning.snfddal.value.Value;
 
 /**
  * Represents a SQL statement. This object is only used on the server side.
@@ -44,10 +45,23 @@ public abstract class Command implements CommandInterface {
 
     private final String sql;
 
-    private boolean canReuse;
+    /**
+     * Whether the command is closed. Another session may read it when it
+     * shares the statement.
+     */
+    private volatile boolean canReuse;
+
+    /**
+     * The last result, if its rows are computed while it is read.
+     */
+    private volatile ResultInterface lazyResult;
 
     Command(Parser parser, String sql) {
-        this.session = parser.getSession();
+        this(parser.getSession(), sql);
+    }
+
+    Command(Session session, String sql) {
+        this.session = session;
         this.sql = sql;
         trace = session.getDatabase().getTrace(Trace.COMMAND);
     }
@@ -101,6 +115,26 @@ public abstract class Command implements CommandInterface {
         throw DbException.get(ErrorCode.METHOD_NOT_ALLOWED_FOR_QUERY);
     }
 
+    /**
+     * Check if the statement can execute a list of parameter sets at once.
+     *
+     * @return true if it can
+     */
+    public boolean isBatchable() {
+        return false;
+    }
+
+    /**
+     * Execute an updating statement once for each set of parameter values.
+     *
+     * @param batchParameters the parameter values
+     * @return the update count of each execution
+     * @throws DbException if the command is not batchable
+     */
+    public int[] updateBatch(ArrayList<Value[]> batchParameters) {
+        throw DbException.getUnsupportedException("batch");
+    }
+
     /**
      * Execute a query statement, if this is possible.
      *
@@ -112,6 +146,18 @@ public abstract class Command implements CommandInterface {
         throw DbException.get(ErrorCode.METHOD_ONLY_ALLOWED_FOR_QUERY);
     }
 
+    /**
+     * Execute a query statement for a client which reads the result forward
+     * only. The rows may be computed while the result is read.
+     *
+     * @param maxrows the maximum number of rows returned
+     * @return the result set
+     * @throws DbException if the command is not a query
+     */
+    public ResultInterface queryLazy(int maxrows) {
+        return query(maxrows);
+    }
+
     @Override
     public final ResultInterface getMetaData() {
         return queryMeta();
@@ -159,7 +205,8 @@ public abstract class Command implements CommandInterface {
      * This method prepares everything and calls {@link #query(int)} finally.
      *
      * @param maxrows the maximum number of rows to return
-     * @param scrollable if the result set must be scrollable (ignored)
+     * @param scrollable if the result set must be scrollable, otherwise the
+     *            rows may be computed while the result is read
      * @return the result set
      */
     @Override
@@ -173,7 +220,9 @@ public abstract class Command implements CommandInterface {
             try {
                 while (true) {
                     try {
-                        return query(maxrows);
+                        ResultInterface result = scrollable ? query(maxrows) : queryLazy(maxrows);
+                        lazyResult = result.isLazy() ? result : null;
+                        return result;
                     } catch (DbException e) {
                         throw e;
                     } catch (OutOfMemoryError e) {
@@ -207,6 +256,18 @@ public abstract class Command implements CommandInterface {
 
     @Override
     public int executeUpdate() {
+        return executeUpdate(null)[0];
+    }
+
+    @Override
+    public int[] executeBatchUpdate(ArrayList<Value[]> batchParameters) {
+        if (!isBatchable()) {
+            return null;
+        }
+        return executeUpdate(batchParameters);
+    }
+
+    private int[] executeUpdate(ArrayList<Value[]> batchParameters) {
         Database database = session.getDatabase();
         Object sync = session;
         boolean callStop = true;
@@ -216,7 +277,10 @@ public abstract class Command implements CommandInterface {
             try {
                 while (true) {
                     try {
-                        return update();
+                        if (batchParameters == null) {
+                            return new int[] { update() };
+                        }
+                        return updateBatch(batchParameters);
                     } catch (DbException e) {
                         throw e;
                     } catch (OutOfMemoryError e) {
@@ -260,6 +324,8 @@ public abstract class Command implements CommandInterface {
     @Override
     public void cancel() {
         this.cancel = true;
+        // stop the statements on the data nodes as well
+        session.cancel();
     }
 
     @Override
@@ -271,13 +337,25 @@ public abstract class Command implements CommandInterface {
         return false;
     }
 
+    /**
+     * Get the prepared statement, so that other sessions can re-use it once
+     * this command is no longer used.
+     *
+     * @return the prepared statement, or null if it can't be re-used
+     */
+    public Prepared getPrepared() {
+        return null;
+    }
+
     /**
      * Whether the command is already closed (in which case it can be re-used).
      *
      * @return true if it can be re-used
      */
     public boolean canReuse() {
-        return canReuse;
+        // the rows of a lazy result are computed by this command
+        ResultInterface result = lazyResult;
+        return canReuse && (result == null || result.isClosed());
     }
 
     /**
@@ -286,6 +364,7 @@ public abstract class Command implements CommandInterface {
      */
     public void reuse() {
         canReuse = false;
+        lazyResult = null;
         ArrayList<? extends ParameterInterface> parameters = getParameters();
         for (int i = 0, size = parameters.size(); i < size; i++) {
             ParameterInterface param = parameters.get(i);
@@ -293,4 +372,17 @@ public abstract class Command implements CommandInterface {
         }
     }
 
+    /**
+     * Re-use the command if it is closed, see {@link #reuse()}.
+     *
+     * @return true if the command may be used again
+     */
+    public boolean reuseIfClosed() {
+        if (!canReuse()) {
+            return false;
+        }
+        reuse();
+        return true;
+    }
+
 }
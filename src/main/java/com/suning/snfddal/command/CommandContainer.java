@@ -9,6 +9,7 @@ import java.util.ArrayList;
 
 import com.suning.snfddal.command.expression.Parameter;
 import com.suning.snfddal.command.expression.ParameterInterface;
+import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.result.ResultInterface;
 import com.suning.snfddal.value.Value;
 import com.suning.snfddal.value.ValueNull;
@@ -29,6 +30,12 @@ class CommandContainer extends Command {
         this.prepared = prepared;
     }
 
+    CommandContainer(Session session, String sql, Prepared prepared) {
+        super(session, sql);
+        prepared.setCommand(this);
+        this.prepared = prepared;
+    }
+
     @Override
     public ArrayList<? extends ParameterInterface> getParameters() {
         return prepared.getParameters();
@@ -51,6 +58,7 @@ class CommandContainer extends Command {
             ArrayList<Parameter> oldParams = prepared.getParameters();
             Parser parser = new Parser(session);
             prepared = parser.parse(sql);
+            prepared.setCommand(this);
             ArrayList<Parameter> newParams = prepared.getParameters();
             for (int i = 0, size = newParams.size(); i < size; i++) {
                 Parameter old = oldParams.get(i);
@@ -75,13 +83,41 @@ class CommandContainer extends Command {
         return updateCount;
     }
 
+    @Override
+    public boolean isBatchable() {
+        return prepared.isBatchable();
+    }
+
+    @Override
+    public int[] updateBatch(ArrayList<Value[]> batchParameters) {
+        recompileIfRequired();
+        start();
+        session.setLastScopeIdentity(ValueNull.INSTANCE);
+        int[] updateCounts = prepared.updateBatch(batchParameters);
+        int updateCount = 0;
+        for (int c : updateCounts) {
+            updateCount += c;
+        }
+        prepared.trace(startTime, updateCount);
+        return updateCounts;
+    }
+
     @Override
     public ResultInterface query(int maxrows) {
+        return query(maxrows, false);
+    }
+
+    @Override
+    public ResultInterface queryLazy(int maxrows) {
+        return query(maxrows, true);
+    }
+
+    private ResultInterface query(int maxrows, boolean lazy) {
         recompileIfRequired();
         start();
         prepared.checkParameters();
-        ResultInterface result = prepared.query(maxrows);
-        prepared.trace(startTime, result.getRowCount());
+        ResultInterface result = lazy ? prepared.queryLazy(maxrows) : prepared.query(maxrows);
+        prepared.trace(startTime, result.isLazy() ? 0 : result.getRowCount());
         return result;
     }
 
@@ -104,6 +140,17 @@ class CommandContainer extends Command {
         return prepared.isCacheable();
     }
 
+    @Override
+    public Prepared getPrepared() {
+        return prepared;
+    }
+
+    @Override
+    public boolean reuseIfClosed() {
+        // other sessions may have taken the statement
+        return prepared.reuse(this);
+    }
+
     @Override
     public int getCommandType() {
         return prepared.getType();
@@ -9,6 +9,7 @@ import java.util.ArrayList;
 
 import com.suning.snfddal.command.expression.ParameterInterface;
 import com.suning.snfddal.result.ResultInterface;
+import com.suning.snfddal.value.Value;
 
 /**
  * Represents a SQL statement.
@@ -489,6 +490,16 @@ public interface CommandInterface {
      */
     int executeUpdate();
 
+    /**
+     * Execute the statement once for each set of parameter values, if the
+     * statement can do this at once.
+     *
+     * @param batchParameters the parameter values
+     * @return the update count of each execution, or null if the statement
+     *         has to be executed for each set of parameter values
+     */
+    int[] executeBatchUpdate(ArrayList<Value[]> batchParameters);
+
     /**
      * Close the statement.
      */
@@ -202,6 +202,8 @@ public class Parser {
     private ArrayList<String> expectedList;
     private boolean rightsChecked;
     private boolean recompileAlways;
+    private boolean shareable;
+    private int selectCount;
     private ArrayList<Parameter> indexedParameterList;
 
     public Parser(Session session) {
@@ -278,6 +280,8 @@ public class Parser {
             }
         }
         p.setPrepareAlways(recompileAlways);
+        // nested queries and views keep the session which parsed them
+        p.setShareable(shareable && (selectCount == 0 || selectCount == 1 && p instanceof Select));
         p.setParameterList(parameters);
         return p;
     }
@@ -293,6 +297,8 @@ public class Parser {
         currentSelect = null;
         currentPrepared = null;
         recompileAlways = false;
+        shareable = true;
+        selectCount = 0;
         indexedParameterList = null;
         read();
         return parsePrepared();
@@ -1206,6 +1212,9 @@ public class Parser {
                 table = readTableOrView(tableName);
             }
         }
+        if (table instanceof TableView || table instanceof FunctionTable) {
+            shareable = false;
+        }
         alias = readFromAlias(alias);
         return new TableFilter(session, table, alias, rightsChecked,
                 currentSelect);
@@ -1832,6 +1841,7 @@ public class Parser {
             read(")");
             return command;
         }
+        selectCount++;
         Select select = parseSelectSimple();
         return select;
     }
@@ -2268,6 +2278,7 @@ public class Parser {
                     distinct);
         }
         read(")");
+        currentSelect.addAggregate(r);
         return r;
     }
 
@@ -2323,6 +2334,7 @@ public class Parser {
         params.toArray(list);
         JavaAggregate agg = new JavaAggregate(aggregate, list, currentSelect);
         currentSelect.setGroupQuery();
+        currentSelect.addAggregate(agg);
         return agg;
     }
 
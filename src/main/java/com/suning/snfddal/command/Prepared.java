@@ -49,7 +49,13 @@ public abstract class Prepared {
      */
     protected boolean prepareAlways;
 
+    /**
+     * If other sessions may re-use the statement once it is no longer used.
+     */
+    private boolean shareable;
+
     private Command command;
+    private long modificationMetaId;
     private int objectId;
     private int currentRowNumber;
     private int rowScanCount;
@@ -61,6 +67,7 @@ public abstract class Prepared {
      */
     public Prepared(Session session) {
         this.session = session;
+        modificationMetaId = session.getDatabase().getModificationMetaId();
     }
 
     /**
@@ -101,7 +108,17 @@ public abstract class Prepared {
      * @return true if it must
      */
     public boolean needRecompile() {
-        return false;
+        return modificationMetaId < session.getDatabase().getModificationMetaId();
+    }
+
+    /**
+     * Get the modification meta id of the database when this statement was
+     * parsed.
+     *
+     * @return the modification meta id
+     */
+    public long getModificationMetaId() {
+        return modificationMetaId;
     }
 
     /**
@@ -141,7 +158,7 @@ public abstract class Prepared {
      *
      * @param command the new command
      */
-    public void setCommand(Command command) {
+    public synchronized void setCommand(Command command) {
         this.command = command;
     }
 
@@ -171,6 +188,27 @@ public abstract class Prepared {
         throw DbException.get(ErrorCode.METHOD_NOT_ALLOWED_FOR_QUERY);
     }
 
+    /**
+     * Check if the statement can be executed for a list of parameter sets at
+     * once, see {@link #updateBatch(ArrayList)}.
+     *
+     * @return true if it can
+     */
+    public boolean isBatchable() {
+        return false;
+    }
+
+    /**
+     * Execute the statement once for each set of parameter values.
+     *
+     * @param batchParameters the parameter values
+     * @return the update count of each execution
+     * @throws DbException if the statement is not batchable
+     */
+    public int[] updateBatch(ArrayList<Value[]> batchParameters) {
+        throw DbException.getUnsupportedException("batch");
+    }
+
     /**
      * Execute the query.
      *
@@ -182,6 +220,19 @@ public abstract class Prepared {
         throw DbException.get(ErrorCode.METHOD_ONLY_ALLOWED_FOR_QUERY);
     }
 
+    /**
+     * Execute the query for a client which reads the result forward only.
+     * The rows may be computed while the result is read, so the result must
+     * be closed before the statement is executed again.
+     *
+     * @param maxrows the maximum number of rows to return
+     * @return the result set
+     * @throws DbException if it is not a query
+     */
+    public ResultInterface queryLazy(int maxrows) {
+        return query(maxrows);
+    }
+
     /**
      * Set the SQL statement.
      *
@@ -268,6 +319,42 @@ public abstract class Prepared {
         this.session = currentSession;
     }
 
+    /**
+     * Create a command to run this statement in the given session. This is
+     * used to re-use a statement that another session prepared, once the
+     * command which ran it last is closed.
+     *
+     * @param currentSession the session
+     * @param sql the SQL statement
+     * @return the command, or null if the statement is still used
+     */
+    public synchronized Command createCommand(Session currentSession, String sql) {
+        if (command != null) {
+            if (command.getPrepared() != this || !command.canReuse()) {
+                // still used, or the command was re-compiled
+                return null;
+            }
+            command.reuse();
+        }
+        setSession(currentSession);
+        return new CommandContainer(currentSession, sql, this);
+    }
+
+    /**
+     * Re-use the given command of the session which created it, unless the
+     * command is still used, or another session took the statement since.
+     *
+     * @param c the command
+     * @return true if the command may be used again
+     */
+    synchronized boolean reuse(Command c) {
+        if (command != c || !c.canReuse()) {
+            return false;
+        }
+        c.reuse();
+        return true;
+    }
+
     /**
      * Print information about the statement executed if info trace level is
      * enabled.
@@ -293,6 +380,26 @@ public abstract class Prepared {
         this.prepareAlways = prepareAlways;
     }
 
+    /**
+     * Set whether other sessions may re-use the statement. This is not the
+     * case for statements with nested queries or views, because they keep
+     * the session which parsed them.
+     *
+     * @param shareable the new value
+     */
+    public void setShareable(boolean shareable) {
+        this.shareable = shareable;
+    }
+
+    /**
+     * Check whether other sessions may re-use the statement.
+     *
+     * @return true if they may
+     */
+    public boolean isShareable() {
+        return shareable;
+    }
+
     /**
      * Set the current row number.
      *
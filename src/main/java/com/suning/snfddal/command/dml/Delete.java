@@ -5,19 +5,24 @@
  */
 package com.suning.snfddal.command.dml;
 
+import java.util.HashSet;
+
 import com.suning.snfddal.api.Trigger;
 import com.suning.snfddal.command.CommandInterface;
 import com.suning.snfddal.command.Prepared;
 import com.suning.snfddal.command.expression.Expression;
+import com.suning.snfddal.dbobject.DbObject;
 import com.suning.snfddal.dbobject.Right;
+import com.suning.snfddal.dbobject.index.MappedIndex;
+import com.suning.snfddal.dbobject.table.MappedTable;
 import com.suning.snfddal.dbobject.table.PlanItem;
 import com.suning.snfddal.dbobject.table.Table;
 import com.suning.snfddal.dbobject.table.TableFilter;
 import com.suning.snfddal.engine.Session;
-import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.result.ResultInterface;
 import com.suning.snfddal.result.Row;
 import com.suning.snfddal.result.RowList;
+import com.suning.snfddal.util.New;
 import com.suning.snfddal.util.StringUtils;
 import com.suning.snfddal.value.Value;
 import com.suning.snfddal.value.ValueNull;
@@ -36,6 +41,11 @@ public class Delete extends Prepared {
      */
     private Expression limitExpr;
 
+    /**
+     * Whether the data nodes delete the rows.
+     */
+    private boolean pushdown;
+
     public Delete(Session session) {
         super(session);
     }
@@ -50,7 +60,29 @@ public class Delete extends Prepared {
     
     @Override
     public int update() {
-        throw DbException.getUnsupportedException("TODO");
+        if (pushdown) {
+            return deletePushdown();
+        }
+        return deleteRows();
+    }
+
+    /**
+     * Let each physical table the condition routes to delete its rows with
+     * one statement. The statement triggers are still fired locally.
+     *
+     * @return the update count
+     */
+    private int deletePushdown() {
+        tableFilter.startQuery(session);
+        MappedTable table = (MappedTable) tableFilter.getTable();
+        session.getUser().checkRight(table, Right.DELETE);
+        table.checkReadOnly();
+        table.fire(session, Trigger.DELETE, true);
+        table.lock(session, true, false);
+        MappedIndex index = (MappedIndex) tableFilter.getIndex();
+        int count = index.delete(tableFilter, condition);
+        table.fire(session, Trigger.DELETE, false);
+        return count;
     }
 
     public int deleteRows() {
@@ -136,6 +168,28 @@ public class Delete extends Prepared {
         PlanItem item = tableFilter.getBestPlanItem(session, 1);
         tableFilter.setPlanItem(item);
         tableFilter.prepare();
+        pushdown = canPushdown();
+    }
+
+    /**
+     * Check whether the data nodes can delete the rows. This is not possible
+     * if the rows are needed locally (for row triggers, constraints and
+     * LIMIT), or if the condition can't be evaluated by the data nodes.
+     *
+     * @return true if the delete can be pushed down
+     */
+    private boolean canPushdown() {
+        if (limitExpr != null || !(tableFilter.getIndex() instanceof MappedIndex) ||
+                !session.getDatabase().getSettings().optimizeUpdatePushdown) {
+            return false;
+        }
+        MappedTable table = (MappedTable) tableFilter.getTable();
+        if (table.fireRow()) {
+            return false;
+        }
+        HashSet<DbObject> tables = New.hashSet();
+        tables.add(table);
+        return condition == null || MappedIndex.isExportable(condition, tables);
     }
 
     @Override
@@ -45,6 +45,13 @@ public class Insert extends Prepared implements ResultTarget {
     private int rowNumber;
     private boolean insertFromSelect;
 
+    /**
+     * The rows which are not yet added to the table, or null if each row is
+     * added when it is read.
+     */
+    private ArrayList<Row> batchRows;
+    private int batchSize;
+
     /**
      * For MySQL-style INSERT ... ON DUPLICATE KEY UPDATE ....
      */
@@ -103,7 +110,54 @@ public class Insert extends Prepared implements ResultTarget {
 
     @Override
     public int update() {
-        return insertRows();
+        startBatch();
+        int count = insertRows();
+        flushBatch();
+        return count;
+    }
+
+    @Override
+    public boolean isBatchable() {
+        return duplicateKeyAssignmentMap == null || duplicateKeyAssignmentMap.isEmpty();
+    }
+
+    @Override
+    public int[] updateBatch(ArrayList<Value[]> batchParameters) {
+        int[] result = new int[batchParameters.size()];
+        startBatch();
+        for (int i = 0; i < result.length; i++) {
+            Value[] set = batchParameters.get(i);
+            for (int j = 0; j < set.length; j++) {
+                parameters.get(j).setValue(set[j]);
+            }
+            checkParameters();
+            result[i] = insertRows();
+        }
+        flushBatch();
+        return result;
+    }
+
+    private void startBatch() {
+        batchSize = session.getDatabase().getSettings().insertBatchSize;
+        batchRows = batchSize > 1 && isBatchable() ? New.<Row>arrayList() : null;
+    }
+
+    private void addBatchRow(Row newRow) {
+        batchRows.add(newRow);
+        if (batchRows.size() >= batchSize) {
+            flushBatch();
+        }
+    }
+
+    /**
+     * Add the collected rows to the table, so that the table can group them
+     * by the data node they are stored in.
+     */
+    private void flushBatch() {
+        if (batchRows != null && !batchRows.isEmpty()) {
+            table.addRows(session, batchRows);
+            batchRows.clear();
+        }
     }
 
     private int insertRows() {
@@ -139,10 +193,14 @@ public class Insert extends Prepared implements ResultTarget {
                 //boolean done = table.fireBeforeRow(session, null, newRow);
                 //if (!done) {}
                 //table.lock(session, true, false);
-                try {
-                    table.addRow(session, newRow);
-                } catch (DbException de) {
-                    handleOnDuplicate(de);
+                if (batchRows != null) {
+                    addBatchRow(newRow);
+                } else {
+                    try {
+                        table.addRow(session, newRow);
+                    } catch (DbException de) {
+                        handleOnDuplicate(de);
+                    }
                 }
                 //table.fireAfterRow(session, null, newRow, false);
             
@@ -180,7 +238,11 @@ public class Insert extends Prepared implements ResultTarget {
         }
         //table.validateConvertUpdateSequence(session, newRow);
         //boolean done = table.fireBeforeRow(session, null, newRow);
-        table.addRow(session, newRow);
+        if (batchRows != null) {
+            addBatchRow(newRow);
+        } else {
+            table.addRow(session, newRow);
+        }
         //if (!done) {
             //table.fireAfterRow(session, null, newRow, false);
         //}
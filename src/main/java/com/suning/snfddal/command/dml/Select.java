@@ -9,10 +9,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 
 import com.suning.snfddal.api.ErrorCode;
 import com.suning.snfddal.api.Trigger;
 import com.suning.snfddal.command.CommandInterface;
+import com.suning.snfddal.command.expression.Aggregate;
 import com.suning.snfddal.command.expression.Comparison;
 import com.suning.snfddal.command.expression.ConditionAndOr;
 import com.suning.snfddal.command.expression.Expression;
@@ -20,9 +22,13 @@ import com.suning.snfddal.command.expression.ExpressionColumn;
 import com.suning.snfddal.command.expression.ExpressionVisitor;
 import com.suning.snfddal.command.expression.Parameter;
 import com.suning.snfddal.command.expression.Wildcard;
+import com.suning.snfddal.dbobject.DbObject;
 import com.suning.snfddal.dbobject.index.Cursor;
 import com.suning.snfddal.dbobject.index.Index;
 import com.suning.snfddal.dbobject.index.IndexType;
+import com.suning.snfddal.dbobject.index.MappedIndex;
+import com.suning.snfddal.dbobject.index.ResultCursor;
+import com.suning.snfddal.dbobject.table.ColocatedJoin;
 import com.suning.snfddal.dbobject.table.Column;
 import com.suning.snfddal.dbobject.table.ColumnResolver;
 import com.suning.snfddal.dbobject.table.IndexColumn;
@@ -33,6 +39,7 @@ import com.suning.snfddal.engine.Database;
 import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.engine.SysProperties;
 import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.result.LazyResult;
 import com.suning.snfddal.result.LocalResult;
 import com.suning.snfddal.result.ResultInterface;
 import com.suning.snfddal.result.ResultTarget;
@@ -71,6 +78,7 @@ public class Select extends Query {
     private int visibleColumnCount, distinctColumnCount;
     private ArrayList<SelectOrderBy> orderList;
     private ArrayList<Expression> group;
+    private final ArrayList<Expression> aggregates = New.arrayList();
     private int[] groupIndex;
     private boolean[] groupByExpression;
     private HashMap<Expression, Object> currentGroup;
@@ -82,6 +90,12 @@ public class Select extends Query {
     private boolean isPrepared, checkInit;
     private boolean sortUsingIndex;
     private SortOrder sort;
+    private IndexColumn[] pushdownSortColumns;
+    private boolean pushdownLimit;
+    private boolean pushdownAggregate;
+    private boolean pushdownJoin;
+    private Value[] currentPartialRow;
+    private HashSet<Column> referencedColumns;
     private int currentGroupRowId;
 
     public Select(Session session) {
@@ -139,6 +153,25 @@ public class Select extends Query {
         return currentGroupRowId;
     }
 
+    /**
+     * Called for each aggregate function of this query.
+     *
+     * @param aggregate the aggregate
+     */
+    public void addAggregate(Expression aggregate) {
+        aggregates.add(aggregate);
+    }
+
+    /**
+     * Get the row of partial aggregates the aggregates of the current group
+     * are merged with, if the data nodes calculate the aggregates.
+     *
+     * @return the partial aggregates, or null
+     */
+    public Value[] getCurrentPartialRow() {
+        return currentPartialRow;
+    }
+
     @Override
     public void setOrder(ArrayList<SelectOrderBy> order) {
         orderList = order;
@@ -360,8 +393,93 @@ public class Select extends Query {
                 }
             }
         }
+        addGroupRows(groups, columnCount, result);
+    }
+
+    /**
+     * Let the data nodes calculate the aggregates of each group, and merge
+     * them.
+     */
+    private void queryGroupPushdown(int columnCount, LocalResult result) {
+        int groupCount = groupIndex == null ? 0 : groupIndex.length;
+        int partialCount = groupCount;
+        for (Expression e : aggregates) {
+            partialCount += ((Aggregate) e).getPartialTypes().length;
+        }
+        int[] partialTypes = new int[partialCount];
+        Column[] groupColumns = new Column[groupCount];
+        ArrayList<Value> params = New.arrayList();
+        StatementBuilder selectList = new StatementBuilder();
+        StatementBuilder groupBy = new StatementBuilder();
+        for (int i = 0; i < groupCount; i++) {
+            Expression expr = expressions.get(groupIndex[i]).getNonAliasExpression();
+            groupColumns[i] = ((ExpressionColumn) expr).getColumn();
+            partialTypes[i] = groupColumns[i].getType();
+            String sql = expr.exportParameters(topTableFilter, params);
+            selectList.appendExceptFirst(", ");
+            selectList.append(sql);
+            groupBy.appendExceptFirst(", ");
+            groupBy.append(sql);
+        }
+        int partialIndex = groupCount;
+        for (Expression e : aggregates) {
+            Aggregate aggregate = (Aggregate) e;
+            aggregate.setPartialIndex(partialIndex);
+            for (int type : aggregate.getPartialTypes()) {
+                partialTypes[partialIndex++] = type;
+            }
+            selectList.appendExceptFirst(", ");
+            selectList.append(aggregate.exportPartialParameters(topTableFilter, params));
+        }
+        MappedIndex index = (MappedIndex) topTableFilter.getIndex();
+        Cursor cursor = index.findPartialAggregates(topTableFilter, selectList.toString(), params,
+                groupCount == 0 ? null : groupBy.toString(), partialTypes);
+        ValueHashMap<HashMap<Expression, Object>> groups =
+                ValueHashMap.newInstance();
+        ValueArray defaultGroup = ValueArray.get(new Value[0]);
+        // the group columns are read from this row
+        Row row = topTableFilter.getTable().getTemplateRow();
+        currentGroup = null;
+        try {
+            while (cursor.next()) {
+                Value[] partial = cursor.get().getValueList();
+                Value key;
+                if (groupCount == 0) {
+                    key = defaultGroup;
+                } else {
+                    Value[] keyValues = new Value[groupCount];
+                    for (int i = 0; i < groupCount; i++) {
+                        keyValues[i] = partial[i];
+                        row.setValue(groupColumns[i].getColumnId(), partial[i]);
+                    }
+                    key = ValueArray.get(keyValues);
+                }
+                HashMap<Expression, Object> values = groups.get(key);
+                if (values == null) {
+                    values = new HashMap<Expression, Object>();
+                    groups.put(key, values);
+                }
+                topTableFilter.set(row);
+                currentGroup = values;
+                currentGroupRowId++;
+                currentPartialRow = partial;
+                for (int i = 0; i < columnCount; i++) {
+                    if (groupByExpression == null || !groupByExpression[i]) {
+                        Expression expr = expressions.get(i);
+                        expr.updateAggregate(session);
+                    }
+                }
+            }
+        } finally {
+            currentPartialRow = null;
+        }
+        addGroupRows(groups, columnCount, result);
+    }
+
+    private void addGroupRows(ValueHashMap<HashMap<Expression, Object>> groups,
+            int columnCount, LocalResult result) {
         if (groupIndex == null && groups.size() == 0) {
-            groups.put(defaultGroup, new HashMap<Expression, Object>());
+            groups.put(ValueArray.get(new Value[0]), new HashMap<Expression, Object>());
         }
         ArrayList<Value> keys = groups.keys();
         for (Value v : keys) {
@@ -471,6 +589,117 @@ public class Select extends Query {
         return null;
     }
 
+    /**
+     * Get the sort order as columns of the top table filter.
+     *
+     * @return the sort columns, or null if the query is also sorted by other
+     *         expressions
+     */
+    private IndexColumn[] getTopFilterSortColumns() {
+        int[] queryColumnIndexes = sort.getQueryColumnIndexes();
+        int[] sortTypes = sort.getSortTypes();
+        ArrayList<IndexColumn> sortColumns = New.arrayList();
+        for (int i = 0; i < queryColumnIndexes.length; i++) {
+            int idx = queryColumnIndexes[i];
+            if (idx < 0 || idx >= expressions.size()) {
+                throw DbException.getInvalidValueException("ORDER BY", idx + 1);
+            }
+            Expression expr = expressions.get(idx).getNonAliasExpression();
+            if (expr.isConstant()) {
+                continue;
+            }
+            if (!(expr instanceof ExpressionColumn)) {
+                return null;
+            }
+            ExpressionColumn exprCol = (ExpressionColumn) expr;
+            if (exprCol.getTableFilter() != topTableFilter || exprCol.getColumn().getColumnId() < 0) {
+                return null;
+            }
+            IndexColumn col = new IndexColumn();
+            col.column = exprCol.getColumn();
+            col.columnName = col.column.getName();
+            col.sortType = sortTypes[i];
+            sortColumns.add(col);
+        }
+        if (sortColumns.isEmpty()) {
+            return null;
+        }
+        return sortColumns.toArray(new IndexColumn[sortColumns.size()]);
+    }
+
+    /**
+     * Check whether every part of the condition is evaluated by the top table
+     * filter itself.
+     *
+     * @return true if it is
+     */
+    private boolean isConditionOfTopFilter() {
+        if (condition == null) {
+            return true;
+        }
+        ArrayList<Expression> filterConditions = New.arrayList();
+        addConjuncts(topTableFilter.getFilterCondition(), filterConditions);
+        ArrayList<Expression> conditions = New.arrayList();
+        addConjuncts(condition, conditions);
+        for (Expression e : conditions) {
+            if (!filterConditions.contains(e)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the aggregates and the groups can be calculated by the
+     * data nodes: all aggregates can be merged, the GROUP BY list only
+     * contains columns of the top table filter, and the data nodes can
+     * evaluate the condition (it doesn't contain a subquery).
+     *
+     * @return true if they can
+     */
+    private boolean canPushdownAggregate() {
+        if (aggregates.isEmpty() && groupIndex == null) {
+            return false;
+        }
+        if (condition != null) {
+            HashSet<DbObject> tables = New.hashSet();
+            tables.add(topTableFilter.getTable());
+            if (!MappedIndex.isExportable(condition, tables)) {
+                return false;
+            }
+        }
+        for (Expression e : aggregates) {
+            if (!(e instanceof Aggregate) ||
+                    !((Aggregate) e).isPartialSupported(topTableFilter)) {
+                return false;
+            }
+        }
+        if (groupIndex != null) {
+            for (int idx : groupIndex) {
+                Expression expr = expressions.get(idx).getNonAliasExpression();
+                if (!(expr instanceof ExpressionColumn) ||
+                        ((ExpressionColumn) expr).getTableFilter() != topTableFilter) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void addConjuncts(Expression condition, ArrayList<Expression> list) {
+        if (condition instanceof ConditionAndOr) {
+            ConditionAndOr and = (ConditionAndOr) condition;
+            if (and.getAndOrType() == ConditionAndOr.AND) {
+                addConjuncts(and.getExpression(true), list);
+                addConjuncts(and.getExpression(false), list);
+                return;
+            }
+        }
+        if (condition != null) {
+            list.add(condition);
+        }
+    }
+
     private void queryDistinct(ResultTarget result, long limitRows) {
         // limitRows must be long, otherwise we get an int overflow
         // if limitRows is at or near Integer.MAX_VALUE
@@ -574,8 +803,7 @@ public class Select extends Query {
         return result;
     }
 
-    @Override
-    protected LocalResult queryWithoutCache(int maxRows, ResultTarget target) {
+    private int getLimitRows(int maxRows) {
         int limitRows = maxRows == 0 ? -1 : maxRows;
         if (limitExpr != null) {
             Value v = limitExpr.getValue(session);
@@ -586,6 +814,41 @@ public class Select extends Query {
                 limitRows = Math.min(l, limitRows);
             }
         }
+        return limitRows;
+    }
+
+    @Override
+    public ResultInterface queryLazy(int maxRows) {
+        if (!isLazyQuery()) {
+            return query(maxRows);
+        }
+        int limitRows = getLimitRows(maxRows);
+        int offset = 0;
+        if (offsetExpr != null) {
+            Value v = offsetExpr.getValue(session);
+            offset = v == ValueNull.INSTANCE ? 0 : Math.max(0, v.getInt());
+        }
+        topTableFilter.startQuery(session);
+        topTableFilter.reset();
+        topTableFilter.lock(session, false, false);
+        return new LazyResultQueryFlat(limitRows, offset);
+    }
+
+    /**
+     * Check whether the rows can be computed while the result is read, which
+     * is the case for queries that don't need to see all rows before the
+     * first row is returned: no grouping, no DISTINCT, and no sorting unless
+     * the rows are already read in the right order.
+     */
+    private boolean isLazyQuery() {
+        return session.getDatabase().getSettings().lazyQueryExecution &&
+                !isGroupQuery && !isQuickAggregateQuery && !distinct && !isDistinctQuery &&
+                !randomAccessResult && !isForUpdate && (sort == null || sortUsingIndex);
+    }
+
+    @Override
+    protected LocalResult queryWithoutCache(int maxRows, ResultTarget target) {
+        int limitRows = getLimitRows(maxRows);
         int columnCount = expressions.size();
         LocalResult result = null;
         if (target == null ||
@@ -633,7 +896,9 @@ public class Select extends Query {
             if (isQuickAggregateQuery) {
                 queryQuick(columnCount, to);
             } else if (isGroupQuery) {
-                if (isGroupSortedQuery) {
+                if (pushdownAggregate) {
+                    queryGroupPushdown(columnCount, result);
+                } else if (isGroupSortedQuery) {
                     queryGroupSorted(columnCount, to);
                 } else {
                     queryGroup(columnCount, result);
@@ -924,7 +1189,40 @@ public class Select extends Query {
                 }
             }
         }
-        if (!isQuickAggregateQuery && isGroupQuery &&
+        if (!isForUpdate && topTableFilter.getJoin() != null &&
+                session.getDatabase().getSettings().optimizeJoinPushdown) {
+            // the data nodes join the tables, the rows of the shards are merged
+            pushdownJoin = ColocatedJoin.create(topTableFilter, filters);
+        }
+        if (sort != null && !sortUsingIndex && !isQuickAggregateQuery && !isGroupQuery &&
+                !pushdownJoin && session.getDatabase().getSettings().optimizeSortPushdown) {
+            Index current = topTableFilter.getIndex();
+            IndexColumn[] sortColumns = getTopFilterSortColumns();
+            if (sortColumns != null && current instanceof MappedIndex &&
+                    ((MappedIndex) current).canPushdownSort(sortColumns)) {
+                // the shards sort the rows, and the cursor merges them
+                pushdownSortColumns = sortColumns;
+                sortUsingIndex = true;
+            }
+        }
+        if (limitExpr != null && !isQuickAggregateQuery && !isGroupQuery && !distinct && !isForUpdate &&
+                (sort == null || sortUsingIndex) && filters.size() == 1 &&
+                topTableFilter.getJoin() == null && topTableFilter.getNestedJoin() == null &&
+                isConditionOfTopFilter()) {
+            // each row the top table filter returns is a result row
+            pushdownLimit = true;
+        }
+        if (isGroupQuery && !isForUpdate && filters.size() == 1 &&
+                session.getDatabase().getSettings().optimizeAggregatePushdown &&
+                topTableFilter.getJoin() == null && topTableFilter.getNestedJoin() == null &&
+                topTableFilter.getIndex() instanceof MappedIndex &&
+                isConditionOfTopFilter() && canPushdownAggregate()) {
+            // the data nodes calculate the aggregates, only the groups are
+            // transferred
+            pushdownAggregate = true;
+            isQuickAggregateQuery = false;
+        }
+        if (!isQuickAggregateQuery && isGroupQuery && !pushdownAggregate &&
                 getGroupByExpressionCount() > 0) {
             Index index = getGroupSortedIndex();
             Index current = topTableFilter.getIndex();
@@ -934,11 +1232,48 @@ public class Select extends Query {
                 isGroupSortedQuery = true;
             }
         }
+        if (!isForUpdate) {
+            referencedColumns = collectReferencedColumns();
+        }
         expressionArray = new Expression[expressions.size()];
         expressions.toArray(expressionArray);
         isPrepared = true;
     }
 
+    /**
+     * Collect the columns the expressions, the conditions and the join
+     * conditions of this query read, including those of subqueries.
+     *
+     * @return the columns
+     */
+    private HashSet<Column> collectReferencedColumns() {
+        HashSet<Column> columns = New.hashSet();
+        ExpressionVisitor visitor = ExpressionVisitor.getColumnsVisitor(columns);
+        for (Expression e : expressions) {
+            e.isEverything(visitor);
+        }
+        if (condition != null) {
+            condition.isEverything(visitor);
+        }
+        if (having != null) {
+            having.isEverything(visitor);
+        }
+        for (TableFilter f : topFilters) {
+            addJoinConditionColumns(f, visitor);
+        }
+        return columns;
+    }
+
+    private static void addJoinConditionColumns(TableFilter f, ExpressionVisitor visitor) {
+        for (; f != null; f = f.getJoin()) {
+            Expression on = f.getJoinCondition();
+            if (on != null) {
+                on.isEverything(visitor);
+            }
+            addJoinConditionColumns(f.getNestedJoin(), visitor);
+        }
+    }
+
     @Override
     public double getCost() {
         return cost;
@@ -1138,9 +1473,14 @@ public class Select extends Query {
         if (sortUsingIndex) {
             buff.append("\n/* index sorted */");
         }
+        if (pushdownJoin) {
+            buff.append("\n/* join pushdown */");
+        }
         if (isGroupQuery) {
             if (isGroupSortedQuery) {
                 buff.append("\n/* group sorted */");
+            } else if (pushdownAggregate) {
+                buff.append("\n/* group pushdown */");
             }
         }
         // buff.append("\n/* cost: " + cost + " */");
@@ -1326,7 +1666,8 @@ public class Select extends Query {
 
     @Override
     public boolean isReadOnly() {
-        return isEverything(ExpressionVisitor.READONLY_VISITOR);
+        // rows which are locked FOR UPDATE are read from the masters
+        return !isForUpdate && isEverything(ExpressionVisitor.READONLY_VISITOR);
     }
 
 
@@ -1352,4 +1693,141 @@ public class Select extends Query {
         return sort;
     }
 
+    /**
+     * Get the columns of the given table this query reads. The other columns
+     * don't need to be read from the data nodes.
+     *
+     * @param table the table
+     * @return the columns in the order of the table, or null if all columns
+     *         are needed
+     */
+    public Column[] getReferencedColumns(Table table) {
+        if (referencedColumns == null) {
+            return null;
+        }
+        ArrayList<Column> list = New.arrayList();
+        for (Column column : table.getColumns()) {
+            if (referencedColumns.contains(column)) {
+                list.add(column);
+            }
+        }
+        if (list.isEmpty()) {
+            // for example COUNT(*), at least one column is read
+            list.add(table.getColumn(0));
+        }
+        return list.toArray(new Column[list.size()]);
+    }
+
+    /**
+     * Get the columns the top table filter has to sort its rows by, if the
+     * ORDER BY is pushed down to the data nodes.
+     *
+     * @return the sort columns, or null
+     */
+    public IndexColumn[] getPushdownSortColumns() {
+        return pushdownSortColumns;
+    }
+
+    /**
+     * Get the number of rows the top table filter needs to return at most,
+     * that is the LIMIT plus the OFFSET, if the data nodes may limit the rows.
+     *
+     * @return the number of rows, or -1 if not limited
+     */
+    public long getPushdownLimitRows() {
+        if (!pushdownLimit) {
+            return -1;
+        }
+        Value v = limitExpr.getValue(session);
+        if (v == ValueNull.INSTANCE || v.getInt() < 0) {
+            return -1;
+        }
+        long rows = v.getInt();
+        if (offsetExpr != null) {
+            v = offsetExpr.getValue(session);
+            if (v != ValueNull.INSTANCE && v.getInt() > 0) {
+                rows += v.getInt();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Computes the rows of a flat query while they are read. The cursors on
+     * the data nodes are opened when the rows are read, and are closed with
+     * the result instead of at the end of the statement.
+     */
+    private final class LazyResultQueryFlat extends LazyResult {
+
+        private final int limitRows;
+        private final int offset;
+        private final int sampleSize;
+        private final ArrayList<ResultCursor> cursors = New.arrayList();
+        private int rowNumber;
+        private int resultRows;
+
+        LazyResultQueryFlat(int limitRows, int offset) {
+            super(expressionArray, visibleColumnCount);
+            this.limitRows = limitRows;
+            this.offset = offset;
+            this.sampleSize = getSampleSizeValue(session);
+        }
+
+        @Override
+        protected Value[] fetchNextRow() {
+            if (limitRows >= 0 && resultRows >= limitRows) {
+                return null;
+            }
+            synchronized (session) {
+                ArrayList<ResultCursor> old = session.setOpenCursors(cursors);
+                try {
+                    return fetchRow();
+                } finally {
+                    session.setOpenCursors(old);
+                }
+            }
+        }
+
+        private Value[] fetchRow() {
+            int columnCount = expressions.size();
+            while ((sampleSize <= 0 || rowNumber < sampleSize) && topTableFilter.next()) {
+                setCurrentRowNumber(rowNumber + 1);
+                if (condition == null ||
+                        Boolean.TRUE.equals(condition.getBooleanValue(session))) {
+                    if (++rowNumber <= offset) {
+                        continue;
+                    }
+                    Value[] row = new Value[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        Expression expr = expressions.get(i);
+                        row[i] = expr.getValue(session);
+                    }
+                    resultRows++;
+                    return row;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void resetResult() {
+            closeResult();
+            rowNumber = 0;
+            resultRows = 0;
+            topTableFilter.reset();
+        }
+
+        @Override
+        protected void closeResult() {
+            ResultCursor[] list;
+            synchronized (cursors) {
+                list = cursors.toArray(new ResultCursor[cursors.size()]);
+                cursors.clear();
+            }
+            for (ResultCursor cursor : list) {
+                cursor.close();
+            }
+        }
+    }
+
 }
@@ -7,6 +7,7 @@ package com.suning.snfddal.command.dml;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import com.suning.snfddal.api.ErrorCode;
 import com.suning.snfddal.api.Trigger;
@@ -15,8 +16,11 @@ import com.suning.snfddal.command.Prepared;
 import com.suning.snfddal.command.expression.Expression;
 import com.suning.snfddal.command.expression.Parameter;
 import com.suning.snfddal.command.expression.ValueExpression;
+import com.suning.snfddal.dbobject.DbObject;
 import com.suning.snfddal.dbobject.Right;
+import com.suning.snfddal.dbobject.index.MappedIndex;
 import com.suning.snfddal.dbobject.table.Column;
+import com.suning.snfddal.dbobject.table.MappedTable;
 import com.suning.snfddal.dbobject.table.PlanItem;
 import com.suning.snfddal.dbobject.table.Table;
 import com.suning.snfddal.dbobject.table.TableFilter;
@@ -25,6 +29,8 @@ import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.result.ResultInterface;
 import com.suning.snfddal.result.Row;
 import com.suning.snfddal.result.RowList;
+import com.suning.snfddal.route.rule.RuleColumn;
+import com.suning.snfddal.route.rule.TableRouter;
 import com.suning.snfddal.util.New;
 import com.suning.snfddal.util.StatementBuilder;
 import com.suning.snfddal.util.StringUtils;
@@ -46,6 +52,11 @@ public class Update extends Prepared {
     private final ArrayList<Column> columns = New.arrayList();
     private final HashMap<Column, Expression> expressionMap  = New.hashMap();
 
+    /**
+     * Whether the data nodes update the rows.
+     */
+    private boolean pushdown;
+
     public Update(Session session) {
         super(session);
     }
@@ -78,9 +89,35 @@ public class Update extends Prepared {
     }
     @Override
     public int update() {
+        if (pushdown) {
+            return updatePushdown();
+        }
         return updateRows();
     }
 
+    /**
+     * Let each physical table the condition routes to update its rows with
+     * one statement. The statement triggers are still fired locally.
+     *
+     * @return the update count
+     */
+    private int updatePushdown() {
+        tableFilter.startQuery(session);
+        MappedTable table = (MappedTable) tableFilter.getTable();
+        session.getUser().checkRight(table, Right.UPDATE);
+        table.checkReadOnly();
+        table.fire(session, Trigger.UPDATE, true);
+        table.lock(session, true, false);
+        ArrayList<Expression> expressions = New.arrayList(columns.size());
+        for (Column c : columns) {
+            expressions.add(expressionMap.get(c));
+        }
+        MappedIndex index = (MappedIndex) tableFilter.getIndex();
+        int count = index.update(tableFilter, condition, columns, expressions);
+        table.fire(session, Trigger.UPDATE, false);
+        return count;
+    }
+
     protected int updateRows() {
         tableFilter.startQuery(session);
         tableFilter.reset();
@@ -192,6 +229,46 @@ public class Update extends Prepared {
         PlanItem item = tableFilter.getBestPlanItem(session, 1);
         tableFilter.setPlanItem(item);
         tableFilter.prepare();
+        pushdown = canPushdown();
+    }
+
+    /**
+     * Check whether the data nodes can update the rows. This is not possible
+     * if the rows are needed locally (for row triggers, constraints and
+     * LIMIT), if an expression can't be evaluated by the data nodes, or if a
+     * rule column is updated, as the row may then move to another table.
+     *
+     * @return true if the update can be pushed down
+     */
+    private boolean canPushdown() {
+        if (limitExpr != null || !(tableFilter.getIndex() instanceof MappedIndex) ||
+                !session.getDatabase().getSettings().optimizeUpdatePushdown) {
+            return false;
+        }
+        MappedTable table = (MappedTable) tableFilter.getTable();
+        if (table.fireRow()) {
+            return false;
+        }
+        HashSet<DbObject> tables = New.hashSet();
+        tables.add(table);
+        if (condition != null && !MappedIndex.isExportable(condition, tables)) {
+            return false;
+        }
+        TableRouter router = table.getTableRouter();
+        for (Column c : columns) {
+            Expression e = expressionMap.get(c);
+            if (e == ValueExpression.getDefault() || !MappedIndex.isExportable(e, tables)) {
+                return false;
+            }
+            if (router != null) {
+                for (RuleColumn ruleColumn : router.getRuleColumns()) {
+                    if (ruleColumn.getName().equalsIgnoreCase(c.getName())) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
     }
 
     @Override
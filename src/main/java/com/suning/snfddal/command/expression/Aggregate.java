@@ -131,6 +131,7 @@ public class Aggregate extends Expression {
     private long precision;
     private int displaySize;
     private int lastGroupRowId;
+    private int partialIndex;
 
     /**
      * Create a new aggregate object.
@@ -244,6 +245,11 @@ public class Aggregate extends Expression {
             data = AggregateData.create(type);
             group.put(this, data);
         }
+        Value[] partial = select.getCurrentPartialRow();
+        if (partial != null) {
+            data.merge(session.getDatabase(), dataType, partial, partialIndex);
+            return;
+        }
         Value v = on == null ? null : on.getValue(session);
         if (type == GROUP_CONCAT) {
             if (v != ValueNull.INSTANCE) {
@@ -550,6 +556,86 @@ public class Aggregate extends Expression {
         return text + StringUtils.enclose(on.getSQL());
     }
 
+    /**
+     * Check whether the data nodes can calculate partial results of this
+     * aggregate, which are then merged. This is the case for COUNT, SUM, MIN,
+     * MAX and AVG of a column of the given table filter, and COUNT of a
+     * constant, without DISTINCT.
+     *
+     * @param filter the table filter
+     * @return true if partial results can be merged
+     */
+    public boolean isPartialSupported(TableFilter filter) {
+        if (distinct) {
+            return false;
+        }
+        switch (type) {
+        case COUNT_ALL:
+            return true;
+        case COUNT:
+            if (on.isConstant()) {
+                return true;
+            }
+            return on instanceof ExpressionColumn &&
+                    ((ExpressionColumn) on).getTableFilter() == filter;
+        case SUM:
+        case MIN:
+        case MAX:
+        case AVG:
+            return on instanceof ExpressionColumn &&
+                    ((ExpressionColumn) on).getTableFilter() == filter;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Set the index of the first partial result of this aggregate within the
+     * rows the data nodes return.
+     *
+     * @param index the index
+     */
+    public void setPartialIndex(int index) {
+        this.partialIndex = index;
+    }
+
+    /**
+     * Get the data types of the partial results. AVG is calculated as SUM and
+     * COUNT, all other aggregates have one partial result.
+     *
+     * @return the data types
+     */
+    public int[] getPartialTypes() {
+        switch (type) {
+        case COUNT_ALL:
+        case COUNT:
+            return new int[] { Value.LONG };
+        case AVG:
+            return new int[] { DataType.getAddProofType(dataType), Value.LONG };
+        default:
+            return new int[] { dataType };
+        }
+    }
+
+    /**
+     * Get the SQL of the partial results for the data nodes.
+     *
+     * @param filter the table filter
+     * @param container the parameter list
+     * @return the comma separated list of partial aggregates
+     */
+    public String exportPartialParameters(TableFilter filter, List<Value> container) {
+        if (type == COUNT && on.isConstant()) {
+            // COUNT(1) counts the rows
+            return on.getValue(filter.getSession()) == ValueNull.INSTANCE ? "0" : "COUNT(*)";
+        }
+        if (type != AVG) {
+            return exportParameters(filter, container);
+        }
+        String column = StringUtils.unEnclose(on.exportParameters(filter, container));
+        return "SUM(" + column + "), COUNT(" + column + ")";
+    }
+
     private Index getColumnIndex() {
         if (on instanceof ExpressionColumn) {
             ExpressionColumn col = (ExpressionColumn) on;
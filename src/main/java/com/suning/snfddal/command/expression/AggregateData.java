@@ -45,6 +45,20 @@ abstract class AggregateData {
      */
     abstract void add(Database database, int dataType, boolean distinct, Value v);
 
+    /**
+     * Merge the partial result a data node calculated for a part of the rows
+     * into this aggregate. This is only supported for COUNT, SUM, MIN, MAX
+     * and AVG without DISTINCT.
+     *
+     * @param database the database
+     * @param dataType the datatype of the computed result
+     * @param partial the row of partial results
+     * @param index the index of the first partial result of this aggregate
+     */
+    void merge(Database database, int dataType, Value[] partial, int index) {
+        add(database, dataType, false, partial[index]);
+    }
+
     /**
      * Get the aggregate result.
      *
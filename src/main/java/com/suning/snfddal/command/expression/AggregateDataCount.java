@@ -33,6 +33,14 @@ class AggregateDataCount extends AggregateData {
         }
     }
 
+    @Override
+    void merge(Database database, int dataType, Value[] partial, int index) {
+        Value v = partial[index];
+        if (v != ValueNull.INSTANCE) {
+            count += v.getLong();
+        }
+    }
+
     @Override
     Value getValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
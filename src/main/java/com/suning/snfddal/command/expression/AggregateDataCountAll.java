@@ -25,6 +25,14 @@ class AggregateDataCountAll extends AggregateData {
         count++;
     }
 
+    @Override
+    void merge(Database database, int dataType, Value[] partial, int index) {
+        Value v = partial[index];
+        if (v != ValueNull.INSTANCE) {
+            count += v.getLong();
+        }
+    }
+
     @Override
     Value getValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
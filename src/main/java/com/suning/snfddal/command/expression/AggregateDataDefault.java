@@ -113,6 +113,25 @@ class AggregateDataDefault extends AggregateData {
         }
     }
 
+    @Override
+    void merge(Database database, int dataType, Value[] partial, int index) {
+        if (aggregateType != Aggregate.AVG) {
+            add(database, dataType, false, partial[index]);
+            return;
+        }
+        // the partial result of AVG is the sum and the count
+        Value v = partial[index];
+        if (v == ValueNull.INSTANCE) {
+            return;
+        }
+        if (value == null) {
+            value = v.convertTo(DataType.getAddProofType(dataType));
+        } else {
+            value = value.add(v.convertTo(value.getType()));
+        }
+        count += partial[index + 1].getLong();
+    }
+
     @Override
     Value getValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
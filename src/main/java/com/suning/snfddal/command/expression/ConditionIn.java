@@ -210,6 +210,15 @@ public class ConditionIn extends Condition {
     }
     
     
+    /**
+     * Get the left hand side of the IN condition.
+     *
+     * @return the left expression
+     */
+    public Expression getLeft() {
+        return left;
+    }
+
     @Override
     public String exportParameters(TableFilter filter, List<Value> container) {
         StatementBuilder buff = new StatementBuilder("(");
@@ -169,6 +169,15 @@ public class ConditionInConstantSet extends Condition {
         return null;
     }
 
+    /**
+     * Get the left hand side of the IN condition.
+     *
+     * @return the left expression
+     */
+    public Expression getLeft() {
+        return left;
+    }
+
     @Override
     public String exportParameters(TableFilter filter, List<Value> container) {
         StatementBuilder buff = new StatementBuilder("(");
@@ -187,6 +187,25 @@ public class ConditionInSelect extends Condition {
     }
 
 
+    /**
+     * Get the left hand side of the condition.
+     *
+     * @return the left expression
+     */
+    public Expression getLeft() {
+        return left;
+    }
+
+    /**
+     * Check whether this is an IN(SELECT ..) condition, and not a comparison
+     * with ALL or ANY.
+     *
+     * @return true if it is
+     */
+    public boolean isIn() {
+        return !all && compareType == Comparison.EQUAL;
+    }
+
     @Override
     public String exportParameters(TableFilter filter, List<Value> container) {
         StringBuilder buff = new StringBuilder();
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.command.expression;
+
+import java.util.ArrayList;
+
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.value.Value;
+
+/**
+ * The parameters of an exported condition, together with the expressions
+ * they were read from. The text of the condition does not change between
+ * executions of a prepared statement, so the parameters of a later execution
+ * can be read again from the same expressions without exporting it again.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class ExportedParameters extends ArrayList<Value> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<Expression> sources = New.arrayList();
+
+    /**
+     * Add a parameter.
+     *
+     * @param source the expression
+     * @param value the current value of the expression
+     */
+    void add(Expression source, Value value) {
+        sources.add(source);
+        add(value);
+    }
+
+    /**
+     * Get the expressions of the parameters, in the order of the parameters.
+     *
+     * @return the expressions
+     */
+    public Expression[] getSources() {
+        Expression[] list = new Expression[sources.size()];
+        sources.toArray(list);
+        return list;
+    }
+
+    /**
+     * Read the current values of the given expressions.
+     *
+     * @param session the session
+     * @param sources the expressions
+     * @return the parameters
+     */
+    public static ArrayList<Value> getValues(Session session, Expression[] sources) {
+        ArrayList<Value> list = New.arrayList(sources.length);
+        for (Expression e : sources) {
+            list.add(e.getValue(session));
+        }
+        return list;
+    }
+
+}
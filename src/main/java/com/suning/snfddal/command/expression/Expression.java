@@ -308,6 +308,23 @@ public abstract class Expression {
         return getSQL();
     }
 
+    /**
+     * Add a parameter of an exported condition. If the container keeps
+     * track of the expressions of the parameters, this expression is added
+     * as well.
+     *
+     * @param container the parameters container
+     * @param source the expression which the value was read from
+     * @param value the value
+     */
+    protected static void addParameter(List<Value> container, Expression source, Value value) {
+        if (container instanceof ExportedParameters) {
+            ((ExportedParameters) container).add(source, value);
+        } else {
+            container.add(value);
+        }
+    }
+
     /**
      * Extracts expression columns from ValueArray
      *
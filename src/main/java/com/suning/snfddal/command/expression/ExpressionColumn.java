@@ -327,11 +327,12 @@ public class ExpressionColumn extends Expression {
     
     @Override
     public String exportParameters(TableFilter filter,List<Value> container) {
-        if (getTableFilter() == filter) {
-            return getSQL();
+        if (filter.isReadTogether(getTableFilter())) {
+            // UPDATE and DELETE are sent without the table alias
+            return filter.getSelect() == null ? column.getSQL() : getSQL();
         }
         Value value = this.getValue(filter.getSession());
-        container.add(value);
+        addParameter(container, this, value);
         return "?";
     }
 
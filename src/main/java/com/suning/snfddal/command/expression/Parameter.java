@@ -184,7 +184,7 @@ public class Parameter extends Expression implements ParameterInterface {
     }
     @Override
     public String exportParameters(TableFilter filter, List<Value> container) {
-        container.add(value);
+        addParameter(container, this, value);
         return "?";
     }
 
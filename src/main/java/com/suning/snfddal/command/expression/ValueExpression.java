@@ -186,7 +186,7 @@ public class ValueExpression extends Expression {
         if (this == DEFAULT) {
             return "DEFAULT";
         }
-        container.add(value);
+        addParameter(container, this, value);
         return "?";
     }
 }
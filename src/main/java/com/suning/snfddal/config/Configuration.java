@@ -234,6 +234,7 @@ public class Configuration {
         private String name;
         private String description;
         private Properties properties;
+        private Map<String, Integer> replicas = New.linkedHashMap();
 
         /**
          * @return the name
@@ -276,6 +277,21 @@ public class Configuration {
             this.properties = properties;
         }
 
+        /**
+         * @return the data sources of the replicas, and their weights
+         */
+        public Map<String, Integer> getReplicas() {
+            return replicas;
+        }
+
+        /**
+         * @param id the data source of a replica
+         * @param weight the share of the reads the replica gets
+         */
+        public void addReplica(String id, int weight) {
+            replicas.put(id, weight);
+        }
+
         @Override
         public int hashCode() {
             final int prime = 31;
@@ -90,10 +90,40 @@ public class XmlConfigParser {
             shardConfig.setName(name);
             shardConfig.setDescription(description);
             shardConfig.setProperties(properties);
+            parseReplicas(shardConfig, properties.getProperty("replicas"));
             configuration.addShard(name, shardConfig);
         }
     }
 
+    /**
+     * Parse the replicas of a shard, a comma separated list of data source
+     * ids, each optionally followed by a colon and its weight, for example
+     * <code>db1s:2,db1t</code>.
+     */
+    private static void parseReplicas(ShardConfig shardConfig, String replicas) {
+        if (StringUtils.isNullOrEmpty(replicas)) {
+            return;
+        }
+        for (String replica : StringUtils.arraySplit(replicas, ',', true)) {
+            String id = replica;
+            int weight = 1;
+            int idx = replica.indexOf(':');
+            if (idx >= 0) {
+                id = replica.substring(0, idx).trim();
+                try {
+                    weight = Integer.parseInt(replica.substring(idx + 1).trim());
+                } catch (NumberFormatException e) {
+                    weight = 0;
+                }
+            }
+            if (StringUtils.isNullOrEmpty(id) || weight <= 0) {
+                throw new ParsingException("Error parsing ddal-config XML . Cause: invalid replica " + replica
+                        + " of shard " + shardConfig.getName() + ".");
+            }
+            shardConfig.addReplica(id, weight);
+        }
+    }
+
     private void parseDataSource(List<XNode> xNodes) {
         for (XNode dataSourceNode : xNodes) {
             DataSourceConfig dsConfig = new DataSourceConfig();
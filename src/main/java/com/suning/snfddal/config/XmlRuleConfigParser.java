@@ -157,6 +157,7 @@ public class XmlRuleConfigParser {
         RuleExpression rule = new RuleExpression();
         rule.setExpression(expression);
         rule.setRuleColumns(ruleColumns);
+        rule.setMonotonic(xNode.getBooleanAttribute("monotonic", false));
         return rule;
     }
 
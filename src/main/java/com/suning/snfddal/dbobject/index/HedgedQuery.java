@@ -0,0 +1,218 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.dbobject.index;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+import com.suning.snfddal.dbobject.table.Column;
+import com.suning.snfddal.dbobject.table.MappedTable;
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.route.HedgePolicy;
+import com.suning.snfddal.route.ShardGroup;
+import com.suning.snfddal.route.ShardHealth;
+import com.suning.snfddal.route.StatementCache;
+import com.suning.snfddal.util.JdbcUtils;
+import com.suning.snfddal.value.Value;
+
+/**
+ * A query on a replica of a data node, which is sent again to another
+ * replica if it takes longer than usual. The calling thread runs the first
+ * query, and the hedge runs in a thread of the multi node executor. The query
+ * which finishes first is used, and the other one is canceled.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+class HedgedQuery implements Runnable {
+
+    private static final int RUNNING = 0, PRIMARY_DONE = 1, HEDGE_DONE = 2;
+
+    private final HedgePolicy policy;
+    private final MappedTable table;
+    private final Session session;
+    private final ShardGroup group;
+    private final String sql;
+    private final List<Value> params;
+
+    private int state;
+    private Connection primaryConn;
+    private PreparedStatement primary;
+    private Connection hedgeConn;
+    private PreparedStatement hedge;
+    private boolean recorded;
+
+    HedgedQuery(HedgePolicy policy, MappedTable table, Session session, ShardGroup group, String sql,
+            List<Value> params) {
+        this.policy = policy;
+        this.table = table;
+        this.session = session;
+        this.group = group;
+        this.sql = sql;
+        this.params = params;
+    }
+
+    /**
+     * Run the query.
+     *
+     * @param columns the columns of the result set, or null
+     * @param columnTypes the data types of the columns, or null
+     * @return the cursor, or null if the connection is broken and the query
+     *         needs to run again without hedging
+     */
+    ResultCursor execute(Column[] columns, int[] columnTypes) throws SQLException {
+        String shardName = group.getName();
+        Connection conn = session.getDataNodeConnection(shardName);
+        ShardHealth health = group.getHealth(conn);
+        if (health != null) {
+            health.begin();
+        }
+        try {
+            return execute(conn, health, columns, columnTypes);
+        } finally {
+            if (health != null && !recorded) {
+                // the hedge won, or the query failed before it was sent
+                health.canceled();
+            }
+        }
+    }
+
+    private ResultCursor execute(Connection conn, ShardHealth health, Column[] columns, int[] columnTypes)
+            throws SQLException {
+        String shardName = group.getName();
+        long start = System.nanoTime();
+        PreparedStatement prep = null;
+        SQLException error = null;
+        ScheduledFuture<?> timer = null;
+        try {
+            prep = table.prepare(conn, sql, params);
+            synchronized (this) {
+                primaryConn = conn;
+                primary = prep;
+            }
+            timer = policy.schedule(shardName, this, session.getDatabase().getMultiNodeExecutor());
+            session.startDataNodeStatement(prep);
+            try {
+                prep.execute();
+            } finally {
+                session.endDataNodeStatement(prep);
+            }
+        } catch (SQLException e) {
+            error = e;
+        }
+        long nanos = System.nanoTime() - start;
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        PreparedStatement loser;
+        synchronized (this) {
+            if (state == HEDGE_DONE) {
+                // the query was canceled
+                JdbcUtils.closeSilently(prep);
+                ResultCursor cursor = new ResultCursor(table, shardName, hedgeConn, sql, hedge, session,
+                        columns, columnTypes);
+                cursor.setConnectionOwner(group);
+                return cursor;
+            }
+            state = PRIMARY_DONE;
+            loser = hedge;
+        }
+        cancel(loser);
+        if (error != null) {
+            JdbcUtils.closeSilently(prep);
+            // the statement may have been canceled
+            session.checkCanceled();
+        }
+        if (health != null) {
+            health.record(nanos, error);
+            recorded = true;
+        }
+        if (error != null) {
+            if (ShardHealth.isConnectionError(error) && session.discardDataNodeConnection(shardName, conn)) {
+                return null;
+            }
+            throw error;
+        }
+        policy.record(shardName, nanos, false);
+        return new ResultCursor(table, shardName, conn, sql, prep, session, columns, columnTypes);
+    }
+
+    /**
+     * Send the hedge. This is called once the first query runs longer than
+     * usual.
+     */
+    @Override
+    public void run() {
+        Connection conn = null;
+        PreparedStatement prep = null;
+        try {
+            Connection first;
+            synchronized (this) {
+                if (state != RUNNING) {
+                    return;
+                }
+                first = primaryConn;
+            }
+            conn = group.getHedgeConnection(first);
+            if (conn == null) {
+                return;
+            }
+            long start = System.nanoTime();
+            prep = table.prepare(conn, sql, params);
+            synchronized (this) {
+                if (state != RUNNING) {
+                    return;
+                }
+                hedge = prep;
+            }
+            session.startDataNodeStatement(prep);
+            try {
+                prep.execute();
+            } finally {
+                session.endDataNodeStatement(prep);
+            }
+            long nanos = System.nanoTime() - start;
+            PreparedStatement loser;
+            synchronized (this) {
+                if (state != RUNNING) {
+                    return;
+                }
+                state = HEDGE_DONE;
+                hedgeConn = conn;
+                loser = primary;
+                // the cursor closes them
+                conn = null;
+                prep = null;
+            }
+            policy.record(group.getName(), nanos, true);
+            cancel(loser);
+        } catch (SQLException e) {
+            // the first query may still succeed
+        } finally {
+            JdbcUtils.closeSilently(prep);
+            if (conn != null) {
+                StatementCache cache = session.getDatabase().getStatementCache();
+                if (cache != null) {
+                    cache.closeStatements(conn);
+                }
+                group.closeReplicaConnection(conn);
+            }
+        }
+    }
+
+    private static void cancel(PreparedStatement prep) {
+        if (prep != null) {
+            try {
+                prep.cancel();
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+    }
+
+}
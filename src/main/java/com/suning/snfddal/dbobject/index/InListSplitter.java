@@ -0,0 +1,215 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.dbobject.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.suning.snfddal.command.expression.Comparison;
+import com.suning.snfddal.command.expression.ConditionAndOr;
+import com.suning.snfddal.command.expression.ConditionIn;
+import com.suning.snfddal.command.expression.ConditionInConstantSet;
+import com.suning.snfddal.command.expression.ConditionInSelect;
+import com.suning.snfddal.command.expression.Expression;
+import com.suning.snfddal.command.expression.ExpressionColumn;
+import com.suning.snfddal.dbobject.table.Column;
+import com.suning.snfddal.dbobject.table.MappedTable;
+import com.suning.snfddal.dbobject.table.TableFilter;
+import com.suning.snfddal.route.rule.RoutingResult;
+import com.suning.snfddal.route.rule.RuleColumn;
+import com.suning.snfddal.route.rule.TableRouter;
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.util.StatementBuilder;
+import com.suning.snfddal.util.StringUtils;
+import com.suning.snfddal.value.Value;
+
+/**
+ * Rewrites the query condition per physical table, so that an
+ * <code>IN(..)</code> condition on a rule column only contains the values
+ * which route to that table. An <code>IN(SELECT ..)</code> condition, whose
+ * subquery was evaluated locally, is replaced by the values of the subquery.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+class InListSplitter {
+
+    private final TableFilter filter;
+    private final String ruleColumn;
+    private final Value[] inList;
+    private final List<Expression> otherConditions;
+    private final Expression inCondition;
+
+    private InListSplitter(TableFilter filter, String ruleColumn, Value[] inList, Expression inCondition,
+            List<Expression> otherConditions) {
+        this.filter = filter;
+        this.ruleColumn = ruleColumn;
+        this.inList = inList;
+        this.inCondition = inCondition;
+        this.otherConditions = otherConditions;
+    }
+
+    /**
+     * Create a splitter if the condition of the table filter contains exactly
+     * one IN(..) list on a rule column, and the routing tracked the values of
+     * that column per table. The values of an IN(SELECT ..) condition are
+     * always used, even if they can not be split.
+     *
+     * @param filter the table filter
+     * @param table the mapped table
+     * @param shards the routing result
+     * @param conditions the index conditions which were used for routing
+     * @param inQuery the IN(..) list with the values of an IN(SELECT ..)
+     *            condition, or null
+     * @return the splitter, or null if the IN list can not be split
+     */
+    static InListSplitter create(TableFilter filter, MappedTable table, List<RoutingResult.MatchedShard> shards,
+            List<IndexCondition> conditions, IndexCondition inQuery) {
+        TableRouter tr = table.getTableRouter();
+        Expression condition = filter.getFilterCondition();
+        if (condition == null || shards.isEmpty()) {
+            return null;
+        }
+        IndexCondition inIndexCondition = inQuery;
+        if (inIndexCondition == null) {
+            for (IndexCondition ic : conditions) {
+                if (ic.getCompareType() == Comparison.IN_LIST) {
+                    if (inIndexCondition != null) {
+                        return null;
+                    }
+                    inIndexCondition = ic;
+                }
+            }
+        }
+        if (inIndexCondition == null) {
+            return null;
+        }
+        Column column = inIndexCondition.getColumn();
+        String ruleColumn = null;
+        if (tr != null) {
+            for (RuleColumn rc : tr.getRuleColumns()) {
+                if (rc.getName().equalsIgnoreCase(column.getName())) {
+                    ruleColumn = rc.getName();
+                    break;
+                }
+            }
+        }
+        if (ruleColumn == null && inQuery == null) {
+            return null;
+        }
+        ArrayList<Expression> conjuncts = New.arrayList();
+        addConjuncts(condition, conjuncts);
+        Expression inCondition = null;
+        for (Expression e : conjuncts) {
+            if (inQuery == null ? isInCondition(e, filter, column) : isInQueryCondition(e, filter, column)) {
+                if (inCondition != null) {
+                    return null;
+                }
+                inCondition = e;
+            }
+        }
+        if (inCondition == null) {
+            return null;
+        }
+        conjuncts.remove(inCondition);
+        Value[] inList = inIndexCondition.getCurrentValueList(filter.getSession());
+        return new InListSplitter(filter, ruleColumn, inList, inCondition, conjuncts);
+    }
+
+    private static void addConjuncts(Expression condition, List<Expression> list) {
+        if (condition instanceof ConditionAndOr) {
+            ConditionAndOr and = (ConditionAndOr) condition;
+            if (and.getAndOrType() == ConditionAndOr.AND) {
+                addConjuncts(and.getExpression(true), list);
+                addConjuncts(and.getExpression(false), list);
+                return;
+            }
+        }
+        list.add(condition);
+    }
+
+    private static boolean isInCondition(Expression e, TableFilter filter, Column column) {
+        Expression left;
+        if (e instanceof ConditionIn) {
+            left = ((ConditionIn) e).getLeft();
+        } else if (e instanceof ConditionInConstantSet) {
+            left = ((ConditionInConstantSet) e).getLeft();
+        } else {
+            return false;
+        }
+        return isColumn(left, filter, column);
+    }
+
+    private static boolean isInQueryCondition(Expression e, TableFilter filter, Column column) {
+        if (!(e instanceof ConditionInSelect) || !((ConditionInSelect) e).isIn()) {
+            return false;
+        }
+        return isColumn(((ConditionInSelect) e).getLeft(), filter, column);
+    }
+
+    private static boolean isColumn(Expression e, TableFilter filter, Column column) {
+        if (!(e instanceof ExpressionColumn)) {
+            return false;
+        }
+        ExpressionColumn col = (ExpressionColumn) e;
+        return col.getTableFilter() == filter && col.getColumn() == column;
+    }
+
+    private static Expression getLeft(Expression inCondition) {
+        if (inCondition instanceof ConditionIn) {
+            return ((ConditionIn) inCondition).getLeft();
+        } else if (inCondition instanceof ConditionInConstantSet) {
+            return ((ConditionInConstantSet) inCondition).getLeft();
+        }
+        return ((ConditionInSelect) inCondition).getLeft();
+    }
+
+    /**
+     * Get the condition for the given physical table.
+     *
+     * @param shard the matched shard
+     * @param table the table name
+     * @param params the parameter list to add the parameters to
+     * @return the condition, or null if the routed values are unknown
+     */
+    String getCondition(RoutingResult.MatchedShard shard, String table, List<Value> params) {
+        Set<Value> routed = ruleColumn == null ? null : shard.getRoutedValues(table, ruleColumn);
+        if (routed == null && !(inCondition instanceof ConditionInSelect)) {
+            return null;
+        }
+        StatementBuilder buff = new StatementBuilder();
+        for (Expression e : otherConditions) {
+            buff.appendExceptFirst(" AND ");
+            buff.append(e.exportParameters(filter, params));
+        }
+        buff.appendExceptFirst(" AND ");
+        Expression left = getLeft(inCondition);
+        int count = 0;
+        for (Value v : inList) {
+            if (routed == null || routed.contains(v)) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            // none of the values route to this table
+            buff.append("1=0");
+        } else {
+            // the column belongs to this filter, so it has no parameters
+            buff.append(StringUtils.unEnclose(left.exportParameters(filter, params))).append(" IN(");
+            buff.resetCount();
+            for (Value v : inList) {
+                if (routed == null || routed.contains(v)) {
+                    buff.appendExceptFirst(", ");
+                    buff.append('?');
+                    params.add(v);
+                }
+            }
+            buff.append(')');
+        }
+        return buff.toString();
+    }
+
+}
@@ -321,6 +321,16 @@ public class IndexCondition {
         return column;
     }
 
+    /**
+     * Get the expression the column is compared with. This is null for
+     * IN(..) and IN(SELECT ...) conditions.
+     *
+     * @return the expression, or null
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
     /**
      * Check if the expression can be evaluated.
      *
@@ -143,6 +143,10 @@ public class IndexCursor implements Cursor {
                 }
             }
         }
+        if (index instanceof MappedIndex) {
+            findMapped(indexConditions);
+            return;
+        }
         if (inColumn != null) {
             return;
         }
@@ -151,6 +155,30 @@ public class IndexCursor implements Cursor {
         }
     }
 
+    /**
+     * The data nodes evaluate the index conditions of a mapped table, and an
+     * IN(..) list is split by the routing. The subquery of an IN(SELECT ..)
+     * condition can't run on the data nodes, it is evaluated in
+     * {@link #nextCursor()}.
+     */
+    private void findMapped(ArrayList<IndexCondition> indexConditions) {
+        inColumn = null;
+        inList = null;
+        inResult = null;
+        if (alwaysFalse || isAlwaysFalse(start, end)) {
+            return;
+        }
+        for (int i = 0, size = indexConditions.size(); i < size; i++) {
+            IndexCondition condition = indexConditions.get(i);
+            if (condition.getCompareType() == Comparison.IN_QUERY) {
+                inColumn = condition.getColumn();
+                inResult = condition.getCurrentResult();
+                return;
+            }
+        }
+        cursor = index.find(tableFilter, start, end);
+    }
+
     private boolean canUseIndexForIn(Column column) {
         if (inColumn != null) {
             // only one IN(..) condition can be used at the same time
@@ -253,6 +281,14 @@ public class IndexCursor implements Cursor {
 
     private void nextCursor() {
         if(index instanceof MappedIndex) {
+            if (inResult != null) {
+                // the subquery runs here, the data nodes only get its values
+                Value[] values = readInResult();
+                inResult = null;
+                if (values.length > 0) {
+                    cursor = ((MappedIndex) index).findIn(tableFilter, inColumn, values);
+                }
+            }
             return;
         }
         if (inList != null) {
@@ -280,6 +316,19 @@ public class IndexCursor implements Cursor {
         }
     }
 
+    private Value[] readInResult() {
+        if (inResultTested == null) {
+            inResultTested = new HashSet<Value>();
+        }
+        while (inResult.next()) {
+            Value v = inResult.currentRow()[0];
+            if (v != ValueNull.INSTANCE) {
+                inResultTested.add(inColumn.convert(v));
+            }
+        }
+        return inResultTested.toArray(new Value[inResultTested.size()]);
+    }
+
     private void find(Value v) {
         v = inColumn.convert(v);
         int id = inColumn.getColumnId();
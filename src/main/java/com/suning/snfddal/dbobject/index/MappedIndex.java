@@ -5,34 +5,57 @@
  */
 package com.suning.snfddal.dbobject.index;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.suning.snfddal.command.dml.Select;
+import com.suning.snfddal.command.expression.Comparison;
+import com.suning.snfddal.command.expression.ExportedParameters;
 import com.suning.snfddal.command.expression.Expression;
+import com.suning.snfddal.command.expression.ExpressionColumn;
+import com.suning.snfddal.command.expression.ExpressionVisitor;
 import com.suning.snfddal.command.expression.Parameter;
+import com.suning.snfddal.command.expression.ValueExpression;
+import com.suning.snfddal.dbobject.DbObject;
+import com.suning.snfddal.dbobject.table.ColocatedJoin;
 import com.suning.snfddal.dbobject.table.Column;
 import com.suning.snfddal.dbobject.table.IndexColumn;
+import com.suning.snfddal.dbobject.table.JoinBatch;
 import com.suning.snfddal.dbobject.table.MappedTable;
 import com.suning.snfddal.dbobject.table.TableFilter;
 import com.suning.snfddal.engine.Constants;
+import com.suning.snfddal.engine.Mode;
 import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.result.Row;
 import com.suning.snfddal.result.SearchRow;
 import com.suning.snfddal.result.SortOrder;
-import com.suning.snfddal.route.MultiNodeExecutor;
+import com.suning.snfddal.route.HedgePolicy;
+import com.suning.snfddal.route.NodeCallable;
+import com.suning.snfddal.route.NodeExecution;
+import com.suning.snfddal.route.NodeExecutor;
 import com.suning.snfddal.route.RoutingHandler;
+import com.suning.snfddal.route.ShardGroup;
 import com.suning.snfddal.route.TableRoutingException;
 import com.suning.snfddal.route.rule.RoutingResult;
+import com.suning.snfddal.route.rule.RuleColumn;
+import com.suning.snfddal.route.rule.TableTopology;
 import com.suning.snfddal.util.New;
+import com.suning.snfddal.util.SmallLRUCache;
 import com.suning.snfddal.util.StatementBuilder;
 import com.suning.snfddal.util.StringUtils;
+import com.suning.snfddal.value.CompareMode;
+import com.suning.snfddal.value.DataType;
 import com.suning.snfddal.value.Value;
 import com.suning.snfddal.value.ValueNull;
 
@@ -44,9 +67,23 @@ public class MappedIndex extends BaseIndex {
     
     private static final Pattern ARG_PATTERN = Pattern.compile("\\?[0-9]+");
 
+    private static final int INSERT_CACHE_SIZE = 1024;
+
     private final MappedTable mappedTable;
     private final String targetTableName;
-    private long rowCount;
+
+    /**
+     * The approximate number of rows. Statements of several sessions change
+     * it at the same time.
+     */
+    private final AtomicLong rowCount = new AtomicLong();
+
+    /**
+     * The INSERT statements per physical table and columns which use the
+     * default value.
+     */
+    private final SmallLRUCache<String, String> insertStatements =
+            SmallLRUCache.newInstance(INSERT_CACHE_SIZE);
     
     private RoutingHandler routingHandler;
 
@@ -74,38 +111,135 @@ public class MappedIndex extends BaseIndex {
 
     @Override
     public void add(Session session, Row row) {
+        RoutingResult.MatchedShard shard = route(row);
+        String shardName = shard.getShardName();
+        ArrayList<Value> params = New.arrayList();
+        String sql = buildInsertSql(shard.getTables()[0], row, params);
+        try {
+            mappedTable.execute(session, shardName, sql, params, true);
+            rowCount.incrementAndGet();
+        } catch (Exception e) {
+            throw MappedTable.wrapException(sql, e);
+        }
+    }
+
+    /**
+     * Add a list of rows. The rows are grouped by the physical table they
+     * are routed to, each group is sent to the data node as one JDBC batch,
+     * and the shards are written in parallel. The rows of a batch are
+     * counted once it was written, even if another shard fails.
+     *
+     * @param session the session
+     * @param rows the rows
+     */
+    public void add(final Session session, List<Row> rows) {
+        if (rows.size() == 1) {
+            add(session, rows.get(0));
+            return;
+        }
+        // shard name -> insert statement -> parameter lists
+        HashMap<String, HashMap<String, ArrayList<List<Value>>>> shards = New.hashMap();
+        for (Row row : rows) {
+            RoutingResult.MatchedShard shard = route(row);
+            ArrayList<Value> params = New.arrayList();
+            String sql = buildInsertSql(shard.getTables()[0], row, params);
+            HashMap<String, ArrayList<List<Value>>> statements = shards.get(shard.getShardName());
+            if (statements == null) {
+                statements = New.hashMap();
+                shards.put(shard.getShardName(), statements);
+            }
+            ArrayList<List<Value>> batch = statements.get(sql);
+            if (batch == null) {
+                batch = New.arrayList();
+                statements.put(sql, batch);
+            }
+            batch.add(params);
+        }
+        List<NodeCallable<Void>> callables = New.arrayList(shards.size());
+        for (Map.Entry<String, HashMap<String, ArrayList<List<Value>>>> e : shards.entrySet()) {
+            final String shardName = e.getKey();
+            final HashMap<String, ArrayList<List<Value>>> statements = e.getValue();
+            callables.add(new NodeCallable<Void>(shardName) {
+                @Override
+                public Void call() throws Exception {
+                    // the statements of one shard use the same connection
+                    NodeExecutor executor = new NodeExecutor(session);
+                    for (Map.Entry<String, ArrayList<List<Value>>> statement : statements.entrySet()) {
+                        String sql = statement.getKey();
+                        try {
+                            executor.executeBatch(new NodeExecution(shardName, sql, statement.getValue()));
+                        } catch (Exception e) {
+                            throw MappedTable.wrapException(sql, e);
+                        }
+                        rowCount.addAndGet(statement.getValue().size());
+                    }
+                    return null;
+                }
+            });
+        }
+        if (callables.size() == 1) {
+            try {
+                callables.get(0).call();
+            } catch (Exception e) {
+                throw DbException.convert(e);
+            }
+        } else {
+            database.getMultiNodeExecutor().execute(session, callables);
+        }
+    }
+
+    private RoutingResult.MatchedShard route(Row row) {
         RoutingResult result = routingHandler.doRoute(mappedTable, row);
         List<RoutingResult.MatchedShard> shards = result.getMatchedShards();
-        if (shards.size() != 1 && shards.get(0).getTables().length != 1) {
+        if (shards.size() != 1 || shards.get(0).getTables().length != 1) {
             throw new TableRoutingException(table.getName() + " routing error.");
         }
-        String shardName = shards.get(0).getShardName();
-        String tableName = shards.get(0).getTables()[0];
-        ArrayList<Value> params = New.arrayList();
-        StatementBuilder buff = new StatementBuilder("INSERT INTO ");
-        buff.append(tableName);
-        buff.append(" (").append(buildColumnList()).append(")");
-        buff.append(" VALUES(");
+        return shards.get(0);
+    }
+
+    /**
+     * Get the INSERT statement for a row, and add the values to the
+     * parameters. NULL is a parameter as well, so that all rows which use the
+     * default value of the same columns share one statement; it is bound with
+     * the type of its column.
+     */
+    private String buildInsertSql(String tableName, Row row, List<Value> params) {
+        StringBuilder key = null;
         for (int i = 0; i < row.getColumnCount(); i++) {
             Value v = row.getValue(i);
-            buff.appendExceptFirst(", ");
             if (v == null) {
-                buff.append("DEFAULT");
-            } else if (isNull(v)) {
-                buff.append("NULL");
+                if (key == null) {
+                    key = new StringBuilder(tableName);
+                }
+                key.append(',').append(i);
+            } else if (v == ValueNull.INSTANCE) {
+                params.add(new NullParameter(columns[i].getType()));
             } else {
-                buff.append('?');
                 params.add(v);
             }
         }
+        String k = key == null ? tableName : key.toString();
+        String sql;
+        synchronized (insertStatements) {
+            sql = insertStatements.get(k);
+        }
+        if (sql != null) {
+            return sql;
+        }
+        StatementBuilder buff = new StatementBuilder("INSERT INTO ");
+        buff.append(tableName);
+        buff.append(" (").append(buildColumnList(columns)).append(")");
+        buff.append(" VALUES(");
+        for (int i = 0; i < row.getColumnCount(); i++) {
+            buff.appendExceptFirst(", ");
+            buff.append(row.getValue(i) == null ? "DEFAULT" : "?");
+        }
         buff.append(')');
-        String sql = buff.toString();
-        try {
-            mappedTable.execute(session, shardName, sql, params, true);
-            rowCount++;
-        } catch (Exception e) {
-            throw MappedTable.wrapException(sql, e);
+        sql = buff.toString();
+        synchronized (insertStatements) {
+            insertStatements.put(k, sql);
         }
+        return sql;
     }
     
     @Override
@@ -115,56 +249,675 @@ public class MappedIndex extends BaseIndex {
     
     @Override
     public Cursor find(TableFilter filter, SearchRow first, SearchRow last) {
-        ArrayList<Value> queryParams = New.arrayList();
-        String queryCondition = buildQueryConditon(filter, queryParams);
+        return find(filter, filter.getIndexConditions(), null);
+    }
+
+    /**
+     * Find the rows of which the column is one of the given values. The
+     * values are the result of an IN(SELECT ..) condition, which is evaluated
+     * locally: each physical table gets an IN(..) list with the values which
+     * route to it instead of the subquery.
+     *
+     * @param filter the table filter
+     * @param column the column of the IN(SELECT ..) condition
+     * @param values the distinct values of the subquery
+     * @return the cursor
+     */
+    public Cursor findIn(TableFilter filter, Column column, Value[] values) {
+        ArrayList<Expression> list = New.arrayList(values.length);
+        for (Value v : values) {
+            list.add(ValueExpression.get(v));
+        }
+        IndexCondition inCondition = IndexCondition.getInList(new ExpressionColumn(database, column), list);
+        ArrayList<IndexCondition> conditions = New.arrayList();
+        for (IndexCondition ic : filter.getIndexConditions()) {
+            if (ic.getCompareType() != Comparison.IN_QUERY || ic.getColumn() != column) {
+                conditions.add(ic);
+            }
+        }
+        conditions.add(inCondition);
+        return find(filter, conditions, inCondition);
+    }
+
+    private Cursor find(TableFilter filter, List<IndexCondition> conditions, IndexCondition inCondition) {
+        ColocatedJoin join = filter.getColocatedJoin();
+        if (join != null) {
+            if (join.getFilters()[0] != filter) {
+                // the row was read together with the row of the top table
+                return join.find(filter);
+            }
+            return findColocatedJoin(filter, join);
+        }
+        JoinBatch batch = filter.getJoinBatch();
+        if (batch != null) {
+            // the rows may have been read for a batch of rows of the outer table
+            Cursor cursor = batch.find(filter.getSession());
+            if (cursor != null) {
+                return cursor;
+            }
+        }
         Session session = filter.getSession();
-        List<IndexCondition> conditions = filter.getIndexConditions();
         RoutingResult rr = routingHandler.doRoute(mappedTable, session, conditions);
         List<RoutingResult.MatchedShard> shards = rr.getMatchedShards();
-        List<Callable<ResultCursor>> callables = New.arrayList(shards.size());
-        
+        List<NodeCallable<ResultCursor>> callables = New.arrayList(shards.size());
+        InListSplitter splitter = InListSplitter.create(filter, mappedTable, shards, conditions, inCondition);
+        IndexColumn[] sortColumns = getPushdownSortColumns(filter);
+        String orderBy = sortColumns == null ? null : getOrderBy(sortColumns);
+        long limitRows = getPushdownLimitRows(filter);
+        Column[] readColumns = getReadColumns(filter);
+        // the IN(..) lists of the split conditions differ per execution
+        SqlTemplateCache templates = splitter == null ? filter.getSqlTemplateCache() : null;
+        ArrayList<Value> queryParams;
+        String queryCondition;
+        if (templates != null && templates.isValid(limitRows)) {
+            // only the values of the parameters change
+            queryCondition = templates.getCondition();
+            queryParams = templates.getParameters(session);
+        } else {
+            ExportedParameters exported = new ExportedParameters();
+            queryCondition = buildQueryConditon(filter, exported);
+            queryParams = exported;
+            if (templates != null) {
+                templates.reset(queryCondition, exported, limitRows);
+            }
+        }
+
         String shardName = null;
         String sql = null;
         ArrayList<Value> params = null;
         for (RoutingResult.MatchedShard shard : shards) {
-            StatementBuilder shardSql = new StatementBuilder();
             shardName = shard.getShardName();
             params = New.arrayList();
             String[] tables = shard.getTables();
+            sql = templates == null ? null : templates.get(tables);
+            if (sql != null) {
+                // the condition is repeated for each table
+                for (int i = 0, count = Math.max(1, tables.length); i < count; i++) {
+                    params.addAll(queryParams);
+                }
+                callables.add(newQueryCallable(session, shardName, sql, params, readColumns, null));
+                continue;
+            }
+            StatementBuilder shardSql = new StatementBuilder();
             if(tables.length == 0) {
-                sql = buildQuerySqlFromTable(filter, targetTableName, queryCondition);
-                params.addAll(queryParams);
+                sql = buildQuerySqlFromTable(filter, readColumns, targetTableName,
+                        buildTableCondition(splitter, shard, targetTableName, queryCondition, queryParams, params))
+                        + orderBy(orderBy);
             } else if(tables.length == 1){
-                sql = buildQuerySqlFromTable(filter, tables[0], queryCondition);
-                params.addAll(queryParams);
+                sql = buildQuerySqlFromTable(filter, readColumns, tables[0],
+                        buildTableCondition(splitter, shard, tables[0], queryCondition, queryParams, params))
+                        + orderBy(orderBy);
             }else {
                 shardSql.append("SELECT * FROM ( ");
                 for (String table : tables) {
                     shardSql.appendExceptFirst(" UNION ALL ");
-                    shardSql.append(buildQuerySqlFromTable(filter, table, queryCondition));
-                    params.addAll(queryParams);
+                    shardSql.append(buildQuerySqlFromTable(filter, readColumns, table,
+                            buildTableCondition(splitter, shard, table, queryCondition, queryParams, params)));
                 }
                 shardSql.append(" ) ").append(mappedTable.getName());
+                shardSql.append(orderBy(orderBy));
                 sql =shardSql.toString();
             }
-            callables.add(newQueryCallable(session, shardName, sql, params));
+            if (limitRows >= 0) {
+                // the first rows of each shard, the query skips the OFFSET
+                sql = limit(sql, limitRows);
+            }
+            if (templates != null) {
+                templates.put(tables, sql);
+            }
+            callables.add(newQueryCallable(session, shardName, sql, params, readColumns, null));
         }
         if(callables.size() > 1) {
-           List<ResultCursor> results = MultiNodeExecutor.execute(callables);
-           return new MergedCursor(results);
+           List<ResultCursor> results = database.getMultiNodeExecutor().execute(session, callables);
+           if (orderBy != null) {
+               // each shard returns its rows sorted, merge the sorted streams
+               return new SortedMergedCursor(database, results, sortColumns);
+           }
+           return merge(session, results);
         } else if(callables.size() == 1) {
-            return find(session, shardName, sql, params);
+            return find(session, shardName, sql, params, readColumns, null);
         } else {
             throw DbException.throwInternalError();
         }
     
     }
 
+    /**
+     * Let each physical table calculate the partial aggregates of its rows
+     * that match the condition of the table filter. The rows of all tables
+     * are returned without merging them.
+     *
+     * @param filter the table filter
+     * @param selectList the group columns and the partial aggregates
+     * @param selectParams the parameters of the select list
+     * @param groupBy the GROUP BY list, or null
+     * @param columnTypes the data types of the select list
+     * @return the cursor over the partial aggregate rows
+     */
+    public Cursor findPartialAggregates(TableFilter filter, String selectList, List<Value> selectParams,
+            String groupBy, int[] columnTypes) {
+        ArrayList<Value> queryParams = New.arrayList();
+        String queryCondition = buildQueryConditon(filter, queryParams);
+        Session session = filter.getSession();
+        RoutingResult rr = routingHandler.doRoute(mappedTable, session, filter.getIndexConditions());
+        List<RoutingResult.MatchedShard> shards = rr.getMatchedShards();
+        List<NodeCallable<ResultCursor>> callables = New.arrayList(shards.size());
+        InListSplitter splitter = InListSplitter.create(filter, mappedTable, shards,
+                filter.getIndexConditions(), null);
+        String shardName = null;
+        String sql = null;
+        ArrayList<Value> params = null;
+        for (RoutingResult.MatchedShard shard : shards) {
+            shardName = shard.getShardName();
+            params = New.arrayList();
+            String[] tables = shard.getTables();
+            if (tables.length == 0) {
+                params.addAll(selectParams);
+                params.addAll(queryParams);
+                sql = buildAggregateSqlFromTable(filter, selectList, targetTableName, queryCondition, groupBy);
+            } else {
+                // the partial aggregates of the tables are merged like those of the shards
+                StatementBuilder shardSql = new StatementBuilder();
+                for (String table : tables) {
+                    shardSql.appendExceptFirst(" UNION ALL ");
+                    params.addAll(selectParams);
+                    shardSql.append(buildAggregateSqlFromTable(filter, selectList, table,
+                            buildTableCondition(splitter, shard, table, queryCondition, queryParams, params),
+                            groupBy));
+                }
+                sql = shardSql.toString();
+            }
+            callables.add(newQueryCallable(session, shardName, sql, params, null, columnTypes));
+        }
+        if (callables.size() > 1) {
+            return merge(session, database.getMultiNodeExecutor().execute(session, callables));
+        } else if (callables.size() == 1) {
+            return find(session, shardName, sql, params, null, columnTypes);
+        } else {
+            throw DbException.throwInternalError();
+        }
+    }
+
+    /**
+     * Check whether the data nodes can evaluate the expression, which is not
+     * the case if it contains a subquery or a non-deterministic function, or
+     * depends on other objects than the given tables.
+     *
+     * @param e the expression
+     * @param tables the tables the data nodes read
+     * @return true if the expression can be sent to the data nodes
+     */
+    public static boolean isExportable(Expression e, Set<DbObject> tables) {
+        if (!e.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
+            return false;
+        }
+        HashSet<DbObject> dependencies = New.hashSet();
+        e.isEverything(ExpressionVisitor.getDependenciesVisitor(dependencies));
+        return tables.containsAll(dependencies);
+    }
+
+    /**
+     * Update the rows which match the condition with one UPDATE statement
+     * per physical table. The statements of the shards run in parallel.
+     *
+     * @param filter the table filter
+     * @param condition the condition, or null for all rows
+     * @param columns the columns to update
+     * @param expressions the new values of the columns
+     * @return the number of updated rows
+     */
+    public int update(TableFilter filter, Expression condition, List<Column> columns,
+            List<Expression> expressions) {
+        ArrayList<Value> setParams = New.arrayList();
+        StatementBuilder setList = new StatementBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            setList.appendExceptFirst(", ");
+            setList.append(columns.get(i).getName()).append(" = ");
+            setList.append(StringUtils.unEnclose(expressions.get(i).exportParameters(filter, setParams)));
+        }
+        return executeUpdate(filter, condition, setList.toString(), setParams);
+    }
+
+    /**
+     * Delete the rows which match the condition with one DELETE statement
+     * per physical table. The statements of the shards run in parallel.
+     *
+     * @param filter the table filter
+     * @param condition the condition, or null for all rows
+     * @return the number of deleted rows
+     */
+    public int delete(TableFilter filter, Expression condition) {
+        return executeUpdate(filter, condition, null, null);
+    }
+
+    private int executeUpdate(TableFilter filter, Expression condition, String setList, List<Value> setParams) {
+        final Session session = filter.getSession();
+        ArrayList<Value> queryParams = New.arrayList();
+        String queryCondition = condition == null ? null :
+                StringUtils.unEnclose(condition.exportParameters(filter, queryParams));
+        RoutingResult rr = routingHandler.doRoute(mappedTable, session, filter.getIndexConditions());
+        List<NodeCallable<Integer>> callables = New.arrayList();
+        for (RoutingResult.MatchedShard shard : rr.getMatchedShards()) {
+            final String shardName = shard.getShardName();
+            String[] tables = shard.getTables();
+            if (tables.length == 0) {
+                tables = new String[] { targetTableName };
+            }
+            final List<String> sqls = New.arrayList(tables.length);
+            final List<List<Value>> paramsList = New.arrayList(tables.length);
+            for (String table : tables) {
+                StatementBuilder sql = new StatementBuilder();
+                ArrayList<Value> params = New.arrayList();
+                if (setList == null) {
+                    sql.append("DELETE FROM ").append(table);
+                } else {
+                    sql.append("UPDATE ").append(table);
+                }
+                if (setList != null) {
+                    sql.append(" SET ").append(setList);
+                    params.addAll(setParams);
+                }
+                if (!StringUtils.isNullOrEmpty(queryCondition)) {
+                    sql.append(" WHERE ").append(queryCondition);
+                    params.addAll(queryParams);
+                }
+                sqls.add(sql.toString());
+                paramsList.add(params);
+            }
+            callables.add(new NodeCallable<Integer>(shardName) {
+                @Override
+                public Integer call() throws Exception {
+                    int count = 0;
+                    // the tables of a shard use the same connection
+                    for (int i = 0; i < sqls.size(); i++) {
+                        count += executeUpdate(session, shardName, sqls.get(i), paramsList.get(i));
+                    }
+                    return count;
+                }
+            });
+        }
+        int count = 0;
+        if (callables.size() == 1) {
+            try {
+                count = callables.get(0).call();
+            } catch (Exception e) {
+                throw DbException.convert(e);
+            }
+        } else {
+            for (Integer c : database.getMultiNodeExecutor().execute(session, callables)) {
+                count += c;
+            }
+        }
+        if (setList == null) {
+            rowCount.addAndGet(-count);
+        }
+        return count;
+    }
+
+    private int executeUpdate(Session session, String shardName, String sql, List<Value> params) {
+        try {
+            PreparedStatement prep = mappedTable.execute(session, shardName, sql, params, false);
+            int count = prep.getUpdateCount();
+            mappedTable.reusePreparedStatement(session.getDataNodeConnection(shardName), prep, sql);
+            return count;
+        } catch (Exception e) {
+            throw MappedTable.wrapException(sql, e);
+        }
+    }
+
+    /**
+     * Let the data nodes join the tables of a co-located join. The physical
+     * tables at the same position of each shard are joined, and the rows of
+     * all shards are merged.
+     *
+     * @param filter the top table filter
+     * @param join the join
+     * @return the cursor over the rows of the top table filter
+     */
+    private Cursor findColocatedJoin(TableFilter filter, ColocatedJoin join) {
+        Session session = filter.getSession();
+        TableFilter[] filters = join.getFilters();
+        Column[][] readColumns = new Column[filters.length][];
+        StatementBuilder selectList = new StatementBuilder();
+        int columnCount = 0;
+        for (int i = 0; i < filters.length; i++) {
+            MappedIndex index = (MappedIndex) filters[i].getIndex();
+            readColumns[i] = index.getReadColumns(filters[i]);
+            columnCount += readColumns[i].length;
+            for (Column col : readColumns[i]) {
+                selectList.appendExceptFirst(",");
+                selectList.append(filters[i].getTableAlias()).append('.').append(col.getName());
+            }
+        }
+        int[] columnTypes = new int[columnCount];
+        for (int i = 0, j = 0; i < filters.length; i++) {
+            for (Column col : readColumns[i]) {
+                columnTypes[j++] = col.getType();
+            }
+        }
+        ArrayList<Value> queryParams = New.arrayList();
+        StatementBuilder cond = new StatementBuilder();
+        for (Expression e : join.getConditions()) {
+            cond.appendExceptFirst(" AND ");
+            cond.append(e.exportParameters(filter, queryParams));
+        }
+        String queryCondition = cond.toString();
+        RoutingResult rr = routingHandler.doRoute(mappedTable, session, getJoinRoutingConditions(filters));
+        List<RoutingResult.MatchedShard> shards = rr.getMatchedShards();
+        List<NodeCallable<ResultCursor>> callables = New.arrayList(shards.size());
+        TableTopology topology = mappedTable.getTableRouter().getTopology();
+        String shardName = null;
+        String sql = null;
+        ArrayList<Value> params = null;
+        for (RoutingResult.MatchedShard shard : shards) {
+            shardName = shard.getShardName();
+            params = New.arrayList();
+            int shardIndex = topology.getShardIndex(shardName);
+            StatementBuilder shardSql = new StatementBuilder();
+            for (String table : shard.getTables()) {
+                int tableIndex = topology.getTableIndex(shardIndex, table);
+                StatementBuilder buff = new StatementBuilder("SELECT ");
+                if (filter.getSelect().isDistinct()) {
+                    buff.append("DISTINCT ");
+                }
+                buff.append(selectList.toString()).append(" FROM ");
+                for (TableFilter f : filters) {
+                    buff.appendExceptFirst(", ");
+                    MappedTable t = (MappedTable) f.getTable();
+                    buff.append(t.getTableRouter().getTopology().getTables(shardIndex)[tableIndex]);
+                    buff.append(' ').append(f.getTableAlias());
+                }
+                if (queryCondition.length() > 0) {
+                    buff.append(" WHERE ").append(queryCondition);
+                    params.addAll(queryParams);
+                }
+                shardSql.appendExceptFirst(" UNION ALL ");
+                shardSql.append(buff.toString());
+            }
+            sql = shardSql.toString();
+            callables.add(newQueryCallable(session, shardName, sql, params, null, columnTypes));
+        }
+        Cursor cursor;
+        if (callables.size() > 1) {
+            cursor = merge(session, database.getMultiNodeExecutor().execute(session, callables));
+        } else if (callables.size() == 1) {
+            cursor = find(session, shardName, sql, params, null, columnTypes);
+        } else {
+            throw DbException.throwInternalError();
+        }
+        return join.open(cursor, readColumns);
+    }
+
+    /**
+     * Get the conditions to route a co-located join. The rule columns of all
+     * tables have the same values, so the conditions of the other tables on
+     * their rule columns are used as conditions on the columns of this
+     * table, as long as they don't depend on the joined tables.
+     */
+    private List<IndexCondition> getJoinRoutingConditions(TableFilter[] filters) {
+        ArrayList<IndexCondition> conditions = New.arrayList(filters[0].getIndexConditions());
+        List<RuleColumn> ruleColumns = mappedTable.getTableRouter().getRuleColumns();
+        for (int i = 1; i < filters.length; i++) {
+            for (IndexCondition condition : filters[i].getIndexConditions()) {
+                Expression e = condition.getExpression();
+                if (e == null || !isRuleColumn(ruleColumns, condition.getColumn())) {
+                    continue;
+                }
+                boolean local = true;
+                for (TableFilter f : filters) {
+                    if (!e.isEverything(ExpressionVisitor.getNotFromResolverVisitor(f))) {
+                        local = false;
+                        break;
+                    }
+                }
+                if (local) {
+                    Column column = mappedTable.getColumn(condition.getColumn().getName());
+                    conditions.add(IndexCondition.get(condition.getCompareType(),
+                            new ExpressionColumn(database, column), e));
+                }
+            }
+        }
+        return conditions;
+    }
+
+    private static boolean isRuleColumn(List<RuleColumn> ruleColumns, Column column) {
+        for (RuleColumn ruleColumn : ruleColumns) {
+            if (ruleColumn.getName().equalsIgnoreCase(column.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the rows of the table filter whose key column matches one of the
+     * given keys, with one IN(..) query per physical table. Only the
+     * conditions which don't depend on other tables are sent to the data
+     * nodes, the join condition is checked later.
+     *
+     * @param filter the table filter
+     * @param indexConditions the index conditions which don't depend on
+     *            other tables
+     * @param conditions the conditions which don't depend on other tables
+     * @param keyColumn the key column
+     * @param keys the distinct keys
+     * @return the cursor over the rows
+     */
+    public Cursor findBatch(TableFilter filter, List<IndexCondition> indexConditions,
+            List<Expression> conditions, Column keyColumn, List<Value> keys) {
+        Session session = filter.getSession();
+        ArrayList<Value> queryParams = New.arrayList();
+        StatementBuilder buff = new StatementBuilder();
+        for (Expression e : conditions) {
+            buff.appendExceptFirst(" AND ");
+            buff.append(e.exportParameters(filter, queryParams));
+        }
+        String queryCondition = buff.toString();
+        ExpressionColumn keyExpr = new ExpressionColumn(database, keyColumn);
+        ArrayList<Expression> keyList = New.arrayList(keys.size());
+        for (Value v : keys) {
+            keyList.add(ValueExpression.get(v));
+        }
+        ArrayList<IndexCondition> routeConditions = New.arrayList(indexConditions);
+        routeConditions.add(IndexCondition.getInList(keyExpr, keyList));
+        RoutingResult rr = routingHandler.doRoute(mappedTable, session, routeConditions);
+        List<RoutingResult.MatchedShard> shards = rr.getMatchedShards();
+        List<NodeCallable<ResultCursor>> callables = New.arrayList(shards.size());
+        Column[] readColumns = getReadColumns(filter);
+        String shardName = null;
+        String sql = null;
+        ArrayList<Value> params = null;
+        for (RoutingResult.MatchedShard shard : shards) {
+            ArrayList<Value> shardParams = New.arrayList();
+            String[] tables = shard.getTables();
+            if (tables.length == 0) {
+                tables = new String[] { targetTableName };
+            }
+            StatementBuilder shardSql = new StatementBuilder();
+            for (String table : tables) {
+                Set<Value> routed = shard.getRoutedValues(table, keyColumn.getName());
+                StatementBuilder cond = new StatementBuilder();
+                ArrayList<Value> tableParams = New.arrayList();
+                for (Value v : keys) {
+                    if (routed == null || routed.contains(v)) {
+                        cond.appendExceptFirst(", ");
+                        cond.append('?');
+                        tableParams.add(v);
+                    }
+                }
+                if (tableParams.isEmpty()) {
+                    // none of the keys route to this table
+                    continue;
+                }
+                String keyCondition = keyColumn.getName() + " IN(" + cond.toString() + ")";
+                if (queryCondition.length() > 0) {
+                    shardParams.addAll(queryParams);
+                    keyCondition = queryCondition + " AND " + keyCondition;
+                }
+                shardParams.addAll(tableParams);
+                shardSql.appendExceptFirst(" UNION ALL ");
+                shardSql.append(buildQuerySqlFromTable(filter, readColumns, table, keyCondition));
+            }
+            if (shardParams.isEmpty()) {
+                continue;
+            }
+            shardName = shard.getShardName();
+            sql = shardSql.toString();
+            params = shardParams;
+            callables.add(newQueryCallable(session, shardName, sql, params, readColumns, null));
+        }
+        if (callables.size() > 1) {
+            return merge(session, database.getMultiNodeExecutor().execute(session, callables));
+        } else if (callables.size() == 1) {
+            return find(session, shardName, sql, params, readColumns, null);
+        } else {
+            return new MergedCursor(new ArrayList<ResultCursor>(0));
+        }
+    }
+
+    /**
+     * Get the columns to read from the data nodes, which are the columns the
+     * query references.
+     */
+    private Column[] getReadColumns(TableFilter filter) {
+        Select select = filter.getSelect();
+        Column[] readColumns = select == null ? null : select.getReferencedColumns(mappedTable);
+        return readColumns == null ? columns : readColumns;
+    }
+
+    private static String orderBy(String orderBy) {
+        return orderBy == null ? "" : orderBy;
+    }
+
+    private static long getPushdownLimitRows(TableFilter filter) {
+        Select select = filter.getSelect();
+        if (select == null || select.getTopTableFilter() != filter) {
+            return -1;
+        }
+        return select.getPushdownLimitRows();
+    }
+
+    /**
+     * Limit the number of rows a query returns, in the syntax of the database
+     * mode.
+     *
+     * @param sql the query
+     * @param rows the maximum number of rows
+     * @return the limited query
+     */
+    private String limit(String sql, long rows) {
+        String mode = database.getMode().getName();
+        if (Mode.ORACLE.equals(mode)) {
+            return "SELECT * FROM (" + sql + ") WHERE ROWNUM <= " + rows;
+        } else if (Mode.MSSQL_SERVER.equals(mode)) {
+            return "SELECT TOP " + rows + sql.substring("SELECT".length());
+        } else if (Mode.DB2.equals(mode) || Mode.DERBY.equals(mode)) {
+            return sql + " FETCH FIRST " + rows + " ROWS ONLY";
+        }
+        return sql + " LIMIT " + rows;
+    }
+
+    private static IndexColumn[] getPushdownSortColumns(TableFilter filter) {
+        Select select = filter.getSelect();
+        if (select == null || select.getTopTableFilter() != filter) {
+            return null;
+        }
+        return select.getPushdownSortColumns();
+    }
+
+    /**
+     * Check whether the data nodes can sort the rows by the given columns in
+     * the same order as this database, so that the sorted rows of the shards
+     * only need to be merged. This is not the case for strings and binary
+     * data, as the collation of the data nodes may differ.
+     *
+     * @param sortColumns the sort columns
+     * @return true if the ORDER BY can be pushed down
+     */
+    public boolean canPushdownSort(IndexColumn[] sortColumns) {
+        return getOrderBy(sortColumns) != null;
+    }
+
+    /**
+     * Get the ORDER BY clause for the data nodes. NULL is sorted as in
+     * {@link SortOrder}, MySQL and SQL Server don't support NULLS FIRST and
+     * NULLS LAST and always sort NULL low.
+     *
+     * @param sortColumns the sort columns
+     * @return the ORDER BY clause, or null if the order can not be expressed,
+     *         or may be different
+     */
+    private String getOrderBy(IndexColumn[] sortColumns) {
+        String mode = database.getMode().getName();
+        boolean nullsClause = !Mode.MY_SQL.equals(mode) && !Mode.MSSQL_SERVER.equals(mode);
+        StatementBuilder buff = new StatementBuilder(" ORDER BY ");
+        for (IndexColumn c : sortColumns) {
+            int type = c.column.getType();
+            if (DataType.isStringType(type) || type == Value.BYTES) {
+                return null;
+            }
+            buff.appendExceptFirst(", ");
+            buff.append(c.column.getName());
+            boolean descending = (c.sortType & SortOrder.DESCENDING) != 0;
+            if (descending) {
+                buff.append(" DESC");
+            }
+            boolean nullsFirst = SortOrder.compareNull(true, c.sortType) < 0;
+            if (nullsClause) {
+                buff.append(nullsFirst ? " NULLS FIRST" : " NULLS LAST");
+            } else if (nullsFirst == descending) {
+                return null;
+            }
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Build the condition for one physical table, with the IN(..) list on
+     * the rule column reduced to the values which route to this table.
+     */
+    private static String buildTableCondition(InListSplitter splitter, RoutingResult.MatchedShard shard,
+            String table, String queryCondition, List<Value> queryParams, List<Value> params) {
+        if (splitter != null) {
+            String condition = splitter.getCondition(shard, table, params);
+            if (condition != null) {
+                return condition;
+            }
+        }
+        params.addAll(queryParams);
+        return queryCondition;
+    }
+
     public ResultCursor find(Session session, String shardName, String sql, List<Value> params) {
+        return find(session, shardName, sql, params, columns, null);
+    }
+
+    /**
+     * Run a query on a data node. The rows either have the given columns of
+     * the table, or the given data types. A query on a replica is hedged if
+     * this is enabled.
+     */
+    private ResultCursor find(Session session, String shardName, String sql, List<Value> params,
+            Column[] readColumns, int[] columnTypes) {
         try {
+            HedgePolicy hedging = database.getHedgePolicy();
+            if (hedging != null) {
+                ShardGroup group = database.getShardGroup(shardName);
+                if (session.isReplicaRead(group)) {
+                    HedgedQuery query = new HedgedQuery(hedging, mappedTable, session, group, sql, params);
+                    ResultCursor cursor = query.execute(readColumns, columnTypes);
+                    if (cursor != null) {
+                        session.addOpenCursor(cursor);
+                        return cursor;
+                    }
+                }
+            }
             PreparedStatement prep = mappedTable.execute(session, shardName, sql, params, false);
-            ResultSet rs = prep.getResultSet();
-            return new ResultCursor(mappedTable, rs, session);
+            Connection conn = session.getDataNodeConnection(shardName);
+            ResultCursor cursor = new ResultCursor(mappedTable, shardName, conn, sql, prep, session,
+                    readColumns, columnTypes);
+            session.addOpenCursor(cursor);
+            return cursor;
         } catch (Exception e) {
             throw MappedTable.wrapException(sql, e);
         }
@@ -185,7 +938,7 @@ public class MappedIndex extends BaseIndex {
     @Override
     public double getCost(Session session, int[] masks, TableFilter filter,
             SortOrder sortOrder) {
-        return 100 + getCostRangeIndex(masks, rowCount +
+        return 100 + getCostRangeIndex(masks, rowCount.get() +
                 Constants.COST_ROW_OFFSET, filter, sortOrder);
     }
 
@@ -250,9 +1003,9 @@ public class MappedIndex extends BaseIndex {
         String sql = buff.toString();
         try {
             PreparedStatement prep = mappedTable.execute(session, shardName, sql, params, false);
-            int count = prep.executeUpdate();
-            mappedTable.reusePreparedStatement(prep, sql);
-            rowCount -= count;
+            int count = prep.getUpdateCount();
+            mappedTable.reusePreparedStatement(session.getDataNodeConnection(shardName), prep, sql);
+            rowCount.addAndGet(-count);
         } catch (Exception e) {
             throw MappedTable.wrapException(sql, e);
         }
@@ -271,12 +1024,12 @@ public class MappedIndex extends BaseIndex {
 
     @Override
     public long getRowCount(Session session) {
-        return rowCount;
+        return rowCount.get();
     }
 
     @Override
     public long getRowCountApproximation() {
-        return rowCount;
+        return rowCount.get();
     }
 
     @Override
@@ -288,14 +1041,15 @@ public class MappedIndex extends BaseIndex {
      * @param columnList
      * @param connditionSql
      */
-    private String buildQuerySqlFromTable(TableFilter tf, String tableName, String queryConndition) {
+    private String buildQuerySqlFromTable(TableFilter tf, Column[] readColumns, String tableName,
+            String queryConndition) {
         Select select = tf.getSelect();
         StatementBuilder sql = new StatementBuilder();
         sql.append("SELECT ");
-        if(select.isDistinct()) {
+        if (select != null && select.isDistinct()) {
             sql.append("DISTINCT ");
         }
-        sql.append(buildColumnList());
+        sql.append(buildColumnList(readColumns));
         sql.append(" FROM ").append(tableName);
         if(!StringUtils.isNullOrEmpty(tf.getTableAlias())) {
             sql.append(" ").append(tf.getTableAlias());
@@ -303,19 +1057,27 @@ public class MappedIndex extends BaseIndex {
         if(!StringUtils.isNullOrEmpty(queryConndition)) {
             sql.append(" WHERE ").append(queryConndition);
         }
-        /*
-        Expression limitExpr = select.getLimit();
-        Expression offsetExpr = select.getOffset();
-        if (limitExpr != null) {
-            sql.append(" LIMIT ").append(StringUtils.unEnclose(limitExpr.getSQL()));
-            if (offsetExpr != null) {
-                sql.append(" OFFSET ").append(StringUtils.unEnclose(offsetExpr.getSQL()));
-            }
-        }*/
         return sql.toString();
     }
     
-    private String buildColumnList() {
+    private static String buildAggregateSqlFromTable(TableFilter tf, String selectList, String tableName,
+            String queryCondition, String groupBy) {
+        StatementBuilder sql = new StatementBuilder();
+        sql.append("SELECT ").append(selectList);
+        sql.append(" FROM ").append(tableName);
+        if (!StringUtils.isNullOrEmpty(tf.getTableAlias())) {
+            sql.append(" ").append(tf.getTableAlias());
+        }
+        if (!StringUtils.isNullOrEmpty(queryCondition)) {
+            sql.append(" WHERE ").append(queryCondition);
+        }
+        if (groupBy != null) {
+            sql.append(" GROUP BY ").append(groupBy);
+        }
+        return sql.toString();
+    }
+
+    private static String buildColumnList(Column[] columns) {
         StatementBuilder string = new StatementBuilder();
         for (Column col : columns) {
             string.appendExceptFirst(",");
@@ -351,19 +1113,97 @@ public class MappedIndex extends BaseIndex {
        return sql;
     }
     
-    private Callable<ResultCursor> newQueryCallable(
+    /**
+     * Merge the cursors of the shards in no particular order. Unless
+     * prefetching is disabled, the cursors are read at the same time.
+     */
+    private Cursor merge(Session session, List<ResultCursor> cursors) {
+        int prefetchRows = database.getSettings().mergePrefetchRows;
+        if (prefetchRows > 0) {
+            return new PrefetchMergedCursor(session, cursors, prefetchRows);
+        }
+        return new MergedCursor(cursors);
+    }
+
+    private NodeCallable<ResultCursor> newQueryCallable(
             final Session session, 
             final String shardName, 
             final String sql,
-            final List<Value> params) {
-        Callable<ResultCursor> call = new Callable<ResultCursor>() {
+            final List<Value> params,
+            final Column[] readColumns,
+            final int[] columnTypes) {
+        NodeCallable<ResultCursor> call = new NodeCallable<ResultCursor>(shardName) {
             @Override
             public ResultCursor call() throws Exception {
-                return find(session, shardName, sql, params);
+                return find(session, shardName, sql, params, readColumns, columnTypes);
             }
         };
         return call;
     }
+
+    /**
+     * A NULL parameter of an INSERT statement. It is bound with the SQL type
+     * of its column, as not all databases accept <code>Types.NULL</code>.
+     */
+    private static final class NullParameter extends Value {
+
+        private final int sqlType;
+
+        NullParameter(int type) {
+            this.sqlType = DataType.convertTypeToSQLType(type);
+        }
+
+        @Override
+        public String getSQL() {
+            return "NULL";
+        }
+
+        @Override
+        public int getType() {
+            return Value.NULL;
+        }
+
+        @Override
+        public long getPrecision() {
+            return ValueNull.INSTANCE.getPrecision();
+        }
+
+        @Override
+        public int getDisplaySize() {
+            return ValueNull.INSTANCE.getDisplaySize();
+        }
+
+        @Override
+        public String getString() {
+            return null;
+        }
+
+        @Override
+        public Object getObject() {
+            return null;
+        }
+
+        @Override
+        public void set(PreparedStatement prep, int parameterIndex) throws SQLException {
+            prep.setNull(parameterIndex, sqlType);
+        }
+
+        @Override
+        protected int compareSecure(Value v, CompareMode mode) {
+            throw DbException.throwInternalError("compare null");
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other == this;
+        }
+
+    }
     
     
     
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.dbobject.index;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.result.Row;
+import com.suning.snfddal.result.SearchRow;
+import com.suning.snfddal.route.MultiNodeExecutor;
+
+/**
+ * Merges the rows of cursors on different shards in no particular order,
+ * like {@link MergedCursor}, but reads all cursors at the same time. Each
+ * cursor is read by a thread of the {@link MultiNodeExecutor} into a bounded
+ * queue. The rows are returned from whichever queue has rows.
+ * <p>
+ * When a queue is full, its thread stops, so that a slow reader doesn't keep
+ * the threads and the slots of the data nodes. The thread is started again
+ * once half of the queue was read.
+ * <p>
+ * If a cursor fails, or the statement is canceled, all cursors are closed,
+ * which cancels their statements on the data nodes and stops the threads.
+ * If no thread or no slot of the data node is available, the cursor is read
+ * by the caller instead.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class PrefetchMergedCursor implements Cursor {
+
+    /**
+     * How long a waiting thread sleeps before it checks whether the cursors
+     * are closed or the statement is canceled, in milliseconds.
+     */
+    private static final int WAIT_MILLIS = 100;
+
+    private final Session session;
+    private final MultiNodeExecutor executor;
+    private final Prefetch[] prefetches;
+    private final Semaphore available = new Semaphore(0);
+    private Row currentRow;
+    private int position;
+    private boolean started;
+
+    public PrefetchMergedCursor(Session session, List<ResultCursor> cursors, int prefetchRows) {
+        this.session = session;
+        this.executor = session.getDatabase().getMultiNodeExecutor();
+        this.prefetches = new Prefetch[cursors.size()];
+        for (int i = 0; i < prefetches.length; i++) {
+            prefetches[i] = new Prefetch(cursors.get(i), prefetchRows);
+        }
+    }
+
+    @Override
+    public Row get() {
+        return currentRow;
+    }
+
+    @Override
+    public SearchRow getSearchRow() {
+        return currentRow;
+    }
+
+    @Override
+    public boolean next() {
+        if (!started) {
+            start();
+            started = true;
+        }
+        try {
+            while (true) {
+                boolean finished = true;
+                for (int i = 0; i < prefetches.length; i++) {
+                    Prefetch p = prefetches[position];
+                    position = (position + 1) % prefetches.length;
+                    if (p.error != null) {
+                        throw DbException.convert(p.error);
+                    }
+                    // read the flag first, the rows are added before it is set
+                    boolean done = p.done;
+                    Row row = p.rows.poll();
+                    if (p.stopped && p.rows.size() <= p.resumeRows) {
+                        resume(p);
+                    }
+                    if (row != null) {
+                        currentRow = row;
+                        return true;
+                    }
+                    finished &= done;
+                }
+                if (finished) {
+                    currentRow = null;
+                    return false;
+                }
+                await();
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void start() {
+        for (Prefetch p : prefetches) {
+            if (!executor.tryExecute(p.cursor.getShardName(), p)) {
+                p.inline = true;
+            }
+        }
+    }
+
+    /**
+     * Start the thread of a cursor again, after it stopped because its queue
+     * was full. If no thread is available, the cursor is read by the caller.
+     */
+    private void resume(Prefetch p) {
+        p.stopped = false;
+        if (!executor.tryExecute(p.cursor.getShardName(), p)) {
+            p.inline = true;
+        }
+    }
+
+    /**
+     * Wait until a thread added a row or reached the end of its cursor. If a
+     * cursor is read by the caller, and still no thread is available, one
+     * row of it is read instead.
+     */
+    private void await() {
+        for (Prefetch p : prefetches) {
+            if (p.inline && !p.done) {
+                if (executor.tryExecute(p.cursor.getShardName(), p)) {
+                    p.inline = false;
+                    continue;
+                }
+                p.readInline();
+                return;
+            }
+        }
+        try {
+            while (!available.tryAcquire(WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                session.checkCanceled();
+            }
+        } catch (InterruptedException e) {
+            throw DbException.convert(e);
+        }
+    }
+
+    /**
+     * Close all cursors. The running threads stop once they notice.
+     */
+    private void close() {
+        for (Prefetch p : prefetches) {
+            p.cursor.close();
+        }
+    }
+
+    @Override
+    public boolean previous() {
+        throw DbException.throwInternalError();
+    }
+
+    /**
+     * Reads the rows of one cursor into a queue.
+     */
+    private class Prefetch implements Runnable {
+
+        final ResultCursor cursor;
+        final ArrayBlockingQueue<Row> rows;
+
+        /**
+         * The number of queued rows below which a stopped thread is started
+         * again.
+         */
+        final int resumeRows;
+        volatile boolean done;
+        volatile Throwable error;
+
+        /**
+         * Whether the thread stopped because the queue was full.
+         */
+        volatile boolean stopped;
+        boolean inline;
+
+        /**
+         * The row which did not fit into the queue.
+         */
+        private Row pending;
+
+        Prefetch(ResultCursor cursor, int prefetchRows) {
+            this.cursor = cursor;
+            this.rows = new ArrayBlockingQueue<Row>(Math.max(1, prefetchRows));
+            this.resumeRows = prefetchRows / 2;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    if (pending == null) {
+                        if (!cursor.next()) {
+                            break;
+                        }
+                        pending = cursor.get();
+                    }
+                    if (!rows.offer(pending)) {
+                        // give the thread and the slot of the data node back
+                        stopped = true;
+                        available.release();
+                        return;
+                    }
+                    pending = null;
+                    available.release();
+                }
+            } catch (Throwable e) {
+                // a cursor that is closed while it is read may fail
+                if (!cursor.isClosed()) {
+                    error = e;
+                }
+            }
+            done = true;
+            available.release();
+        }
+
+        void readInline() {
+            if (pending != null) {
+                rows.add(pending);
+                pending = null;
+            } else if (cursor.next()) {
+                rows.add(cursor.get());
+            } else {
+                done = true;
+            }
+        }
+
+    }
+
+}
@@ -5,6 +5,8 @@
  */
 package com.suning.snfddal.dbobject.index;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
@@ -14,6 +16,9 @@ import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.result.Row;
 import com.suning.snfddal.result.SearchRow;
+import com.suning.snfddal.route.ShardGroup;
+import com.suning.snfddal.route.StatementCache;
+import com.suning.snfddal.util.JdbcUtils;
 import com.suning.snfddal.value.DataType;
 import com.suning.snfddal.value.Value;
 
@@ -23,14 +28,50 @@ import com.suning.snfddal.value.Value;
 public class ResultCursor implements Cursor {
 
     private final MappedTable table;
+    private final String shardName;
+    private final Connection conn;
+    private final String sql;
+    private final PreparedStatement prep;
     private final Session session;
     private final ResultSet rs;
+    private final Column[] columns;
+    private final int[] columnTypes;
     private Row current;
+    private volatile boolean closed;
 
-    ResultCursor(MappedTable table, ResultSet rs, Session session) {
+    /**
+     * The data node of the connection, if the connection was opened for this
+     * query only, and is closed with the cursor.
+     */
+    private ShardGroup connectionOwner;
+
+    /**
+     * Create a cursor over the result set of an executed statement. The rows
+     * either have the given columns of the table, and the other columns are
+     * not set, or they don't have the columns of the table, for example
+     * partial aggregates. Once all rows are read, the statement is added to
+     * the cached statements of the connection.
+     *
+     * @param table the table
+     * @param shardName the data node which runs the query
+     * @param conn the connection of the data node
+     * @param sql the query
+     * @param prep the executed statement
+     * @param session the session
+     * @param columns the columns of the result set, or null
+     * @param columnTypes the data types of the columns, or null
+     */
+    ResultCursor(MappedTable table, String shardName, Connection conn, String sql, PreparedStatement prep,
+            Session session, Column[] columns, int[] columnTypes) throws SQLException {
         this.session = session;
         this.table = table;
-        this.rs = rs;
+        this.shardName = shardName;
+        this.conn = conn;
+        this.sql = sql;
+        this.prep = prep;
+        this.rs = prep.getResultSet();
+        this.columns = columns;
+        this.columnTypes = columnTypes;
     }
 
     @Override
@@ -48,23 +89,100 @@ public class ResultCursor implements Cursor {
         try {
             boolean result = rs.next();
             if (!result) {
+                closed = true;
+                session.removeOpenCursor(this);
                 rs.close();
-                //table.reusePreparedStatement(prep, sql);
+                if (connectionOwner != null) {
+                    JdbcUtils.closeSilently(prep);
+                    closeConnection();
+                } else {
+                    table.reusePreparedStatement(conn, prep, sql);
+                }
                 current = null;
                 return false;
             }
         } catch (SQLException e) {
             throw DbException.convert(e);
         }
+        if (columnTypes != null) {
+            Value[] values = new Value[columnTypes.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = DataType.readValue(session, rs, i + 1, columnTypes[i]);
+            }
+            current = new Row(values, Row.MEMORY_CALCULATE);
+            return true;
+        }
         current = table.getTemplateRow();
-        for (int i = 0; i < current.getColumnCount(); i++) {
-            Column col = table.getColumn(i);
+        for (int i = 0; i < columns.length; i++) {
+            Column col = columns[i];
             Value v = DataType.readValue(session, rs, i + 1, col.getType());
-            current.setValue(i, v);
+            current.setValue(col.getColumnId(), v);
         }
         return true;
     }
 
+    /**
+     * Close the result set. If not all rows were read, the statement is
+     * canceled first, so that the data node stops producing rows. The
+     * statement is closed instead of cached, as it may still be canceled.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        current = null;
+        session.removeOpenCursor(this);
+        try {
+            prep.cancel();
+        } catch (SQLException e) {
+            // ignore, the result set is closed anyway
+        } finally {
+            JdbcUtils.closeSilently(rs);
+            JdbcUtils.closeSilently(prep);
+            if (connectionOwner != null) {
+                closeConnection();
+            }
+        }
+    }
+
+    /**
+     * Close the connection together with the cursor, as it was opened for
+     * this query only.
+     *
+     * @param group the data node which opened the connection
+     */
+    void setConnectionOwner(ShardGroup group) {
+        this.connectionOwner = group;
+    }
+
+    private void closeConnection() {
+        StatementCache cache = session.getDatabase().getStatementCache();
+        if (cache != null) {
+            cache.closeStatements(conn);
+        }
+        connectionOwner.closeReplicaConnection(conn);
+    }
+
+    /**
+     * Check whether the result set is closed, either because all rows were
+     * read or because the cursor was closed.
+     *
+     * @return true if it is
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Get the name of the data node which runs the query.
+     *
+     * @return the name of the data node
+     */
+    public String getShardName() {
+        return shardName;
+    }
+
     @Override
     public boolean previous() {
         throw DbException.throwInternalError();
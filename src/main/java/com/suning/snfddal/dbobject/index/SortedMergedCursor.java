@@ -0,0 +1,136 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.dbobject.index;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.suning.snfddal.dbobject.table.IndexColumn;
+import com.suning.snfddal.engine.Database;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.result.Row;
+import com.suning.snfddal.result.SearchRow;
+import com.suning.snfddal.result.SortOrder;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueNull;
+
+/**
+ * Merges cursors which are already sorted by the same order into one sorted
+ * cursor (a k-way merge). Only the current row of each cursor is kept in
+ * memory.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class SortedMergedCursor implements Cursor {
+
+    private final List<ResultCursor> cursors;
+    private final PriorityQueue<Entry> queue;
+    private Entry current;
+    private Row currentRow;
+    private boolean started;
+
+    public SortedMergedCursor(Database database, List<ResultCursor> cursors, IndexColumn[] sortColumns) {
+        this.cursors = cursors;
+        this.queue = new PriorityQueue<Entry>(Math.max(1, cursors.size()), new RowComparator(database,
+                sortColumns));
+    }
+
+    @Override
+    public Row get() {
+        return currentRow;
+    }
+
+    @Override
+    public SearchRow getSearchRow() {
+        return currentRow;
+    }
+
+    @Override
+    public boolean next() {
+        if (!started) {
+            for (int i = 0; i < cursors.size(); i++) {
+                ResultCursor cursor = cursors.get(i);
+                if (cursor.next()) {
+                    queue.add(new Entry(cursor, i));
+                }
+            }
+            started = true;
+        } else if (current != null && current.cursor.next()) {
+            queue.add(current);
+        }
+        current = queue.poll();
+        if (current == null) {
+            currentRow = null;
+            return false;
+        }
+        currentRow = current.cursor.get();
+        return true;
+    }
+
+    @Override
+    public boolean previous() {
+        throw DbException.throwInternalError();
+    }
+
+    /**
+     * A cursor and its position in the list, positioned on a row.
+     */
+    private static class Entry {
+
+        final ResultCursor cursor;
+        final int index;
+
+        Entry(ResultCursor cursor, int index) {
+            this.cursor = cursor;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Compares the current rows of two cursors by the sort columns, in the
+     * same way as {@link SortOrder}. Rows which are equal are returned in the
+     * order of the cursors.
+     */
+    private static class RowComparator implements Comparator<Entry> {
+
+        private final Database database;
+        private final int[] columnIds;
+        private final int[] sortTypes;
+
+        RowComparator(Database database, IndexColumn[] sortColumns) {
+            this.database = database;
+            this.columnIds = new int[sortColumns.length];
+            this.sortTypes = new int[sortColumns.length];
+            for (int i = 0; i < sortColumns.length; i++) {
+                columnIds[i] = sortColumns[i].column.getColumnId();
+                sortTypes[i] = sortColumns[i].sortType;
+            }
+        }
+
+        @Override
+        public int compare(Entry a, Entry b) {
+            Row ra = a.cursor.get(), rb = b.cursor.get();
+            for (int i = 0; i < columnIds.length; i++) {
+                Value va = ra.getValue(columnIds[i]);
+                Value vb = rb.getValue(columnIds[i]);
+                boolean aNull = va == ValueNull.INSTANCE, bNull = vb == ValueNull.INSTANCE;
+                if (aNull || bNull) {
+                    if (aNull == bNull) {
+                        continue;
+                    }
+                    return SortOrder.compareNull(aNull, sortTypes[i]);
+                }
+                int comp = database.compare(va, vb);
+                if (comp != 0) {
+                    return (sortTypes[i] & SortOrder.DESCENDING) == 0 ? comp : -comp;
+                }
+            }
+            return a.index - b.index;
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.dbobject.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.suning.snfddal.command.expression.ExportedParameters;
+import com.suning.snfddal.command.expression.Expression;
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.util.SmallLRUCache;
+import com.suning.snfddal.value.Value;
+
+/**
+ * The queries which the index of a table filter sends to the data nodes, per
+ * set of physical tables. The text of a query only depends on the prepared
+ * statement and on the physical tables it reads, so it is built once and only
+ * the parameters change between executions. The exported condition of the
+ * table filter is kept as well, together with the expressions of its
+ * parameters, so that later executions only read their values. The cache
+ * belongs to a table filter of a prepared statement, which is only used by
+ * one session at a time.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class SqlTemplateCache {
+
+    /**
+     * The maximum number of table sets per table filter.
+     */
+    private static final int MAX_SIZE = 64;
+
+    private final SmallLRUCache<List<String>, String> map = SmallLRUCache.newInstance(MAX_SIZE);
+    private String condition;
+    private Expression[] parameters;
+    private long limitRows;
+
+    /**
+     * Check if the condition was exported and the cached queries were built
+     * for the given row limit. Otherwise, the cache needs to be reset.
+     *
+     * @param limit the maximum number of rows per data node, or -1
+     * @return true if the cache can be used
+     */
+    boolean isValid(long limit) {
+        return parameters != null && limit == limitRows;
+    }
+
+    /**
+     * Remove the cached queries and keep the given condition.
+     *
+     * @param queryCondition the exported condition of the table filter, or
+     *            null
+     * @param params the parameters of the condition
+     * @param limit the maximum number of rows per data node, or -1
+     */
+    void reset(String queryCondition, ExportedParameters params, long limit) {
+        map.clear();
+        condition = queryCondition;
+        parameters = params.getSources();
+        limitRows = limit;
+    }
+
+    /**
+     * Get the exported condition of the table filter.
+     *
+     * @return the condition, or null
+     */
+    String getCondition() {
+        return condition;
+    }
+
+    /**
+     * Read the current parameters of the condition.
+     *
+     * @param session the session
+     * @return the parameters
+     */
+    ArrayList<Value> getParameters(Session session) {
+        return ExportedParameters.getValues(session, parameters);
+    }
+
+    /**
+     * Get the query for the given physical tables.
+     *
+     * @param tables the physical tables
+     * @return the query, or null if it is not cached
+     */
+    String get(String[] tables) {
+        return map.get(Arrays.asList(tables));
+    }
+
+    /**
+     * Add the query for the given physical tables.
+     *
+     * @param tables the physical tables
+     * @param sql the query
+     */
+    void put(String[] tables, String sql) {
+        map.put(Arrays.asList(tables.clone()), sql);
+    }
+
+}
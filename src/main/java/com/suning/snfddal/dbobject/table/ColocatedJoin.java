@@ -0,0 +1,298 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.dbobject.table;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import com.suning.snfddal.command.expression.Comparison;
+import com.suning.snfddal.command.expression.ConditionAndOr;
+import com.suning.snfddal.command.expression.Expression;
+import com.suning.snfddal.command.expression.ExpressionColumn;
+import com.suning.snfddal.dbobject.DbObject;
+import com.suning.snfddal.dbobject.index.Cursor;
+import com.suning.snfddal.dbobject.index.IndexCondition;
+import com.suning.snfddal.dbobject.index.MappedIndex;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.result.Row;
+import com.suning.snfddal.result.SearchRow;
+import com.suning.snfddal.route.rule.RuleColumn;
+import com.suning.snfddal.route.rule.TableRouter;
+import com.suning.snfddal.util.New;
+
+/**
+ * An inner join of mapped tables which are partitioned the same way, where
+ * the join condition compares the rule columns of the tables. Rows which
+ * match are always stored in physical tables at the same position of the
+ * same shard, so each data node can join its own tables. The rows of the
+ * joined query contain the columns of all tables, and are split into the
+ * rows of the table filters.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class ColocatedJoin {
+
+    private final TableFilter[] filters;
+    private Row[] currentRows;
+
+    private ColocatedJoin(TableFilter[] filters) {
+        this.filters = filters;
+    }
+
+    /**
+     * Check whether the joined tables of the given top table filter can be
+     * joined on the data nodes, and if yes, let the table filters read the
+     * rows of the joined query.
+     *
+     * @param top the top table filter
+     * @param filters all table filters of the query
+     * @return true if the join is done by the data nodes
+     */
+    public static boolean create(TableFilter top, List<TableFilter> filters) {
+        ArrayList<TableFilter> list = New.arrayList();
+        for (TableFilter f = top; f != null; f = f.getJoin()) {
+            if (f.getNestedJoin() != null || !(f.getTable() instanceof MappedTable) ||
+                    !(f.getIndex() instanceof MappedIndex)) {
+                return false;
+            }
+            if (f != top && (f.isJoinOuter() || f.isJoinOuterIndirect())) {
+                return false;
+            }
+            TableRouter router = ((MappedTable) f.getTable()).getTableRouter();
+            if (router == null || !router.isColocated(getRouter(top))) {
+                return false;
+            }
+            if (f != top && !isJoinedOnRuleColumns(f, router, list)) {
+                return false;
+            }
+            list.add(f);
+        }
+        if (list.size() < 2 || list.size() != filters.size()) {
+            return false;
+        }
+        ColocatedJoin join = new ColocatedJoin(list.toArray(new TableFilter[list.size()]));
+        for (TableFilter f : list) {
+            f.setColocatedJoin(join);
+        }
+        return true;
+    }
+
+    private static TableRouter getRouter(TableFilter f) {
+        return ((MappedTable) f.getTable()).getTableRouter();
+    }
+
+    /**
+     * Check whether each rule column of the table filter is compared with
+     * the same rule column of a table filter which is joined before.
+     */
+    private static boolean isJoinedOnRuleColumns(TableFilter f, TableRouter router, List<TableFilter> before) {
+        for (RuleColumn ruleColumn : router.getRuleColumns()) {
+            boolean joined = false;
+            for (IndexCondition condition : f.getIndexConditions()) {
+                if (condition.getCompareType() != Comparison.EQUAL ||
+                        !condition.getColumn().getName().equalsIgnoreCase(ruleColumn.getName())) {
+                    continue;
+                }
+                Expression e = condition.getExpression();
+                if (!(e instanceof ExpressionColumn)) {
+                    continue;
+                }
+                ExpressionColumn other = (ExpressionColumn) e;
+                if (before.contains(other.getTableFilter()) &&
+                        other.getColumn().getName().equalsIgnoreCase(ruleColumn.getName()) &&
+                        other.getColumn().getType() == condition.getColumn().getType()) {
+                    joined = true;
+                    break;
+                }
+            }
+            if (!joined) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the joined table filters, the top table filter first.
+     *
+     * @return the table filters
+     */
+    public TableFilter[] getFilters() {
+        return filters;
+    }
+
+    /**
+     * Check whether the table filter is part of this join.
+     *
+     * @param filter the table filter
+     * @return true if it is
+     */
+    public boolean contains(TableFilter filter) {
+        for (TableFilter f : filters) {
+            if (f == filter) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the conditions of the joined table filters which the data nodes
+     * can evaluate. The other conditions are only checked locally.
+     *
+     * @return the conditions
+     */
+    public List<Expression> getConditions() {
+        HashSet<DbObject> tables = New.hashSet();
+        for (TableFilter f : filters) {
+            tables.add(f.getTable());
+        }
+        ArrayList<Expression> conjuncts = New.arrayList();
+        for (TableFilter f : filters) {
+            addConjuncts(f.getFilterCondition(), conjuncts);
+            addConjuncts(f.getJoinCondition(), conjuncts);
+        }
+        ArrayList<Expression> conditions = New.arrayList();
+        for (Expression e : conjuncts) {
+            // subqueries and functions are evaluated locally
+            if (MappedIndex.isExportable(e, tables)) {
+                conditions.add(e);
+            }
+        }
+        return conditions;
+    }
+
+    private static void addConjuncts(Expression condition, List<Expression> list) {
+        if (condition instanceof ConditionAndOr) {
+            ConditionAndOr and = (ConditionAndOr) condition;
+            if (and.getAndOrType() == ConditionAndOr.AND) {
+                addConjuncts(and.getExpression(true), list);
+                addConjuncts(and.getExpression(false), list);
+                return;
+            }
+        }
+        if (condition != null && !list.contains(condition)) {
+            list.add(condition);
+        }
+    }
+
+    /**
+     * Get a cursor over the rows of the top table filter. The rows of the
+     * other table filters are kept until they are read.
+     *
+     * @param joined the cursor over the rows of the joined query
+     * @param readColumns the columns of each table filter in the joined rows
+     * @return the cursor
+     */
+    public Cursor open(Cursor joined, Column[][] readColumns) {
+        return new JoinedRowCursor(joined, readColumns);
+    }
+
+    /**
+     * Get a cursor over the row of the given table filter which was read
+     * together with the current row of the top table filter.
+     *
+     * @param filter the table filter
+     * @return the cursor
+     */
+    public Cursor find(TableFilter filter) {
+        for (int i = 1; i < filters.length; i++) {
+            if (filters[i] == filter) {
+                return new SingleRowCursor(currentRows == null ? null : currentRows[i]);
+            }
+        }
+        throw DbException.throwInternalError();
+    }
+
+    /**
+     * Splits the rows of the joined query into the rows of the table
+     * filters.
+     */
+    private class JoinedRowCursor implements Cursor {
+
+        private final Cursor joined;
+        private final Column[][] readColumns;
+        private Row current;
+
+        JoinedRowCursor(Cursor joined, Column[][] readColumns) {
+            this.joined = joined;
+            this.readColumns = readColumns;
+        }
+
+        @Override
+        public Row get() {
+            return current;
+        }
+
+        @Override
+        public SearchRow getSearchRow() {
+            return current;
+        }
+
+        @Override
+        public boolean next() {
+            if (!joined.next()) {
+                current = null;
+                currentRows = null;
+                return false;
+            }
+            Row row = joined.get();
+            Row[] rows = new Row[filters.length];
+            int index = 0;
+            for (int i = 0; i < filters.length; i++) {
+                rows[i] = filters[i].getTable().getTemplateRow();
+                for (Column column : readColumns[i]) {
+                    rows[i].setValue(column.getColumnId(), row.getValue(index++));
+                }
+            }
+            currentRows = rows;
+            current = rows[0];
+            return true;
+        }
+
+        @Override
+        public boolean previous() {
+            throw DbException.throwInternalError();
+        }
+    }
+
+    /**
+     * A cursor over at most one row.
+     */
+    private static class SingleRowCursor implements Cursor {
+
+        private Row row;
+        private Row current;
+
+        SingleRowCursor(Row row) {
+            this.row = row;
+        }
+
+        @Override
+        public Row get() {
+            return current;
+        }
+
+        @Override
+        public SearchRow getSearchRow() {
+            return current;
+        }
+
+        @Override
+        public boolean next() {
+            current = row;
+            row = null;
+            return current != null;
+        }
+
+        @Override
+        public boolean previous() {
+            throw DbException.throwInternalError();
+        }
+    }
+
+}
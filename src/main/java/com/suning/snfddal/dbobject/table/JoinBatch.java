@@ -0,0 +1,250 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.dbobject.table;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.suning.snfddal.command.dml.Select;
+import com.suning.snfddal.command.expression.Comparison;
+import com.suning.snfddal.command.expression.ConditionAndOr;
+import com.suning.snfddal.command.expression.Expression;
+import com.suning.snfddal.command.expression.ExpressionVisitor;
+import com.suning.snfddal.dbobject.index.Cursor;
+import com.suning.snfddal.dbobject.index.IndexCondition;
+import com.suning.snfddal.dbobject.index.MappedIndex;
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.result.Row;
+import com.suning.snfddal.result.SearchRow;
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.util.ValueHashMap;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueNull;
+
+/**
+ * Finds the rows of the inner table of a join for a batch of rows of the
+ * outer table. The join keys of the outer rows are collected first, the
+ * matching rows are read with one IN(..) query per physical table, and are
+ * then looked up by key for each outer row.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class JoinBatch {
+
+    private final TableFilter filter;
+    private final MappedIndex index;
+    private final IndexCondition keyCondition;
+    private final List<IndexCondition> indexConditions;
+    private final List<Expression> conditions;
+    private final int batchSize;
+    private ValueHashMap<ArrayList<Row>> rows;
+
+    private JoinBatch(TableFilter filter, IndexCondition keyCondition, List<IndexCondition> indexConditions,
+            List<Expression> conditions, int batchSize) {
+        this.filter = filter;
+        this.index = (MappedIndex) filter.getIndex();
+        this.keyCondition = keyCondition;
+        this.indexConditions = indexConditions;
+        this.conditions = conditions;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Create a join batch for the given inner table filter, if the filter
+     * reads a mapped table and one of its index conditions compares a column
+     * with the other tables of the query (the join key).
+     *
+     * @param filter the inner table filter
+     * @param batchSize the maximum number of outer rows per batch
+     * @return the join batch, or null if the filter can't be batched
+     */
+    static JoinBatch create(final TableFilter filter, int batchSize) {
+        Select select = filter.getSelect();
+        if (batchSize <= 1 || select == null || filter.getNestedJoin() != null ||
+                !(filter.getIndex() instanceof MappedIndex)) {
+            return null;
+        }
+        final ArrayList<ExpressionVisitor> others = New.arrayList();
+        for (TableFilter top : select.getTopFilters()) {
+            top.visit(new TableFilter.TableFilterVisitor() {
+                @Override
+                public void accept(TableFilter f) {
+                    if (f != filter) {
+                        others.add(ExpressionVisitor.getNotFromResolverVisitor(f));
+                    }
+                }
+            });
+        }
+        IndexCondition keyCondition = null;
+        ArrayList<IndexCondition> indexConditions = New.arrayList();
+        for (IndexCondition condition : filter.getIndexConditions()) {
+            Expression e = condition.getExpression();
+            if (e == null) {
+                // IN(..) is not used for routing, but sent to the data nodes
+                continue;
+            }
+            if (isLocal(e, others)) {
+                indexConditions.add(condition);
+            } else if (keyCondition == null && condition.getCompareType() == Comparison.EQUAL) {
+                keyCondition = condition;
+            }
+        }
+        if (keyCondition == null) {
+            return null;
+        }
+        ArrayList<Expression> conjuncts = New.arrayList();
+        addConjuncts(filter.getFilterCondition(), conjuncts);
+        ArrayList<Expression> conditions = New.arrayList();
+        for (Expression e : conjuncts) {
+            // the other conditions are only checked locally
+            if (isLocal(e, others)) {
+                conditions.add(e);
+            }
+        }
+        return new JoinBatch(filter, keyCondition, indexConditions, conditions, batchSize);
+    }
+
+    private static boolean isLocal(Expression e, List<ExpressionVisitor> others) {
+        for (ExpressionVisitor visitor : others) {
+            if (!e.isEverything(visitor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addConjuncts(Expression condition, List<Expression> list) {
+        if (condition instanceof ConditionAndOr) {
+            ConditionAndOr and = (ConditionAndOr) condition;
+            if (and.getAndOrType() == ConditionAndOr.AND) {
+                addConjuncts(and.getExpression(true), list);
+                addConjuncts(and.getExpression(false), list);
+                return;
+            }
+        }
+        if (condition != null) {
+            list.add(condition);
+        }
+    }
+
+    /**
+     * Get the maximum number of outer rows per batch.
+     *
+     * @return the batch size
+     */
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Get the join key for the current row of the outer tables.
+     *
+     * @param session the session
+     * @return the key
+     */
+    Value getKey(Session session) {
+        Value v = keyCondition.getCurrentValue(session);
+        return v == ValueNull.INSTANCE ? v : keyCondition.getColumn().convert(v);
+    }
+
+    /**
+     * Read the rows which match the given join keys.
+     *
+     * @param session the session
+     * @param keys the join keys of the outer rows
+     */
+    void load(Session session, List<Value> keys) {
+        ValueHashMap<ArrayList<Row>> map = ValueHashMap.newInstance();
+        ArrayList<Value> distinctKeys = New.arrayList();
+        for (Value key : keys) {
+            if (key != ValueNull.INSTANCE && map.get(key) == null) {
+                map.put(key, new ArrayList<Row>());
+                distinctKeys.add(key);
+            }
+        }
+        if (!distinctKeys.isEmpty()) {
+            Column column = keyCondition.getColumn();
+            Cursor cursor = index.findBatch(filter, indexConditions, conditions, column, distinctKeys);
+            int columnId = column.getColumnId();
+            while (cursor.next()) {
+                Row row = cursor.get();
+                ArrayList<Row> list = map.get(row.getValue(columnId));
+                if (list != null) {
+                    list.add(row);
+                }
+            }
+        }
+        rows = map;
+    }
+
+    /**
+     * Forget the rows of the current batch.
+     */
+    void reset() {
+        rows = null;
+    }
+
+    /**
+     * Get a cursor over the rows which match the join key of the current row
+     * of the outer tables.
+     *
+     * @param session the session
+     * @return the cursor, or null if the rows for this key were not read
+     */
+    public Cursor find(Session session) {
+        if (rows == null) {
+            return null;
+        }
+        Value key = getKey(session);
+        if (key == ValueNull.INSTANCE) {
+            // NULL never matches
+            return new RowListCursor(null);
+        }
+        ArrayList<Row> list = rows.get(key);
+        return list == null ? null : new RowListCursor(list);
+    }
+
+    /**
+     * A cursor over a list of rows.
+     */
+    private static class RowListCursor implements Cursor {
+
+        private final ArrayList<Row> list;
+        private int index = -1;
+        private Row current;
+
+        RowListCursor(ArrayList<Row> list) {
+            this.list = list;
+        }
+
+        @Override
+        public Row get() {
+            return current;
+        }
+
+        @Override
+        public SearchRow getSearchRow() {
+            return current;
+        }
+
+        @Override
+        public boolean next() {
+            if (list == null || ++index >= list.size()) {
+                current = null;
+                return false;
+            }
+            current = list.get(index);
+            return true;
+        }
+
+        @Override
+        public boolean previous() {
+            throw DbException.throwInternalError();
+        }
+    }
+
+}
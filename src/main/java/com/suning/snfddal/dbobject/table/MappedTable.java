@@ -29,6 +29,9 @@ import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.result.Row;
 import com.suning.snfddal.result.RowList;
+import com.suning.snfddal.route.ShardGroup;
+import com.suning.snfddal.route.ShardHealth;
+import com.suning.snfddal.route.StatementCache;
 import com.suning.snfddal.route.rule.RuleColumn;
 import com.suning.snfddal.route.rule.TableRouter;
 import com.suning.snfddal.util.JdbcUtils;
@@ -53,7 +56,6 @@ public class MappedTable extends Table {
 
     private final String originalSchema;
     private String metadataNode, originalTable, qualifiedTableName;
-    private HashMap<String, PreparedStatement> preparedMap = New.hashMap();
     private final ArrayList<Index> indexes = New.arrayList();
     private final boolean emitUpdates;
     private MappedIndex linkedIndex;
@@ -422,7 +424,10 @@ public class MappedTable extends Table {
         return linkedIndex;
     }
 
-    private void checkReadOnly() {
+    /**
+     * Check that the table can be modified.
+     */
+    public void checkReadOnly() {
         if (readOnly) {
             throw DbException.get(ErrorCode.DATABASE_IS_READ_ONLY);
         }
@@ -440,6 +445,12 @@ public class MappedTable extends Table {
         getScanIndex(session).add(session, row);
     }
 
+    @Override
+    public void addRows(Session session, List<Row> rows) {
+        checkReadOnly();
+        linkedIndex.add(session, rows);
+    }
+
     @Override
     public void close(Session session) {
         // do nothing
@@ -449,12 +460,12 @@ public class MappedTable extends Table {
     public synchronized long getRowCount(Session session) {
         String sql = "SELECT COUNT(*) FROM " + qualifiedTableName;
         try {
-            PreparedStatement prep = execute(session, sql, metadataNode, null, false);
+            PreparedStatement prep = execute(session, metadataNode, sql, null, false);
             ResultSet rs = prep.getResultSet();
             rs.next();
             long count = rs.getLong(1);
             rs.close();
-            reusePreparedStatement(prep, sql);
+            reusePreparedStatement(session.getDataNodeConnection(metadataNode), prep, sql);
             return count;
         } catch (Exception e) {
             throw wrapException(sql, e);
@@ -469,6 +480,10 @@ public class MappedTable extends Table {
      * @return the wrapped exception
      */
     public static DbException wrapException(String sql, Exception ex) {
+        if (ex instanceof DbException && ((DbException) ex).getErrorCode() == ErrorCode.STATEMENT_WAS_CANCELED) {
+            // not an error of the data node
+            return (DbException) ex;
+        }
         SQLException e = DbException.toSQLException(ex);
         return DbException.get(ErrorCode.ERROR_ACCESSING_DATABASE_TABLE_2, e, sql, e.toString());
     }
@@ -483,7 +498,11 @@ public class MappedTable extends Table {
 
     /**
      * Execute a SQL statement using the given parameters. Prepared statements
-     * are kept in a hash map to avoid re-creating them.
+     * are kept in the statement cache of the database to avoid re-creating
+     * them. If the connection to the data node is broken, the statement is
+     * run again with a new connection, unless the connection is in a
+     * transaction. The outcome is recorded in the health of the master or
+     * replica.
      *
      * @param sql the SQL statement
      * @param params the parameters or null
@@ -491,50 +510,62 @@ public class MappedTable extends Table {
      * @return the prepared statement, or null if it is re-used
      */
     public PreparedStatement execute(Session session, String shardName, String sql, List<Value> params, boolean reusePrepared) {
-
+        ShardGroup group = database.getShardGroup(shardName);
         for (int retry = 0;; retry++) {
             Connection conn = null;
+            ShardHealth health = null;
+            PreparedStatement prep = null;
+            long start = 0;
             try {
                 conn = session.getDataNodeConnection(shardName);
-                PreparedStatement prep = preparedMap.remove(sql);
-                if (prep == null) {
-                    prep = conn.prepareStatement(sql);
+                ShardHealth h = group.getHealth(conn);
+                if (h != null) {
+                    h.begin();
+                    health = h;
                 }
-                if (trace.isDebugEnabled()) {
-                    StatementBuilder buff = new StatementBuilder();
-                    buff.append(getName()).append(":\n").append(sql);
-                    if (params != null && params.size() > 0) {
-                        buff.append(" {");
-                        int i = 1;
-                        for (Value v : params) {
-                            buff.appendExceptFirst(", ");
-                            buff.append(i++).append(": ").append(v.getSQL());
-                        }
-                        buff.append('}');
-                    }
-                    buff.append(';');
-                    trace.debug(buff.toString());
+                start = System.nanoTime();
+                prep = prepare(conn, sql, params);
+                session.startDataNodeStatement(prep);
+                try {
+                    prep.execute();
+                } finally {
+                    session.endDataNodeStatement(prep);
                 }
-                if (params != null) {
-                    for (int i = 0, size = params.size(); i < size; i++) {
-                        Value v = params.get(i);
-                        v.set(prep, i + 1);
-                    }
+                if (health != null) {
+                    health.record(System.nanoTime() - start, null);
+                    health = null;
                 }
-                prep.execute();
                 if (reusePrepared) {
-                    reusePreparedStatement(prep, sql);
+                    reusePreparedStatement(conn, prep, sql);
                     return null;
                 }
                 return prep;
 
             } catch (SQLException e) {
-                if (retry >= MAX_RETRY) {
+                // the statement may be broken, it is not cached
+                JdbcUtils.closeSilently(prep);
+                // the statement may have been canceled
+                session.checkCanceled();
+                if (conn == null) {
+                    // could not connect
+                    if (retry >= MAX_RETRY) {
+                        throw DbException.convert(e);
+                    }
+                    continue;
+                }
+                if (health != null) {
+                    health.record(System.nanoTime() - start, e);
+                    health = null;
+                }
+                if (retry >= MAX_RETRY || !ShardHealth.isConnectionError(e)
+                        || !session.discardDataNodeConnection(shardName, conn)) {
                     throw DbException.convert(e);
                 }
-                connect();
             } finally {
-                // JdbcUtils.closeSilently(conn)
+                if (health != null) {
+                    // canceled, or failed before the statement was sent
+                    health.canceled();
+                }
             }
         }
     }
@@ -561,7 +592,8 @@ public class MappedTable extends Table {
 
     @Override
     public boolean canGetRowCount() {
-        return true;
+        // the metadata node only has the rows of one shard
+        return tableRouter == null;
     }
 
     @Override
@@ -578,7 +610,6 @@ public class MappedTable extends Table {
     public void removeChildrenAndResources(Session session) {
         super.removeChildrenAndResources(session);
         close(session);
-        preparedMap = null;
         invalidate();
     }
 
@@ -640,14 +671,67 @@ public class MappedTable extends Table {
         return 0;
     }
 
+    private PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        StatementCache cache = database.getStatementCache();
+        return cache == null ? conn.prepareStatement(sql) : cache.prepare(conn, sql);
+    }
+
     /**
-     * Add this prepared statement to the list of cached statements.
+     * Prepare a SQL statement, taking it from the statement cache if
+     * possible, and set its parameters.
      *
+     * @param conn the connection of the data node
+     * @param sql the SQL statement
+     * @param params the parameters or null
+     * @return the prepared statement, which is not executed yet
+     */
+    public PreparedStatement prepare(Connection conn, String sql, List<Value> params) throws SQLException {
+        PreparedStatement prep = prepare(conn, sql);
+        if (trace.isDebugEnabled()) {
+            StatementBuilder buff = new StatementBuilder();
+            buff.append(getName()).append(":\n").append(sql);
+            if (params != null && params.size() > 0) {
+                buff.append(" {");
+                int i = 1;
+                for (Value v : params) {
+                    buff.appendExceptFirst(", ");
+                    buff.append(i++).append(": ").append(v.getSQL());
+                }
+                buff.append('}');
+            }
+            buff.append(';');
+            trace.debug(buff.toString());
+        }
+        if (params != null) {
+            try {
+                for (int i = 0, size = params.size(); i < size; i++) {
+                    Value v = params.get(i);
+                    v.set(prep, i + 1);
+                }
+            } catch (SQLException e) {
+                JdbcUtils.closeSilently(prep);
+                throw e;
+            }
+        }
+        return prep;
+    }
+
+    /**
+     * Add this prepared statement to the cached statements of the connection,
+     * or close it if statements are not cached. Its result set must be
+     * closed.
+     *
+     * @param conn the connection which prepared the statement
      * @param prep the prepared statement
      * @param sql the SQL statement
      */
-    public void reusePreparedStatement(PreparedStatement prep, String sql) {
-        preparedMap.put(sql, prep);
+    public void reusePreparedStatement(Connection conn, PreparedStatement prep, String sql) {
+        StatementCache cache = database.getStatementCache();
+        if (cache == null) {
+            JdbcUtils.closeSilently(prep);
+        } else {
+            cache.release(conn, sql, prep);
+        }
     }
 
     @Override
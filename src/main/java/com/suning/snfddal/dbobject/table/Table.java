@@ -8,6 +8,7 @@ package com.suning.snfddal.dbobject.table;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import com.suning.snfddal.api.ErrorCode;
@@ -203,6 +204,20 @@ public abstract class Table extends SchemaObjectBase {
      */
     public abstract void addRow(Session session, Row row);
 
+    /**
+     * Add a list of rows to the table and all indexes. Tables which can write
+     * many rows at once should override this method.
+     *
+     * @param session the session
+     * @param rows the rows
+     * @throws DbException if a constraint was violated
+     */
+    public void addRows(Session session, List<Row> rows) {
+        for (Row row : rows) {
+            addRow(session, row);
+        }
+    }
+
     /**
      * Commit an operation (when using multi-version concurrency).
      *
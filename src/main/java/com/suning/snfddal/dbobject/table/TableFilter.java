@@ -17,6 +17,7 @@ import com.suning.snfddal.dbobject.Right;
 import com.suning.snfddal.dbobject.index.Index;
 import com.suning.snfddal.dbobject.index.IndexCondition;
 import com.suning.snfddal.dbobject.index.IndexCursor;
+import com.suning.snfddal.dbobject.index.SqlTemplateCache;
 import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.engine.SysProperties;
 import com.suning.snfddal.message.DbException;
@@ -99,6 +100,29 @@ public class TableFilter implements ColumnResolver {
      */
     private TableFilter nestedJoin;
 
+    /**
+     * Reads the rows of this table for a batch of rows of the outer table (if
+     * there is one).
+     */
+    private JoinBatch joinBatch;
+
+    /**
+     * The join which is done by the data nodes (if this table is part of
+     * one).
+     */
+    private ColocatedJoin colocatedJoin;
+
+    /**
+     * The queries the index of this filter sends to the data nodes.
+     */
+    private SqlTemplateCache sqlTemplates;
+
+    /**
+     * The rows of the current batch which were not returned yet.
+     */
+    private ArrayList<Row> batchRows;
+    private int batchIndex;
+
     private ArrayList<Column> naturalJoinColumns;
     private boolean foundOne;
     private Expression fullCondition;
@@ -278,6 +302,9 @@ public class TableFilter implements ColumnResolver {
                 DbException.throwInternalError("self join");
             }
             join.prepare();
+            if (nestedJoin == null) {
+                join.joinBatch = JoinBatch.create(join, session.getDatabase().getSettings().joinBatchSize);
+            }
         }
         if (filterCondition != null) {
             filterCondition = filterCondition.optimize(session);
@@ -326,6 +353,7 @@ public class TableFilter implements ColumnResolver {
         if (state == AFTER_LAST) {
             return false;
         } else if (state == BEFORE_FIRST) {
+            batchRows = null;
             cursor.find(session, indexConditions);
             if (!cursor.isAlwaysFalse()) {
                 if (nestedJoin != null) {
@@ -357,7 +385,9 @@ public class TableFilter implements ColumnResolver {
                 if ((++scanCount & 4095) == 0) {
                     checkTimeout();
                 }
-                if (cursor.next()) {
+                if (join != null && join.joinBatch != null) {
+                    state = nextBatchRow() ? FOUND : AFTER_LAST;
+                } else if (cursor.next()) {
                     currentSearchRow = cursor.getSearchRow();
                     current = null;
                     state = FOUND;
@@ -409,6 +439,36 @@ public class TableFilter implements ColumnResolver {
         return false;
     }
 
+    /**
+     * Go to the next row when the joined table is read in batches. If all
+     * rows of the current batch were returned, the next rows are read, and
+     * the rows of the joined table are read for all of them at once.
+     *
+     * @return true if there is a row
+     */
+    private boolean nextBatchRow() {
+        if (batchRows == null || batchIndex >= batchRows.size()) {
+            JoinBatch batch = join.joinBatch;
+            batch.reset();
+            batchRows = New.arrayList();
+            batchIndex = 0;
+            ArrayList<Value> keys = New.arrayList();
+            while (batchRows.size() < batch.getBatchSize() && cursor.next()) {
+                current = cursor.get();
+                currentSearchRow = current;
+                batchRows.add(current);
+                keys.add(batch.getKey(session));
+            }
+            if (batchRows.isEmpty()) {
+                return false;
+            }
+            batch.load(session, keys);
+        }
+        current = batchRows.get(batchIndex++);
+        currentSearchRow = current;
+        return true;
+    }
+
     /**
      * Set the state of this and all nested tables to the NULL row.
      */
@@ -987,6 +1047,50 @@ public class TableFilter implements ColumnResolver {
         }
     }
 
+    public JoinBatch getJoinBatch() {
+        return joinBatch;
+    }
+
+    public ColocatedJoin getColocatedJoin() {
+        return colocatedJoin;
+    }
+
+    /**
+     * Get the cache of the queries which the index of this filter sends to
+     * the data nodes.
+     *
+     * @return the cache
+     */
+    public SqlTemplateCache getSqlTemplateCache() {
+        if (sqlTemplates == null) {
+            sqlTemplates = new SqlTemplateCache();
+        }
+        return sqlTemplates;
+    }
+
+    /**
+     * Let this table filter read its rows from a join which is done by the
+     * data nodes.
+     *
+     * @param join the join
+     */
+    void setColocatedJoin(ColocatedJoin join) {
+        this.colocatedJoin = join;
+        // the rows are read together with those of the top table
+        this.joinBatch = null;
+    }
+
+    /**
+     * Check whether the columns of the given table filter are read by the
+     * same query on the data nodes as the columns of this table filter.
+     *
+     * @param filter the table filter
+     * @return true if they are
+     */
+    public boolean isReadTogether(TableFilter filter) {
+        return filter == this || colocatedJoin != null && colocatedJoin.contains(filter);
+    }
+
     public TableFilter getNestedJoin() {
         return nestedJoin;
     }
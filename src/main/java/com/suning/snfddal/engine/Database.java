@@ -30,8 +30,13 @@ import com.suning.snfddal.dbobject.table.Table;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.message.Trace;
 import com.suning.snfddal.message.TraceSystem;
+import com.suning.snfddal.route.HealthMonitor;
+import com.suning.snfddal.route.HedgePolicy;
+import com.suning.snfddal.route.MultiNodeExecutor;
 import com.suning.snfddal.route.RoutingHandler;
 import com.suning.snfddal.route.RoutingHandlerImpl;
+import com.suning.snfddal.route.ShardGroup;
+import com.suning.snfddal.route.StatementCache;
 import com.suning.snfddal.util.BitField;
 import com.suning.snfddal.util.New;
 import com.suning.snfddal.util.SourceCompiler;
@@ -55,7 +60,7 @@ public class Database {
     private final HashMap<String, UserDataType> userDataTypes = New.hashMap();
     private final HashMap<String, UserAggregate> aggregates = New.hashMap();
     private final HashMap<String, Comment> comments = New.hashMap();
-    private final HashMap<String, DataSource> dataNodeMapping = New.hashMap();
+    private final HashMap<String, ShardGroup> dataNodeMapping = New.hashMap();
 
     private final Set<Session> userSessions = Collections.synchronizedSet(new HashSet<Session>());
 
@@ -76,11 +81,25 @@ public class Database {
 
     private SourceCompiler compiler;
     private RoutingHandler routingHandler;
+    private MultiNodeExecutor multiNodeExecutor;
+    private final QueryCache queryCache;
+    private final StatementCache statementCache;
+    private final HealthMonitor healthMonitor;
+    private final HedgePolicy hedgePolicy;
+    private volatile long modificationMetaId;
 
     public Database() {
 
         this.compareMode = CompareMode.getInstance(null, 0);
         this.dbSettings = DbSettings.getInstance(null);
+        this.queryCache = dbSettings.sharedQueryCacheSize > 0 ?
+                new QueryCache(dbSettings.sharedQueryCacheSize) : null;
+        this.statementCache = dbSettings.shardStatementCacheSize > 0 ?
+                new StatementCache(dbSettings.shardStatementCacheSize) : null;
+        this.healthMonitor = dbSettings.shardFailureRate > 0 ?
+                new HealthMonitor(dbSettings) : null;
+        this.hedgePolicy = dbSettings.shardHedgeBudget > 0 ?
+                new HedgePolicy(dbSettings) : null;
 
         int traceLevelFile = TraceSystem.DEBUG;
         int traceLevelSystemOut = TraceSystem.DEBUG;
@@ -181,6 +200,7 @@ public class Database {
      * @param obj the object to add
      */
     public synchronized void addSchemaObject(SchemaObject obj) {
+        getNextModificationMetaId();
         obj.getSchema().add(obj);
         trace.debug("addSchemaObject: {0}", obj.getCreateSQL());
     }
@@ -192,6 +212,7 @@ public class Database {
      * @param obj the object to add
      */
     public synchronized void addDatabaseObject(DbObject obj) {
+        getNextModificationMetaId();
         HashMap<String, DbObject> map = getMap(obj.getType());
         String name = obj.getName();
         if (SysProperties.CHECK && map.get(name) != null) {
@@ -351,6 +372,16 @@ public class Database {
                 }
             }
         }
+        if (multiNodeExecutor != null) {
+            multiNodeExecutor.shutdown();
+            multiNodeExecutor = null;
+        }
+        if (healthMonitor != null) {
+            healthMonitor.shutdown();
+        }
+        if (hedgePolicy != null) {
+            hedgePolicy.shutdown();
+        }
         trace.info("Database closed");
         traceSystem.close();
     }
@@ -476,6 +507,7 @@ public class Database {
      * @param newName the new name
      */
     public synchronized void renameSchemaObject(Session session, SchemaObject obj, String newName) {
+        getNextModificationMetaId();
         obj.getSchema().rename(obj, newName);
     }
 
@@ -498,6 +530,7 @@ public class Database {
             }
         }
         obj.checkRename();
+        getNextModificationMetaId();
         map.remove(obj.getName());
         obj.rename(newName);
         map.put(newName, obj);
@@ -537,6 +570,7 @@ public class Database {
         }
         obj.removeChildrenAndResources(session);
         map.remove(objName);
+        getNextModificationMetaId();
     }
 
     /**
@@ -607,29 +641,56 @@ public class Database {
             removeDatabaseObject(session, comment);
         }
         obj.getSchema().remove(obj);
+        getNextModificationMetaId();
     }
 
     public synchronized void addDataNode(String name, DataSource dataSource) {
+        addDataNode(new ShardGroup(name, dataSource));
+    }
+
+    /**
+     * Add a data node with its master and replicas.
+     *
+     * @param group the data node
+     */
+    public synchronized void addDataNode(ShardGroup group) {
+        String name = group.getName();
         if (dataNodeMapping.containsKey(name)) {
             DbException.throwInternalError("data node already exists: " + name);
         }
-        dataNodeMapping.put(name, dataSource);
+        if (healthMonitor != null) {
+            group.createHealth(healthMonitor);
+        }
+        dataNodeMapping.put(name, group);
+        getNextModificationMetaId();
     }
 
     public DataSource getDataNode(String name) {
-        DataSource dataSource = dataNodeMapping.get(name);
-        if (dataSource == null) {
+        return getShardGroup(name).getMaster();
+    }
+
+    /**
+     * Get the master and the replicas of a data node.
+     *
+     * @param name the name of the data node
+     * @return the data node
+     */
+    public ShardGroup getShardGroup(String name) {
+        ShardGroup group = dataNodeMapping.get(name);
+        if (group == null) {
             DbException.throwInternalError("data node not exists: " + name);
         }
-        return dataSource;
+        return group;
     }
 
     public synchronized DataSource removeDataNode(String name) {
-        DataSource dataSource = dataNodeMapping.get(name);
-        if (dataSource == null) {
+        ShardGroup group = dataNodeMapping.get(name);
+        if (group == null) {
             DbException.throwInternalError("data node not found: " + name);
         }
-        return dataNodeMapping.remove(name);
+        getNextModificationMetaId();
+        dataNodeMapping.remove(name);
+        return group.getMaster();
     }
 
     public TraceSystem getTraceSystem() {
@@ -744,6 +805,67 @@ public class Database {
         }
         return routingHandler;
     }
+
+    /**
+     * Get the executor which runs statements on the data nodes.
+     *
+     * @return the executor
+     */
+    public synchronized MultiNodeExecutor getMultiNodeExecutor() {
+        if (multiNodeExecutor == null) {
+            multiNodeExecutor = new MultiNodeExecutor(dbSettings);
+        }
+        return multiNodeExecutor;
+    }
+
+    /**
+     * Get the cache of the statements which are prepared, but not used by
+     * any session.
+     *
+     * @return the cache, or null if it is disabled
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Get the cache of the prepared statements of the data node
+     * connections.
+     *
+     * @return the cache, or null if it is disabled
+     */
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Get the policy which sends slow queries on replicas a second time.
+     *
+     * @return the policy, or null if it is disabled
+     */
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    /**
+     * Get the current modification meta id. It is changed whenever a
+     * database object or a data node is added, renamed or removed, so that
+     * prepared statements are parsed again.
+     *
+     * @return the modification meta id
+     */
+    public long getModificationMetaId() {
+        return modificationMetaId;
+    }
+
+    /**
+     * Increment and get the modification meta id.
+     *
+     * @return the new modification meta id
+     */
+    public synchronized long getNextModificationMetaId() {
+        return ++modificationMetaId;
+    }
     
     
 
@@ -127,12 +127,37 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean functionsInSchema = get("FUNCTIONS_IN_SCHEMA", true);
 
+    /**
+     * Database setting <code>INSERT_BATCH_SIZE</code> (default: 1000).<br />
+     * The maximum number of rows of an INSERT statement or a JDBC batch which
+     * are collected before they are sent to the data nodes, grouped by
+     * physical table. 1 inserts the rows one by one.
+     */
+    public final int insertBatchSize = get("INSERT_BATCH_SIZE", 1000);
+
+    /**
+     * Database setting <code>JOIN_BATCH_SIZE</code> (default: 100).<br />
+     * The number of rows of the outer table of a join which are read at once,
+     * so that the matching rows of a sharded inner table are found with one
+     * query per physical table. 0 disables batched joins.
+     */
+    public final int joinBatchSize = get("JOIN_BATCH_SIZE", 100);
+
     /**
      * Database setting <code>LARGE_TRANSACTIONS</code> (default: true).<br />
      * Support very large transactions
      */
     public final boolean largeTransactions = get("LARGE_TRANSACTIONS", true);
 
+    /**
+     * Database setting <code>LAZY_QUERY_EXECUTION</code> (default: true).<br />
+     * Compute the rows of simple queries while the client reads a forward
+     * only result set, instead of reading all rows from the data nodes first.
+     * Queries which group, sort or remove duplicate rows locally are always
+     * computed completely.
+     */
+    public final boolean lazyQueryExecution = get("LAZY_QUERY_EXECUTION", true);
+
     /**
      * Database setting <code>MAX_COMPACT_COUNT</code>
      * (default: Integer.MAX_VALUE).<br />
@@ -155,12 +180,29 @@ public class DbSettings extends SettingsBase {
      */
     public int maxQueryTimeout = get("MAX_QUERY_TIMEOUT", 0);
 
+    /**
+     * Database setting <code>MERGE_PREFETCH_ROWS</code> (default: 256).<br />
+     * The number of rows which are read ahead from each shard while the rows
+     * of several shards are merged in no particular order, so that all shards
+     * are read at the same time. 0 reads the shards one after another.
+     */
+    public final int mergePrefetchRows = get("MERGE_PREFETCH_ROWS", 256);
+
     /**
      * Database setting <code>NESTED_JOINS</code> (default: true).<br />
      * Whether nested joins should be supported.
      */
     public final boolean nestedJoins = get("NESTED_JOINS", true);
 
+    /**
+     * Database setting <code>OPTIMIZE_AGGREGATE_PUSHDOWN</code> (default:
+     * true).<br />
+     * Let the data nodes calculate COUNT, SUM, MIN, MAX and AVG of a query on
+     * a sharded table per group, and merge the partial results, instead of
+     * reading all rows.
+     */
+    public final boolean optimizeAggregatePushdown = get("OPTIMIZE_AGGREGATE_PUSHDOWN", true);
+
     /**
      * Database setting <code>OPTIMIZE_DISTINCT</code> (default: true).<br />
      * Improve the performance of simple DISTINCT queries if an index is
@@ -212,12 +254,28 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean optimizeIsNull = get("OPTIMIZE_IS_NULL", true);
 
+    /**
+     * Database setting <code>OPTIMIZE_JOIN_PUSHDOWN</code> (default: true).<br />
+     * Let the data nodes run an inner join of sharded tables which use the
+     * same partitioning, if the join condition compares their rule columns.
+     */
+    public final boolean optimizeJoinPushdown = get("OPTIMIZE_JOIN_PUSHDOWN", true);
+
     /**
      * Database setting <code>OPTIMIZE_OR</code> (default: true).<br />
      * Convert (C=? OR C=?) to (C IN(?, ?)).
      */
     public final boolean optimizeOr = get("OPTIMIZE_OR", true);
 
+    /**
+     * Database setting <code>OPTIMIZE_SORT_PUSHDOWN</code> (default: true).<br />
+     * Send the ORDER BY of a query on a sharded table to the data nodes, and
+     * merge the sorted rows of the shards instead of sorting all rows. Rows
+     * sorted by strings or binary data are still sorted here, as the data
+     * nodes may use a different collation.
+     */
+    public final boolean optimizeSortPushdown = get("OPTIMIZE_SORT_PUSHDOWN", true);
+
     /**
      * Database setting <code>OPTIMIZE_TWO_EQUALS</code> (default: true).<br />
      * Optimize expressions of the form A=B AND B=1. In this case, AND A=1 is
@@ -232,6 +290,15 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean optimizeUpdate = get("OPTIMIZE_UPDATE", true);
 
+    /**
+     * Database setting <code>OPTIMIZE_UPDATE_PUSHDOWN</code> (default:
+     * true).<br />
+     * Send UPDATE and DELETE statements on a sharded table to the physical
+     * tables the condition routes to, instead of reading the rows and
+     * changing them one by one.
+     */
+    public final boolean optimizeUpdatePushdown = get("OPTIMIZE_UPDATE_PUSHDOWN", true);
+
     /**
      * Database setting <code>PAGE_STORE_MAX_GROWTH</code>
      * (default: 128 * 1024).<br />
@@ -296,6 +363,115 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean selectForUpdateMvcc = get("SELECT_FOR_UPDATE_MVCC", true);
 
+    /**
+     * Database setting <code>SHARD_ASYNC_QUEUE_SIZE</code>
+     * (default: 1000).<br />
+     * The maximum number of asynchronous statements which wait for a thread.
+     * Further statements fail at once. Statements which wait longer than
+     * <code>SHARD_QUEUE_TIMEOUT</code> fail as well.
+     */
+    public final int shardAsyncQueueSize = get("SHARD_ASYNC_QUEUE_SIZE", 1000);
+
+    /**
+     * Database setting <code>SHARD_CONCURRENCY</code> (default: 16).<br />
+     * The maximum number of statements which run on one data node at the same
+     * time, so that a slow data node can't use all threads. Further
+     * statements for the data node are queued. 0 means no limit.
+     */
+    public final int shardConcurrency = get("SHARD_CONCURRENCY", 16);
+
+    /**
+     * Database setting <code>SHARD_FAILURE_RATE</code> (default: 50).<br />
+     * The percentage of the recent statements on the master or a replica of
+     * a data node which need to fail with a connection error, or be slow, so
+     * that it is not used until it is available again: statements for the
+     * master fail at once, and reads use the other replicas. 0 disables
+     * this.
+     */
+    public final int shardFailureRate = get("SHARD_FAILURE_RATE", 50);
+
+    /**
+     * Database setting <code>SHARD_HEALTH_WINDOW</code> (default: 20).<br />
+     * The number of recent statements per master or replica which are used
+     * to decide whether it is available.
+     */
+    public final int shardHealthWindow = get("SHARD_HEALTH_WINDOW", 20);
+
+    /**
+     * Database setting <code>SHARD_HEDGE_BUDGET</code> (default: 0).<br />
+     * The maximum number of queries, in percent of the queries on replicas,
+     * which are sent a second time to another replica because the first one
+     * takes longer than 95 percent of the recent queries on the data node.
+     * The query which finishes first is used. 0 disables this; 5 is a
+     * reasonable value.
+     */
+    public final int shardHedgeBudget = get("SHARD_HEDGE_BUDGET", 0);
+
+    /**
+     * Database setting <code>SHARD_MAX_THREADS</code> (default: 100).<br />
+     * The maximum number of threads which run statements on the data nodes.
+     * Not used if the statements run in virtual threads.
+     */
+    public final int shardMaxThreads = get("SHARD_MAX_THREADS", 100);
+
+    /**
+     * Database setting <code>SHARD_PROBE_INTERVAL</code> (default: 1000).<br />
+     * The number of milliseconds between two attempts to connect to a data
+     * node which is not available.
+     */
+    public final int shardProbeInterval = get("SHARD_PROBE_INTERVAL", 1000);
+
+    /**
+     * Database setting <code>SHARD_QUEUE_TIMEOUT</code> (default: 10000).<br />
+     * The number of milliseconds a statement may wait for a thread or for its
+     * data node before it fails, including asynchronous statements. 0 means
+     * no timeout.
+     */
+    public final int shardQueueTimeout = get("SHARD_QUEUE_TIMEOUT", 10000);
+
+    /**
+     * Database setting <code>SHARD_RUN_INLINE</code> (default: true).<br />
+     * If set, the calling thread runs the queued statements of its own query
+     * instead of waiting for a free thread.
+     */
+    public final boolean shardRunInline = get("SHARD_RUN_INLINE", true);
+
+    /**
+     * Database setting <code>SHARD_SLOW_CALL_TIME</code> (default: 0).<br />
+     * The number of milliseconds after which a statement on a data node
+     * counts as failed when deciding whether the data node is available. 0
+     * means the duration is not used.
+     */
+    public final int shardSlowCallTime = get("SHARD_SLOW_CALL_TIME", 0);
+
+    /**
+     * Database setting <code>SHARD_STATEMENT_CACHE_SIZE</code>
+     * (default: 64).<br />
+     * The maximum number of prepared statements to keep open per data node
+     * connection. 0 means statements are closed after each use.
+     */
+    public final int shardStatementCacheSize = get("SHARD_STATEMENT_CACHE_SIZE", 64);
+
+    /**
+     * Database setting <code>SHARD_VIRTUAL_THREADS</code> (default: false).<br />
+     * If set, the statements on the data nodes run in virtual threads when
+     * running on Java 21 or later. Older versions of Java always use a pool
+     * of <code>SHARD_MAX_THREADS</code> threads. Only enable this with a JDBC
+     * driver which doesn't block in synchronized blocks (MySQL Connector/J 5.1
+     * does), as this pins the carrier threads of the virtual threads.
+     */
+    public final boolean shardVirtualThreads = get("SHARD_VIRTUAL_THREADS", false);
+
+    /**
+     * Database setting <code>SHARED_QUERY_CACHE_SIZE</code>
+     * (default: 256).<br />
+     * The number of parsed statements which are kept for all sessions. A
+     * statement is added when it is parsed, and other sessions use it once
+     * the command which ran it is closed, so that they don't need to parse
+     * the same statement again. 0 disables the cache.
+     */
+    public final int sharedQueryCacheSize = get("SHARED_QUERY_CACHE_SIZE", 256);
+
     /**
      * Database setting <code>SHARE_LINKED_CONNECTIONS</code>
      * (default: true).<br />
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.engine;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.suning.snfddal.command.Command;
+import com.suning.snfddal.command.Prepared;
+
+/**
+ * The parsed and optimized statements of all sessions, so that a session can
+ * re-use a statement that another session prepared instead of parsing it
+ * again. A statement is added when it is parsed, and stays in this cache
+ * while a session uses it; a session can only take it once the command
+ * which ran it last is closed. Each session also keeps its own small cache,
+ * but the other sessions may take its statements.
+ * <p>
+ * The statements are keyed by the SQL statement and the session settings
+ * which change how it is parsed. If several sessions use a statement at the
+ * same time, each of them parses its own copy, and all copies are added. All
+ * statements are removed when a database object or a data node is changed.
+ * <p>
+ * The sessions don't lock the cache to find a statement. If the cache is
+ * full, the least recently used key is removed, which takes a scan of all
+ * keys.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class QueryCache {
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Entry> map = new ConcurrentHashMap<String, Entry>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong modificationMetaId = new AtomicLong();
+    private final AtomicLong accessCount = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public QueryCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Create a command for a cached statement which is not used.
+     *
+     * @param key the key
+     * @param session the session which runs the command
+     * @param sql the SQL statement
+     * @param metaId the current modification meta id of the database
+     * @return the command, or null if no statement is available
+     */
+    public Command take(String key, Session session, String sql, long metaId) {
+        checkMetaId(metaId);
+        Entry entry = map.get(key);
+        if (entry != null) {
+            entry.lastAccess = accessCount.incrementAndGet();
+            for (Prepared prepared : entry.statements) {
+                if (prepared.getModificationMetaId() < metaId) {
+                    continue;
+                }
+                Command command = prepared.createCommand(session, sql);
+                if (command != null) {
+                    hits.incrementAndGet();
+                    return command;
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Add a statement which was just parsed. If the cache is full, the
+     * statements of the least recently used key are removed.
+     *
+     * @param key the key
+     * @param prepared the statement
+     * @param metaId the modification meta id of the database when the
+     *            statement was prepared
+     */
+    public void put(String key, Prepared prepared, long metaId) {
+        if (checkMetaId(metaId)) {
+            // prepared before the last change
+            return;
+        }
+        Entry entry = map.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            Entry old = map.putIfAbsent(key, entry);
+            if (old != null) {
+                entry = old;
+            }
+        }
+        entry.lastAccess = accessCount.incrementAndGet();
+        entry.statements.add(prepared);
+        if (size.incrementAndGet() > maxSize) {
+            removeEldest();
+        }
+    }
+
+    private void removeEldest() {
+        Map.Entry<String, Entry> eldest = null;
+        for (Map.Entry<String, Entry> e : map.entrySet()) {
+            if (eldest == null || e.getValue().lastAccess < eldest.getValue().lastAccess) {
+                eldest = e;
+            }
+        }
+        if (eldest != null && map.remove(eldest.getKey(), eldest.getValue())) {
+            size.addAndGet(-eldest.getValue().statements.size());
+        }
+    }
+
+    /**
+     * Remove all statements if the database objects were changed.
+     *
+     * @param metaId the modification meta id
+     * @return true if the given meta id is older than the cached statements
+     */
+    private boolean checkMetaId(long metaId) {
+        long current = modificationMetaId.get();
+        if (metaId > current && modificationMetaId.compareAndSet(current, metaId)) {
+            map.clear();
+            size.set(0);
+        }
+        return metaId < modificationMetaId.get();
+    }
+
+    /**
+     * Get the number of statements which were found in the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of statements which were not found in the cache, and
+     * had to be parsed.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of cached statements.
+     *
+     * @return the number of statements
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * The statements of a key.
+     */
+    private static class Entry {
+
+        final CopyOnWriteArrayList<Prepared> statements = new CopyOnWriteArrayList<Prepared>();
+
+        /**
+         * When the key was used last, to remove the least recently used key.
+         */
+        volatile long lastAccess;
+
+    }
+
+}
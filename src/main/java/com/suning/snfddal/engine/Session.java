@@ -7,6 +7,7 @@ package com.suning.snfddal.engine;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -26,6 +27,7 @@ import com.suning.snfddal.dbobject.Setting;
 import com.suning.snfddal.dbobject.User;
 import com.suning.snfddal.dbobject.constraint.Constraint;
 import com.suning.snfddal.dbobject.index.Index;
+import com.suning.snfddal.dbobject.index.ResultCursor;
 import com.suning.snfddal.dbobject.schema.Schema;
 import com.suning.snfddal.dbobject.table.Table;
 import com.suning.snfddal.jdbc.JdbcConnection;
@@ -33,6 +35,9 @@ import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.message.Trace;
 import com.suning.snfddal.message.TraceSystem;
 import com.suning.snfddal.result.LocalResult;
+import com.suning.snfddal.route.ShardGroup;
+import com.suning.snfddal.route.ShardHealth;
+import com.suning.snfddal.route.StatementCache;
 import com.suning.snfddal.util.JdbcUtils;
 import com.suning.snfddal.util.New;
 import com.suning.snfddal.util.SmallLRUCache;
@@ -95,6 +100,12 @@ public class Session extends SessionWithState {
     private long currentCommandStart;
     private HashMap<String, Value> variables;
     private HashSet<LocalResult> temporaryResults;
+    private ArrayList<ResultCursor> openCursors = New.arrayList();
+
+    /**
+     * The statements which run on the data nodes for the current command.
+     */
+    private final HashSet<Statement> runningStatements = New.hashSet();
     private int queryTimeout;
     private boolean commitOrRollbackDisabled;
     private Table waitForLock;
@@ -103,6 +114,7 @@ public class Session extends SessionWithState {
     private int objectId;
     private final int queryCacheSize;
     private SmallLRUCache<String, Command> queryCache;
+    private long modificationMetaID = -1;
     private ArrayList<Value> temporaryLobs;
     private boolean readOnly;
     private int transactionIsolation;
@@ -110,6 +122,24 @@ public class Session extends SessionWithState {
     
     private final Map<String, Connection> connectionHolder = New.hashMap();
 
+    /**
+     * The connections to the replicas of the data nodes, which are used by
+     * reads.
+     */
+    private final Map<ShardGroup, Connection> replicaConnectionHolder = New.hashMap();
+
+    /**
+     * Whether the current transaction changed data on a data node, so that
+     * its reads use the masters.
+     */
+    private boolean writeTransaction;
+
+    /**
+     * Whether the last command is read only. This is kept after the command
+     * ends, as a lazy result reads the data nodes later.
+     */
+    private boolean readOnlyCommand;
+
     public Session(Database database, User user, int id) {
         this.database = database;
         this.queryTimeout = database.getSettings().maxQueryTimeout;
@@ -418,23 +448,31 @@ public class Session extends SessionWithState {
         if (queryCacheSize > 0) {
             if (queryCache == null) {
                 queryCache = SmallLRUCache.newInstance(queryCacheSize);
-                //modificationMetaID = database.getModificationMetaId();
+                modificationMetaID = database.getModificationMetaId();
             } else {
-                //ignore table structure modification
-                /*long newModificationMetaID = database.getModificationMetaId();
+                long newModificationMetaID = database.getModificationMetaId();
                 if (newModificationMetaID != modificationMetaID) {
                     queryCache.clear();
                     modificationMetaID = newModificationMetaID;
-                }*/
+                }
                 command = queryCache.get(sql);
-                if (command != null && command.canReuse()) {
-                    command.reuse();
+                if (command != null && command.reuseIfClosed()) {
                     return command;
                 }
             }
         }
-        Parser parser = new Parser(this);
-        command = parser.prepareCommand(sql);
+        QueryCache cache = getSharedQueryCache();
+        command = cache == null ? null : cache.take(getQueryCacheKey(sql), this, sql,
+                database.getModificationMetaId());
+        if (command == null) {
+            Parser parser = new Parser(this);
+            command = parser.prepareCommand(sql);
+            Prepared prepared = command.getPrepared();
+            if (cache != null && command.isCacheable() && prepared != null && prepared.isShareable()) {
+                // other sessions may use it once this session closed the command
+                cache.put(getQueryCacheKey(sql), prepared, prepared.getModificationMetaId());
+            }
+        }
         if (queryCache != null) {
             if (command.isCacheable()) {
                 queryCache.put(sql, command);
@@ -443,6 +481,47 @@ public class Session extends SessionWithState {
         return command;
     }
 
+    /**
+     * Get the cache of the database which is shared with the other sessions,
+     * unless this session can't use it.
+     *
+     * @return the cache, or null
+     */
+    private QueryCache getSharedQueryCache() {
+        if (localTempTables != null && !localTempTables.isEmpty()) {
+            return null;
+        }
+        return database.getQueryCache();
+    }
+
+    /**
+     * Clear the cache of this session. The statements stay in the cache of
+     * the database.
+     */
+    private void releaseQueryCache() {
+        if (queryCache != null) {
+            queryCache.clear();
+        }
+    }
+
+    /**
+     * Get the key of a statement in the cache of the database. It contains
+     * the settings of this session which change how the statement is parsed.
+     *
+     * @param sql the SQL statement
+     * @return the key
+     */
+    private String getQueryCacheKey(String sql) {
+        StringBuilder buff = new StringBuilder(sql.length() + 32);
+        buff.append(user == null ? "" : user.getName()).append('\0').append(currentSchemaName).append('\0');
+        if (schemaSearchPath != null) {
+            for (String schema : schemaSearchPath) {
+                buff.append(schema).append(',');
+            }
+        }
+        return buff.append('\0').append(sql).toString();
+    }
+
     public Database getDatabase() {
         return database;
     }
@@ -481,6 +560,7 @@ public class Session extends SessionWithState {
             }
         }
         endTransaction();
+        writeTransaction = false;
         
         boolean commit = true;
         List<SQLException> commitExceptions = New.arrayList();
@@ -547,6 +627,7 @@ public class Session extends SessionWithState {
             autoCommitAtTransactionEnd = false;
         }
         endTransaction();
+        writeTransaction = false;
         
         List<SQLException> rollbackExceptions = New.arrayList();
         for (Map.Entry<String, Connection> entry : connectionHolder.entrySet()) {
@@ -601,19 +682,36 @@ public class Session extends SessionWithState {
         return id;
     }
 
+    /**
+     * Cancel the current command, and the statements it runs on the data
+     * nodes.
+     */
     @Override
     public void cancel() {
         cancelAt = System.currentTimeMillis();
+        cancelDataNodeStatements();
     }
 
     @Override
     public void close() {
         if (!closed) {
             try {
+                StatementCache statementCache = database.getStatementCache();
                 for (Connection conn : connectionHolder.values()) {
+                    if (statementCache != null) {
+                        statementCache.closeStatements(conn);
+                    }
                     JdbcUtils.closeSilently(conn);
                 }
                 connectionHolder.clear();
+                for (Map.Entry<ShardGroup, Connection> entry : replicaConnectionHolder.entrySet()) {
+                    if (statementCache != null) {
+                        statementCache.closeStatements(entry.getValue());
+                    }
+                    entry.getKey().closeReplicaConnection(entry.getValue());
+                }
+                replicaConnectionHolder.clear();
+                releaseQueryCache();
                 cleanTempTables(true);
                 database.removeSession(this);
             } finally {
@@ -849,10 +947,16 @@ public class Session extends SessionWithState {
      */
     public void setCurrentCommand(Command command) {
         this.currentCommand = command;
-        if (queryTimeout > 0 && command != null) {
-            long now = System.currentTimeMillis();
-            currentCommandStart = now;
-            cancelAt = now + queryTimeout;
+        if (command != null) {
+            readOnlyCommand = command.isReadOnly();
+            if (queryTimeout > 0) {
+                long now = System.currentTimeMillis();
+                currentCommandStart = now;
+                cancelAt = now + queryTimeout;
+            } else {
+                // a cancel of the previous command
+                cancelAt = 0;
+            }
         }
     }
 
@@ -870,10 +974,77 @@ public class Session extends SessionWithState {
         long time = System.currentTimeMillis();
         if (time >= cancelAt) {
             cancelAt = 0;
+            // the timeout expired, or other threads run statements
+            cancelDataNodeStatements();
             throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
         }
     }
 
+    /**
+     * Remember a statement which is about to run on a data node, so that it
+     * is canceled together with the current command. If the command has a
+     * query timeout, the remaining time is the query timeout of the
+     * statement. {@link #endDataNodeStatement(Statement)} must be called once
+     * it is done.
+     *
+     * @param stat the statement
+     * @throws SQLException if the command was canceled, or the timeout
+     *             expired
+     */
+    public void startDataNodeStatement(Statement stat) throws SQLException {
+        long at = cancelAt;
+        int timeout = 0;
+        if (at != 0) {
+            long remaining = at - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED).getSQLException();
+            }
+            // round up, so that the data node doesn't time out first
+            timeout = (int) ((remaining + 999) / 1000);
+        }
+        if (timeout != 0 || stat.getQueryTimeout() != 0) {
+            stat.setQueryTimeout(timeout);
+        }
+        synchronized (runningStatements) {
+            runningStatements.add(stat);
+        }
+        at = cancelAt;
+        if (at != 0 && System.currentTimeMillis() >= at) {
+            // canceled in the meantime
+            endDataNodeStatement(stat);
+            throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED).getSQLException();
+        }
+    }
+
+    /**
+     * Forget a statement which was started with
+     * {@link #startDataNodeStatement(Statement)}.
+     *
+     * @param stat the statement
+     */
+    public void endDataNodeStatement(Statement stat) {
+        synchronized (runningStatements) {
+            runningStatements.remove(stat);
+        }
+    }
+
+    private void cancelDataNodeStatements() {
+        Statement[] list;
+        synchronized (runningStatements) {
+            if (runningStatements.isEmpty()) {
+                return;
+            }
+            list = runningStatements.toArray(new Statement[runningStatements.size()]);
+        }
+        for (Statement stat : list) {
+            try {
+                stat.cancel();
+            } catch (SQLException e) {
+                trace.debug(e, "cancel");
+            }
+        }
+    }
+
     /**
      * Get the cancel time.
      *
@@ -901,6 +1072,8 @@ public class Session extends SessionWithState {
 
     public void setCurrentSchema(Schema schema) {
         modificationId++;
+        // the cached statements were parsed with the old schema
+        releaseQueryCache();
         this.currentSchemaName = schema.getName();
     }
 
@@ -1000,6 +1173,7 @@ public class Session extends SessionWithState {
 
     public void setSchemaSearchPath(String[] schemas) {
         modificationId++;
+        releaseQueryCache();
         this.schemaSearchPath = schemas;
     }
 
@@ -1163,6 +1337,70 @@ public class Session extends SessionWithState {
      */
     public void endStatement() {
         closeTemporaryResults();
+        closeOpenCursors();
+    }
+
+    /**
+     * Remember a cursor on a data node and close it when the statement ends.
+     * A cursor which was not read to the end, for example because the LIMIT
+     * of the query was reached, cancels its statement on the data node. This
+     * method may be called by the threads that query the shards.
+     *
+     * @param cursor the cursor
+     */
+    public void addOpenCursor(ResultCursor cursor) {
+        synchronized (openCursors) {
+            openCursors.add(cursor);
+        }
+    }
+
+    /**
+     * Forget a cursor on a data node which was read to the end or closed, so
+     * that the list doesn't grow while a statement opens many cursors, for
+     * example for the inner table of a join.
+     *
+     * @param cursor the cursor
+     */
+    public void removeOpenCursor(ResultCursor cursor) {
+        ArrayList<ResultCursor> cursors = openCursors;
+        synchronized (cursors) {
+            // usually the last one
+            for (int i = cursors.size() - 1; i >= 0; i--) {
+                if (cursors.get(i) == cursor) {
+                    cursors.remove(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Let the cursors on the data nodes which are opened from now on be
+     * remembered in the given list instead. This is used by results which
+     * read their rows after the statement ended, and close their cursors
+     * themselves.
+     *
+     * @param cursors the list
+     * @return the previous list
+     */
+    public ArrayList<ResultCursor> setOpenCursors(ArrayList<ResultCursor> cursors) {
+        ArrayList<ResultCursor> old = openCursors;
+        openCursors = cursors;
+        return old;
+    }
+
+    private void closeOpenCursors() {
+        ResultCursor[] cursors;
+        synchronized (openCursors) {
+            if (openCursors.isEmpty()) {
+                return;
+            }
+            cursors = openCursors.toArray(new ResultCursor[openCursors.size()]);
+            openCursors.clear();
+        }
+        for (ResultCursor cursor : cursors) {
+            cursor.close();
+        }
     }
 
     @Override
@@ -1204,16 +1442,126 @@ public class Session extends SessionWithState {
     }
     
     
+    /**
+     * Get the connection to a data node for the current statement. Reads use
+     * an available replica of the data node if it has any, unless the
+     * current transaction changed data. If the connection is read only, reads
+     * use a replica whenever one is available.
+     *
+     * @param dataNode the name of the data node
+     * @return the connection
+     * @throws DbException if the master is needed but not available
+     */
     public Connection getDataNodeConnection(String dataNode) throws SQLException {
+        ShardGroup group = database.getShardGroup(dataNode);
+        if (!readOnlyCommand) {
+            writeTransaction = true;
+        } else if (isReplicaRead(group)) {
+            Connection replica = getReplicaConnection(group);
+            if (replica != null) {
+                return replica;
+            }
+        }
+        ShardHealth health = group.getHealth();
+        if (health != null) {
+            health.check();
+        }
         Connection result = connectionHolder.get(dataNode);
         if (result == null) {
-            DataSource ds = database.getDataNode(dataNode);
-            result = ds.getConnection();
-            if (result.getAutoCommit() != getAutoCommit()) {
-                result.setAutoCommit(getAutoCommit());
+            DataSource ds = group.getMaster();
+            try {
+                result = ds.getConnection();
+            } catch (SQLException e) {
+                if (health != null) {
+                    health.connectFailed(e);
+                }
+                throw e;
             }
             connectionHolder.put(dataNode, result);
         }
+        if (result.getAutoCommit() != autoCommit) {
+            // the auto commit mode may have changed since it was opened
+            result.setAutoCommit(autoCommit);
+        }
+        return result;
+    }
+
+    /**
+     * Check whether the current statement reads from a replica of the given
+     * data node.
+     *
+     * @param group the data node
+     * @return true if the reads use a replica
+     */
+    public boolean isReplicaRead(ShardGroup group) {
+        return readOnlyCommand && group.getReplicaCount() > 0 && (readOnly || !writeTransaction);
+    }
+
+    /**
+     * Close a broken connection to a data node, so that the next statement
+     * opens a new connection. The connection of a transaction is kept, as
+     * the transaction can't continue with a new connection.
+     *
+     * @param dataNode the name of the data node
+     * @param conn the connection
+     * @return true if the connection was closed, and the statement can be
+     *         run again
+     */
+    public boolean discardDataNodeConnection(String dataNode, Connection conn) {
+        ShardGroup group = database.getShardGroup(dataNode);
+        boolean replica = replicaConnectionHolder.get(group) == conn;
+        if (replica) {
+            replicaConnectionHolder.remove(group);
+        } else if (autoCommit && connectionHolder.get(dataNode) == conn) {
+            connectionHolder.remove(dataNode);
+        } else {
+            return false;
+        }
+        StatementCache statementCache = database.getStatementCache();
+        if (statementCache != null) {
+            statementCache.closeStatements(conn);
+        }
+        if (replica) {
+            group.closeReplicaConnection(conn);
+        } else {
+            JdbcUtils.closeSilently(conn);
+        }
+        return true;
+    }
+
+    private Connection getReplicaConnection(ShardGroup group) throws SQLException {
+        Connection result = replicaConnectionHolder.get(group);
+        if (result != null) {
+            ShardHealth health = group.getHealth(result);
+            if (health != null && health.getState() == ShardHealth.OPEN) {
+                // the replica failed since, use another one
+                discardDataNodeConnection(group.getName(), result);
+                result = null;
+            }
+        }
+        if (result == null) {
+            try {
+                result = group.getReplicaConnection();
+            } catch (SQLException e) {
+                // read from the master instead
+                trace.error(e, "can not connect to a replica of data node {0}", group.getName());
+                return null;
+            }
+            if (result == null) {
+                // no replica is available
+                return null;
+            }
+            try {
+                if (!result.getAutoCommit()) {
+                    // the reads don't need to be in a transaction
+                    result.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                group.closeReplicaConnection(result);
+                throw e;
+            }
+            replicaConnectionHolder.put(group, result);
+        }
         return result;
     }
 
@@ -20,6 +20,7 @@ import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Map;
+import java.util.logging.Logger;
 
 import javax.sql.DataSource;
 
@@ -36,6 +37,7 @@ import com.suning.snfddal.dbobject.table.MappedTable;
 import com.suning.snfddal.engine.Database;
 import com.suning.snfddal.engine.SessionInterface;
 import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.route.ShardGroup;
 import com.suning.snfddal.util.StringUtils;
 import com.suning.snfddal.util.Utils;
 
@@ -158,6 +160,13 @@ public class DispatcherDataSource implements DataSource {
     public boolean isWrapperFor(Class<?> iface) throws SQLException {
         return iface != null && iface.isAssignableFrom(getClass());
     }
+
+    /**
+     * [Not supported]
+     */
+    public Logger getParentLogger() {
+        return null;
+    }
     
     /**
      * Get the current URL.
@@ -301,12 +310,16 @@ public class DispatcherDataSource implements DataSource {
         Map<String, ShardConfig> shardMapping = configuration.getCluster();
         for (ShardConfig value : shardMapping.values()) {
             String description = value.getDescription();
-            //TODO 处理数据源组
-            DataSource dataSource = configuration.getDataNodes().get(description);
-            if(dataSource == null) {
-                throw new ConfigurationException("Can' find data source: " + description);
+            DataSource dataSource = getDataSource(configuration, description);
+            Map<String, Integer> replicaConfig = value.getReplicas();
+            DataSource[] replicas = new DataSource[replicaConfig.size()];
+            int[] weights = new int[replicas.length];
+            int i = 0;
+            for (Map.Entry<String, Integer> replica : replicaConfig.entrySet()) {
+                replicas[i] = getDataSource(configuration, replica.getKey());
+                weights[i++] = replica.getValue();
             }
-            database.addDataNode(value.getName(), dataSource);
+            database.addDataNode(new ShardGroup(value.getName(), dataSource, replicas, weights));
         }
         
         Schema schema = database.findSchema(dsConfig.getName());
@@ -341,6 +354,14 @@ public class DispatcherDataSource implements DataSource {
         inited = true;
     }
 
+    private static DataSource getDataSource(Configuration configuration, String id) {
+        DataSource dataSource = configuration.getDataNodes().get(id);
+        if (dataSource == null) {
+            throw new ConfigurationException("Can' find data source: " + id);
+        }
+        return dataSource;
+    }
+
     public synchronized void close() {
         if(database == null) {
             return;
@@ -25,15 +25,20 @@ import java.sql.Statement;
 import java.sql.Struct;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executor;
 
+import com.suning.snfddal.api.AsyncConnection;
 import com.suning.snfddal.api.ErrorCode;
+import com.suning.snfddal.api.StatementFuture;
 import com.suning.snfddal.command.CommandInterface;
 import com.suning.snfddal.engine.Constants;
+import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.engine.SessionInterface;
 import com.suning.snfddal.engine.SysProperties;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.message.TraceObject;
 import com.suning.snfddal.result.ResultInterface;
+import com.suning.snfddal.route.MultiNodeExecutor;
 import com.suning.snfddal.util.JdbcUtils;
 import com.suning.snfddal.value.CompareMode;
 import com.suning.snfddal.value.Value;
@@ -41,10 +46,6 @@ import com.suning.snfddal.value.ValueInt;
 import com.suning.snfddal.value.ValueNull;
 import com.suning.snfddal.value.ValueString;
 
-/*## Java 1.7 ##
-import java.util.concurrent.Executor;
-//*/
-
 /**
  * <p>
  * Represents a connection (session) to a database.
@@ -55,7 +56,7 @@ import java.util.concurrent.Executor;
  * connection should only be used in one thread at any time.
  * </p>
  */
-public class JdbcConnection extends TraceObject implements Connection {
+public class JdbcConnection extends TraceObject implements Connection, AsyncConnection {
 
     private final String url;
     private final String user;
@@ -241,6 +242,73 @@ public class JdbcConnection extends TraceObject implements Connection {
         }
     }
 
+    /**
+     * Runs a query in a thread of the database, and returns without waiting
+     * for it. The statement is closed when the result set is closed.
+     *
+     * @param sql the SQL statement
+     * @param params the parameter values
+     * @return the future result set
+     * @throws SQLException if the connection is closed or the statement is
+     *             invalid
+     */
+    @Override
+    public StatementFuture<ResultSet> executeQueryAsync(String sql, Object... params) throws SQLException {
+        try {
+            debugCodeCall("executeQueryAsync", sql);
+            return prepareAsync(sql, params).executeQueryAsync();
+        } catch (Exception e) {
+            throw logAndConvert(e);
+        }
+    }
+
+    /**
+     * Runs a statement (insert, update, delete, create, drop) in a thread of
+     * the database, and returns without waiting for it. The statement is
+     * closed once it is done.
+     *
+     * @param sql the SQL statement
+     * @param params the parameter values
+     * @return the future update count
+     * @throws SQLException if the connection is closed or the statement is
+     *             invalid
+     */
+    @Override
+    public StatementFuture<Integer> executeUpdateAsync(String sql, Object... params) throws SQLException {
+        try {
+            debugCodeCall("executeUpdateAsync", sql);
+            return prepareAsync(sql, params).executeUpdateAsync();
+        } catch (Exception e) {
+            throw logAndConvert(e);
+        }
+    }
+
+    private JdbcPreparedStatement prepareAsync(String sql, Object... params) throws SQLException {
+        JdbcPreparedStatement prep = (JdbcPreparedStatement) prepareAutoCloseStatement(sql);
+        try {
+            for (int i = 0; i < params.length; i++) {
+                prep.setObject(i + 1, params[i]);
+            }
+        } catch (SQLException e) {
+            prep.close();
+            throw e;
+        }
+        return prep;
+    }
+
+    /**
+     * Run a statement in a thread of the database.
+     *
+     * @param statement the task which runs the statement
+     * @throws DbException if too many statements wait for a thread
+     */
+    void executeAsync(JdbcFuture<?> statement) {
+        checkClosed();
+        MultiNodeExecutor executor = ((Session) session).getDatabase().getMultiNodeExecutor();
+        statement.setQueueTimeout(executor.getQueueTimeout());
+        executor.submit(statement);
+    }
+
     /**
      * Gets the database meta data for this database.
      *
@@ -471,6 +539,7 @@ public class JdbcConnection extends TraceObject implements Connection {
                 debugCode("setReadOnly(" + readOnly + ");");
             }
             checkClosed();
+            session.setReadOnly(readOnly);
         } catch (Exception e) {
             throw logAndConvert(e);
         }
@@ -1710,34 +1779,25 @@ public class JdbcConnection extends TraceObject implements Connection {
      *
      * @param schema the schema
      */
-/*## Java 1.7 ##
-    @Override
     public void setSchema(String schema) {
         // not supported
     }
-//*/
 
     /**
      * [Not supported]
      */
-/*## Java 1.7 ##
-    @Override
     public String getSchema() {
         return null;
     }
-//*/
 
     /**
      * [Not supported]
      *
      * @param executor the executor used by this method
      */
-/*## Java 1.7 ##
-    @Override
     public void abort(Executor executor) {
         // not supported
     }
-//*/
 
     /**
      * [Not supported]
@@ -1745,22 +1805,16 @@ public class JdbcConnection extends TraceObject implements Connection {
      * @param executor the executor used by this method
      * @param milliseconds the TCP connection timeout
      */
-/*## Java 1.7 ##
-    @Override
     public void setNetworkTimeout(Executor executor, int milliseconds) {
         // not supported
     }
-//*/
 
     /**
      * [Not supported]
      */
-/*## Java 1.7 ##
-    @Override
     public int getNetworkTimeout() {
         return 0;
     }
-//*/
 
     /**
      * Check that the given type map is either null or empty.
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.suning.snfddal.api.ErrorCode;
+import com.suning.snfddal.api.StatementCallback;
+import com.suning.snfddal.api.StatementFuture;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.util.JdbcUtils;
+import com.suning.snfddal.util.New;
+
+/**
+ * The result of a statement which runs in a thread of the database.
+ *
+ * @param <T> the type of the result
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+class JdbcFuture<T> implements StatementFuture<T>, Runnable {
+
+    private final JdbcPreparedStatement statement;
+    private final Callable<T> call;
+    private final boolean closeStatement;
+    private ArrayList<StatementCallback<? super T>> callbacks = New.arrayList();
+    private long deadline = Long.MAX_VALUE;
+    private boolean running;
+    private boolean done;
+    private boolean canceled;
+    private T result;
+    private SQLException error;
+
+    /**
+     * Create a future.
+     *
+     * @param statement the statement
+     * @param call the task which runs the statement
+     * @param closeStatement whether to close the statement once it is done,
+     *            unless it returned a result set
+     */
+    JdbcFuture(JdbcPreparedStatement statement, Callable<T> call, boolean closeStatement) {
+        this.statement = statement;
+        this.call = call;
+        this.closeStatement = closeStatement;
+    }
+
+    /**
+     * Set the number of milliseconds the statement may wait for a thread. If
+     * it waits longer, it fails instead of running.
+     *
+     * @param timeout the timeout, or 0 for no timeout
+     */
+    void setQueueTimeout(long timeout) {
+        if (timeout > 0) {
+            deadline = System.currentTimeMillis() + timeout;
+        }
+    }
+
+    @Override
+    public void run() {
+        boolean expired = System.currentTimeMillis() > deadline;
+        synchronized (this) {
+            running = !done && !expired;
+        }
+        if (!running) {
+            // canceled before it was started, or waited too long
+            if (closeStatement) {
+                JdbcUtils.closeSilently(statement);
+            }
+            if (expired) {
+                complete(null, DbException.get(ErrorCode.GENERAL_ERROR_1,
+                        "Timeout waiting for a thread to run the statement").getSQLException());
+            }
+            return;
+        }
+        T r = null;
+        SQLException e = null;
+        try {
+            r = call.call();
+        } catch (Exception x) {
+            e = DbException.toSQLException(x);
+        }
+        if (closeStatement && (e != null || !(r instanceof ResultSet))) {
+            JdbcUtils.closeSilently(statement);
+        }
+        if (!complete(r, e) && r instanceof ResultSet) {
+            // canceled in the meantime
+            JdbcUtils.closeSilently((ResultSet) r);
+        }
+    }
+
+    private boolean complete(T r, SQLException e) {
+        ArrayList<StatementCallback<? super T>> list;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            result = r;
+            error = e;
+            done = true;
+            list = callbacks;
+            callbacks = null;
+            notifyAll();
+        }
+        for (StatementCallback<? super T> c : list) {
+            callback(c);
+        }
+        return true;
+    }
+
+    private void callback(StatementCallback<? super T> c) {
+        if (error == null) {
+            c.onSuccess(result);
+        } else {
+            c.onFailure(error);
+        }
+    }
+
+    @Override
+    public void addCallback(StatementCallback<? super T> callback) {
+        synchronized (this) {
+            if (!done) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        callback(callback);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean wasRunning;
+        synchronized (this) {
+            if (done || (running && !mayInterruptIfRunning)) {
+                return false;
+            }
+            wasRunning = running;
+            canceled = true;
+        }
+        if (wasRunning) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                // ignore, the statement is done or closed
+            }
+        }
+        return complete(null, DbException.get(ErrorCode.STATEMENT_WAS_CANCELED).getSQLException());
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return canceled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (!done) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                throw new TimeoutException();
+            }
+            wait(wait);
+        }
+        return getResult();
+    }
+
+    private T getResult() throws ExecutionException {
+        if (canceled) {
+            throw new CancellationException();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+
+}
@@ -23,10 +23,14 @@ import java.sql.SQLException;
 import java.sql.SQLXML;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
 
+import com.suning.snfddal.api.AsyncPreparedStatement;
 import com.suning.snfddal.api.ErrorCode;
+import com.suning.snfddal.api.StatementFuture;
 import com.suning.snfddal.command.CommandInterface;
 import com.suning.snfddal.command.expression.ParameterInterface;
 import com.suning.snfddal.message.DbException;
@@ -56,7 +60,7 @@ import com.suning.snfddal.value.ValueTimestamp;
  * Represents a prepared statement.
  */
 public class JdbcPreparedStatement extends JdbcStatement implements
-        PreparedStatement {
+        PreparedStatement, AsyncPreparedStatement {
 
     protected CommandInterface command;
     private final String sqlStatement;
@@ -97,27 +101,39 @@ public class JdbcPreparedStatement extends JdbcStatement implements
             if (isDebugEnabled()) {
                 debugCodeAssign("ResultSet", TraceObject.RESULT_SET, id, "executeQuery()");
             }
-            synchronized (session) {
-                checkClosed();
-                closeOldResultSet();
-                ResultInterface result;
-                boolean scrollable = resultSetType != ResultSet.TYPE_FORWARD_ONLY;
-                boolean updatable = resultSetConcurrency == ResultSet.CONCUR_UPDATABLE;
-                try {
-                    setExecutingStatement(command);
-                    result = command.executeQuery(maxRows, scrollable);
-                } finally {
-                    setExecutingStatement(null);
-                }
-                resultSet = new JdbcResultSet(conn, this, result, id,
-                        closedByResultSet, scrollable, updatable, cachedColumnLabelMap);
-            }
-            return resultSet;
+            return executeQueryInternal(id, true);
         } catch (Exception e) {
             throw logAndConvert(e);
         }
     }
 
+    /**
+     * Run the query and create the result set.
+     *
+     * @param id the trace id of the result set
+     * @param lazy whether the rows may be computed while the result set is
+     *            read
+     * @return the result set
+     */
+    private ResultSet executeQueryInternal(int id, boolean lazy) throws SQLException {
+        synchronized (session) {
+            checkClosed();
+            closeOldResultSet();
+            ResultInterface result;
+            boolean scrollable = resultSetType != ResultSet.TYPE_FORWARD_ONLY;
+            boolean updatable = resultSetConcurrency == ResultSet.CONCUR_UPDATABLE;
+            try {
+                setExecutingStatement(command);
+                result = command.executeQuery(maxRows, scrollable || !lazy);
+            } finally {
+                setExecutingStatement(null);
+            }
+            resultSet = new JdbcResultSet(conn, this, result, id,
+                    closedByResultSet, scrollable, updatable, cachedColumnLabelMap);
+            return resultSet;
+        }
+    }
+
     /**
      * Executes a statement (insert, update, delete, create, drop)
      * and returns the update count.
@@ -149,6 +165,65 @@ public class JdbcPreparedStatement extends JdbcStatement implements
         }
     }
 
+    /**
+     * Runs the query in a thread of the database, and returns without waiting
+     * for it. All rows are read before the result is done.
+     *
+     * @return the future result set
+     * @throws SQLException if this object is closed
+     */
+    @Override
+    public StatementFuture<ResultSet> executeQueryAsync() throws SQLException {
+        try {
+            final int id = getNextId(TraceObject.RESULT_SET);
+            if (isDebugEnabled()) {
+                debugCodeAssign("ResultSet", TraceObject.RESULT_SET, id, "executeQueryAsync()");
+            }
+            checkClosed();
+            return executeAsync(new Callable<ResultSet>() {
+                @Override
+                public ResultSet call() throws Exception {
+                    return executeQueryInternal(id, false);
+                }
+            });
+        } catch (Exception e) {
+            throw logAndConvert(e);
+        }
+    }
+
+    /**
+     * Runs the statement (insert, update, delete, create, drop) in a thread
+     * of the database, and returns without waiting for it.
+     *
+     * @return the future update count
+     * @throws SQLException if this object is closed
+     */
+    @Override
+    public StatementFuture<Integer> executeUpdateAsync() throws SQLException {
+        try {
+            debugCodeCall("executeUpdateAsync");
+            checkClosedForWrite();
+            return executeAsync(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    try {
+                        return executeUpdateInternal();
+                    } finally {
+                        afterWriting();
+                    }
+                }
+            });
+        } catch (Exception e) {
+            throw logAndConvert(e);
+        }
+    }
+
+    private <T> StatementFuture<T> executeAsync(Callable<T> call) {
+        JdbcFuture<T> future = new JdbcFuture<T>(this, call, closedByResultSet);
+        conn.executeAsync(future);
+        return future;
+    }
+
     private int executeUpdateInternal() throws SQLException {
         closeOldResultSet();
         synchronized (session) {
@@ -162,6 +237,18 @@ public class JdbcPreparedStatement extends JdbcStatement implements
         return updateCount;
     }
 
+    private int[] executeBatchUpdateInternal() throws SQLException {
+        closeOldResultSet();
+        synchronized (session) {
+            try {
+                setExecutingStatement(command);
+                return command.executeBatchUpdate(batchParameters);
+            } finally {
+                setExecutingStatement(null);
+            }
+        }
+    }
+
     /**
      * Executes an arbitrary statement. If another result set exists for this
      * statement, this will be closed (even if this statement fails). If auto
@@ -220,6 +307,7 @@ public class JdbcPreparedStatement extends JdbcStatement implements
         try {
             debugCodeCall("clearParameters");
             checkClosed();
+            detachLazyResult();
             ArrayList<? extends ParameterInterface> parameters = command.getParameters();
             for (int i = 0, size = parameters.size(); i < size; i++) {
                 ParameterInterface param = parameters.get(i);
@@ -1152,6 +1240,11 @@ public class JdbcPreparedStatement extends JdbcStatement implements
     /**
      * Executes the batch.
      * If one of the batched statements fails, this database will continue.
+     * Statements which can execute all parameter sets at once (INSERT) are
+     * executed in one step, and if they fail, all are reported as failed.
+     * The parameter sets are then sent to each data node separately, so the
+     * rows of the other data nodes may still be written; in auto-commit mode
+     * they are already committed. Use a transaction to roll them back.
      *
      * @return the array of update counts
      */
@@ -1170,6 +1263,21 @@ public class JdbcPreparedStatement extends JdbcStatement implements
             SQLException next = null;
             checkClosedForWrite();
             try {
+                if (size > 1) {
+                    int[] updateCounts;
+                    try {
+                        updateCounts = executeBatchUpdateInternal();
+                    } catch (Exception re) {
+                        // the parameter sets were executed together
+                        batchParameters = null;
+                        Arrays.fill(result, Statement.EXECUTE_FAILED);
+                        throw new JdbcBatchUpdateException(logAndConvert(re), result);
+                    }
+                    if (updateCounts != null) {
+                        batchParameters = null;
+                        return updateCounts;
+                    }
+                }
                 for (int i = 0; i < size; i++) {
                     Value[] set = batchParameters.get(i);
                     ArrayList<? extends ParameterInterface> parameters =
@@ -1376,6 +1484,7 @@ public class JdbcPreparedStatement extends JdbcStatement implements
 
     private void setParameter(int parameterIndex, Value value) {
         checkClosed();
+        detachLazyResult();
         parameterIndex--;
         ArrayList<? extends ParameterInterface> parameters = command.getParameters();
         if (parameterIndex < 0 || parameterIndex >= parameters.size()) {
@@ -1387,6 +1496,26 @@ public class JdbcPreparedStatement extends JdbcStatement implements
         param.setValue(value, batchParameters == null);
     }
 
+    /**
+     * The open result set of a lazy query computes its rows with the parameter
+     * values of the command. Before they are changed, a new command with the
+     * same values is used for this statement.
+     */
+    private void detachLazyResult() {
+        if (resultSet == null || !resultSet.isLazy()) {
+            return;
+        }
+        ArrayList<? extends ParameterInterface> oldParams = command.getParameters();
+        command = conn.prepareCommand(sqlStatement, fetchSize);
+        ArrayList<? extends ParameterInterface> parameters = command.getParameters();
+        for (int i = 0, size = parameters.size(); i < size; i++) {
+            ParameterInterface old = oldParams.get(i);
+            if (old.isValueSet()) {
+                parameters.get(i).setValue(old.getParamValue(), false);
+            }
+        }
+    }
+
     /**
      * [Not supported] Sets the value of a parameter as a row id.
      */
@@ -3228,6 +3228,16 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
         }
     }
 
+    /**
+     * Check whether the rows of this result set are still computed while they
+     * are read, using the command of the statement.
+     *
+     * @return true if they are
+     */
+    boolean isLazy() {
+        return result != null && result.isLazy() && !result.isClosed();
+    }
+
     private boolean nextRow() {
         boolean next = result.next();
         if (!next && !scrollable) {
@@ -3677,12 +3687,9 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
      * @param columnIndex the column index (1, 2, ...)
      * @param type the class of the returned value
      */
-/*## Java 1.7 ##
-    @Override
     public <T> T getObject(int columnIndex, Class<T> type) {
         return null;
     }
-//*/
 
     /**
      * [Not supported]
@@ -3690,12 +3697,9 @@ public class JdbcResultSet extends TraceObject implements ResultSet {
      * @param columnName the column name
      * @param type the class of the returned value
      */
-/*## Java 1.7 ##
-    @Override
     public <T> T getObject(String columnName, Class<T> type) {
         return null;
     }
-//*/
 
     /**
      * INTERNAL
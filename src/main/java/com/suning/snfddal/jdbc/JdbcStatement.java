@@ -536,6 +536,10 @@ public class JdbcStatement extends TraceObject implements Statement {
                 if (c != null) {
                     c.cancel();
                     cancelled = true;
+                } else if (resultSet != null && !resultSet.isClosed()) {
+                    // a lazy result reads the data nodes after the command
+                    session.cancel();
+                    cancelled = true;
                 }
             } finally {
                 setExecutingStatement(null);
@@ -930,22 +934,16 @@ public class JdbcStatement extends TraceObject implements Statement {
     /**
      * [Not supported]
      */
-/*## Java 1.7 ##
-    @Override
     public void closeOnCompletion() {
         // not supported
     }
-//*/
 
     /**
      * [Not supported]
      */
-/*## Java 1.7 ##
-    @Override
     public boolean isCloseOnCompletion() {
         return true;
     }
-//*/
 
     // =============================================================
 
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.result;
+
+import com.suning.snfddal.command.expression.Expression;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.value.Value;
+
+/**
+ * A result which computes its rows while they are read, so that the first
+ * rows are returned before the query is complete, and the rows don't need to
+ * be kept in memory. The result can only be read forward.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public abstract class LazyResult implements ResultInterface {
+
+    private final Expression[] expressions;
+    private final int visibleColumnCount;
+    private int rowId = -1;
+    private Value[] currentRow;
+    private Value[] nextRow;
+    private boolean afterLast;
+    private boolean closed;
+    private int fetchSize;
+
+    /**
+     * Construct a lazy result.
+     *
+     * @param expressions the expression array
+     * @param visibleColumnCount the number of visible columns
+     */
+    protected LazyResult(Expression[] expressions, int visibleColumnCount) {
+        this.expressions = expressions;
+        this.visibleColumnCount = visibleColumnCount;
+    }
+
+    /**
+     * Compute the next row.
+     *
+     * @return the row, or null if there are no more rows
+     */
+    protected abstract Value[] fetchNextRow();
+
+    /**
+     * Start computing the rows from the beginning.
+     */
+    protected abstract void resetResult();
+
+    /**
+     * Release the resources which are used to compute the rows.
+     */
+    protected abstract void closeResult();
+
+    @Override
+    public void reset() {
+        if (closed) {
+            throw DbException.throwInternalError();
+        }
+        rowId = -1;
+        currentRow = null;
+        nextRow = null;
+        afterLast = false;
+        resetResult();
+    }
+
+    @Override
+    public Value[] currentRow() {
+        return currentRow;
+    }
+
+    @Override
+    public boolean next() {
+        if (hasNext()) {
+            rowId++;
+            currentRow = nextRow;
+            nextRow = null;
+            return true;
+        }
+        if (!afterLast) {
+            rowId++;
+            currentRow = null;
+            afterLast = true;
+        }
+        return false;
+    }
+
+    private boolean hasNext() {
+        if (closed || afterLast) {
+            return false;
+        }
+        if (nextRow == null) {
+            nextRow = fetchNextRow();
+        }
+        return nextRow != null;
+    }
+
+    @Override
+    public int getRowId() {
+        return rowId;
+    }
+
+    @Override
+    public int getVisibleColumnCount() {
+        return visibleColumnCount;
+    }
+
+    /**
+     * The number of rows is only known after all rows are read. Before, this
+     * is the number of rows which were read, plus one if there is another
+     * row, so that the current row is valid and the last row can be detected.
+     *
+     * @return the number of rows known so far
+     */
+    @Override
+    public int getRowCount() {
+        if (hasNext()) {
+            return rowId + 2;
+        }
+        return afterLast ? rowId : rowId + 1;
+    }
+
+    @Override
+    public boolean needToClose() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            currentRow = null;
+            nextRow = null;
+            closeResult();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean isLazy() {
+        return true;
+    }
+
+    @Override
+    public String getAlias(int i) {
+        return expressions[i].getAlias();
+    }
+
+    @Override
+    public String getSchemaName(int i) {
+        return expressions[i].getSchemaName();
+    }
+
+    @Override
+    public String getTableName(int i) {
+        return expressions[i].getTableName();
+    }
+
+    @Override
+    public String getColumnName(int i) {
+        return expressions[i].getColumnName();
+    }
+
+    @Override
+    public int getColumnType(int i) {
+        return expressions[i].getType();
+    }
+
+    @Override
+    public long getColumnPrecision(int i) {
+        return expressions[i].getPrecision();
+    }
+
+    @Override
+    public int getColumnScale(int i) {
+        return expressions[i].getScale();
+    }
+
+    @Override
+    public int getDisplaySize(int i) {
+        return expressions[i].getDisplaySize();
+    }
+
+    @Override
+    public boolean isAutoIncrement(int i) {
+        return expressions[i].isAutoIncrement();
+    }
+
+    @Override
+    public int getNullable(int i) {
+        return expressions[i].getNullable();
+    }
+
+    @Override
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+}
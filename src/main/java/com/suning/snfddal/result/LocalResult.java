@@ -263,7 +263,7 @@ public class LocalResult implements ResultInterface, ResultTarget {
                 distinctRows.put(array, values);
                 rowCount = distinctRows.size();
                 if (rowCount > maxMemoryRows) {
-                    external = new ResultTempTable(session, expressions, true, sort);
+                    external = new ResultDiskBuffer(maxMemoryRows, true, sort);
                     rowCount = external.addRows(distinctRows.values());
                     distinctRows = null;
                 }
@@ -276,7 +276,7 @@ public class LocalResult implements ResultInterface, ResultTarget {
         rowCount++;
         if (rows.size() > maxMemoryRows) {
             if (external == null) {
-                external = new ResultTempTable(session, expressions, false, sort);
+                external = new ResultDiskBuffer(maxMemoryRows, false, sort);
             }
             addRowsToDisk();
         }
@@ -296,40 +296,13 @@ public class LocalResult implements ResultInterface, ResultTarget {
      * This method is called after all rows have been added.
      */
     public void done() {
-        if (distinct) {
-            if (distinctRows != null) {
-                rows = distinctRows.values();
-            } else {
-                if (external != null && sort != null) {
-                    // external sort
-                    ResultExternal temp = external;
-                    external = null;
-                    temp.reset();
-                    rows = New.arrayList();
-                    // TODO use offset directly if possible
-                    while (true) {
-                        Value[] list = temp.next();
-                        if (list == null) {
-                            break;
-                        }
-                        if (external == null) {
-                            external = new ResultTempTable(session, expressions, true, sort);
-                        }
-                        rows.add(list);
-                        if (rows.size() > maxMemoryRows) {
-                            rowCount = external.addRows(rows);
-                            rows.clear();
-                        }
-                    }
-                    temp.close();
-                    // the remaining data in rows is written in the following
-                    // lines
-                }
-            }
+        if (distinct && distinctRows != null) {
+            rows = distinctRows.values();
         }
         if (external != null) {
+            // the disk buffer removes duplicates and sorts the rows itself
             addRowsToDisk();
-            external.done();
+            rowCount = external.done();
         } else {
             if (sort != null) {
                 if (offset > 0 || limit > 0) {
@@ -482,10 +455,16 @@ public class LocalResult implements ResultInterface, ResultTarget {
      *
      * @return true if it is
      */
+    @Override
     public boolean isClosed() {
         return closed;
     }
 
+    @Override
+    public boolean isLazy() {
+        return false;
+    }
+
     @Override
     public int getFetchSize() {
         return 0;
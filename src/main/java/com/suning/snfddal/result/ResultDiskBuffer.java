@@ -0,0 +1,423 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.result;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.util.ValueHashMap;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueArray;
+
+/**
+ * This class implements the disk buffer for the LocalResult class. The rows
+ * are written to temporary files, and at most a given number of rows is kept
+ * in memory at any time.
+ * <p>
+ * If the result is sorted, each block of rows is sorted before it is written,
+ * and the blocks are merged while the rows are read (external merge sort).
+ * If duplicate rows are removed, the rows are split into partitions by hash
+ * code. Duplicates are removed from one partition at a time in memory;
+ * partitions which are still too large are split further.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+class ResultDiskBuffer implements ResultExternal {
+
+    private static final int PARTITION_BITS = 4;
+    private static final int PARTITION_COUNT = 1 << PARTITION_BITS;
+    private static final int PARTITION_MASK = PARTITION_COUNT - 1;
+
+    private final int maxBufferRows;
+    private final boolean distinct;
+    private final SortOrder sort;
+    private final ArrayList<Value[]> buffer = New.arrayList();
+    private final ArrayList<long[]> blocks = New.arrayList();
+    private ResultFile file;
+    private Partition[] partitions;
+    private int rowCount;
+
+    private Partition loaded;
+    private ValueHashMap<Value[]> loadedRows;
+    private boolean loadedChanged;
+
+    private ArrayList<Tape> tapes = New.arrayList();
+    private PriorityQueue<Tape> queue;
+    private int tapeIndex;
+
+    /**
+     * Create a disk buffer.
+     *
+     * @param maxBufferRows the maximum number of rows to keep in memory
+     * @param distinct whether duplicate rows are removed
+     * @param sort the sort order, or null
+     */
+    ResultDiskBuffer(int maxBufferRows, boolean distinct, SortOrder sort) {
+        this.maxBufferRows = Math.max(1, maxBufferRows);
+        this.distinct = distinct;
+        this.sort = sort;
+        if (distinct) {
+            partitions = createPartitions(PARTITION_BITS);
+        }
+    }
+
+    @Override
+    public int addRow(Value[] values) {
+        if (distinct) {
+            getPartition(values).add(values);
+        } else {
+            buffer.add(values);
+            if (buffer.size() >= maxBufferRows) {
+                writeBlock(buffer);
+                buffer.clear();
+            }
+        }
+        return ++rowCount;
+    }
+
+    @Override
+    public int addRows(ArrayList<Value[]> rows) {
+        if (distinct) {
+            for (Value[] values : rows) {
+                getPartition(values).add(values);
+            }
+        } else {
+            writeBlock(buffer);
+            buffer.clear();
+            writeBlock(rows);
+        }
+        rowCount += rows.size();
+        return rowCount;
+    }
+
+    private void writeBlock(ArrayList<Value[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        if (file == null) {
+            file = new ResultFile();
+        }
+        if (sort != null) {
+            sort.sort(rows);
+        }
+        long start = file.length();
+        for (Value[] values : rows) {
+            file.addRow(values);
+        }
+        blocks.add(new long[] { start, file.length() });
+    }
+
+    @Override
+    public int done() {
+        if (distinct) {
+            rowCount = 0;
+            for (Partition p : partitions) {
+                rowCount += p.removeDuplicates();
+            }
+        } else {
+            writeBlock(buffer);
+            buffer.clear();
+            if (file != null) {
+                file.flush();
+            }
+        }
+        return rowCount;
+    }
+
+    @Override
+    public void reset() {
+        storeLoaded();
+        tapes = New.arrayList();
+        tapeIndex = 0;
+        if (distinct) {
+            for (Partition p : partitions) {
+                p.addTapes(tapes);
+            }
+        } else if (file != null) {
+            if (sort == null) {
+                tapes.add(new Tape(file.openReader(), 0));
+            } else {
+                for (long[] block : blocks) {
+                    tapes.add(new Tape(file.openReader(block[0], block[1]), tapes.size()));
+                }
+            }
+        }
+        if (sort != null) {
+            queue = new PriorityQueue<Tape>(Math.max(1, tapes.size()), new Comparator<Tape>() {
+                @Override
+                public int compare(Tape a, Tape b) {
+                    int comp = sort.compare(a.current, b.current);
+                    return comp != 0 ? comp : a.index - b.index;
+                }
+            });
+            for (Tape t : tapes) {
+                if (t.advance()) {
+                    queue.add(t);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Value[] next() {
+        if (sort == null) {
+            while (tapeIndex < tapes.size()) {
+                Value[] values = tapes.get(tapeIndex).reader.next();
+                if (values != null) {
+                    return values;
+                }
+                tapeIndex++;
+            }
+            return null;
+        }
+        Tape t = queue == null ? null : queue.poll();
+        if (t == null) {
+            return null;
+        }
+        Value[] values = t.current;
+        if (t.advance()) {
+            queue.add(t);
+        }
+        return values;
+    }
+
+    @Override
+    public int removeRow(Value[] values) {
+        if (!distinct) {
+            throw DbException.getUnsupportedException("removeRow");
+        }
+        Partition p = getPartition(values);
+        load(p);
+        ValueArray key = ValueArray.get(values);
+        if (loadedRows.get(key) != null) {
+            loadedRows.remove(key);
+            loadedChanged = true;
+            rowCount--;
+        }
+        return rowCount;
+    }
+
+    @Override
+    public boolean contains(Value[] values) {
+        if (!distinct) {
+            throw DbException.getUnsupportedException("contains");
+        }
+        Partition p = getPartition(values);
+        load(p);
+        return loadedRows.get(ValueArray.get(values)) != null;
+    }
+
+    private void load(Partition p) {
+        if (loaded == p) {
+            return;
+        }
+        storeLoaded();
+        loadedRows = p.read(false);
+        loaded = p;
+    }
+
+    private void storeLoaded() {
+        if (loadedChanged) {
+            loaded.write(loadedRows.values());
+            loadedChanged = false;
+        }
+    }
+
+    @Override
+    public ResultExternal createShallowCopy() {
+        // the files are not shared, as rows can be removed
+        return null;
+    }
+
+    @Override
+    public void close() {
+        tapes = New.arrayList();
+        queue = null;
+        loaded = null;
+        loadedRows = null;
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+        if (partitions != null) {
+            for (Partition p : partitions) {
+                p.close();
+            }
+            partitions = null;
+        }
+    }
+
+    private Partition getPartition(Value[] values) {
+        int hash = ValueArray.get(values).hashCode();
+        // spread the bits, so that all bits are used to select the partition
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        hash ^= hash >>> 16;
+        Partition p = partitions[hash & PARTITION_MASK];
+        while (p.children != null) {
+            p = p.children[(hash >>> p.childShift) & PARTITION_MASK];
+        }
+        return p;
+    }
+
+    private Partition[] createPartitions(int childShift) {
+        Partition[] list = new Partition[PARTITION_COUNT];
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            list[i] = new Partition(childShift);
+        }
+        return list;
+    }
+
+    /**
+     * The rows with the same hash code bits. Once duplicates are removed, the
+     * rows of the partition are sorted if required.
+     */
+    private class Partition {
+
+        final int childShift;
+        Partition[] children;
+        private ResultFile partitionFile;
+        private int partitionRowCount;
+
+        Partition(int childShift) {
+            this.childShift = childShift;
+        }
+
+        void add(Value[] values) {
+            if (partitionFile == null) {
+                partitionFile = new ResultFile();
+            }
+            partitionFile.addRow(values);
+            partitionRowCount++;
+        }
+
+        /**
+         * Remove the duplicate rows.
+         *
+         * @return the number of remaining rows
+         */
+        int removeDuplicates() {
+            if (children == null) {
+                ValueHashMap<Value[]> map = read(true);
+                if (map != null) {
+                    write(map.values());
+                    return partitionRowCount;
+                }
+                split();
+            }
+            int count = 0;
+            for (Partition p : children) {
+                count += p.removeDuplicates();
+            }
+            return count;
+        }
+
+        /**
+         * Read the rows into a hash map, which removes duplicates.
+         *
+         * @param limit whether to stop if there are too many distinct rows
+         *            and the partition can be split
+         * @return the rows, or null if there are too many rows
+         */
+        ValueHashMap<Value[]> read(boolean limit) {
+            ValueHashMap<Value[]> map = ValueHashMap.newInstance();
+            if (partitionFile == null) {
+                return map;
+            }
+            limit &= childShift < 32;
+            ResultFile.RowReader reader = partitionFile.openReader();
+            while (true) {
+                Value[] values = reader.next();
+                if (values == null) {
+                    break;
+                }
+                map.put(ValueArray.get(values), values);
+                if (limit && map.size() > maxBufferRows) {
+                    return null;
+                }
+            }
+            return map;
+        }
+
+        void write(ArrayList<Value[]> rows) {
+            if (sort != null) {
+                sort.sort(rows);
+            }
+            if (partitionFile == null) {
+                partitionFile = new ResultFile();
+            }
+            partitionFile.truncate();
+            for (Value[] values : rows) {
+                partitionFile.addRow(values);
+            }
+            partitionFile.flush();
+            partitionRowCount = rows.size();
+        }
+
+        private void split() {
+            children = createPartitions(childShift + PARTITION_BITS);
+            ResultFile.RowReader reader = partitionFile.openReader();
+            while (true) {
+                Value[] values = reader.next();
+                if (values == null) {
+                    break;
+                }
+                getPartition(values).add(values);
+            }
+            partitionFile.close();
+            partitionFile = null;
+            partitionRowCount = 0;
+        }
+
+        void addTapes(ArrayList<Tape> list) {
+            if (children != null) {
+                for (Partition p : children) {
+                    p.addTapes(list);
+                }
+            } else if (partitionFile != null) {
+                list.add(new Tape(partitionFile.openReader(), list.size()));
+            }
+        }
+
+        void close() {
+            if (children != null) {
+                for (Partition p : children) {
+                    p.close();
+                }
+            }
+            if (partitionFile != null) {
+                partitionFile.close();
+                partitionFile = null;
+            }
+        }
+
+    }
+
+    /**
+     * A reader over sorted rows, and the current row.
+     */
+    private static class Tape {
+
+        final ResultFile.RowReader reader;
+        final int index;
+        Value[] current;
+
+        Tape(ResultFile.RowReader reader, int index) {
+            this.reader = reader;
+            this.index = index;
+        }
+
+        boolean advance() {
+            current = reader.next();
+            return current != null;
+        }
+
+    }
+
+}
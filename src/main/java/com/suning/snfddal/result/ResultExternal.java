@@ -45,8 +45,10 @@ public interface ResultExternal {
 
     /**
      * This method is called after all rows have been added.
+     *
+     * @return the number of rows in this object
      */
-    void done();
+    int done();
 
     /**
      * Close this object and delete the temporary file.
@@ -0,0 +1,446 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package com.suning.snfddal.result;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.suning.snfddal.engine.Constants;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.util.DataUtils;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueArray;
+import com.suning.snfddal.value.ValueBoolean;
+import com.suning.snfddal.value.ValueByte;
+import com.suning.snfddal.value.ValueBytes;
+import com.suning.snfddal.value.ValueDate;
+import com.suning.snfddal.value.ValueDecimal;
+import com.suning.snfddal.value.ValueDouble;
+import com.suning.snfddal.value.ValueFloat;
+import com.suning.snfddal.value.ValueInt;
+import com.suning.snfddal.value.ValueJavaObject;
+import com.suning.snfddal.value.ValueLong;
+import com.suning.snfddal.value.ValueNull;
+import com.suning.snfddal.value.ValueShort;
+import com.suning.snfddal.value.ValueString;
+import com.suning.snfddal.value.ValueStringFixed;
+import com.suning.snfddal.value.ValueStringIgnoreCase;
+import com.suning.snfddal.value.ValueTime;
+import com.suning.snfddal.value.ValueTimestamp;
+import com.suning.snfddal.value.ValueUuid;
+
+/**
+ * A temporary file that contains rows. Each row is stored as the length of
+ * the record, followed by the values, one type byte and the variable size
+ * data per value. Rows are appended using a write buffer, and read forward
+ * from any position using a read buffer. The file is deleted when it is
+ * closed.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+class ResultFile {
+
+    private static final String PREFIX = "snfddal";
+
+    /**
+     * The type of a value that is not set (a null reference).
+     */
+    private static final int NO_VALUE = -1;
+
+    private final File fileName;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel file;
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(Constants.IO_BUFFER_SIZE);
+    private long filePos;
+
+    /**
+     * Create a new temporary file.
+     */
+    ResultFile() {
+        try {
+            fileName = File.createTempFile(PREFIX, Constants.SUFFIX_TEMP_FILE);
+            randomAccessFile = new RandomAccessFile(fileName, "rw");
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, null);
+        }
+        file = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Get the length of the file, including the rows which are not yet
+     * written.
+     *
+     * @return the length in bytes
+     */
+    long length() {
+        return filePos + writeBuffer.position();
+    }
+
+    /**
+     * Append a row.
+     *
+     * @param values the values of the row
+     */
+    void addRow(Value[] values) {
+        int start = startRecord();
+        writeValues(values);
+        endRecord(start);
+    }
+
+    /**
+     * Append a row, including the key, version and status of the row.
+     *
+     * @param row the row
+     */
+    void addRow(Row row) {
+        int start = startRecord();
+        ByteBuffer buff = writeBuffer;
+        DataUtils.writeVarLong(buff, row.getKey());
+        DataUtils.writeVarInt(buff, row.getVersion());
+        DataUtils.writeVarInt(buff, row.getSessionId());
+        buff.put((byte) (row.isDeleted() ? 1 : 0));
+        writeValues(row.getValueList());
+        endRecord(start);
+    }
+
+    private int startRecord() {
+        writeBuffer = DataUtils.ensureCapacity(writeBuffer, 64);
+        int start = writeBuffer.position();
+        writeBuffer.putInt(0);
+        return start;
+    }
+
+    private void endRecord(int start) {
+        writeBuffer.putInt(start, writeBuffer.position() - start - 4);
+        if (writeBuffer.position() > Constants.IO_BUFFER_SIZE) {
+            flush();
+        }
+    }
+
+    private void writeValues(Value[] values) {
+        DataUtils.writeVarInt(writeBuffer, values.length);
+        for (Value v : values) {
+            writeValue(v);
+        }
+    }
+
+    private void writeValue(Value v) {
+        ByteBuffer buff = DataUtils.ensureCapacity(writeBuffer, 32);
+        writeBuffer = buff;
+        if (v == null) {
+            buff.put((byte) NO_VALUE);
+            return;
+        }
+        int type = v.getType();
+        buff.put((byte) type);
+        switch (type) {
+        case Value.NULL:
+            break;
+        case Value.BOOLEAN:
+            buff.put((byte) (v.getBoolean().booleanValue() ? 1 : 0));
+            break;
+        case Value.BYTE:
+            buff.put(v.getByte());
+            break;
+        case Value.SHORT:
+            DataUtils.writeVarInt(buff, v.getShort());
+            break;
+        case Value.INT:
+            DataUtils.writeVarInt(buff, v.getInt());
+            break;
+        case Value.LONG:
+            DataUtils.writeVarLong(buff, v.getLong());
+            break;
+        case Value.DECIMAL: {
+            BigDecimal x = v.getBigDecimal();
+            DataUtils.writeVarInt(buff, x.scale());
+            writeBytes(x.unscaledValue().toByteArray());
+            break;
+        }
+        case Value.DOUBLE:
+            buff.putDouble(v.getDouble());
+            break;
+        case Value.FLOAT:
+            buff.putFloat(v.getFloat());
+            break;
+        case Value.TIME:
+            DataUtils.writeVarLong(buff, ((ValueTime) v).getNanos());
+            break;
+        case Value.DATE:
+            DataUtils.writeVarLong(buff, ((ValueDate) v).getDateValue());
+            break;
+        case Value.TIMESTAMP: {
+            ValueTimestamp ts = (ValueTimestamp) v;
+            DataUtils.writeVarLong(buff, ts.getDateValue());
+            DataUtils.writeVarLong(buff, ts.getTimeNanos());
+            break;
+        }
+        case Value.BYTES:
+        case Value.JAVA_OBJECT:
+            writeBytes(v.getBytesNoCopy());
+            break;
+        case Value.STRING:
+        case Value.STRING_IGNORECASE:
+        case Value.STRING_FIXED: {
+            String s = v.getString();
+            int len = s.length();
+            DataUtils.writeVarInt(buff, len);
+            writeBuffer = DataUtils.writeStringData(buff, s, len);
+            break;
+        }
+        case Value.UUID: {
+            ValueUuid uuid = (ValueUuid) v;
+            buff.putLong(uuid.getHigh());
+            buff.putLong(uuid.getLow());
+            break;
+        }
+        case Value.ARRAY:
+            writeValues(((ValueArray) v).getList());
+            break;
+        default:
+            throw DbException.getUnsupportedException("temporary file for data type " + type);
+        }
+    }
+
+    private void writeBytes(byte[] b) {
+        DataUtils.writeVarInt(writeBuffer, b.length);
+        writeBuffer = DataUtils.ensureCapacity(writeBuffer, b.length);
+        writeBuffer.put(b);
+    }
+
+    /**
+     * Write the buffered rows to the file.
+     */
+    void flush() {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        DataUtils.writeFully(file, filePos, writeBuffer);
+        filePos += writeBuffer.limit();
+        writeBuffer.clear();
+        if (writeBuffer.capacity() > Constants.IO_BUFFER_SIZE * 4) {
+            writeBuffer = ByteBuffer.allocate(Constants.IO_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Remove all rows.
+     */
+    void truncate() {
+        writeBuffer.clear();
+        filePos = 0;
+        try {
+            file.truncate(0);
+        } catch (IOException e) {
+            throw DbException.convertIOException(e, fileName.getPath());
+        }
+    }
+
+    /**
+     * Create a reader for the rows within the given range of the file.
+     *
+     * @param start the position of the first row
+     * @param end the position after the last row
+     * @return the reader
+     */
+    RowReader openReader(long start, long end) {
+        flush();
+        return new RowReader(start, end);
+    }
+
+    /**
+     * Create a reader for all rows of the file.
+     *
+     * @return the reader
+     */
+    RowReader openReader() {
+        return openReader(0, length());
+    }
+
+    /**
+     * Close and delete the file.
+     */
+    void close() {
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        fileName.delete();
+    }
+
+    /**
+     * Reads rows forward, starting at a given position.
+     */
+    class RowReader {
+
+        private long pos;
+        private final long end;
+        private ByteBuffer readBuffer;
+
+        RowReader(long start, long end) {
+            this.pos = start;
+            this.end = end;
+            readBuffer = ByteBuffer.allocate((int) Math.min(Constants.IO_BUFFER_SIZE, end - start));
+            readBuffer.limit(0);
+        }
+
+        /**
+         * Read the next row.
+         *
+         * @return the values of the row, or null if there are no more rows
+         */
+        Value[] next() {
+            if (!nextRecord()) {
+                return null;
+            }
+            return readValues(readBuffer);
+        }
+
+        /**
+         * Read the next row, including the key, version and status.
+         *
+         * @return the row, or null if there are no more rows
+         */
+        Row nextRow() {
+            if (!nextRecord()) {
+                return null;
+            }
+            ByteBuffer buff = readBuffer;
+            long key = DataUtils.readVarLong(buff);
+            int version = DataUtils.readVarInt(buff);
+            int sessionId = DataUtils.readVarInt(buff);
+            boolean deleted = buff.get() == 1;
+            Row row = new Row(readValues(buff), Row.MEMORY_CALCULATE);
+            row.setKey(key);
+            row.setVersion(version);
+            row.setSessionId(sessionId);
+            row.setDeleted(deleted);
+            return row;
+        }
+
+        private boolean nextRecord() {
+            if (readBuffer.remaining() < 4) {
+                if (pos >= end) {
+                    return false;
+                }
+                fill(4);
+            }
+            int len = readBuffer.getInt();
+            if (readBuffer.remaining() < len) {
+                fill(len);
+            }
+            return true;
+        }
+
+        private void fill(int len) {
+            ByteBuffer buff = readBuffer;
+            if (buff.capacity() < len) {
+                buff = ByteBuffer.allocate(len + Constants.IO_BUFFER_SIZE);
+                buff.put(readBuffer);
+            } else {
+                buff.compact();
+            }
+            int read = (int) Math.min(buff.remaining(), end - pos);
+            buff.limit(buff.position() + read);
+            try {
+                while (buff.hasRemaining()) {
+                    int l = file.read(buff, pos);
+                    if (l < 0) {
+                        throw new EOFException();
+                    }
+                    pos += l;
+                }
+            } catch (IOException e) {
+                throw DbException.convertIOException(e, fileName.getPath());
+            }
+            buff.flip();
+            readBuffer = buff;
+        }
+
+    }
+
+    private static Value[] readValues(ByteBuffer buff) {
+        int len = DataUtils.readVarInt(buff);
+        Value[] values = new Value[len];
+        for (int i = 0; i < len; i++) {
+            values[i] = readValue(buff);
+        }
+        return values;
+    }
+
+    private static Value readValue(ByteBuffer buff) {
+        int type = buff.get();
+        switch (type) {
+        case NO_VALUE:
+            return null;
+        case Value.NULL:
+            return ValueNull.INSTANCE;
+        case Value.BOOLEAN:
+            return ValueBoolean.get(buff.get() == 1);
+        case Value.BYTE:
+            return ValueByte.get(buff.get());
+        case Value.SHORT:
+            return ValueShort.get((short) DataUtils.readVarInt(buff));
+        case Value.INT:
+            return ValueInt.get(DataUtils.readVarInt(buff));
+        case Value.LONG:
+            return ValueLong.get(DataUtils.readVarLong(buff));
+        case Value.DECIMAL: {
+            int scale = DataUtils.readVarInt(buff);
+            BigInteger unscaled = new BigInteger(readBytes(buff));
+            return ValueDecimal.get(new BigDecimal(unscaled, scale));
+        }
+        case Value.DOUBLE:
+            return ValueDouble.get(buff.getDouble());
+        case Value.FLOAT:
+            return ValueFloat.get(buff.getFloat());
+        case Value.TIME:
+            return ValueTime.fromNanos(DataUtils.readVarLong(buff));
+        case Value.DATE:
+            return ValueDate.fromDateValue(DataUtils.readVarLong(buff));
+        case Value.TIMESTAMP: {
+            long dateValue = DataUtils.readVarLong(buff);
+            long nanos = DataUtils.readVarLong(buff);
+            return ValueTimestamp.fromDateValueAndNanos(dateValue, nanos);
+        }
+        case Value.BYTES:
+            return ValueBytes.getNoCopy(readBytes(buff));
+        case Value.JAVA_OBJECT:
+            return ValueJavaObject.getNoCopy(null, readBytes(buff));
+        case Value.STRING:
+            return ValueString.get(readString(buff));
+        case Value.STRING_IGNORECASE:
+            return ValueStringIgnoreCase.get(readString(buff));
+        case Value.STRING_FIXED:
+            return ValueStringFixed.get(readString(buff));
+        case Value.UUID:
+            return ValueUuid.get(buff.getLong(), buff.getLong());
+        case Value.ARRAY:
+            return ValueArray.get(readValues(buff));
+        default:
+            throw DbException.throwInternalError("type=" + type);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buff) {
+        byte[] b = new byte[DataUtils.readVarInt(buff)];
+        buff.get(b);
+        return b;
+    }
+
+    private static String readString(ByteBuffer buff) {
+        return DataUtils.readString(buff, DataUtils.readVarInt(buff));
+    }
+
+}
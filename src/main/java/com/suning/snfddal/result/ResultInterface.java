@@ -69,6 +69,22 @@ public interface ResultInterface {
      */
     void close();
 
+    /**
+     * Check if this result is closed.
+     *
+     * @return true if it is
+     */
+    boolean isClosed();
+
+    /**
+     * Check if the rows of this result are computed while they are read.
+     * Such a result can only be read forward, and the number of rows is not
+     * known in advance.
+     *
+     * @return true if it is
+     */
+    boolean isLazy();
+
     /**
      * Get the column alias name for the column.
      *
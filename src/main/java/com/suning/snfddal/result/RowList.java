@@ -9,7 +9,6 @@ import java.util.ArrayList;
 
 import com.suning.snfddal.engine.Constants;
 import com.suning.snfddal.engine.Session;
-import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.util.New;
 
 /**
@@ -18,12 +17,13 @@ import com.suning.snfddal.util.New;
  */
 public class RowList {
 
-    private final Session session;
     private final ArrayList<Row> list = New.arrayList();
     private int size;
     private int index;
     private final int maxMemory;
     private int memory;
+    private ResultFile file;
+    private ResultFile.RowReader reader;
 
     /**
      * Construct a new row list for this session.
@@ -31,14 +31,19 @@ public class RowList {
      * @param session the session
      */
     public RowList(Session session) {
-        this.session = session;
         maxMemory = session.getDatabase().getMaxOperationMemory();
     }
 
 
     private void writeAllRows() {
-        session.getId();
-        throw DbException.getUnsupportedException("TODO");
+        if (file == null) {
+            file = new ResultFile();
+        }
+        for (Row r : list) {
+            file.addRow(r);
+        }
+        list.clear();
+        memory = 0;
     }
 
     /**
@@ -60,6 +65,12 @@ public class RowList {
      */
     public void reset() {
         index = 0;
+        if (file != null) {
+            if (!list.isEmpty()) {
+                writeAllRows();
+            }
+            reader = file.openReader();
+        }
     }
 
     /**
@@ -77,7 +88,13 @@ public class RowList {
      * @return the next row
      */
     public Row next() {
-        Row r = list.get(index++);
+        Row r;
+        if (file != null) {
+            r = reader.nextRow();
+        } else {
+            r = list.get(index);
+        }
+        index++;
         return r;
     }
 
@@ -94,7 +111,11 @@ public class RowList {
      * Close the result list and delete the temporary file.
      */
     public void close() {
-
+        if (file != null) {
+            file.close();
+            file = null;
+            reader = null;
+        }
     }
 
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月17日
+// $Id$
+
+package com.suning.snfddal.route;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import com.suning.snfddal.engine.DbSettings;
+
+/**
+ * Probes the masters and replicas whose circuit is open, in a background
+ * thread. The thread is only started when a circuit is opened for the first
+ * time.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class HealthMonitor {
+
+    private static final String THREAD_NAME = "ShardHealthMonitor";
+
+    private final DbSettings settings;
+    private final long probeInterval;
+    private ScheduledExecutorService executor;
+    private boolean closed;
+
+    public HealthMonitor(DbSettings settings) {
+        this.settings = settings;
+        this.probeInterval = Math.max(1, settings.shardProbeInterval);
+    }
+
+    /**
+     * Create the health of a master or a replica.
+     *
+     * @param name the name which is used in error messages
+     * @param dataSource the data source
+     * @return the health
+     */
+    public ShardHealth createHealth(String name, DataSource dataSource) {
+        return new ShardHealth(name, dataSource, this, settings);
+    }
+
+    /**
+     * Probe a master or replica after the probe interval, and again until it
+     * is available.
+     *
+     * @param health the health of the master or replica
+     */
+    synchronized void probe(final ShardHealth health) {
+        if (closed) {
+            return;
+        }
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, THREAD_NAME);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    int timeout = (int) Math.max(1, probeInterval / 1000);
+                    if (!health.probe(timeout)) {
+                        probe(health);
+                    }
+                }
+            }, probeInterval, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Stop the thread.
+     */
+    public synchronized void shutdown() {
+        closed = true;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月18日
+// $Id$
+
+package com.suning.snfddal.route;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.suning.snfddal.engine.DbSettings;
+import com.suning.snfddal.util.New;
+
+/**
+ * Decides when a query on a data node is sent a second time, to another
+ * replica, because the first one takes longer than usual. The query that
+ * finishes first is used, and the other one is canceled.
+ * <p>
+ * The second query (the hedge) is sent once the first one runs longer than
+ * 95 percent of the recent queries on the data node. To limit the extra load,
+ * each query adds <code>SHARD_HEDGE_BUDGET</code> percent of a hedge to the
+ * budget, and each hedge uses one. Hedges which would exceed the budget, or
+ * for which no thread is free, are not sent.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class HedgePolicy {
+
+    private static final String THREAD_NAME = "HedgeTimer";
+
+    /**
+     * The number of recent query durations per data node.
+     */
+    private static final int WINDOW_SIZE = 100;
+
+    /**
+     * The number of durations which are needed to send hedges.
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    /**
+     * The percentile of the durations after which a hedge is sent.
+     */
+    private static final int PERCENTILE = 95;
+
+    /**
+     * The budget is kept in hundredths of a hedge; it can grow up to this
+     * many hedges, so that a few hedges can be sent at the same time.
+     */
+    private static final int MAX_BURST = 10;
+
+    private final int budgetPercent;
+    private final HashMap<String, Window> windows = New.hashMap();
+    private int credit;
+    private ScheduledExecutorService timer;
+    private boolean closed;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong wins = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public HedgePolicy(DbSettings settings) {
+        this.budgetPercent = settings.shardHedgeBudget;
+    }
+
+    /**
+     * Send the hedge of a query if it is still running after the usual
+     * duration of the queries on the data node. Nothing is scheduled if
+     * there are not enough recent queries yet.
+     *
+     * @param shardName the name of the data node
+     * @param hedge the task which sends the hedge
+     * @param executor the executor which runs the hedge
+     * @return the timer, which needs to be canceled when the query is done,
+     *         or null
+     */
+    public ScheduledFuture<?> schedule(final String shardName, final Runnable hedge,
+            final MultiNodeExecutor executor) {
+        queries.incrementAndGet();
+        long delay;
+        synchronized (this) {
+            credit = Math.min(credit + budgetPercent, MAX_BURST * 100);
+            Window window = windows.get(shardName);
+            delay = window == null ? -1 : window.getPercentile();
+            if (delay < 0 || closed) {
+                return null;
+            }
+            if (timer == null) {
+                timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, THREAD_NAME);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+        }
+        try {
+            return timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    start(shardName, hedge, executor);
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed
+            return null;
+        }
+    }
+
+    private void start(String shardName, Runnable hedge, MultiNodeExecutor executor) {
+        synchronized (this) {
+            if (credit < 100) {
+                skipped.incrementAndGet();
+                return;
+            }
+            credit -= 100;
+        }
+        if (executor.tryExecute(shardName, hedge)) {
+            hedges.incrementAndGet();
+        } else {
+            synchronized (this) {
+                credit += 100;
+            }
+            skipped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record the duration of a query which finished first.
+     *
+     * @param shardName the name of the data node
+     * @param nanos the duration in nanoseconds
+     * @param hedge whether the hedge finished first
+     */
+    public void record(String shardName, long nanos, boolean hedge) {
+        if (hedge) {
+            wins.incrementAndGet();
+        }
+        synchronized (this) {
+            Window window = windows.get(shardName);
+            if (window == null) {
+                window = new Window();
+                windows.put(shardName, window);
+            }
+            window.add(nanos);
+        }
+    }
+
+    /**
+     * Stop the timer.
+     */
+    public synchronized void shutdown() {
+        closed = true;
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Get the number of queries which could be hedged.
+     *
+     * @return the number of queries
+     */
+    public long getQueryCount() {
+        return queries.get();
+    }
+
+    /**
+     * Get the number of hedges which were sent.
+     *
+     * @return the number of hedges
+     */
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * Get the number of hedges which finished before the first query.
+     *
+     * @return the number of hedges
+     */
+    public long getWinCount() {
+        return wins.get();
+    }
+
+    /**
+     * Get the number of hedges which were not sent, because the budget was
+     * used up or no thread was free.
+     *
+     * @return the number of hedges
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * The recent query durations of a data node.
+     */
+    private static class Window {
+
+        private final long[] durations = new long[WINDOW_SIZE];
+        private int pos;
+        private int count;
+
+        /**
+         * The percentile, or -1 if it needs to be calculated again.
+         */
+        private long percentile = -1;
+
+        void add(long nanos) {
+            durations[pos] = nanos;
+            pos = (pos + 1) % durations.length;
+            if (count < durations.length) {
+                count++;
+            }
+            if (pos % MIN_SAMPLES == 0) {
+                percentile = -1;
+            }
+        }
+
+        long getPercentile() {
+            if (count < MIN_SAMPLES) {
+                return -1;
+            }
+            if (percentile < 0) {
+                long[] sorted = Arrays.copyOf(durations, count);
+                Arrays.sort(sorted);
+                percentile = sorted[Math.min(count - 1, count * PERCENTILE / 100)];
+            }
+            return percentile;
+        }
+
+    }
+
+}
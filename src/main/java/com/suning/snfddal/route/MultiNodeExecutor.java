@@ -18,73 +18,456 @@
 
 package com.suning.snfddal.route;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.SynchronousQueue;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.suning.snfddal.api.ErrorCode;
+import com.suning.snfddal.engine.DbSettings;
+import com.suning.snfddal.engine.Session;
 import com.suning.snfddal.message.DbException;
 import com.suning.snfddal.util.New;
 
 /**
+ * Runs the tasks of a statement on several data nodes at the same time.
+ * <p>
+ * At most <code>SHARD_MAX_THREADS</code> tasks run at the same time, and at
+ * most <code>SHARD_CONCURRENCY</code> tasks per data node, so that a slow
+ * data node can't use all threads. Tasks which can't run yet are queued per
+ * session, and the sessions take turns when a thread is free. A task which
+ * is queued for longer than <code>SHARD_QUEUE_TIMEOUT</code> fails. If
+ * <code>SHARD_RUN_INLINE</code> is set, the calling thread runs its queued
+ * tasks itself while it waits. If the command is canceled or its query
+ * timeout expires, the caller stops waiting: queued tasks are removed, and
+ * the running tasks end once their canceled statements return.
+ * <p>
+ * On Java 21 and later, the tasks run in virtual threads if
+ * <code>SHARD_VIRTUAL_THREADS</code> is enabled. The tasks mostly wait for
+ * the data nodes, so there is no limit on the number of virtual threads, but
+ * the limit per data node still applies.
+ *
  * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
  *
  */
 public class MultiNodeExecutor {
-    
-    
-    private final static ThreadPoolExecutor executorService = newThreadPoolExecutor();
 
+    private static final String THREAD_NAME = "MultiNodeExecutor";
+    private static final String STATEMENT_THREAD_NAME = "AsyncStatement";
+
+    /**
+     * The number of milliseconds after which a waiting statement checks
+     * whether it was canceled.
+     */
+    private static final long CANCEL_CHECK_INTERVAL = 100;
 
-    public static ThreadPoolExecutor getThreadPoolExecutor() {
-        return executorService;
+    private final int maxThreads;
+    private final int shardConcurrency;
+    private final long queueTimeout;
+    private final int asyncQueueSize;
+    private final boolean runInline;
+    private final ExecutorService executorService;
+    private ExecutorService statementExecutor;
+
+    /**
+     * The queued tasks per session, in the order in which the sessions get
+     * the next free thread.
+     */
+    private final LinkedHashMap<Session, ArrayDeque<Task<?>>> queues = new LinkedHashMap<Session, ArrayDeque<Task<?>>>();
+    private final HashMap<String, Integer> runningPerShard = New.hashMap();
+    private int runningThreads;
+
+    public MultiNodeExecutor(DbSettings settings) {
+        ExecutorService virtual = settings.shardVirtualThreads ? VirtualThreads.newExecutor(THREAD_NAME) : null;
+        if (virtual != null) {
+            this.maxThreads = Integer.MAX_VALUE;
+            this.executorService = virtual;
+        } else {
+            this.maxThreads = Math.max(1, settings.shardMaxThreads);
+            this.executorService = newThreadPoolExecutor(THREAD_NAME, maxThreads,
+                    new LinkedBlockingQueue<Runnable>());
+        }
+        this.shardConcurrency = settings.shardConcurrency <= 0 ? Integer.MAX_VALUE : settings.shardConcurrency;
+        this.queueTimeout = settings.shardQueueTimeout;
+        this.asyncQueueSize = Math.max(1, settings.shardAsyncQueueSize);
+        this.runInline = settings.shardRunInline;
     }
 
-    public static <T> List<T> execute(List<Callable<T>> calls) {
-        List<T> results = New.arrayList(calls.size());
+    /**
+     * Run the tasks and wait until all of them are done.
+     *
+     * @param session the session
+     * @param calls the tasks
+     * @return the results, in the order of the tasks
+     * @throws DbException if a task failed, or could not be started in time
+     */
+    public <T> List<T> execute(Session session, List<? extends NodeCallable<T>> calls) {
         int size = calls.size();
-        List<Future<T>> futures = New.arrayList(size);
-        for (int i = 0; i < size; i++) {
-            futures.add(executorService.submit(calls.get(i)));
+        List<Task<T>> tasks = New.arrayList(size);
+        synchronized (this) {
+            for (NodeCallable<T> call : calls) {
+                Task<T> task = new Task<T>(session, call);
+                tasks.add(task);
+                enqueue(task);
+            }
+            dispatch();
         }
-        for (Future<T> future : futures) {
+        if (runInline) {
+            while (true) {
+                Task<T> task = startQueued(tasks);
+                if (task == null) {
+                    break;
+                }
+                task.run();
+            }
+        }
+        long deadline = queueTimeout > 0 ? System.currentTimeMillis() + queueTimeout : Long.MAX_VALUE;
+        List<T> results = New.arrayList(size);
+        for (Task<T> task : tasks) {
             try {
-                T result = future.get();
-                results.add(result);
-            } catch (InterruptedException e) {
-                throw DbException.convert(e);
-            } catch (ExecutionException e) {
-                Throwable ex = e.getCause();
-                throw DbException.convert(ex);
-            } catch (Exception e) {
-                throw DbException.convert(e);
-            }   
+                results.add(task.get(deadline));
+            } catch (RuntimeException e) {
+                removeQueued(tasks);
+                throw e;
+            }
         }
         return results;
     }
-    
 
     /**
-     * Create a cached ThreadPoolExecutor.
+     * Run a task in a thread only if a thread and the data node are
+     * available right now, and don't wait for it.
+     *
+     * @param shardName the name of the data node
+     * @param task the task
+     * @return true if the task was started
+     */
+    public synchronized boolean tryExecute(String shardName, final Runnable task) {
+        if (runningThreads >= maxThreads || !isAvailable(shardName)) {
+            return false;
+        }
+        final String name = shardName;
+        runningThreads++;
+        acquire(name);
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    synchronized (MultiNodeExecutor.this) {
+                        release(name);
+                        runningThreads--;
+                        dispatch();
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Run a statement in a thread and don't wait for it. The statements don't
+     * use the threads of the tasks on the data nodes, so that a statement
+     * never waits for a thread that another statement uses. Statements are
+     * queued while all threads are busy, up to
+     * <code>SHARD_ASYNC_QUEUE_SIZE</code> statements.
+     *
+     * @param statement the task which runs the statement
+     * @throws DbException if too many statements are queued
+     */
+    public void submit(Runnable statement) {
+        try {
+            getStatementExecutor().execute(statement);
+        } catch (RejectedExecutionException e) {
+            throw DbException.get(ErrorCode.GENERAL_ERROR_1, e,
+                    "Too many asynchronous statements are waiting for a thread");
+        }
+    }
+
+    /**
+     * Get the number of milliseconds a statement may wait for a thread.
+     *
+     * @return the timeout, or 0 for no timeout
+     */
+    public long getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    private synchronized ExecutorService getStatementExecutor() {
+        if (statementExecutor == null) {
+            if (maxThreads == Integer.MAX_VALUE) {
+                // virtual threads
+                statementExecutor = executorService;
+            } else {
+                statementExecutor = newThreadPoolExecutor(STATEMENT_THREAD_NAME, maxThreads,
+                        new ArrayBlockingQueue<Runnable>(asyncQueueSize));
+            }
+        }
+        return statementExecutor;
+    }
+
+    /**
+     * Stop the threads.
+     */
+    public void shutdown() {
+        executorService.shutdown();
+        synchronized (this) {
+            if (statementExecutor != null) {
+                statementExecutor.shutdown();
+            }
+        }
+    }
+
+    private void enqueue(Task<?> task) {
+        ArrayDeque<Task<?>> queue = queues.get(task.session);
+        if (queue == null) {
+            queue = new ArrayDeque<Task<?>>();
+            queues.put(task.session, queue);
+        }
+        queue.add(task);
+    }
+
+    /**
+     * Start queued tasks while threads are free. The session which was
+     * served the longest time ago gets the next thread, if one of its tasks
+     * may run on its data node.
+     */
+    private void dispatch() {
+        while (runningThreads < maxThreads && !queues.isEmpty()) {
+            Task<?> next = null;
+            for (Iterator<Map.Entry<Session, ArrayDeque<Task<?>>>> it = queues.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Session, ArrayDeque<Task<?>>> e = it.next();
+                next = pollAvailable(e.getValue());
+                if (next != null) {
+                    ArrayDeque<Task<?>> queue = e.getValue();
+                    it.remove();
+                    if (!queue.isEmpty()) {
+                        // move the session to the end
+                        queues.put(e.getKey(), queue);
+                    }
+                    break;
+                }
+            }
+            if (next == null) {
+                // all queued tasks wait for busy data nodes
+                return;
+            }
+            runningThreads++;
+            next.start(true);
+            executorService.execute(next);
+        }
+    }
+
+    private Task<?> pollAvailable(ArrayDeque<Task<?>> queue) {
+        for (Iterator<Task<?>> it = queue.iterator(); it.hasNext();) {
+            Task<?> task = it.next();
+            if (isAvailable(task.call.getShardName())) {
+                it.remove();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take one of the given tasks from the queue to run it in the calling
+     * thread.
+     */
+    private synchronized <T> Task<T> startQueued(List<Task<T>> tasks) {
+        for (Task<T> task : tasks) {
+            if (task.state == Task.QUEUED && isAvailable(task.call.getShardName())) {
+                remove(task);
+                task.start(false);
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private synchronized <T> void removeQueued(List<Task<T>> tasks) {
+        for (Task<T> task : tasks) {
+            if (task.state == Task.QUEUED) {
+                remove(task);
+                task.state = Task.DONE;
+            }
+        }
+    }
+
+    private void remove(Task<?> task) {
+        ArrayDeque<Task<?>> queue = queues.get(task.session);
+        if (queue != null) {
+            queue.remove(task);
+            if (queue.isEmpty()) {
+                queues.remove(task.session);
+            }
+        }
+    }
+
+    private boolean isAvailable(String shardName) {
+        Integer count = runningPerShard.get(shardName);
+        return count == null || count < shardConcurrency;
+    }
+
+    private void acquire(String shardName) {
+        Integer count = runningPerShard.get(shardName);
+        runningPerShard.put(shardName, count == null ? 1 : count + 1);
+    }
+
+    private void release(String shardName) {
+        int count = runningPerShard.get(shardName) - 1;
+        if (count == 0) {
+            runningPerShard.remove(shardName);
+        } else {
+            runningPerShard.put(shardName, count);
+        }
+    }
+
+    /**
+     * A queued or running task, and its result. The thread which waits for
+     * the task waits on the task itself, so that a task which is done only
+     * wakes up the thread of its own command.
+     */
+    private class Task<T> implements Runnable {
+
+        static final int QUEUED = 0, RUNNING = 1, DONE = 2;
+
+        final Session session;
+        final NodeCallable<T> call;
+
+        /**
+         * The state, which is changed while holding the lock of the executor,
+         * except that a running task is done while holding the lock of the
+         * task.
+         */
+        volatile int state;
+        private boolean pooled;
+        private T result;
+        private Throwable error;
+
+        Task(Session session, NodeCallable<T> call) {
+            this.session = session;
+            this.call = call;
+        }
+
+        /**
+         * Mark the task as running on its data node. The caller must hold
+         * the lock.
+         */
+        void start(boolean inPool) {
+            state = RUNNING;
+            pooled = inPool;
+            acquire(call.getShardName());
+        }
+
+        @Override
+        public void run() {
+            T r = null;
+            Throwable e = null;
+            try {
+                r = call.call();
+            } catch (Throwable t) {
+                e = t;
+            }
+            synchronized (MultiNodeExecutor.this) {
+                release(call.getShardName());
+                if (pooled) {
+                    runningThreads--;
+                }
+                dispatch();
+            }
+            synchronized (this) {
+                result = r;
+                error = e;
+                state = DONE;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Wait until the task is done. If the command of the session is
+         * canceled or its query timeout expires, the task is abandoned.
+         *
+         * @param deadline the time until which the task may be queued
+         * @return the result
+         */
+        T get(long deadline) {
+            while (true) {
+                long now = System.currentTimeMillis();
+                long wait = CANCEL_CHECK_INTERVAL;
+                if (state == QUEUED) {
+                    long queued = deadline - now;
+                    if (queued <= 0) {
+                        checkStarted();
+                        continue;
+                    }
+                    wait = Math.min(wait, queued);
+                }
+                long cancelAt = session.getCancel();
+                if (cancelAt != 0) {
+                    wait = Math.min(wait, Math.max(1, cancelAt - now));
+                }
+                synchronized (this) {
+                    if (state == DONE) {
+                        if (error != null) {
+                            throw DbException.convert(error);
+                        }
+                        return result;
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        throw DbException.convert(e);
+                    }
+                }
+                // outside of the lock, as this cancels the statements
+                session.checkCanceled();
+            }
+        }
+
+        /**
+         * Throw an exception if the task is still queued. A thread may have
+         * been started since the state was read.
+         */
+        private void checkStarted() {
+            synchronized (MultiNodeExecutor.this) {
+                if (state == QUEUED) {
+                    throw DbException.get(ErrorCode.GENERAL_ERROR_1,
+                            "Timeout waiting for a thread to access the data node " + call.getShardName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a ThreadPoolExecutor with the given number of threads. The
+     * threads are stopped when they are idle.
      *
-     * @param name
-     * @param size
-     * @param maxSize
-     * @param isDaemon
-     * @return
+     * @param name the prefix of the thread names
+     * @param size the number of threads
+     * @param queue the queue of the tasks which wait for a thread
+     * @return the executor
      */
-    public static ThreadPoolExecutor newThreadPoolExecutor() {
-        NamedThreadFactory factory = new NamedThreadFactory("MultiNodeExecutor", false);
-        return new ThreadPoolExecutor(0, 100, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
-                factory, new ThreadPoolExecutor.AbortPolicy());
+    private static ThreadPoolExecutor newThreadPoolExecutor(String name, int size, BlockingQueue<Runnable> queue) {
+        NamedThreadFactory factory = new NamedThreadFactory(name, false);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 30, TimeUnit.SECONDS,
+                queue, factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
-    
-    
+
+
 
     private static class NamedThreadFactory implements ThreadFactory {
         private final ThreadGroup group;
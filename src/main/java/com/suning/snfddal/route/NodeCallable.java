@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月8日
+// $Id$
+
+package com.suning.snfddal.route;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A task which runs statements on one data node, so that the
+ * {@link MultiNodeExecutor} can limit the number of tasks per data node.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public abstract class NodeCallable<T> implements Callable<T> {
+
+    private final String shardName;
+
+    /**
+     * Create a task for the given data node.
+     *
+     * @param shardName the name of the data node
+     */
+    protected NodeCallable(String shardName) {
+        this.shardName = shardName;
+    }
+
+    /**
+     * @return the name of the data node
+     */
+    public String getShardName() {
+        return shardName;
+    }
+
+}
@@ -63,6 +63,75 @@ public class NodeExecutor {
         }
     }
     
+    /**
+     * Execute a statement once for each parameter list of the batch execution,
+     * using one JDBC batch.
+     *
+     * @param execution the batch execution
+     * @return the update counts
+     */
+    public int[] executeBatch(NodeExecution execution) {
+        if (!execution.isBatch()) {
+            DbException.throwInternalError("Illegal argement.");
+        }
+        String shardName = execution.getShardName();
+        String sql = execution.getSql();
+        List<List<Value>> batchParam = execution.getBatchParam();
+        StatementCache cache = session.getDatabase().getStatementCache();
+        ShardHealth health = null;
+        PreparedStatement prep = null;
+        long start = 0;
+        try {
+            Connection conn = session.getDataNodeConnection(shardName);
+            ShardHealth h = session.getDatabase().getShardGroup(shardName).getHealth(conn);
+            if (h != null) {
+                h.begin();
+                health = h;
+            }
+            start = System.nanoTime();
+            prep = cache == null ? conn.prepareStatement(sql) : cache.prepare(conn, sql);
+            if (trace.isDebugEnabled()) {
+                trace.debug("executing batch of " + batchParam.size() + " " + sql + ";");
+            }
+            for (List<Value> params : batchParam) {
+                for (int i = 0, size = params.size(); i < size; i++) {
+                    Value v = params.get(i);
+                    v.set(prep, i + 1);
+                }
+                prep.addBatch();
+            }
+            int[] counts;
+            session.startDataNodeStatement(prep);
+            try {
+                counts = prep.executeBatch();
+            } finally {
+                session.endDataNodeStatement(prep);
+            }
+            if (health != null) {
+                health.record(System.nanoTime() - start, null);
+                health = null;
+            }
+            if (cache != null) {
+                cache.release(conn, sql, prep);
+                prep = null;
+            }
+            return counts;
+        } catch (SQLException e) {
+            session.checkCanceled();
+            if (health != null) {
+                health.record(System.nanoTime() - start, e);
+                health = null;
+            }
+            throw DbException.convert(e);
+        } finally {
+            JdbcUtils.closeSilently(prep);
+            if (health != null) {
+                // canceled, or failed before the statement was sent
+                health.canceled();
+            }
+        }
+    }
+    
     private PreparedStatement preparedAndExecute(NodeExecution execution) {
         if(execution.isBatch()) {
             DbException.throwInternalError("Illegal argement.");
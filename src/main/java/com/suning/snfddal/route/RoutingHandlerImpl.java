@@ -35,9 +35,9 @@ import com.suning.snfddal.route.rule.RoutingCalculatorImpl;
 import com.suning.snfddal.route.rule.RoutingResult;
 import com.suning.snfddal.route.rule.RuleColumn;
 import com.suning.snfddal.route.rule.TableRouter;
+import com.suning.snfddal.route.rule.ValueRange;
 import com.suning.snfddal.util.New;
 import com.suning.snfddal.value.Value;
-import com.suning.snfddal.value.ValueLong;
 import com.suning.snfddal.value.ValueNull;
 
 /**
@@ -82,8 +82,8 @@ public class RoutingHandlerImpl implements RoutingHandler {
             return singlenessResult(shardName, tableName);
         } else {
             Map<String, List<Value>> routingArgs = New.hashMap();
-            exportRangeArg(table, first, last, routingArgs);
-            RoutingResult rr = trc.calculate(tr, routingArgs);
+            Map<String, ValueRange> routingRanges = exportRangeArg(table, first, last, routingArgs);
+            RoutingResult rr = trc.calculate(tr, routingArgs, routingRanges);
             return rr;
         }
 
@@ -147,8 +147,8 @@ public class RoutingHandlerImpl implements RoutingHandler {
                     }
                 }
             }
-            exportRangeArg(table, start, end, routingArgs);
-            RoutingResult rr = trc.calculate(tr, routingArgs);
+            Map<String, ValueRange> routingRanges = exportRangeArg(table, start, end, routingArgs);
+            RoutingResult rr = trc.calculate(tr, routingArgs, routingRanges);
             return rr;
         }
         
@@ -195,85 +195,83 @@ public class RoutingHandlerImpl implements RoutingHandler {
     }
     
     /**
-     * 
-     * @param table
-     * @param first
-     * @param last
-     * @param routingArgs
+     * Export the range of each rule column which has no values.
+     *
+     * @param table the table
+     * @param first the lower bounds, or null
+     * @param last the upper bounds, or null
+     * @param routingArgs the values of the rule columns
+     * @return the ranges of the rule columns
      */
-    private void exportRangeArg(MappedTable table, SearchRow first, SearchRow last, Map<String, List<Value>> routingArgs) {
+    private Map<String, ValueRange> exportRangeArg(MappedTable table, SearchRow first, SearchRow last,
+            Map<String, List<Value>> routingArgs) {
+        Map<String, ValueRange> ranges = New.hashMap();
+        if (first == null && last == null) {
+            return ranges;
+        }
         TableRouter tr = table.getTableRouter();
         List<RuleColumn> ruleCols = tr.getRuleColumns();
-        if (first != null && last != null) {
-            for (int i = 0; first != null && i < first.getColumnCount(); i++) {
-                Value firstV = first.getValue(i);
-                Value listV = last.getValue(i);
-                if (firstV == null || listV == null 
-                        || firstV == ValueNull.INSTANCE 
-                        || listV == ValueNull.INSTANCE) {
-                    continue;
-                }
-                Column col = table.getColumn(i);
-                String colName = col.getName();
-                RuleColumn matched = null;
-                for (RuleColumn ruleColumn : ruleCols) {
-                    if (colName.equalsIgnoreCase(ruleColumn.getName())) {
-                        matched = ruleColumn;
-                    }
-                }
-                if (matched == null) {
-                    continue;
+        Column[] columns = table.getColumns();
+        for (int i = 0; i < columns.length; i++) {
+            Value firstV = first == null ? null : first.getValue(i);
+            Value lastV = last == null ? null : last.getValue(i);
+            if (firstV == ValueNull.INSTANCE) {
+                firstV = null;
+            }
+            if (lastV == ValueNull.INSTANCE) {
+                lastV = null;
+            }
+            if (firstV == null && lastV == null) {
+                continue;
+            }
+            Column col = columns[i];
+            String colName = col.getName();
+            RuleColumn matched = null;
+            for (RuleColumn ruleColumn : ruleCols) {
+                if (colName.equalsIgnoreCase(ruleColumn.getName())) {
+                    matched = ruleColumn;
                 }
-                List<Value> values = routingArgs.get(matched.getName());
+            }
+            if (matched == null) {
+                continue;
+            }
+            List<Value> values = routingArgs.get(matched.getName());
+            if (values != null && !values.isEmpty()) {
+                // IN条件或等值条件的值更精确,忽略范围
+                continue;
+            }
+            firstV = convert(col, firstV);
+            lastV = convert(col, lastV);
+            int compare = firstV == null || lastV == null ? -1 : database.compare(firstV, lastV);
+            if (compare == 0) {
                 if (values == null) {
-                    values = New.arrayList();
+                    values = New.arrayList(1);
                     routingArgs.put(matched.getName(), values);
                 }
-                int compare = database.compare(firstV, listV);
-                if (compare == 0) {
-                    values.add(firstV);
-                } else if (compare < 0) {
-                    List<Value> enumValue = enumRange(firstV, listV);
-                    if(enumValue != null) {
-                        values.addAll(enumValue);
-                    }
-                } else {
-                    throw new TableRoutingException(table.getName() + " routing error. The conidition "
-                            + matched.getName() + " is alwarys false.");
-                }
-                
+                values.add(firstV);
+            } else if (compare < 0) {
+                ranges.put(matched.getName(), new ValueRange(firstV, lastV));
+            } else {
+                throw new TableRoutingException(table.getName() + " routing error. The conidition "
+                        + matched.getName() + " is alwarys false.");
             }
         }
+        return ranges;
     }
 
-    private List<Value> enumRange(Value firstV, Value listV) {
-        if (firstV.getType() != listV.getType()) {
+    /**
+     * Convert a bound to the column type. A bound which can not be converted
+     * is treated as unbounded.
+     */
+    private static Value convert(Column col, Value v) {
+        if (v == null) {
             return null;
         }
-        int type = firstV.getType();
-        switch (type) {
-        case Value.BYTE:
-        case Value.INT:
-        case Value.LONG:
-        case Value.SHORT:
-            if (listV.subtract(firstV).getLong() > 200) {
-                return null;
-            }
-            List<Value> enumValues = New.arrayList(10);
-            int enumCount = 0;
-            while (database.compare(firstV, listV) <= 0) {
-                long begin = firstV.getLong();
-                Value enumValue = ValueLong.get(begin + enumCount);
-                enumValue = enumValue.convertTo(firstV.getType());
-                enumValues.add(enumValue);
-                ++ enumCount;
-            }
-            return enumValues;
-
-        default:
+        try {
+            return col.convert(v);
+        } catch (DbException e) {
             return null;
         }
-
     }
     
     
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月16日
+// $Id$
+
+package com.suning.snfddal.route;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+
+import javax.sql.DataSource;
+
+import com.suning.snfddal.util.JdbcUtils;
+
+/**
+ * A data node with one master and any number of replicas. Writes, and reads
+ * within a transaction which changed data, use the master. Other reads use
+ * the replica which has the fewest open connections relative to its weight.
+ * The master and each replica have their own health; replicas whose circuit
+ * is open are not used.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class ShardGroup {
+
+    private final String name;
+    private final DataSource master;
+    private final DataSource[] replicas;
+    private final int[] weights;
+
+    /**
+     * The number of open connections per replica.
+     */
+    private final int[] outstanding;
+
+    /**
+     * The replica of each open connection.
+     */
+    private final IdentityHashMap<Connection, Integer> connections = new IdentityHashMap<Connection, Integer>();
+
+    /**
+     * The replica to start the search with, so that replicas with the same
+     * load are used in turn.
+     */
+    private int next;
+
+    private ShardHealth health;
+    private ShardHealth[] replicaHealth;
+
+    /**
+     * Create a data node without replicas.
+     *
+     * @param name the name of the data node
+     * @param master the data source of the master
+     */
+    public ShardGroup(String name, DataSource master) {
+        this(name, master, new DataSource[0], new int[0]);
+    }
+
+    /**
+     * Create a data node.
+     *
+     * @param name the name of the data node
+     * @param master the data source of the master
+     * @param replicas the data sources of the replicas
+     * @param weights the weights of the replicas
+     */
+    public ShardGroup(String name, DataSource master, DataSource[] replicas, int[] weights) {
+        this.name = name;
+        this.master = master;
+        this.replicas = replicas;
+        this.weights = weights;
+        this.outstanding = new int[replicas.length];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DataSource getMaster() {
+        return master;
+    }
+
+    /**
+     * Track the health of the master and of each replica.
+     *
+     * @param monitor the monitor which probes them
+     */
+    public void createHealth(HealthMonitor monitor) {
+        health = monitor.createHealth("data node " + name, master);
+        ShardHealth[] list = new ShardHealth[replicas.length];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = monitor.createHealth("replica " + (i + 1) + " of data node " + name, replicas[i]);
+        }
+        replicaHealth = list;
+    }
+
+    /**
+     * Get the health of the master.
+     *
+     * @return the health, or null if it is not tracked
+     */
+    public ShardHealth getHealth() {
+        return health;
+    }
+
+    /**
+     * Get the health of a replica.
+     *
+     * @param index the index of the replica
+     * @return the health, or null if it is not tracked
+     */
+    public ShardHealth getReplicaHealth(int index) {
+        return replicaHealth == null ? null : replicaHealth[index];
+    }
+
+    /**
+     * Get the health of the master or replica of a connection.
+     *
+     * @param conn the connection
+     * @return the health of the replica if the connection was opened with
+     *         {@link #getReplicaConnection()}, else the health of the
+     *         master, or null if it is not tracked
+     */
+    public ShardHealth getHealth(Connection conn) {
+        Integer replica;
+        synchronized (this) {
+            replica = connections.get(conn);
+        }
+        return replica == null ? health : getReplicaHealth(replica);
+    }
+
+    public int getReplicaCount() {
+        return replicas.length;
+    }
+
+    /**
+     * Get the data source of a replica.
+     *
+     * @param index the index of the replica
+     * @return the data source
+     */
+    public DataSource getReplica(int index) {
+        return replicas[index];
+    }
+
+    /**
+     * Open a connection to the replica with the fewest open connections
+     * relative to its weight. The connection must be closed with
+     * {@link #closeReplicaConnection(Connection)}.
+     *
+     * @return the connection, or null if no replica is available
+     */
+    public Connection getReplicaConnection() throws SQLException {
+        return getReplicaConnection(-1);
+    }
+
+    /**
+     * Open a connection to send the same query again, to another replica than
+     * the given connection. If there is no other replica, the connection is
+     * to the master. The connection must be closed with
+     * {@link #closeReplicaConnection(Connection)}.
+     *
+     * @param conn the connection of the first query
+     * @return the connection, or null if no other replica and not the master
+     *         is available
+     */
+    public Connection getHedgeConnection(Connection conn) throws SQLException {
+        Integer exclude;
+        synchronized (this) {
+            exclude = connections.get(conn);
+        }
+        if (replicas.length > (exclude == null ? 0 : 1)) {
+            Connection hedge = getReplicaConnection(exclude == null ? -1 : exclude);
+            if (hedge != null) {
+                return hedge;
+            }
+        }
+        if (health != null && !health.isAvailable()) {
+            return null;
+        }
+        return master.getConnection();
+    }
+
+    private Connection getReplicaConnection(int exclude) throws SQLException {
+        int replica = chooseReplica(exclude);
+        if (replica < 0) {
+            return null;
+        }
+        Connection conn;
+        try {
+            conn = replicas[replica].getConnection();
+        } catch (SQLException e) {
+            release(replica);
+            ShardHealth h = getReplicaHealth(replica);
+            if (h != null) {
+                h.connectFailed(e);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            release(replica);
+            throw e;
+        }
+        synchronized (this) {
+            connections.put(conn, replica);
+        }
+        return conn;
+    }
+
+    /**
+     * Close a connection which was opened with
+     * {@link #getReplicaConnection()} or
+     * {@link #getHedgeConnection(Connection)}.
+     *
+     * @param conn the connection
+     */
+    public void closeReplicaConnection(Connection conn) {
+        Integer replica;
+        synchronized (this) {
+            replica = connections.remove(conn);
+        }
+        if (replica != null) {
+            release(replica);
+        }
+        JdbcUtils.closeSilently(conn);
+    }
+
+    private synchronized int chooseReplica(int exclude) {
+        boolean[] skipped = null;
+        while (true) {
+            int best = -1;
+            for (int i = 0; i < replicas.length; i++) {
+                int r = (next + i) % replicas.length;
+                if (r == exclude || skipped != null && skipped[r]
+                        || replicaHealth != null && replicaHealth[r].getState() == ShardHealth.OPEN) {
+                    continue;
+                }
+                // outstanding[r] / weights[r] < outstanding[best] / weights[best]
+                if (best < 0 || (long) outstanding[r] * weights[best] < (long) outstanding[best] * weights[r]) {
+                    best = r;
+                }
+            }
+            if (best < 0) {
+                return -1;
+            }
+            if (replicaHealth != null && !replicaHealth[best].isAvailable()) {
+                // half open, and the trial statements are used up
+                if (skipped == null) {
+                    skipped = new boolean[replicas.length];
+                }
+                skipped[best] = true;
+                continue;
+            }
+            next = (best + 1) % replicas.length;
+            outstanding[best]++;
+            return best;
+        }
+    }
+
+    private synchronized void release(int replica) {
+        outstanding[replica]--;
+    }
+
+    /**
+     * Get the number of open connections to a replica.
+     *
+     * @param index the index of the replica
+     * @return the number of connections
+     */
+    public synchronized int getOutstanding(int index) {
+        return outstanding[index];
+    }
+
+}
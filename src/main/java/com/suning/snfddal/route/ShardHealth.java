@@ -0,0 +1,399 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月17日
+// $Id$
+
+package com.suning.snfddal.route;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import com.suning.snfddal.api.ErrorCode;
+import com.suning.snfddal.engine.DbSettings;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.util.JdbcUtils;
+
+/**
+ * The health of the master or of a replica of a data node, which is a
+ * circuit breaker for the statements sent to it.
+ * <p>
+ * The outcome and the duration of the last <code>SHARD_HEALTH_WINDOW</code>
+ * statements are kept. Only connection errors count as failures, as any
+ * other error means that the database answered. Statements which take
+ * longer than <code>SHARD_SLOW_CALL_TIME</code> count as failures as well.
+ * If at least <code>SHARD_FAILURE_RATE</code> percent of the statements in a
+ * window that is at least half full failed, the circuit is opened: all
+ * statements for the master fail at once, instead of waiting for a database
+ * that is down, and reads use the other replicas. The database is then
+ * probed in the background every <code>SHARD_PROBE_INTERVAL</code>
+ * milliseconds. When a probe succeeds, the circuit is half open and only a
+ * few trial statements are sent. The circuit is closed once they succeeded, or
+ * opened again if one of them fails.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class ShardHealth {
+
+    /**
+     * The state of a data node whose statements are sent.
+     */
+    public static final int CLOSED = 0;
+
+    /**
+     * The state of a data node whose statements fail at once.
+     */
+    public static final int OPEN = 1;
+
+    /**
+     * The state of a data node whose statements are sent again, after a
+     * probe succeeded.
+     */
+    public static final int HALF_OPEN = 2;
+
+    /**
+     * The number of trial statements of a half open circuit, which need to
+     * succeed to close it.
+     */
+    private static final int HALF_OPEN_CALLS = 3;
+
+    private final String name;
+    private final DataSource dataSource;
+    private final HealthMonitor monitor;
+    private final int failureRate;
+    private final long slowCallNanos;
+    private final long probeIntervalNanos;
+    private final int minCalls;
+
+    /**
+     * The window of the last statements: whether each one failed, and its
+     * duration in nanoseconds.
+     */
+    private final boolean[] failed;
+    private final long[] durations;
+    private int pos;
+    private int count;
+    private int failures;
+    private long totalDuration;
+
+    private volatile int state = CLOSED;
+    private int halfOpenCalls;
+    private long lastHalfOpenCall;
+    private int halfOpenSuccesses;
+    private volatile SQLException lastError;
+    private final AtomicLong rejected = new AtomicLong();
+    private long openCount;
+
+    /**
+     * Create the health of a master or a replica.
+     *
+     * @param name the name which is used in error messages
+     * @param dataSource the data source, which is probed
+     * @param monitor the monitor which runs the probes
+     * @param settings the database settings
+     */
+    public ShardHealth(String name, DataSource dataSource, HealthMonitor monitor, DbSettings settings) {
+        this.name = name;
+        this.dataSource = dataSource;
+        this.monitor = monitor;
+        this.failureRate = settings.shardFailureRate;
+        this.slowCallNanos = settings.shardSlowCallTime * 1000000L;
+        this.probeIntervalNanos = Math.max(1, settings.shardProbeInterval) * 1000000L;
+        int windowSize = Math.max(1, settings.shardHealthWindow);
+        this.minCalls = Math.max(1, windowSize / 2);
+        this.failed = new boolean[windowSize];
+        this.durations = new long[windowSize];
+    }
+
+    /**
+     * Check whether a statement may be sent. If the circuit is half open,
+     * this is the case while not all trial statements were started.
+     *
+     * @throws DbException if the circuit is open
+     */
+    public void check() {
+        if (!isAvailable()) {
+            rejected.incrementAndGet();
+            throw DbException.get(ErrorCode.CONNECTION_BROKEN_1, lastError, name + " is unavailable");
+        }
+    }
+
+    /**
+     * Check whether a statement may be sent, like {@link #check()}, but
+     * without throwing an exception.
+     *
+     * @return true if it may be sent
+     */
+    public boolean isAvailable() {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            return false;
+        default:
+            synchronized (this) {
+                return state == CLOSED || state == HALF_OPEN && hasTrial(System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Start a statement. Each started statement needs to end with
+     * {@link #record(long, SQLException)} or {@link #canceled()}. If the
+     * circuit is half open, the statement is one of the trial statements; once they are
+     * all started, more are allowed only if none of them finished within the
+     * probe interval.
+     *
+     * @throws DbException if the statement may not be sent
+     */
+    public void begin() {
+        if (state == CLOSED) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (state == CLOSED) {
+                return;
+            } else if (state == HALF_OPEN && hasTrial(now)) {
+                halfOpenCalls++;
+                lastHalfOpenCall = now;
+                return;
+            }
+        }
+        rejected.incrementAndGet();
+        throw DbException.get(ErrorCode.CONNECTION_BROKEN_1, lastError, name + " is unavailable");
+    }
+
+    private boolean hasTrial(long now) {
+        return halfOpenCalls < HALF_OPEN_CALLS || now - lastHalfOpenCall >= probeIntervalNanos;
+    }
+
+    /**
+     * Record the outcome of a statement.
+     *
+     * @param nanos the duration of the statement in nanoseconds
+     * @param e the exception, or null if the statement succeeded
+     */
+    public void record(long nanos, SQLException e) {
+        boolean failure = e != null && isConnectionError(e);
+        if (slowCallNanos > 0 && nanos >= slowCallNanos) {
+            failure = true;
+        }
+        if (failure && e != null) {
+            lastError = e;
+        }
+        boolean opened;
+        synchronized (this) {
+            opened = add(failure, nanos);
+        }
+        if (opened) {
+            monitor.probe(this);
+        }
+    }
+
+    /**
+     * Record that a statement was canceled, or that it did not run to the
+     * end, so that its outcome is unknown. It counts neither as a success
+     * nor as a failure. If it was a trial statement of a half open circuit,
+     * another trial statement may be sent instead.
+     */
+    public void canceled() {
+        if (state != HALF_OPEN) {
+            return;
+        }
+        synchronized (this) {
+            if (state == HALF_OPEN && halfOpenCalls > halfOpenSuccesses) {
+                halfOpenCalls--;
+            }
+        }
+    }
+
+    /**
+     * Record that a connection to the data node could not be opened.
+     *
+     * @param e the exception
+     */
+    public void connectFailed(SQLException e) {
+        lastError = e;
+        boolean opened;
+        synchronized (this) {
+            opened = add(true, 0);
+        }
+        if (opened) {
+            monitor.probe(this);
+        }
+    }
+
+    /**
+     * Add a statement to the window.
+     *
+     * @return true if the circuit was opened
+     */
+    private boolean add(boolean failure, long nanos) {
+        switch (state) {
+        case OPEN:
+            // the statement was sent before the circuit was opened
+            return false;
+        case HALF_OPEN:
+            if (failure) {
+                return open();
+            }
+            if (++halfOpenSuccesses >= HALF_OPEN_CALLS) {
+                state = CLOSED;
+            }
+            return false;
+        default:
+            if (count == failed.length) {
+                if (failed[pos]) {
+                    failures--;
+                }
+                totalDuration -= durations[pos];
+            } else {
+                count++;
+            }
+            failed[pos] = failure;
+            durations[pos] = nanos;
+            if (failure) {
+                failures++;
+            }
+            totalDuration += nanos;
+            pos = (pos + 1) % failed.length;
+            if (failureRate > 0 && count >= minCalls && failures * 100L >= (long) failureRate * count) {
+                return open();
+            }
+            return false;
+        }
+    }
+
+    private boolean open() {
+        state = OPEN;
+        openCount++;
+        pos = 0;
+        count = 0;
+        failures = 0;
+        totalDuration = 0;
+        return true;
+    }
+
+    /**
+     * Try to connect to the database. If this succeeds, the circuit is half
+     * open.
+     *
+     * @param timeout the timeout in seconds
+     * @return true if the database is available
+     */
+    boolean probe(int timeout) {
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            if (!conn.isValid(timeout)) {
+                return false;
+            }
+        } catch (SQLException e) {
+            lastError = e;
+            return false;
+        } catch (RuntimeException e) {
+            return false;
+        } finally {
+            JdbcUtils.closeSilently(conn);
+        }
+        synchronized (this) {
+            if (state == OPEN) {
+                state = HALF_OPEN;
+                halfOpenCalls = 0;
+                halfOpenSuccesses = 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether an exception means that the data node could not be
+     * reached, as opposed to an error in the statement.
+     *
+     * @param e the exception
+     * @return true if it is a connection error
+     */
+    public static boolean isConnectionError(SQLException e) {
+        if (e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLRecoverableException) {
+            return true;
+        }
+        // SQL state class 08: connection exception
+        String sqlState = e.getSQLState();
+        return sqlState != null && sqlState.startsWith("08");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Get the state of the circuit.
+     *
+     * @return CLOSED, OPEN, or HALF_OPEN
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Get the number of failed statements in the window.
+     *
+     * @return the number of failures
+     */
+    public synchronized int getFailureCount() {
+        return failures;
+    }
+
+    /**
+     * Get the average duration of the statements in the window.
+     *
+     * @return the duration in milliseconds
+     */
+    public synchronized long getAverageDuration() {
+        return count == 0 ? 0 : totalDuration / count / 1000000L;
+    }
+
+    /**
+     * Get the number of times the circuit was opened.
+     *
+     * @return the number of times
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * Get the number of statements which failed because the circuit was
+     * open.
+     *
+     * @return the number of statements
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+}
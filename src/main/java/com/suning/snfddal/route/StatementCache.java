@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月15日
+// $Id$
+
+package com.suning.snfddal.route;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.suning.snfddal.util.JdbcUtils;
+import com.suning.snfddal.util.New;
+
+/**
+ * The prepared statements of the data node connections which are not in use.
+ * The statements are cached per connection, as a statement can only be used
+ * with the connection which prepared it. A statement is removed from the
+ * cache while it is used, so it is never used by two threads at the same
+ * time. If a connection has too many statements, the least recently used
+ * ones are closed.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class StatementCache {
+
+    private final int maxSize;
+
+    /**
+     * The statements per connection, the least recently used first.
+     */
+    private final IdentityHashMap<Connection, LinkedHashMap<String, PreparedStatement>> connections =
+            new IdentityHashMap<Connection, LinkedHashMap<String, PreparedStatement>>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize the maximum number of statements per connection
+     */
+    public StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get a statement for the given SQL statement. A cached statement is
+     * removed from the cache, otherwise the statement is prepared.
+     *
+     * @param conn the connection
+     * @param sql the SQL statement
+     * @return the prepared statement
+     */
+    public PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        LinkedHashMap<String, PreparedStatement> map = getMap(conn, false);
+        if (map != null) {
+            PreparedStatement prep;
+            synchronized (map) {
+                prep = map.remove(sql);
+            }
+            if (prep != null) {
+                hits.incrementAndGet();
+                return prep;
+            }
+        }
+        misses.incrementAndGet();
+        return conn.prepareStatement(sql);
+    }
+
+    /**
+     * Add a statement which is no longer used to the cache. The result set of
+     * the statement must be closed.
+     *
+     * @param conn the connection which prepared the statement
+     * @param sql the SQL statement
+     * @param prep the prepared statement
+     */
+    public void release(Connection conn, String sql, PreparedStatement prep) {
+        ArrayList<PreparedStatement> closed = New.arrayList();
+        LinkedHashMap<String, PreparedStatement> map = getMap(conn, true);
+        synchronized (map) {
+            PreparedStatement old = map.put(sql, prep);
+            if (old != null && old != prep) {
+                // the same statement was used twice at the same time
+                closed.add(old);
+            }
+            Iterator<PreparedStatement> it = map.values().iterator();
+            while (map.size() > maxSize) {
+                closed.add(it.next());
+                it.remove();
+            }
+        }
+        for (PreparedStatement p : closed) {
+            JdbcUtils.closeSilently(p);
+        }
+    }
+
+    /**
+     * Close the cached statements of a connection. This method needs to be
+     * called before the connection is closed or returned to the pool.
+     *
+     * @param conn the connection
+     */
+    public void closeStatements(Connection conn) {
+        LinkedHashMap<String, PreparedStatement> map;
+        synchronized (connections) {
+            map = connections.remove(conn);
+        }
+        if (map == null) {
+            return;
+        }
+        synchronized (map) {
+            for (PreparedStatement prep : map.values()) {
+                JdbcUtils.closeSilently(prep);
+            }
+            map.clear();
+        }
+    }
+
+    private LinkedHashMap<String, PreparedStatement> getMap(Connection conn, boolean create) {
+        synchronized (connections) {
+            LinkedHashMap<String, PreparedStatement> map = connections.get(conn);
+            if (map == null && create) {
+                map = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+                connections.put(conn, map);
+            }
+            return map;
+        }
+    }
+
+    /**
+     * Get the number of statements which were found in the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of statements which had to be prepared.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of cached statements of all connections.
+     *
+     * @return the number of statements
+     */
+    public int getSize() {
+        int size = 0;
+        synchronized (connections) {
+            for (LinkedHashMap<String, PreparedStatement> map : connections.values()) {
+                synchronized (map) {
+                    size += map.size();
+                }
+            }
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月10日
+// $Id$
+
+package com.suning.snfddal.route;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates executors which run each task in a new virtual thread. Virtual
+ * threads need Java 21, so this version of the class doesn't support them.
+ * The jar contains a Java 21 version of the class in
+ * <code>META-INF/versions/21</code>, which is used instead on Java 21 and
+ * later.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+        // utility class
+    }
+
+    /**
+     * Create an executor which starts a virtual thread for each task.
+     *
+     * @param name the prefix of the thread names
+     * @return the executor, or null if virtual threads are not supported
+     */
+    static ExecutorService newExecutor(String name) {
+        return null;
+    }
+
+}
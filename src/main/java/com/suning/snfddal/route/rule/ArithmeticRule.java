@@ -0,0 +1,667 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月8日
+// $Id$
+
+package com.suning.snfddal.route.rule;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A rule expression which only uses integer arithmetic: rule columns, integer
+ * literals, <code>+ - * / %</code>, unary minus and parentheses, for example
+ * <code>(F_STUDENT_ID % 16) / 4</code>. Such a rule can be translated to java
+ * code, and the range of its result can be computed from the ranges of the
+ * arguments without enumerating them.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+class ArithmeticRule {
+
+    private final Node root;
+
+    private ArithmeticRule(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Parse the rule expression.
+     *
+     * @param expression the rule expression
+     * @return the parsed rule, or null if the expression is not integer
+     *         arithmetic on rule columns
+     */
+    static ArithmeticRule parse(RuleExpression expression) {
+        String text = expression.getExpression();
+        if (text == null) {
+            return null;
+        }
+        Parser parser = new Parser(text, expression.getRuleColumns());
+        try {
+            Node node = parser.readSum();
+            if (parser.token != null) {
+                return null;
+            }
+            return new ArithmeticRule(node);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the java expression of this rule, where the rule columns are read
+     * from the array <code>a</code>. With int arithmetic, the array is an
+     * int array and the operations overflow like those of ognl for int
+     * arguments; otherwise it is a long array.
+     *
+     * @param columns the list to add the column names to, in argument order
+     * @param ints whether to use int arithmetic
+     * @return the java expression, or null if a literal is not an int
+     */
+    String toJava(List<String> columns, boolean ints) {
+        StringBuilder buff = new StringBuilder();
+        try {
+            root.toJava(buff, columns, ints);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Compute the possible results of this rule.
+     *
+     * @param args the possible values of each rule column
+     * @return the possible results, or null if unknown
+     */
+    Ranges evaluate(Map<String, Ranges> args) {
+        return root.evaluate(args);
+    }
+
+    /**
+     * A node of the expression tree.
+     */
+    private abstract static class Node {
+
+        abstract void toJava(StringBuilder buff, List<String> columns, boolean ints);
+
+        abstract Ranges evaluate(Map<String, Ranges> args);
+
+    }
+
+    /**
+     * An integer literal.
+     */
+    private static class Literal extends Node {
+
+        final long value;
+
+        Literal(long value) {
+            this.value = value;
+        }
+
+        @Override
+        void toJava(StringBuilder buff, List<String> columns, boolean ints) {
+            if (!ints) {
+                buff.append(value).append('L');
+            } else if (value == (int) value) {
+                buff.append(value);
+            } else {
+                throw new IllegalArgumentException("Not an int: " + value);
+            }
+        }
+
+        @Override
+        Ranges evaluate(Map<String, Ranges> args) {
+            return Ranges.of(value, value);
+        }
+    }
+
+    /**
+     * A rule column.
+     */
+    private static class ColumnRef extends Node {
+
+        final String name;
+
+        ColumnRef(String name) {
+            this.name = name;
+        }
+
+        @Override
+        void toJava(StringBuilder buff, List<String> columns, boolean ints) {
+            int index = columns.indexOf(name);
+            if (index < 0) {
+                index = columns.size();
+                columns.add(name);
+            }
+            buff.append("a[").append(index).append(']');
+        }
+
+        @Override
+        Ranges evaluate(Map<String, Ranges> args) {
+            return args.get(name);
+        }
+    }
+
+    /**
+     * Unary minus.
+     */
+    private static class Negate extends Node {
+
+        final Node arg;
+
+        Negate(Node arg) {
+            this.arg = arg;
+        }
+
+        @Override
+        void toJava(StringBuilder buff, List<String> columns, boolean ints) {
+            buff.append("(- ");
+            arg.toJava(buff, columns, ints);
+            buff.append(')');
+        }
+
+        @Override
+        Ranges evaluate(Map<String, Ranges> args) {
+            Ranges r = arg.evaluate(args);
+            return r == null ? null : r.negate();
+        }
+    }
+
+    /**
+     * A binary operation.
+     */
+    private static class Operation extends Node {
+
+        final char op;
+        final Node left, right;
+
+        Operation(char op, Node left, Node right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void toJava(StringBuilder buff, List<String> columns, boolean ints) {
+            buff.append('(');
+            left.toJava(buff, columns, ints);
+            buff.append(' ').append(op).append(' ');
+            right.toJava(buff, columns, ints);
+            buff.append(')');
+        }
+
+        @Override
+        Ranges evaluate(Map<String, Ranges> args) {
+            Ranges l = left.evaluate(args);
+            Ranges r = right.evaluate(args);
+            if (l == null || r == null) {
+                return null;
+            }
+            switch (op) {
+            case '+':
+                return l.add(r);
+            case '-':
+                Ranges n = r.negate();
+                return n == null ? null : l.add(n);
+            case '*':
+                return l.multiply(r);
+            case '/':
+                return l.divide(r);
+            case '%':
+                return l.modulus(r);
+            default:
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A recursive descent parser with the usual java operator precedence.
+     */
+    private static class Parser {
+
+        private final String text;
+        private final List<RuleColumn> ruleColumns;
+        private int pos;
+        String token;
+
+        Parser(String text, List<RuleColumn> ruleColumns) {
+            this.text = text;
+            this.ruleColumns = ruleColumns;
+            read();
+        }
+
+        Node readSum() {
+            Node node = readProduct();
+            while ("+".equals(token) || "-".equals(token)) {
+                char op = token.charAt(0);
+                read();
+                node = new Operation(op, node, readProduct());
+            }
+            return node;
+        }
+
+        private Node readProduct() {
+            Node node = readUnary();
+            while ("*".equals(token) || "/".equals(token) || "%".equals(token)) {
+                char op = token.charAt(0);
+                read();
+                node = new Operation(op, node, readUnary());
+            }
+            return node;
+        }
+
+        private Node readUnary() {
+            if ("-".equals(token)) {
+                read();
+                return new Negate(readUnary());
+            }
+            if ("+".equals(token)) {
+                read();
+                return readUnary();
+            }
+            return readTerm();
+        }
+
+        private Node readTerm() {
+            String t = token;
+            if (t == null) {
+                throw new IllegalArgumentException();
+            }
+            read();
+            if ("(".equals(t)) {
+                Node node = readSum();
+                if (!")".equals(token)) {
+                    throw new IllegalArgumentException();
+                }
+                read();
+                return node;
+            }
+            char c = t.charAt(0);
+            if (Character.isDigit(c)) {
+                // throws a NumberFormatException for too large literals
+                return new Literal(Long.parseLong(t));
+            }
+            if (Character.isJavaIdentifierStart(c)) {
+                for (RuleColumn col : ruleColumns) {
+                    if (t.equals(col.getName())) {
+                        return new ColumnRef(t);
+                    }
+                }
+            }
+            throw new IllegalArgumentException(t);
+        }
+
+        private void read() {
+            int len = text.length();
+            while (pos < len && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos >= len) {
+                token = null;
+                return;
+            }
+            int start = pos;
+            char c = text.charAt(pos);
+            if (Character.isDigit(c)) {
+                while (pos < len && Character.isDigit(text.charAt(pos))) {
+                    pos++;
+                }
+                if (pos < len && (Character.isJavaIdentifierPart(text.charAt(pos)) || text.charAt(pos) == '.')) {
+                    // 1L, 0x10, 1.5 and so on
+                    throw new IllegalArgumentException();
+                }
+            } else if (Character.isJavaIdentifierStart(c)) {
+                while (pos < len && Character.isJavaIdentifierPart(text.charAt(pos))) {
+                    pos++;
+                }
+            } else if ("+-*/%()".indexOf(c) >= 0) {
+                pos++;
+            } else {
+                throw new IllegalArgumentException(String.valueOf(c));
+            }
+            token = text.substring(start, pos);
+        }
+    }
+
+    /**
+     * A sorted set of disjoint closed intervals of long values.
+     */
+    static final class Ranges {
+
+        /**
+         * Above this number of intervals, the hull is used.
+         */
+        private static final int MAX_INTERVALS = 64;
+
+        /**
+         * The intervals: low0, high0, low1, high1, ...
+         */
+        private final long[] bounds;
+
+        private Ranges(long[] bounds) {
+            this.bounds = bounds;
+        }
+
+        /**
+         * Create a range with one interval.
+         *
+         * @param low the lowest value
+         * @param high the highest value
+         * @return the range
+         */
+        static Ranges of(long low, long high) {
+            return new Ranges(new long[] { Math.min(low, high), Math.max(low, high) });
+        }
+
+        /**
+         * Create a range containing the given points.
+         *
+         * @param values the values
+         * @return the range
+         */
+        static Ranges points(long[] values) {
+            long[] b = new long[values.length * 2];
+            for (int i = 0; i < values.length; i++) {
+                b[i * 2] = b[i * 2 + 1] = values[i];
+            }
+            return normalize(b);
+        }
+
+        long getLow() {
+            return bounds[0];
+        }
+
+        long getHigh() {
+            return bounds[bounds.length - 1];
+        }
+
+        /**
+         * Check whether the given value is in the range.
+         *
+         * @param x the value
+         * @return true if it is
+         */
+        boolean contains(long x) {
+            for (int i = 0; i < bounds.length; i += 2) {
+                if (x >= bounds[i] && x <= bounds[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Get the values of the range which are between 0 and count - 1.
+         *
+         * @param count the number of indexes
+         * @return the indexes
+         */
+        BitSet toIndexes(int count) {
+            BitSet bits = new BitSet(count);
+            for (int i = 0; i < bounds.length; i += 2) {
+                long low = Math.max(bounds[i], 0), high = Math.min(bounds[i + 1], count - 1);
+                if (low <= high) {
+                    bits.set((int) low, (int) high + 1);
+                }
+            }
+            return bits;
+        }
+
+        private boolean isPoint() {
+            return bounds.length == 2 && bounds[0] == bounds[1];
+        }
+
+        Ranges negate() {
+            long[] b = new long[bounds.length];
+            for (int i = 0; i < bounds.length; i += 2) {
+                if (bounds[i] == Long.MIN_VALUE) {
+                    return null;
+                }
+                b[bounds.length - 2 - i] = -bounds[i + 1];
+                b[bounds.length - 1 - i] = -bounds[i];
+            }
+            return new Ranges(b);
+        }
+
+        Ranges add(Ranges r) {
+            if (r.isPoint()) {
+                return shift(r.bounds[0]);
+            } else if (isPoint()) {
+                return r.shift(bounds[0]);
+            }
+            long low = addExact(getLow(), r.getLow());
+            long high = addExact(getHigh(), r.getHigh());
+            if (overflow(low) || overflow(high)) {
+                return null;
+            }
+            return of(low, high);
+        }
+
+        private Ranges shift(long c) {
+            long[] b = new long[bounds.length];
+            for (int i = 0; i < b.length; i++) {
+                long x = addExact(bounds[i], c);
+                if (overflow(x)) {
+                    return null;
+                }
+                b[i] = x;
+            }
+            return new Ranges(b);
+        }
+
+        Ranges multiply(Ranges r) {
+            if (r.isPoint()) {
+                return scale(r.bounds[0]);
+            } else if (isPoint()) {
+                return r.scale(bounds[0]);
+            }
+            long[] corners = { multiplyExact(getLow(), r.getLow()), multiplyExact(getLow(), r.getHigh()),
+                    multiplyExact(getHigh(), r.getLow()), multiplyExact(getHigh(), r.getHigh()) };
+            return hullOf(corners);
+        }
+
+        private Ranges scale(long c) {
+            long[] b = new long[bounds.length];
+            for (int i = 0; i < b.length; i++) {
+                long x = multiplyExact(bounds[i], c);
+                if (overflow(x)) {
+                    return null;
+                }
+                b[i] = x;
+            }
+            return c >= 0 ? normalize(b) : swapped(b);
+        }
+
+        Ranges divide(Ranges r) {
+            if (r.contains(0)) {
+                return null;
+            }
+            if (r.isPoint()) {
+                long c = r.bounds[0];
+                if (c == -1 && contains(Long.MIN_VALUE)) {
+                    return null;
+                }
+                long[] b = new long[bounds.length];
+                for (int i = 0; i < b.length; i++) {
+                    b[i] = bounds[i] / c;
+                }
+                return c > 0 ? normalize(b) : swapped(b);
+            }
+            if (r.getLow() == -1 || r.getHigh() == -1) {
+                return null;
+            }
+            // the divisor does not change its sign, so the extremes are at
+            // the corners
+            long[] corners = { getLow() / r.getLow(), getLow() / r.getHigh(), getHigh() / r.getLow(),
+                    getHigh() / r.getHigh() };
+            return hullOf(corners);
+        }
+
+        Ranges modulus(Ranges r) {
+            if (!r.isPoint() || r.bounds[0] == 0 || r.bounds[0] == Long.MIN_VALUE) {
+                return null;
+            }
+            long m = Math.abs(r.bounds[0]);
+            long[] b = new long[bounds.length * 4];
+            int n = 0;
+            for (int i = 0; i < bounds.length; i += 2) {
+                long low = bounds[i], high = bounds[i + 1];
+                if (low < 0) {
+                    // the result has the sign of the dividend
+                    long h = Math.min(high, -1);
+                    if (h - low >= m - 1) {
+                        b[n++] = -(m - 1);
+                        b[n++] = 0;
+                    } else {
+                        long rl = low % m, rh = h % m;
+                        if (rl <= rh) {
+                            b[n++] = rl;
+                            b[n++] = rh;
+                        } else {
+                            b[n++] = rl;
+                            b[n++] = 0;
+                            b[n++] = -(m - 1);
+                            b[n++] = rh;
+                        }
+                    }
+                }
+                if (high >= 0) {
+                    long l = Math.max(low, 0);
+                    if (high - l >= m - 1) {
+                        b[n++] = 0;
+                        b[n++] = m - 1;
+                    } else {
+                        long rl = l % m, rh = high % m;
+                        if (rl <= rh) {
+                            b[n++] = rl;
+                            b[n++] = rh;
+                        } else {
+                            b[n++] = 0;
+                            b[n++] = rh;
+                            b[n++] = rl;
+                            b[n++] = m - 1;
+                        }
+                    }
+                }
+            }
+            return normalize(Arrays.copyOf(b, n));
+        }
+
+        private static Ranges swapped(long[] b) {
+            for (int i = 0; i < b.length; i += 2) {
+                long t = b[i];
+                b[i] = b[i + 1];
+                b[i + 1] = t;
+            }
+            return normalize(b);
+        }
+
+        private static Ranges hullOf(long[] values) {
+            long low = Long.MAX_VALUE, high = Long.MIN_VALUE;
+            for (long x : values) {
+                if (overflow(x)) {
+                    return null;
+                }
+                low = Math.min(low, x);
+                high = Math.max(high, x);
+            }
+            return of(low, high);
+        }
+
+        /**
+         * Sort and merge the intervals.
+         *
+         * @param b the unsorted intervals, each with low &lt;= high
+         * @return the range
+         */
+        private static Ranges normalize(long[] b) {
+            int count = b.length / 2;
+            long[][] list = new long[count][];
+            for (int i = 0; i < count; i++) {
+                list[i] = new long[] { b[i * 2], b[i * 2 + 1] };
+            }
+            Arrays.sort(list, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] o1, long[] o2) {
+                    return o1[0] < o2[0] ? -1 : o1[0] == o2[0] ? 0 : 1;
+                }
+            });
+            long[] result = new long[b.length];
+            int n = 0;
+            for (long[] interval : list) {
+                if (n > 0 && (interval[0] <= result[n - 1] || interval[0] - 1 == result[n - 1])) {
+                    // overlapping or adjacent
+                    result[n - 1] = Math.max(result[n - 1], interval[1]);
+                } else {
+                    result[n++] = interval[0];
+                    result[n++] = interval[1];
+                }
+            }
+            if (n > MAX_INTERVALS * 2) {
+                return of(result[0], result[n - 1]);
+            }
+            return new Ranges(Arrays.copyOf(result, n));
+        }
+
+        /**
+         * Marker for an overflow in the checked operations.
+         */
+        private static final long OVERFLOW = Long.MIN_VALUE;
+
+        private static boolean overflow(long x) {
+            return x == OVERFLOW;
+        }
+
+        private static long addExact(long a, long b) {
+            long r = a + b;
+            if (((a ^ r) & (b ^ r)) < 0) {
+                return OVERFLOW;
+            }
+            return r;
+        }
+
+        private static long multiplyExact(long a, long b) {
+            long r = a * b;
+            long ax = Math.abs(a), ay = Math.abs(b);
+            if (((ax | ay) >>> 31 != 0)) {
+                if ((b != 0 && r / b != a) || (a == Long.MIN_VALUE && b == -1)) {
+                    return OVERFLOW;
+                }
+            }
+            return r;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder buff = new StringBuilder();
+            for (int i = 0; i < bounds.length; i += 2) {
+                if (i > 0) {
+                    buff.append(", ");
+                }
+                buff.append('[').append(bounds[i]).append(", ").append(bounds[i + 1]).append(']');
+            }
+            return buff.toString();
+        }
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月2日
+// $Id$
+
+package com.suning.snfddal.route.rule;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.util.SourceCompiler;
+import com.suning.snfddal.value.Value;
+
+/**
+ * A rule evaluator that compiles integer arithmetic rule expressions such as
+ * <code>(F_STUDENT_ID % 16) / 4</code> into a java class once, and then
+ * evaluates them with primitive arguments. Expressions that use anything
+ * other than rule columns, integer literals and <code>+ - * / % ( )</code>,
+ * and arguments that are not integer values, are delegated to the
+ * {@link OgnlRuleEvaluator}.
+ * <p>
+ * Like ognl, the expression is evaluated with int arithmetic if all
+ * arguments are int values (or smaller), so that the results are the same
+ * if an operation overflows; otherwise with long arithmetic.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class CompiledRuleEvaluator implements RuleEvaluator {
+
+    /**
+     * The interface of the compiled expressions. It is public, as the
+     * compiled classes are loaded by another class loader.
+     */
+    public interface CompiledExpression {
+
+        /**
+         * Evaluate the expression with long arithmetic.
+         *
+         * @param args the values of the rule columns
+         * @return the result
+         */
+        long evaluate(long[] args);
+
+        /**
+         * Evaluate the expression with int arithmetic.
+         *
+         * @param args the values of the rule columns
+         * @return the result
+         */
+        int evaluate(int[] args);
+    }
+
+    private static final String PACKAGE_NAME = CompiledRuleEvaluator.class.getPackage().getName();
+
+    private static final String CLASS_NAME = "CompiledRule_";
+
+    private static final String CLASS_PREFIX = PACKAGE_NAME + "." + CLASS_NAME;
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    /**
+     * Marker for an expression which could not be compiled.
+     */
+    private static final CompiledRule NOT_COMPILABLE = new CompiledRule(null, new String[0], false);
+
+    private final Map<String, CompiledRule> compiledRules = new ConcurrentHashMap<String, CompiledRule>();
+
+    private final SourceCompiler compiler = new SourceCompiler();
+
+    private final RuleEvaluator fallback;
+
+    public CompiledRuleEvaluator() {
+        this(new OgnlRuleEvaluator());
+    }
+
+    public CompiledRuleEvaluator(RuleEvaluator fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Object evaluate(RuleExpression expression, Map<String, Value> parameters) throws RuleEvaluateException {
+        CompiledRule rule = getCompiledRule(expression);
+        if (rule == NOT_COMPILABLE) {
+            return fallback.evaluate(expression, parameters);
+        }
+        String[] columns = rule.columns;
+        long[] args = rule.arguments.get();
+        boolean ints = true;
+        for (int i = 0; i < columns.length; i++) {
+            Value v = parameters.get(columns[i]);
+            if (!isIntegerValue(v)) {
+                return fallback.evaluate(expression, parameters);
+            }
+            ints &= v.getType() != Value.LONG;
+            args[i] = v.getLong();
+        }
+        if (!ints) {
+            return rule.evaluate(expression, args);
+        } else if (!rule.intArithmetic) {
+            // a literal is not an int
+            return fallback.evaluate(expression, parameters);
+        }
+        int[] intArgs = rule.intArguments.get();
+        for (int i = 0; i < columns.length; i++) {
+            intArgs[i] = (int) args[i];
+        }
+        return rule.evaluate(expression, intArgs);
+    }
+
+    /**
+     * Check whether the given expression is evaluated by compiled code.
+     *
+     * @param expression the rule expression
+     * @return true if compiled
+     */
+    public boolean isCompiled(RuleExpression expression) {
+        return getCompiledRule(expression) != NOT_COMPILABLE;
+    }
+
+    private static boolean isIntegerValue(Value v) {
+        if (v == null) {
+            return false;
+        }
+        switch (v.getType()) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private CompiledRule getCompiledRule(RuleExpression expression) {
+        String text = expression.getExpression();
+        CompiledRule rule = compiledRules.get(text);
+        if (rule == null) {
+            rule = compile(expression);
+            compiledRules.put(text, rule);
+        }
+        return rule;
+    }
+
+    private CompiledRule compile(RuleExpression expression) {
+        ArithmeticRule arithmetic = expression.getArithmeticRule();
+        if (arithmetic == null) {
+            return NOT_COMPILABLE;
+        }
+        List<String> columns = New.arrayList();
+        String body = arithmetic.toJava(columns, false);
+        String intBody = arithmetic.toJava(New.<String>arrayList(), true);
+        int id = NEXT_ID.incrementAndGet();
+        String className = CLASS_PREFIX + id;
+        String source = "package " + PACKAGE_NAME + ";\n" +
+                "public class " + CLASS_NAME + id + " implements " + CompiledExpression.class.getCanonicalName() + " {\n" +
+                "    public long evaluate(long[] a) {\n" +
+                "        return " + body + ";\n" +
+                "    }\n" +
+                "    public int evaluate(int[] a) {\n" +
+                (intBody == null ? "        throw new UnsupportedOperationException();\n" :
+                "        return " + intBody + ";\n") +
+                "    }\n" +
+                "}\n";
+        try {
+            Class<?> clazz;
+            synchronized (compiler) {
+                compiler.setSource(className, source);
+                clazz = compiler.getClass(className);
+            }
+            CompiledExpression function = (CompiledExpression) clazz.newInstance();
+            return new CompiledRule(function, columns.toArray(new String[columns.size()]), intBody != null);
+        } catch (Exception e) {
+            // no java compiler available, fall back to ognl
+            return NOT_COMPILABLE;
+        } catch (LinkageError e) {
+            return NOT_COMPILABLE;
+        }
+    }
+
+    /**
+     * A compiled rule expression.
+     */
+    private static class CompiledRule {
+
+        final CompiledExpression function;
+
+        final String[] columns;
+
+        /**
+         * Whether the expression can be evaluated with int arithmetic.
+         */
+        final boolean intArithmetic;
+
+        /**
+         * The arguments, reused per thread to avoid allocating them for each
+         * call.
+         */
+        final ThreadLocal<long[]> arguments;
+        final ThreadLocal<int[]> intArguments;
+
+        CompiledRule(CompiledExpression function, final String[] columns, boolean intArithmetic) {
+            this.function = function;
+            this.columns = columns;
+            this.intArithmetic = intArithmetic;
+            this.arguments = new ThreadLocal<long[]>() {
+                @Override
+                protected long[] initialValue() {
+                    return new long[columns.length];
+                }
+            };
+            this.intArguments = new ThreadLocal<int[]>() {
+                @Override
+                protected int[] initialValue() {
+                    return new int[columns.length];
+                }
+            };
+        }
+
+        Object evaluate(RuleExpression expression, long[] args) {
+            try {
+                // same result type as ognl for long arguments
+                return Long.valueOf(function.evaluate(args));
+            } catch (RuntimeException e) {
+                throw new RuleEvaluateException("Evaluate rule " + expression.getExpression() + " error", e);
+            }
+        }
+
+        Object evaluate(RuleExpression expression, int[] args) {
+            try {
+                return Integer.valueOf(function.evaluate(args));
+            } catch (RuntimeException e) {
+                throw new RuleEvaluateException("Evaluate rule " + expression.getExpression() + " error", e);
+            }
+        }
+    }
+
+}
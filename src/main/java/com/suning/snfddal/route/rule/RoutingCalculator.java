@@ -30,4 +30,16 @@ public interface RoutingCalculator {
 
     RoutingResult calculate(TableRouter tableRouter, Map<String, List<Value>> columnValue);
 
+    /**
+     * Calculate the tables for the given column values and column ranges.
+     * The range of a column is only used if the column has no values.
+     *
+     * @param tableRouter the table router
+     * @param columnValue the values of the rule columns
+     * @param columnRange the ranges of the rule columns
+     * @return the matched tables
+     */
+    RoutingResult calculate(TableRouter tableRouter, Map<String, List<Value>> columnValue,
+            Map<String, ValueRange> columnRange);
+
 }
@@ -16,24 +16,32 @@
 // Created on 2014年4月24日
 // $Id$
 
+
 package com.suning.snfddal.route.rule;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.AbstractMap;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import com.suning.snfddal.util.New;
 import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueLong;
 
 /**
  * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
  */
 public class RoutingCalculatorImpl implements RoutingCalculator {
+
+    /**
+     * The maximum number of argument combinations which are enumerated when
+     * a range can not be analyzed otherwise.
+     */
+    private static final int MAX_ENUMERATED_VALUES = 200;
     
-    private RuleEvaluator evaluator = new OgnlRuleEvaluator();
+    private RuleEvaluator evaluator = new CompiledRuleEvaluator();
 
     public RuleEvaluator getEvaluator() {
         return evaluator;
@@ -45,166 +53,457 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
 
     @Override
     public RoutingResult calculate(TableRouter tableRouter, Map<String, List<Value>> columnValue) {
+        return calculate(tableRouter, columnValue, Collections.<String, ValueRange> emptyMap());
+    }
+
+    @Override
+    public RoutingResult calculate(TableRouter tableRouter, Map<String, List<Value>> columnValue,
+            Map<String, ValueRange> columnRange) {
         if (tableRouter == null) {
             throw new IllegalArgumentException("tableRule is null.");
         }
         if (columnValue == null) {
             throw new IllegalArgumentException("columnValue is null.");
         }
-
+        if (columnRange == null) {
+            throw new IllegalArgumentException("columnRange is null.");
+        }
+        TableTopology topology = tableRouter.getTopology();
         RuleExpression dbRule = tableRouter.getShardRuleExpression();
         RuleExpression tbRule = tableRouter.getTableRuleExpression();
-
-        Set<String> shardSet = null;
-        if (canUseRule(dbRule, columnValue)) {
-            shardSet = evaluateGroupRule(tableRouter, dbRule, columnValue);
-        } else {
-            // 无库规则,库的范围是TableRule配置的所有库
-            shardSet = tableRouter.getTopology().getShard();
+        boolean useDbRule = canUseRule(dbRule, columnValue);
+        boolean useTbRule = canUseRule(tbRule, columnValue);
+        if (!(useDbRule && useTbRule) && !columnRange.isEmpty()) {
+            Map<String, List<Value>> enumerated = enumerate(tableRouter.getRuleColumns(), columnValue, columnRange);
+            if (enumerated == null) {
+                // 有范围条件,分别计算库和表的范围
+                return rangeResult(topology, dbRule, tbRule, columnValue, columnRange);
+            }
+            // 范围足够小,按枚举的值做点路由
+            columnValue = enumerated;
+            useDbRule = canUseRule(dbRule, columnValue);
+            useTbRule = canUseRule(tbRule, columnValue);
         }
-        RoutingResult result = new RoutingResult();
-        List<RoutingResult.MatchedShard> matchedShards = New.arrayList();
-        result.setMatchedShards(matchedShards);
-        if (canUseRule(tbRule, columnValue)) {
-            // 有库规则,库的范围根据表规则计算得出
-            Set<Object> evalValues = evaluateTableRule(tbRule, columnValue);
-            for (String shardName : shardSet) {
-                RoutingResult.MatchedShard matchedShard = new RoutingResult.MatchedShard();
-                matchedShard.setShardName(shardName);
-                List<String> tables = New.arrayList();
-                for (Object evalValue : evalValues) {
-                    String tableName;
-                    if (evalValue instanceof String) {
-                        if (!tableRouter.getTopology().getTableInShard(shardName).contains(evalValue)) {
-                            throw new RuleEvaluateException("The table rule expression " + tbRule.getExpression()
-                                    + " evaluated " + evalValue + " is not in distribution list.");
-                        }
-                        tableName = evalValue.toString();
-                    } else if (evalValue.getClass() == int.class || evalValue.getClass() == Integer.class
-                            || evalValue.getClass() == long.class || evalValue.getClass() == Long.class
-                            || evalValue.getClass() == short.class || evalValue.getClass() == Short.class
-                            || evalValue.getClass() == byte.class || evalValue.getClass() == Byte.class) {
-                        tableName = tableIndexToName(tableRouter, evalValue, shardName);
-                    } else {
-                        throw new RuleEvaluateException("The table rule expression " + tbRule.getExpression()
-                                + " return a value " + tbRule.getClass() + " which type is unsupported.");
-                    }
-                    tables.add(tableName);
+        if (!useDbRule && !useTbRule) {
+            // 无库表规则,路由到所有的库表
+            return allTables(topology);
+        }
+        List<RuleColumn> ruleColumns = tableRouter.getRuleColumns();
+        if (useDbRule && useTbRule && ruleColumns.size() == 1) {
+            // 单列单值的点路由,不需要做笛卡尔积
+            String name = ruleColumns.get(0).getName();
+            List<Value> values = columnValue.get(name);
+            if (values.size() == 1) {
+                Map<String, Value> args = new SingleArgument(name, values.get(0));
+                int shard = evaluateShard(topology, dbRule, args);
+                int table = evaluateTable(topology, tbRule, args, shard);
+                return singleResult(topology.getShardName(shard), topology.getTables(shard)[table]);
+            }
+        }
+        // 一个规则存在多个RuleColumn，多个RuleColumn对应的取值集合做笛卡尔积后的所有集
+        CrossedArguments args = new CrossedArguments(ruleColumns, columnValue, useDbRule ? dbRule : null,
+                useTbRule ? tbRule : null);
+        boolean[][] matched = new boolean[topology.getShardCount()][];
+        // 多值列(如IN条件)的取值路由到了哪些表
+        BitSet[][][] routed = args.isMultiValued() ? new BitSet[matched.length][][] : null;
+        do {
+            if (useDbRule) {
+                int shard = evaluateShard(topology, dbRule, args);
+                if (useTbRule) {
+                    mark(topology, matched, routed, args, shard, evaluateTable(topology, tbRule, args, shard));
+                } else {
+                    // 无表规则,表的范围是库中所有的表
+                    mark(topology, matched, routed, args, shard, -1);
+                }
+            } else {
+                // 无库规则,库的范围是TableRule配置的所有库
+                for (int shard = 0; shard < matched.length; shard++) {
+                    mark(topology, matched, routed, args, shard, evaluateTable(topology, tbRule, args, shard));
                 }
-                String[] tbs = tables.toArray(new String[tables.size()]);
-                matchedShard.setTables(tbs);
-                matchedShards.add(matchedShard);
             }
-        } else {
-            // 无库规则,库的范围是TableRule配置的所有库
-            for (String shardName : shardSet) {
-                RoutingResult.MatchedShard matchedShard = new RoutingResult.MatchedShard();
-                matchedShard.setShardName(shardName);
-                Set<String> tableNames = tableRouter.getTopology().getTableInShard(shardName);
-                List<String> tables = New.arrayList();
-                for (String tableName : tableNames) {
-                    tables.add(tableName);
+        } while (args.next());
+        return toResult(topology, matched, routed, args);
+    }
+
+    /**
+     * Route by the ranges of the rule columns. The shards and the tables
+     * of each shard are calculated separately, so the result may contain
+     * tables which no value routes to, but never misses one.
+     */
+    private RoutingResult rangeResult(TableTopology topology, RuleExpression dbRule, RuleExpression tbRule,
+            Map<String, List<Value>> columnValue, Map<String, ValueRange> columnRange) {
+        int shardCount = topology.getShardCount();
+        BitSet shards = dbRule == null ? null : matchIndexes(topology, dbRule, -1, columnValue, columnRange);
+        List<RoutingResult.MatchedShard> matchedShards = New.arrayList();
+        for (int shard = 0; shard < shardCount; shard++) {
+            if (shards != null && !shards.get(shard)) {
+                continue;
+            }
+            String[] names = topology.getTables(shard);
+            BitSet tables = tbRule == null ? null : matchIndexes(topology, tbRule, shard, columnValue, columnRange);
+            String[] tbs;
+            if (tables == null) {
+                tbs = names.clone();
+            } else if (tables.isEmpty()) {
+                continue;
+            } else {
+                tbs = new String[tables.cardinality()];
+                for (int i = tables.nextSetBit(0), j = 0; i >= 0; i = tables.nextSetBit(i + 1)) {
+                    tbs[j++] = names[i];
                 }
-                String[] tbs = tables.toArray(new String[tables.size()]);
-                matchedShard.setTables(tbs);
-                matchedShards.add(matchedShard);
             }
+            matchedShards.add(newMatchedShard(topology.getShardName(shard), tbs));
+        }
+        if (matchedShards.isEmpty()) {
+            throw new RuleEvaluateException("The range of the rule columns " + columnRange
+                    + " does not match any table.");
         }
+        RoutingResult result = new RoutingResult();
+        result.setMatchedShards(matchedShards);
         return result;
     }
 
     /**
-     * @param ruleToUse
-     * @param columnValue
-     * @param tableRule
+     * Calculate the indexes a rule can evaluate to, for the given values and
+     * ranges of its columns.
+     *
+     * @param topology the topology
+     * @param rule the rule
+     * @param shard the shard index for a table rule, or -1 for the shard rule
+     * @param columnValue the values of the rule columns
+     * @param columnRange the ranges of the rule columns
+     * @return the shard or table indexes, or null for all
      */
-    private Set<String> evaluateGroupRule(TableRouter tr, RuleExpression rule, Map<String, List<Value>> args) {
-        Set<String> resultSet = new HashSet<String>();
+    private BitSet matchIndexes(TableTopology topology, RuleExpression rule, int shard,
+            Map<String, List<Value>> columnValue, Map<String, ValueRange> columnRange) {
+        int count = shard < 0 ? topology.getShardCount() : topology.getTables(shard).length;
         List<RuleColumn> ruleColumns = rule.getRuleColumns();
-        Map<String, List<Value>> paramCollections = New.hashMap(ruleColumns.size(), 1L);
+        boolean points = true;
         for (RuleColumn ruleColumn : ruleColumns) {
-            String name = ruleColumn.getName();
-            paramCollections.put(name, args.get(name));
+            List<Value> values = columnValue.get(ruleColumn.getName());
+            if (values == null || values.isEmpty()) {
+                if (columnRange.get(ruleColumn.getName()) == null) {
+                    return null;
+                }
+                points = false;
+            }
         }
-        // 一个规则存在多个RuleColumn，多个RuleColumn对应的取值集合做笛卡尔积后的所有集
-        for (Map<String, Value> parameters : new CrossedCollection(paramCollections)) {
-            String groupName = null;
-            Object evlValue = evaluator.evaluate(rule, parameters);
-            if (evlValue == null) {
-                throw new RuleEvaluateException("The group rule expression " + rule.getExpression()
-                        + " evaluate a null value.");
-            }
-            if (evlValue instanceof String) {
-                if (!tr.getTopology().getShard().contains(evlValue)) {
-                    throw new RuleEvaluateException("The group rule expression " + rule.getExpression() + " evaluated "
-                            + evlValue + " is not in distribution list.");
+        Map<String, List<Value>> arguments = columnValue;
+        if (!points) {
+            ArithmeticRule arithmetic = rule.getArithmeticRule();
+            Map<String, ArithmeticRule.Ranges> ranges = arithmetic == null ? null : toRanges(ruleColumns,
+                    columnValue, columnRange);
+            if (ranges != null) {
+                ArithmeticRule.Ranges result = arithmetic.evaluate(ranges);
+                if (result != null) {
+                    // 取模等整数运算,直接由参数的区间计算结果的区间
+                    return result.toIndexes(count);
+                }
+            }
+            if (rule.isMonotonic() && ruleColumns.size() == 1) {
+                // 单调的规则,区间的两端对应库表的两端
+                String name = ruleColumns.get(0).getName();
+                ValueRange range = columnRange.get(name);
+                int from = range.getLow() == null ? 0 : evaluateBound(topology, rule,
+                        new SingleArgument(name, range.getLow()), shard, count);
+                int to = range.getHigh() == null ? count - 1 : evaluateBound(topology, rule,
+                        new SingleArgument(name, range.getHigh()), shard, count);
+                BitSet bits = new BitSet(count);
+                bits.set(Math.min(from, to), Math.max(from, to) + 1);
+                return bits;
+            }
+            arguments = enumerate(ruleColumns, columnValue, columnRange);
+            if (arguments == null) {
+                return null;
+            }
+        }
+        BitSet bits = new BitSet(count);
+        CrossedArguments args = new CrossedArguments(ruleColumns, arguments, rule);
+        do {
+            bits.set(evaluateIndex(topology, rule, args, shard));
+        } while (args.next());
+        return bits;
+    }
+
+    private static Map<String, ArithmeticRule.Ranges> toRanges(List<RuleColumn> ruleColumns,
+            Map<String, List<Value>> columnValue, Map<String, ValueRange> columnRange) {
+        Map<String, ArithmeticRule.Ranges> ranges = New.hashMap(ruleColumns.size());
+        for (RuleColumn ruleColumn : ruleColumns) {
+            String name = ruleColumn.getName();
+            List<Value> values = columnValue.get(name);
+            if (values != null && !values.isEmpty()) {
+                long[] points = new long[values.size()];
+                for (int i = 0; i < points.length; i++) {
+                    Value v = values.get(i);
+                    if (!isIntegerType(v.getType())) {
+                        return null;
+                    }
+                    points[i] = v.getLong();
                 }
-                groupName = evlValue.toString();
-            } else if (evlValue.getClass() == int.class || evlValue.getClass() == Integer.class
-                    || evlValue.getClass() == long.class || evlValue.getClass() == Long.class
-                    || evlValue.getClass() == short.class || evlValue.getClass() == Short.class
-                    || evlValue.getClass() == byte.class || evlValue.getClass() == Byte.class) {
-                groupName = groupIndexToName(tr, evlValue);
+                ranges.put(name, ArithmeticRule.Ranges.points(points));
             } else {
-                throw new RuleEvaluateException("The group rule expression " + rule.getExpression()
-                        + " return a value " + evlValue.getClass() + " which type is unsupported.");
+                ValueRange range = columnRange.get(name);
+                Value low = range.getLow(), high = range.getHigh();
+                if ((low != null && !isIntegerType(low.getType())) || (high != null && !isIntegerType(high.getType()))) {
+                    return null;
+                }
+                int type = low != null ? low.getType() : high.getType();
+                ranges.put(name, ArithmeticRule.Ranges.of(low != null ? low.getLong() : getMinValue(type),
+                        high != null ? high.getLong() : getMaxValue(type)));
             }
-            resultSet.add(groupName);
         }
-        return resultSet;
+        return ranges;
     }
 
     /**
-     * @param ruleToUse
-     * @param columnValue
-     * @param tableRule
+     * Enumerate the values of integer ranges, if there are not too many.
+     *
+     * @return the values of each column, or null if a column has no values
+     *         and no enumerable range
      */
-    private Set<Object> evaluateTableRule(RuleExpression rule, Map<String, List<Value>> columnValue) {
-        Set<Object> resultSet = new HashSet<Object>();
-        List<RuleColumn> ruleColumns = rule.getRuleColumns();
-        Map<String, List<Value>> paramCollections = New.hashMap(ruleColumns.size(), 1L);
+    private static Map<String, List<Value>> enumerate(List<RuleColumn> ruleColumns,
+            Map<String, List<Value>> columnValue, Map<String, ValueRange> columnRange) {
+        Map<String, List<Value>> result = New.hashMap(ruleColumns.size());
+        long total = 1;
         for (RuleColumn ruleColumn : ruleColumns) {
             String name = ruleColumn.getName();
-            paramCollections.put(name, columnValue.get(name));
+            List<Value> values = columnValue.get(name);
+            if (values != null && !values.isEmpty()) {
+                result.put(name, values);
+                continue;
+            }
+            ValueRange range = columnRange.get(name);
+            if (range == null) {
+                return null;
+            }
+            Value low = range.getLow(), high = range.getHigh();
+            if (low == null || high == null || low.getType() != high.getType() || !isIntegerType(low.getType())) {
+                return null;
+            }
+            long first = low.getLong(), width = high.getLong() - first;
+            if (width < 0 || width >= MAX_ENUMERATED_VALUES) {
+                return null;
+            }
+            total *= width + 1;
+            if (total > MAX_ENUMERATED_VALUES) {
+                return null;
+            }
+            List<Value> list = New.arrayList((int) width + 1);
+            for (long i = 0; i <= width; i++) {
+                list.add(ValueLong.get(first + i).convertTo(low.getType()));
+            }
+            result.put(name, list);
         }
-        // 一个规则存在多个RuleColumn，多个RuleColumn对应的取值集合做笛卡尔积后的所有集
-        for (Map<String, Value> parameters : new CrossedCollection(paramCollections)) {
-            Object evlValue = evaluator.evaluate(rule, parameters);
-            resultSet.add(evlValue);
+        return result;
+    }
+
+    private static boolean isIntegerType(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static long getMinValue(int type) {
+        switch (type) {
+        case Value.BYTE:
+            return Byte.MIN_VALUE;
+        case Value.SHORT:
+            return Short.MIN_VALUE;
+        case Value.INT:
+            return Integer.MIN_VALUE;
+        default:
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static long getMaxValue(int type) {
+        switch (type) {
+        case Value.BYTE:
+            return Byte.MAX_VALUE;
+        case Value.SHORT:
+            return Short.MAX_VALUE;
+        case Value.INT:
+            return Integer.MAX_VALUE;
+        default:
+            return Long.MAX_VALUE;
         }
-        return resultSet;
     }
 
     /**
-     * @param tableRule
-     * @param evlValue
+     * Evaluate the index of a bound of a range, for a monotonic rule. An
+     * index outside of the topology is moved to the first or last index, as
+     * the values of the range can only be routed to the indexes in between.
      */
-    private String groupIndexToName(TableRouter tr, Object evlValue) {
-        try {
-            int index = Integer.parseInt(evlValue.toString());
-            return tr.getTopology().indexShard(index);
-        } catch (ArrayIndexOutOfBoundsException e) {
-            throw new RuleEvaluateException(e.getMessage());
+    private int evaluateBound(TableTopology topology, RuleExpression rule, Map<String, Value> args, int shard,
+            int count) {
+        Object evlValue = evaluator.evaluate(rule, args);
+        if (evlValue != null && isIntegral(evlValue)) {
+            long index = ((Number) evlValue).longValue();
+            return (int) Math.max(0, Math.min(index, count - 1));
         }
+        return evaluateIndex(topology, rule, args, shard);
+    }
+
+    private int evaluateIndex(TableTopology topology, RuleExpression rule, Map<String, Value> args, int shard) {
+        return shard < 0 ? evaluateShard(topology, rule, args) : evaluateTable(topology, rule, args, shard);
+    }
 
+    private int evaluateShard(TableTopology topology, RuleExpression rule, Map<String, Value> args) {
+        Object evlValue = evaluator.evaluate(rule, args);
+        if (evlValue == null) {
+            throw new RuleEvaluateException("The group rule expression " + rule.getExpression()
+                    + " evaluate a null value.");
+        }
+        if (evlValue instanceof String) {
+            int index = topology.getShardIndex((String) evlValue);
+            if (index < 0) {
+                throw new RuleEvaluateException("The group rule expression " + rule.getExpression() + " evaluated "
+                        + evlValue + " is not in distribution list.");
+            }
+            return index;
+        } else if (isIntegral(evlValue)) {
+            return checkIndex(((Number) evlValue).longValue(), topology.getShardCount());
+        } else {
+            throw new RuleEvaluateException("The group rule expression " + rule.getExpression()
+                    + " return a value " + evlValue.getClass() + " which type is unsupported.");
+        }
+    }
+
+    private int evaluateTable(TableTopology topology, RuleExpression rule, Map<String, Value> args, int shard) {
+        Object evlValue = evaluator.evaluate(rule, args);
+        if (evlValue == null) {
+            throw new RuleEvaluateException("The table rule expression " + rule.getExpression()
+                    + " evaluate a null value.");
+        }
+        if (evlValue instanceof String) {
+            int index = topology.getTableIndex(shard, (String) evlValue);
+            if (index < 0) {
+                throw new RuleEvaluateException("The table rule expression " + rule.getExpression() + " evaluated "
+                        + evlValue + " is not in distribution list.");
+            }
+            return index;
+        } else if (isIntegral(evlValue)) {
+            return checkIndex(((Number) evlValue).longValue(), topology.getTables(shard).length);
+        } else {
+            throw new RuleEvaluateException("The table rule expression " + rule.getExpression()
+                    + " return a value " + evlValue.getClass() + " which type is unsupported.");
+        }
+    }
+
+    private static boolean isIntegral(Object value) {
+        Class<?> clazz = value.getClass();
+        return clazz == Integer.class || clazz == Long.class || clazz == Short.class || clazz == Byte.class;
+    }
+
+    private static int checkIndex(long index, int length) {
+        if (index < 0 || index >= length) {
+            throw new RuleEvaluateException("The index must be between 0 and " + (length - 1));
+        }
+        return (int) index;
     }
 
     /**
-     * @param tableRule
-     * @param evlValue
-     * @param shardName
-     * @return
+     * Mark a table as matched.
+     *
+     * @param topology the topology
+     * @param matched the matched tables per shard
+     * @param routed the routed values per table, or null if not tracked
+     * @param args the current arguments
+     * @param shard the shard index
+     * @param table the table index, or -1 for all tables of the shard
      */
-    private String tableIndexToName(TableRouter tr, Object evlValue, String shardName) {
-        try {
-            int index = Integer.parseInt(evlValue.toString());
-            return tr.getTopology().indexTableInShard(shardName, index);
-        } catch (ArrayIndexOutOfBoundsException e) {
-            throw new RuleEvaluateException(e.getMessage());
+    private static void mark(TableTopology topology, boolean[][] matched, BitSet[][][] routed,
+            CrossedArguments args, int shard, int table) {
+        boolean[] tables = matched[shard];
+        if (tables == null) {
+            tables = new boolean[topology.getTables(shard).length];
+            matched[shard] = tables;
+            if (routed != null) {
+                routed[shard] = new BitSet[tables.length][];
+            }
+        }
+        if (table < 0) {
+            for (int i = 0; i < tables.length; i++) {
+                tables[i] = true;
+                if (routed != null) {
+                    routed[shard][i] = args.markCurrent(routed[shard][i]);
+                }
+            }
+        } else {
+            tables[table] = true;
+            if (routed != null) {
+                routed[shard][table] = args.markCurrent(routed[shard][table]);
+            }
         }
+    }
 
+    private static RoutingResult toResult(TableTopology topology, boolean[][] matched, BitSet[][][] routed,
+            CrossedArguments args) {
+        List<RoutingResult.MatchedShard> matchedShards = New.arrayList();
+        for (int shard = 0; shard < matched.length; shard++) {
+            boolean[] tables = matched[shard];
+            if (tables == null) {
+                continue;
+            }
+            String[] names = topology.getTables(shard);
+            int count = 0;
+            for (boolean b : tables) {
+                if (b) {
+                    count++;
+                }
+            }
+            String[] tbs = new String[count];
+            for (int i = 0, j = 0; i < tables.length; i++) {
+                if (tables[i]) {
+                    tbs[j++] = names[i];
+                }
+            }
+            RoutingResult.MatchedShard matchedShard = newMatchedShard(topology.getShardName(shard), tbs);
+            if (routed != null) {
+                for (int i = 0; i < tables.length; i++) {
+                    if (tables[i]) {
+                        args.exportRouted(matchedShard, names[i], routed[shard][i]);
+                    }
+                }
+            }
+            matchedShards.add(matchedShard);
+        }
+        RoutingResult result = new RoutingResult();
+        result.setMatchedShards(matchedShards);
+        return result;
+    }
+
+    private static RoutingResult allTables(TableTopology topology) {
+        int shardCount = topology.getShardCount();
+        List<RoutingResult.MatchedShard> matchedShards = New.arrayList(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            matchedShards.add(newMatchedShard(topology.getShardName(shard), topology.getTables(shard).clone()));
+        }
+        RoutingResult result = new RoutingResult();
+        result.setMatchedShards(matchedShards);
+        return result;
+    }
+
+    private static RoutingResult singleResult(String shardName, String tableName) {
+        List<RoutingResult.MatchedShard> matchedShards = New.arrayList(1);
+        matchedShards.add(newMatchedShard(shardName, new String[] { tableName }));
+        RoutingResult result = new RoutingResult();
+        result.setMatchedShards(matchedShards);
+        return result;
+    }
+
+    private static RoutingResult.MatchedShard newMatchedShard(String shardName, String[] tables) {
+        RoutingResult.MatchedShard matchedShard = new RoutingResult.MatchedShard();
+        matchedShard.setShardName(shardName);
+        matchedShard.setTables(tables);
+        return matchedShard;
     }
-    
     
     /**
      * 对于分库分表存在多个Rule的情况下，choiceRule负责根据表的字段值选取一个符合条件的Rule做为sharding规则，
@@ -214,7 +513,7 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
      * @param columnValue
      * @return
      */
-    private boolean canUseRule(RuleExpression rule, Map<String, List<Value>> columnValue) {
+    private static boolean canUseRule(RuleExpression rule, Map<String, List<Value>> columnValue) {
         if (rule == null) {
             return false;
         }
@@ -230,7 +529,38 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
     }
 
     /**
-     * 将列的值域通过笛卡尔积运算，转化为参数一一对应的值域
+     * The argument of a single column rule with a single value.
+     */
+    private static class SingleArgument extends AbstractMap<String, Value> {
+
+        private final String name;
+
+        private final Value value;
+
+        SingleArgument(String name, Value value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public Value get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            return name.equalsIgnoreCase((String) key) ? value : null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Value>> entrySet() {
+            Map<String, Value> map = New.hashMap(1);
+            map.put(name, value);
+            return map.entrySet();
+        }
+    }
+
+    /**
+     * 将列的值域通过笛卡尔积运算，转化为参数一一对应的值域。笛卡尔积不会预先生成，
+     * 每次调用next()时在原位置上切换到下一组参数。
      * <p/>
      * 
      * <pre>
@@ -242,7 +572,7 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
      * <p/>
      * 
      * <pre>
-     * 输出结果：{
+     * 依次产生：{
      *      {column1=1, column2=a}
      *      {column1=1, column2=b}
      *      {column1=1, column2=c}
@@ -254,69 +584,142 @@ public class RoutingCalculatorImpl implements RoutingCalculator {
      *
      * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
      */
-    private static class CrossedCollection implements Iterable<Map<String, Value>> {
+    private static class CrossedArguments extends AbstractMap<String, Value> {
 
-        private Map<String, List<Value>> collection;
+        private final String[] names;
 
-        private List<Map<String, Value>> crossedResult;
+        private final List<?>[] values;
+
+        private final Value[] current;
+
+        /**
+         * 笛卡尔积索引记录
+         */
+        private final int[] record;
 
         /**
-         * @param collection
+         * @param ruleColumns the rule columns of the table router
+         * @param columnValue the values of the columns
+         * @param rules the rules to evaluate, null elements are ignored
          */
-        private CrossedCollection(Map<String, List<Value>> collection) {
-            this.collection = collection;
+        CrossedArguments(List<RuleColumn> ruleColumns, Map<String, List<Value>> columnValue, RuleExpression... rules) {
+            List<String> used = New.arrayList(ruleColumns.size());
+            for (RuleColumn ruleColumn : ruleColumns) {
+                for (RuleExpression rule : rules) {
+                    if (rule != null && rule.getRuleColumns().contains(ruleColumn)) {
+                        used.add(ruleColumn.getName());
+                        break;
+                    }
+                }
+            }
+            int len = used.size();
+            names = used.toArray(new String[len]);
+            values = new List<?>[len];
+            current = new Value[len];
+            record = new int[len];
+            for (int i = 0; i < len; i++) {
+                List<Value> list = columnValue.get(names[i]);
+                values[i] = list;
+                current[i] = list.get(0);
+            }
         }
 
-        /* (non-Javadoc)
-         * @see java.lang.Iterable#iterator() */
-        @Override
-        public Iterator<Map<String, Value>> iterator() {
-            crossedResult = cross(this.collection);
-            return crossedResult.iterator();
-        }
-
-        private List<Map<String, Value>> cross(Map<String, List<Value>> crossArgs) {
-            // Set是无顺的且不能按顺号迭代，先将Set转为List
-            Map<String, List<Value>> crossSource = New.hashMap(crossArgs.size(), 1L);
-            List<String> columnNames = new ArrayList<String>(crossArgs.keySet());
-            // 计算出笛卡尔积行数
-            int rows = columnNames.size() > 0 ? 1 : 0;
-            for (String column : columnNames) {
-                crossSource.put(column, new ArrayList<Value>(crossArgs.get(column)));
-                rows *= crossArgs.get(column).size();
-            }
-            // 笛卡尔积索引记录
-            int[] record = new int[columnNames.size()];
-            List<Map<String, Value>> results = new ArrayList<Map<String, Value>>();
-            // 产生笛卡尔积
-            for (int i = 0; i < rows; i++) {
-                // List<String> row = new ArrayList<String>();
-                Map<String, Value> row = New.linkedHashMap(record.length, 1L);
-                // 生成笛卡尔积的每组数据
-                for (int index = 0; index < record.length; index++) {
-                    String columnName = columnNames.get(index);
-                    List<Value> columnValues = crossSource.get(columnName);
-                    row.put(columnName, columnValues.get(record[index]));
+        /**
+         * Check whether any column has more than one value.
+         *
+         * @return true if there is more than one argument combination
+         */
+        boolean isMultiValued() {
+            for (List<?> list : values) {
+                if (list.size() > 1) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Mark the value index of each column of the current combination.
+         *
+         * @param bits the bit sets per column, or null
+         * @return the bit sets per column
+         */
+        BitSet[] markCurrent(BitSet[] bits) {
+            if (bits == null) {
+                bits = new BitSet[record.length];
+                for (int i = 0; i < bits.length; i++) {
+                    bits[i] = new BitSet(values[i].size());
+                }
+            }
+            for (int i = 0; i < record.length; i++) {
+                bits[i].set(record[i]);
+            }
+            return bits;
+        }
+
+        /**
+         * Add the marked values of the multi-valued columns to the matched
+         * shard.
+         *
+         * @param matchedShard the matched shard
+         * @param tableName the table name
+         * @param bits the bit sets per column
+         */
+        void exportRouted(RoutingResult.MatchedShard matchedShard, String tableName, BitSet[] bits) {
+            for (int i = 0; i < record.length; i++) {
+                List<?> list = values[i];
+                if (list.size() <= 1) {
+                    continue;
+                }
+                for (int j = bits[i].nextSetBit(0); j >= 0; j = bits[i].nextSetBit(j + 1)) {
+                    matchedShard.addRoutedValue(tableName, names[i], (Value) list.get(j));
                 }
-                results.add(row);
-                crossRecord(columnNames, crossSource, record, crossArgs.size() - 1);
             }
-            return results;
         }
 
         /**
-         * 产生笛卡尔积当前行索引记录.
+         * 切换到笛卡尔积的下一组参数.
          *
-         * @param sourceArgs 要产生笛卡尔积的源数据
-         * @param record 每行笛卡尔积的索引组合
-         * @param level 索引组合的当前计算层级
+         * @return false if all combinations have been iterated
          */
-        private void crossRecord(List<String> columnNames, Map<String, List<Value>> crossSource, int[] record, int level) {
-            record[level] = record[level] + 1;
-            if (record[level] >= crossSource.get(columnNames.get(level)).size() && level > 0) {
-                record[level] = 0;
-                crossRecord(columnNames, crossSource, record, level - 1);
+        boolean next() {
+            for (int i = record.length - 1; i >= 0; i--) {
+                List<?> list = values[i];
+                if (++record[i] < list.size()) {
+                    current[i] = (Value) list.get(record[i]);
+                    return true;
+                }
+                record[i] = 0;
+                current[i] = (Value) list.get(0);
+            }
+            return false;
+        }
+
+        @Override
+        public Value get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(key)) {
+                    return current[i];
+                }
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equalsIgnoreCase((String) key)) {
+                    return current[i];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Value>> entrySet() {
+            Map<String, Value> map = New.linkedHashMap(names.length, 1L);
+            for (int i = 0; i < names.length; i++) {
+                map.put(names[i], current[i]);
             }
+            return map.entrySet();
         }
 
     }
@@ -21,6 +21,12 @@ package com.suning.snfddal.route.rule;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.util.StringUtils;
+import com.suning.snfddal.value.Value;
 
 /**
  * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
@@ -77,6 +83,11 @@ public class RoutingResult implements Serializable {
         private static final long serialVersionUID = 1L;
         private String shardName;
         private String[] tables;
+        /**
+         * The values of the multi-valued rule columns which routed to each
+         * table: table name -&gt; column name -&gt; values.
+         */
+        private transient Map<String, Map<String, Set<Value>>> routedValues;
 
         /**
          * @return the shardName
@@ -106,6 +117,48 @@ public class RoutingResult implements Serializable {
             this.tables = tables;
         }
 
+        /**
+         * Get the values of a rule column which routed to the given table.
+         * This is only tracked if the column has more than one value, for
+         * example for an IN(..) condition.
+         *
+         * @param tableName the table name
+         * @param columnName the rule column name
+         * @return the values, or null if not tracked
+         */
+        public Set<Value> getRoutedValues(String tableName, String columnName) {
+            if (routedValues == null) {
+                return null;
+            }
+            Map<String, Set<Value>> columns = routedValues.get(tableName);
+            return columns == null ? null : columns.get(StringUtils.toUpperEnglish(columnName));
+        }
+
+        /**
+         * Record that a value of a rule column routed to the given table.
+         *
+         * @param tableName the table name
+         * @param columnName the rule column name
+         * @param value the value
+         */
+        public void addRoutedValue(String tableName, String columnName, Value value) {
+            if (routedValues == null) {
+                routedValues = New.hashMap();
+            }
+            Map<String, Set<Value>> columns = routedValues.get(tableName);
+            if (columns == null) {
+                columns = New.hashMap();
+                routedValues.put(tableName, columns);
+            }
+            String key = StringUtils.toUpperEnglish(columnName);
+            Set<Value> values = columns.get(key);
+            if (values == null) {
+                values = New.linkedHashSet();
+                columns.put(key, values);
+            }
+            values.add(value);
+        }
+
         @Override
         public int hashCode() {
             final int prime = 31;
@@ -32,6 +32,12 @@ public class RuleExpression implements Serializable {
 
     private String expression;
 
+    private boolean monotonic;
+
+    private transient volatile ArithmeticRule arithmeticRule;
+
+    private transient volatile boolean analyzed;
+
     /**
      * @return the ruleColumns
      */
@@ -44,6 +50,7 @@ public class RuleExpression implements Serializable {
      */
     public void setRuleColumns(List<RuleColumn> ruleColumns) {
         this.ruleColumns = ruleColumns;
+        this.analyzed = false;
     }
 
     /**
@@ -58,6 +65,38 @@ public class RuleExpression implements Serializable {
      */
     public void setExpression(String expression) {
         this.expression = expression;
+        this.analyzed = false;
+    }
+
+    /**
+     * Whether the result of the expression never decreases when the value of
+     * its (single) rule column increases, for example a date to month rule.
+     * Such a rule maps a range of column values to a range of shards.
+     *
+     * @return the monotonic
+     */
+    public boolean isMonotonic() {
+        return monotonic;
+    }
+
+    /**
+     * @param monotonic the monotonic to set
+     */
+    public void setMonotonic(boolean monotonic) {
+        this.monotonic = monotonic;
+    }
+
+    /**
+     * Get the parsed expression if it only uses integer arithmetic.
+     *
+     * @return the parsed expression, or null
+     */
+    ArithmeticRule getArithmeticRule() {
+        if (!analyzed) {
+            arithmeticRule = ArithmeticRule.parse(this);
+            analyzed = true;
+        }
+        return arithmeticRule;
     }
     
     
@@ -19,6 +19,7 @@
 package com.suning.snfddal.route.rule;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,6 +43,8 @@ public class TableRouter implements Serializable{
     
     private TableTopology topology;
 
+    private transient volatile List<RuleColumn> ruleColumns;
+
     /**
      * @return the id
      */
@@ -74,10 +77,14 @@ public class TableRouter implements Serializable{
      * @return the ruleColumns
      */
     public List<RuleColumn> getRuleColumns() {
-        Set<RuleColumn> temp = New.linkedHashSet();
-        temp.addAll(shardRuleExpression.getRuleColumns());
-        temp.addAll(tableRuleExpression.getRuleColumns());
-        List<RuleColumn> result = New.arrayList(temp);
+        List<RuleColumn> result = ruleColumns;
+        if (result == null) {
+            Set<RuleColumn> temp = New.linkedHashSet();
+            temp.addAll(shardRuleExpression.getRuleColumns());
+            temp.addAll(tableRuleExpression.getRuleColumns());
+            result = Collections.unmodifiableList(New.arrayList(temp));
+            ruleColumns = result;
+        }
         return result;
     }
     /**
@@ -92,6 +99,7 @@ public class TableRouter implements Serializable{
      */
     public void setShardRuleExpression(RuleExpression shardRuleExpression) {
         this.shardRuleExpression = shardRuleExpression;
+        this.ruleColumns = null;
     }
 
     /**
@@ -106,6 +114,7 @@ public class TableRouter implements Serializable{
      */
     public void setTableRuleExpression(RuleExpression tableRuleExpression) {
         this.tableRuleExpression = tableRuleExpression;
+        this.ruleColumns = null;
     }
 
     /**
@@ -115,6 +124,43 @@ public class TableRouter implements Serializable{
         return topology;
     }
     
+    /**
+     * Check whether the rows of the other router are distributed the same
+     * way, so that rows with the same values of the rule columns are stored
+     * in the same shard and at the same position within the shard.
+     *
+     * @param other the other router
+     * @return true if both routers partition the rows the same way
+     */
+    public boolean isColocated(TableRouter other) {
+        if (other == this) {
+            return true;
+        }
+        if (!isSameRule(shardRuleExpression, other.shardRuleExpression) ||
+                !isSameRule(tableRuleExpression, other.tableRuleExpression)) {
+            return false;
+        }
+        List<String> shards = New.arrayList(partition.keySet());
+        if (!shards.equals(New.arrayList(other.partition.keySet()))) {
+            return false;
+        }
+        for (String shard : shards) {
+            List<String> suffixes = New.arrayList(partition.get(shard));
+            if (!suffixes.equals(New.arrayList(other.partition.get(shard)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSameRule(RuleExpression a, RuleExpression b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        String ea = a.getExpression(), eb = b.getExpression();
+        return ea != null && eb != null && ea.trim().equals(eb.trim());
+    }
+
     /**
      * @param topology the topology to set
      */
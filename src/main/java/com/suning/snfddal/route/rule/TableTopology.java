@@ -20,9 +20,12 @@ package com.suning.snfddal.route.rule;
 
 import java.io.Serializable;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
+import com.suning.snfddal.util.New;
+
 /**
  * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
  */
@@ -30,14 +33,29 @@ public class TableTopology implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    private Map<String, Set<String>> topology;
-    
+    private final Map<String, Set<String>> topology;
+
+    private final String[] shards;
+
+    private final String[][] tables;
+
     public TableTopology(Map<String, Set<String>> topology) {
-        this.topology = topology;
+        Map<String, Set<String>> copy = New.linkedHashMap();
+        this.shards = new String[topology.size()];
+        this.tables = new String[topology.size()][];
+        int i = 0;
+        for (Map.Entry<String, Set<String>> entry : topology.entrySet()) {
+            Set<String> tableSet = entry.getValue();
+            shards[i] = entry.getKey();
+            tables[i] = tableSet.toArray(new String[tableSet.size()]);
+            copy.put(entry.getKey(), Collections.unmodifiableSet(new LinkedHashSet<String>(tableSet)));
+            i++;
+        }
+        this.topology = Collections.unmodifiableMap(copy);
     }
 
     public Set<String> getShard() {
-        return Collections.unmodifiableSet(topology.keySet());
+        return topology.keySet();
     }
     
     public Set<String> getTableInShard(String shardName) {
@@ -45,31 +63,98 @@ public class TableTopology implements Serializable {
         if(tables == null) {
             throw new IllegalArgumentException(shardName + " not existing.");
         }
-        return Collections.unmodifiableSet(tables);
+        return tables;
     }
 
     public String indexShard(int index) {
-        Set<String> shards = topology.keySet();
         return index(index, shards);
     }
     
     public String indexTableInShard(String shardName, int index) {
-        Set<String> tables = getTableInShard(shardName);
-        return index(index, tables);
+        return index(index, tables[checkShard(shardName)]);
+    }
+
+    /**
+     * Get the number of shards.
+     *
+     * @return the shard count
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Get the position of the shard in the topology.
+     *
+     * @param shardName the shard name
+     * @return the index, or -1 if the shard is not in the topology
+     */
+    public int getShardIndex(String shardName) {
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i].equals(shardName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the shard name at the given position, without a range check.
+     *
+     * @param shardIndex the shard index
+     * @return the shard name
+     */
+    public String getShardName(int shardIndex) {
+        return shards[shardIndex];
+    }
+
+    /**
+     * Get the tables of the shard at the given position. The returned array
+     * is shared and must not be modified.
+     *
+     * @param shardIndex the shard index
+     * @return the table names
+     */
+    public String[] getTables(int shardIndex) {
+        return tables[shardIndex];
+    }
+
+    /**
+     * Get the position of the table within the shard at the given position.
+     *
+     * @param shardIndex the shard index
+     * @param tableName the table name
+     * @return the index, or -1 if the table is not in the shard
+     */
+    public int getTableIndex(int shardIndex, String tableName) {
+        String[] list = tables[shardIndex];
+        for (int i = 0; i < list.length; i++) {
+            if (list[i].equals(tableName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int checkShard(String shardName) {
+        int index = getShardIndex(shardName);
+        if (index < 0) {
+            throw new IllegalArgumentException(shardName + " not existing.");
+        }
+        return index;
     }
 
     /**
      * @param index
-     * @param set
+     * @param array
      * @return
      */
-    private String index(int index, Set<String> set) {
-        String[] groups = set.toArray(new String[set.size()]);
-        if (index < 0 || index >= groups.length) {
-            String msg = "The index must be between 0 and " + (groups.length - 1);
+    private static String index(int index, String[] array) {
+        if (index < 0 || index >= array.length) {
+            String msg = "The index must be between 0 and " + (array.length - 1);
             throw new ArrayIndexOutOfBoundsException(msg);
         }
-        return groups[index];
+        return array[index];
     }
 
 }
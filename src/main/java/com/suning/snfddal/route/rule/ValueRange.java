@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月8日
+// $Id$
+
+package com.suning.snfddal.route.rule;
+
+import com.suning.snfddal.value.Value;
+
+/**
+ * The range of a rule column, as given by conditions such as
+ * <code>BETWEEN</code>, <code>&lt;</code> or <code>&gt;=</code>. Both bounds
+ * are inclusive, a null bound means the range is open on that side.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class ValueRange {
+
+    private final Value low;
+
+    private final Value high;
+
+    public ValueRange(Value low, Value high) {
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * @return the lowest value, or null if unbounded
+     */
+    public Value getLow() {
+        return low;
+    }
+
+    /**
+     * @return the highest value, or null if unbounded
+     */
+    public Value getHigh() {
+        return high;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + (low == null ? "" : low.getSQL()) + ", " + (high == null ? "" : high.getSQL()) + "]";
+    }
+
+}
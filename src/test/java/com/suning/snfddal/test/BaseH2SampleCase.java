@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import com.suning.snfddal.engine.Database;
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.jdbc.DispatcherDataSource;
+import com.suning.snfddal.jdbc.JdbcConnection;
+import com.suning.snfddal.util.JdbcUtils;
+import com.suning.snfddal.util.New;
+
+/**
+ * The base class of the test cases which run on in-memory H2 data nodes
+ * (see /config/h2-config.xml), so that they don't need a MySQL server. The
+ * configuration can only be loaded once, so the test cases share the data
+ * source; the tables are emptied before each test case.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public abstract class BaseH2SampleCase {
+
+    protected static final int SHARD_COUNT = 4;
+
+    private static DispatcherDataSource sharedDataSource;
+
+    protected final DispatcherDataSource dataSource;
+
+    public BaseH2SampleCase() {
+        try {
+            dataSource = getDataSource();
+            for (int i = 1; i <= SHARD_COUNT; i++) {
+                clearTables(i);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static synchronized DispatcherDataSource getDataSource() throws SQLException {
+        if (sharedDataSource == null) {
+            for (int i = 1; i <= SHARD_COUNT; i++) {
+                createTables(i);
+            }
+            DispatcherDataSource ds = new DispatcherDataSource();
+            ds.setConfigLocation("/config/h2-config.xml");
+            ds.init();
+            sharedDataSource = ds;
+        }
+        return sharedDataSource;
+    }
+
+    /**
+     * Get a connection to a data node.
+     *
+     * @param shard the number of the data node, starting with 1
+     * @return the connection
+     */
+    protected static Connection getNodeConnection(int shard) throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:mem:ddal_test" + shard + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+    }
+
+    private static void createTables(int shard) throws SQLException {
+        Connection conn = getNodeConnection(shard);
+        try {
+            Statement stat = conn.createStatement();
+            for (int i = 1; i <= 4; i++) {
+                String suffix = "_00" + i;
+                stat.execute("DROP TABLE IF EXISTS t_student" + suffix);
+                stat.execute("CREATE TABLE t_student" + suffix + " (f_student_id INT NOT NULL PRIMARY KEY, "
+                        + "f_student_no VARCHAR(50), f_name VARCHAR(50), t_birthday DATE, f_phone VARCHAR(20), "
+                        + "f_sex INT, f_school_id INT, f_address VARCHAR(500), f_gmt TIMESTAMP)");
+                stat.execute("DROP TABLE IF EXISTS t_student_course" + suffix);
+                stat.execute("CREATE TABLE t_student_course" + suffix + " (f_id INT NOT NULL PRIMARY KEY, "
+                        + "f_student_id INT, t_course_name VARCHAR(200), f_course_no VARCHAR(45), "
+                        + "t_score DECIMAL(5,2), t_learn_year INT, f_gmt TIMESTAMP)");
+            }
+            stat.execute("DROP TABLE IF EXISTS t_school");
+            stat.execute("CREATE TABLE t_school (f_id INT NOT NULL PRIMARY KEY, f_name VARCHAR(500), "
+                    + "f_found_date DATE, f_address VARCHAR(45), f_gmt TIMESTAMP)");
+        } finally {
+            JdbcUtils.closeSilently(conn);
+        }
+    }
+
+    private static void clearTables(int shard) throws SQLException {
+        Connection conn = getNodeConnection(shard);
+        try {
+            Statement stat = conn.createStatement();
+            for (int i = 1; i <= 4; i++) {
+                stat.execute("DELETE FROM t_student_00" + i);
+                stat.execute("DELETE FROM t_student_course_00" + i);
+            }
+            stat.execute("DELETE FROM t_school");
+        } finally {
+            JdbcUtils.closeSilently(conn);
+        }
+    }
+
+    /**
+     * Insert the students 1 to count, each with one course.
+     *
+     * @param conn the connection
+     * @param count the number of students
+     */
+    protected static void insertStudents(Connection conn, int count) throws SQLException {
+        PreparedStatement student = conn.prepareStatement("INSERT INTO t_student(f_student_id, f_student_no, "
+                + "f_name, f_sex, f_school_id) VALUES(?, ?, ?, ?, ?)");
+        PreparedStatement course = conn.prepareStatement("INSERT INTO t_student_course(f_id, f_student_id, "
+                + "t_course_name, t_score, t_learn_year) VALUES(?, ?, ?, ?, ?)");
+        for (int i = 1; i <= count; i++) {
+            student.setInt(1, i);
+            student.setString(2, "n" + i);
+            student.setString(3, "name" + i);
+            student.setInt(4, i % 2);
+            student.setInt(5, i % 3);
+            student.executeUpdate();
+            course.setInt(1, i);
+            course.setInt(2, i);
+            course.setString(3, "c" + i % 5);
+            course.setInt(4, 50 + i);
+            course.setInt(5, 2010 + i % 4);
+            course.executeUpdate();
+        }
+        student.close();
+        course.close();
+    }
+
+    /**
+     * Run a query and return the first column of the first row.
+     *
+     * @param conn the connection
+     * @param sql the query
+     * @return the value, or null if there is no row
+     */
+    protected static String queryString(Connection conn, String sql) throws SQLException {
+        Statement stat = conn.createStatement();
+        try {
+            ResultSet rs = stat.executeQuery(sql);
+            return rs.next() ? rs.getString(1) : null;
+        } finally {
+            stat.close();
+        }
+    }
+
+    /**
+     * Get the statements which a data node ran since the last call, and
+     * clear the list. The first call starts to collect them.
+     *
+     * @param shard the number of the data node, starting with 1
+     * @return the statements
+     */
+    protected static List<String> getNodeStatements(int shard) throws SQLException {
+        Connection conn = getNodeConnection(shard);
+        List<String> list = New.arrayList();
+        try {
+            Statement stat = conn.createStatement();
+            ResultSet rs = stat.executeQuery("SELECT SQL_STATEMENT FROM INFORMATION_SCHEMA.QUERY_STATISTICS");
+            while (rs.next()) {
+                list.add(rs.getString(1));
+            }
+            stat.execute("SET QUERY_STATISTICS FALSE");
+            stat.execute("SET QUERY_STATISTICS TRUE");
+        } finally {
+            conn.close();
+        }
+        return list;
+    }
+
+    /**
+     * Get the session of a connection.
+     *
+     * @param conn the connection
+     * @return the session
+     */
+    protected static Session getSession(Connection conn) {
+        return (Session) ((JdbcConnection) conn).getSession();
+    }
+
+    /**
+     * Get the database of a connection.
+     *
+     * @param conn the connection
+     * @return the database
+     */
+    protected static Database getDatabase(Connection conn) {
+        return getSession(conn).getDatabase();
+    }
+
+}
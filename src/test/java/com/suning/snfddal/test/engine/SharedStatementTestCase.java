@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.engine;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.engine.QueryCache;
+import com.suning.snfddal.test.BaseH2SampleCase;
+
+/**
+ * Statements which a session no longer uses are re-used by other sessions
+ * (see <code>SHARED_QUERY_CACHE_SIZE</code>), as soon as they are parsed.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class SharedStatementTestCase extends BaseH2SampleCase {
+
+    @Test
+    public void testSimpleStatementIsShared() throws SQLException {
+        String sql = "SELECT f_name FROM t_student WHERE f_student_id = ?";
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        Assert.assertEquals("name3", query(conn, sql, 3));
+        QueryCache cache = getDatabase(conn).getQueryCache();
+        conn.close();
+        long hits = cache.getHitCount();
+        conn = dataSource.getConnection();
+        Assert.assertEquals("name5", query(conn, sql, 5));
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+        conn.close();
+    }
+
+    @Test
+    public void testSharedWhenParsed() throws SQLException {
+        String sql = "SELECT f_name FROM t_student WHERE f_student_id = ? AND f_sex = 1";
+        Connection first = dataSource.getConnection();
+        insertStudents(first, 16);
+        QueryCache cache = getDatabase(first).getQueryCache();
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        PreparedStatement prep = first.prepareStatement(sql);
+        Assert.assertEquals(misses + 1, cache.getMissCount());
+        // the statement of the first session is still used
+        Connection second = dataSource.getConnection();
+        Assert.assertEquals("name3", query(second, sql, 3));
+        Assert.assertEquals(misses + 2, cache.getMissCount());
+        prep.setInt(1, 5);
+        ResultSet rs = prep.executeQuery();
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals("name5", rs.getString(1));
+        prep.close();
+        // both statements are closed, and the sessions are still open
+        Connection third = dataSource.getConnection();
+        Assert.assertEquals("name7", query(third, sql, 7));
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+        // the first session takes one of the statements again
+        Assert.assertEquals("name9", query(first, sql, 9));
+        Assert.assertEquals("name11", query(second, sql, 11));
+        Assert.assertEquals("name13", query(third, sql, 13));
+        Assert.assertEquals(misses + 2, cache.getMissCount());
+        first.close();
+        second.close();
+        third.close();
+    }
+
+    @Test
+    public void testInsertSelect() throws SQLException {
+        String sql = "INSERT INTO t_student_course(f_id, f_student_id, t_course_name) "
+                + "SELECT f_student_id + 100, f_student_id, f_name FROM t_student WHERE f_student_id = ?";
+        Connection first = dataSource.getConnection();
+        insertStudents(first, 16);
+        Assert.assertEquals(1, update(first, sql, 1));
+        Connection second = dataSource.getConnection();
+        // the first session is closed while the second one runs the statement
+        first.close();
+        Assert.assertEquals(1, update(second, sql, 2));
+        Assert.assertEquals("name2",
+                queryString(second, "SELECT t_course_name FROM t_student_course WHERE f_id = 102"));
+        second.close();
+    }
+
+    @Test
+    public void testDerivedTable() throws SQLException {
+        String sql = "SELECT s.f_name FROM (SELECT f_student_id, f_name FROM t_student WHERE f_student_id = ?) s";
+        Connection first = dataSource.getConnection();
+        insertStudents(first, 16);
+        Assert.assertEquals("name1", query(first, sql, 1));
+        Connection second = dataSource.getConnection();
+        first.close();
+        Assert.assertEquals("name2", query(second, sql, 2));
+        second.close();
+    }
+
+    private static String query(Connection conn, String sql, int id) throws SQLException {
+        PreparedStatement prep = conn.prepareStatement(sql);
+        try {
+            prep.setInt(1, id);
+            ResultSet rs = prep.executeQuery();
+            return rs.next() ? rs.getString(1) : null;
+        } finally {
+            prep.close();
+        }
+    }
+
+    private static int update(Connection conn, String sql, int id) throws SQLException {
+        PreparedStatement prep = conn.prepareStatement(sql);
+        try {
+            prep.setInt(1, id);
+            return prep.executeUpdate();
+        } finally {
+            prep.close();
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.insert;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.test.BaseH2SampleCase;
+
+/**
+ * INSERT statements whose rows are grouped by physical table and sent as
+ * JDBC batches (see <code>INSERT_BATCH_SIZE</code>).
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class BatchInsertTestCase extends BaseH2SampleCase {
+
+    @Test
+    public void testBatchWithNull() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        PreparedStatement prep = conn.prepareStatement("INSERT INTO t_student(f_student_id, f_name, f_sex) "
+                + "VALUES(?, ?, ?)");
+        for (int i = 1; i <= 16; i++) {
+            prep.setInt(1, i);
+            if (i % 2 == 0) {
+                prep.setNull(2, Types.VARCHAR);
+            } else {
+                prep.setString(2, "name" + i);
+            }
+            prep.setInt(3, i % 2);
+            prep.addBatch();
+        }
+        int[] counts = prep.executeBatch();
+        Assert.assertEquals(16, counts.length);
+        for (int c : counts) {
+            Assert.assertEquals(1, c);
+        }
+        Assert.assertEquals("16", queryString(conn, "SELECT COUNT(*) FROM t_student"));
+        Assert.assertEquals("8", queryString(conn, "SELECT COUNT(*) FROM t_student WHERE f_name IS NULL"));
+        Assert.assertEquals("name7", queryString(conn, "SELECT f_name FROM t_student WHERE f_student_id = 7"));
+        conn.close();
+    }
+
+    @Test
+    public void testValuesWithNull() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        Statement stat = conn.createStatement();
+        Assert.assertEquals(4, stat.executeUpdate("INSERT INTO t_student(f_student_id, f_name, f_sex) "
+                + "VALUES(1, NULL, 1), (2, 'name2', NULL), (5, NULL, NULL), (6, 'name6', 0)"));
+        Assert.assertEquals("2", queryString(conn, "SELECT COUNT(*) FROM t_student WHERE f_name IS NULL"));
+        Assert.assertEquals("2", queryString(conn, "SELECT COUNT(*) FROM t_student WHERE f_sex IS NULL"));
+        conn.close();
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.api.AsyncConnection;
+import com.suning.snfddal.api.StatementCallback;
+import com.suning.snfddal.api.StatementFuture;
+import com.suning.snfddal.engine.DbSettings;
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.route.MultiNodeExecutor;
+import com.suning.snfddal.test.BaseH2SampleCase;
+import com.suning.snfddal.util.New;
+
+/**
+ * Statements which run in a thread of the database (see
+ * {@link AsyncConnection}).
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class AsyncStatementTestCase extends BaseH2SampleCase {
+
+    @Test
+    public void testFuture() throws Exception {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        StatementFuture<ResultSet> future = ((AsyncConnection) conn).executeQueryAsync(
+                "SELECT COUNT(*) FROM t_student WHERE f_sex = ?", 1);
+        ResultSet rs = future.get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(future.isDone());
+        Assert.assertFalse(future.isCancelled());
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(8, rs.getInt(1));
+        conn.close();
+    }
+
+    @Test
+    public void testCallback() throws Exception {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        final CountDownLatch latch = new CountDownLatch(2);
+        final AtomicReference<Integer> count = new AtomicReference<Integer>();
+        final AtomicReference<SQLException> error = new AtomicReference<SQLException>();
+        StatementFuture<Integer> update = ((AsyncConnection) conn).executeUpdateAsync(
+                "UPDATE t_student SET f_name = ? WHERE f_student_id < ?", "x", 5);
+        update.addCallback(new StatementCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer result) {
+                count.set(result);
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(SQLException e) {
+                latch.countDown();
+            }
+        });
+        Assert.assertEquals(4, update.get().intValue());
+        StatementFuture<ResultSet> query = ((AsyncConnection) conn).executeQueryAsync(
+                "SELECT 1 / (f_student_id - 3) FROM t_student");
+        query.addCallback(new StatementCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet result) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(SQLException e) {
+                error.set(e);
+                latch.countDown();
+            }
+        });
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(4, count.get().intValue());
+        Assert.assertNotNull(error.get());
+        try {
+            query.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertSame(error.get(), e.getCause());
+        }
+
+        // a callback which is added once the statement is done is called at once
+        final AtomicReference<Integer> late = new AtomicReference<Integer>();
+        update.addCallback(new StatementCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer result) {
+                late.set(result);
+            }
+
+            @Override
+            public void onFailure(SQLException e) {
+                // not expected
+            }
+        });
+        Assert.assertEquals(4, late.get().intValue());
+        conn.close();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        Session session = getSession(conn);
+        StatementFuture<ResultSet> future;
+        synchronized (session) {
+            // the statement waits for the session
+            future = ((AsyncConnection) conn).executeQueryAsync("SELECT * FROM t_student");
+            Thread.sleep(50);
+            Assert.assertFalse(future.isDone());
+            // it is already running
+            Assert.assertFalse(future.cancel(false));
+            Assert.assertTrue(future.cancel(true));
+        }
+        Assert.assertTrue(future.isDone());
+        Assert.assertTrue(future.isCancelled());
+        Assert.assertFalse(future.cancel(true));
+        try {
+            future.get();
+            Assert.fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+        // the connection can still be used
+        Assert.assertEquals("16", queryString(conn, "SELECT COUNT(*) FROM t_student"));
+        conn.close();
+    }
+
+    @Test
+    public void testQueueIsBounded() throws InterruptedException {
+        HashMap<String, String> settings = New.hashMap();
+        settings.put("SHARD_MAX_THREADS", "1");
+        settings.put("SHARD_ASYNC_QUEUE_SIZE", "2");
+        MultiNodeExecutor executor = new MultiNodeExecutor(DbSettings.getInstance(settings));
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    running.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // stop
+                    }
+                }
+            });
+            Assert.assertTrue(running.await(10, TimeUnit.SECONDS));
+            Runnable nothing = new Runnable() {
+                @Override
+                public void run() {
+                    // nothing to do
+                }
+            };
+            executor.submit(nothing);
+            executor.submit(nothing);
+            try {
+                executor.submit(nothing);
+                Assert.fail();
+            } catch (DbException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("Too many asynchronous statements"));
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.suning.snfddal.api.ErrorCode;
+import com.suning.snfddal.engine.Database;
+import com.suning.snfddal.route.ShardGroup;
+import com.suning.snfddal.test.BaseH2SampleCase;
+
+/**
+ * The cancel and the query timeout of a statement stop its statements on the
+ * data nodes. The data node shard2 is replaced by one whose statements run
+ * until they are canceled or their own query timeout expires.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class StatementCancelTestCase extends BaseH2SampleCase {
+
+    private static final String SCATTER = "SELECT * FROM t_student";
+
+    /**
+     * The student 4 is stored on shard2.
+     */
+    private static final String SINGLE = "SELECT * FROM t_student WHERE f_student_id = 4";
+
+    private final SlowDataSource slow = new SlowDataSource();
+    private Database database;
+    private ShardGroup group;
+
+    @Before
+    public void init() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        database = getDatabase(conn);
+        conn.close();
+        group = database.getShardGroup("shard2");
+        database.removeDataNode("shard2");
+        database.addDataNode(new ShardGroup("shard2", slow.dataSource));
+    }
+
+    @After
+    public void destroy() {
+        slow.slow = false;
+        database.removeDataNode("shard2");
+        database.addDataNode(group);
+    }
+
+    @Test
+    public void testQueryTimeout() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        Statement stat = conn.createStatement();
+        stat.setQueryTimeout(1);
+        slow.slow = true;
+        assertCanceled(stat, SCATTER);
+        Assert.assertEquals(1, slow.queryTimeout);
+        // the calling thread waits for the data node, which times out itself
+        assertCanceled(stat, SINGLE);
+        Assert.assertEquals(1, slow.timedOut.get());
+        Assert.assertEquals(1, slow.queryTimeout);
+        slow.slow = false;
+        Assert.assertEquals(16, count(stat, SCATTER));
+        stat.setQueryTimeout(0);
+        Assert.assertEquals(1, count(stat, SINGLE));
+        Assert.assertEquals(0, slow.queryTimeout);
+        conn.close();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        Connection conn = dataSource.getConnection();
+        Statement stat = conn.createStatement();
+        slow.slow = true;
+        cancelLater(stat);
+        assertCanceled(stat, SCATTER);
+        Assert.assertEquals(1, slow.canceled.get());
+        cancelLater(stat);
+        assertCanceled(stat, SINGLE);
+        Assert.assertEquals(2, slow.canceled.get());
+        Assert.assertEquals(0, slow.timedOut.get());
+        // the cancel doesn't affect the next statement
+        slow.slow = false;
+        Assert.assertEquals(16, count(stat, SCATTER));
+        Assert.assertEquals(1, count(stat, SINGLE));
+        conn.close();
+    }
+
+    @Test
+    public void testCloseConnection() throws Exception {
+        final Connection conn = dataSource.getConnection();
+        Statement stat = conn.createStatement();
+        slow.slow = true;
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                    conn.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }.start();
+        long start = System.currentTimeMillis();
+        try {
+            count(stat, SCATTER);
+            Assert.fail();
+        } catch (SQLException e) {
+            // expected
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assert.assertEquals(1, slow.canceled.get());
+    }
+
+    private static void assertCanceled(Statement stat, String sql) {
+        long start = System.currentTimeMillis();
+        try {
+            count(stat, sql);
+            Assert.fail();
+        } catch (SQLException e) {
+            Assert.assertEquals(e.getMessage(), ErrorCode.STATEMENT_WAS_CANCELED, e.getErrorCode());
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    private static void cancelLater(final Statement stat) {
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                    stat.cancel();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }.start();
+    }
+
+    private static int count(Statement stat, String sql) throws SQLException {
+        ResultSet rs = stat.executeQuery(sql);
+        int count = 0;
+        while (rs.next()) {
+            count++;
+        }
+        rs.close();
+        return count;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(StatementCancelTestCase.class.getClassLoader(), new Class[] { type },
+                handler);
+    }
+
+    /**
+     * A data source of shard2 whose statements run for up to 10 seconds while
+     * it is slow, unless they are canceled or their query timeout expires.
+     */
+    private static class SlowDataSource implements InvocationHandler {
+
+        final DataSource dataSource = (DataSource) proxy(DataSource.class, this);
+        final AtomicInteger canceled = new AtomicInteger();
+        final AtomicInteger timedOut = new AtomicInteger();
+        volatile boolean slow;
+
+        /**
+         * The query timeout of the last statement which was executed.
+         */
+        volatile int queryTimeout;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!method.getName().equals("getConnection")) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+            final Connection conn = getNodeConnection(2);
+            return proxy(Connection.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    Object result = StatementCancelTestCase.invoke(conn, method, args);
+                    if (method.getName().equals("prepareStatement")) {
+                        return proxy(PreparedStatement.class, new SlowStatement((PreparedStatement) result));
+                    }
+                    return result;
+                }
+            });
+        }
+
+        /**
+         * A statement which runs slowly.
+         */
+        private class SlowStatement implements InvocationHandler {
+
+            private final PreparedStatement prep;
+            private volatile boolean cancel;
+            private int timeout;
+
+            SlowStatement(PreparedStatement prep) {
+                this.prep = prep;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("cancel")) {
+                    cancel = true;
+                    return null;
+                } else if (name.equals("setQueryTimeout")) {
+                    timeout = (Integer) args[0];
+                    return null;
+                } else if (name.equals("getQueryTimeout")) {
+                    return timeout;
+                } else if (name.startsWith("execute")) {
+                    cancel = false;
+                    queryTimeout = timeout;
+                    long start = System.currentTimeMillis();
+                    while (slow && System.currentTimeMillis() - start < 10000) {
+                        if (cancel) {
+                            canceled.incrementAndGet();
+                            throw new SQLException("canceled", "HY008");
+                        }
+                        if (timeout > 0 && System.currentTimeMillis() - start > timeout * 1000L) {
+                            timedOut.incrementAndGet();
+                            throw new SQLTimeoutException("timeout", "HYT00");
+                        }
+                        Thread.sleep(5);
+                    }
+                }
+                return StatementCancelTestCase.invoke(prep, method, args);
+            }
+
+        }
+
+    }
+
+}
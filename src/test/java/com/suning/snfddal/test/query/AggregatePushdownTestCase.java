@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.query;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.test.BaseH2SampleCase;
+import com.suning.snfddal.util.New;
+
+/**
+ * The data nodes calculate the partial aggregates of each group, and the
+ * partial aggregates of the shards are merged. The course of the student i is
+ * "c" + i % 5 with the score 50 + i, so that the 4 scores of each course of 20
+ * students are spread over the data nodes.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class AggregatePushdownTestCase extends BaseH2SampleCase {
+
+    private static final String GROUPS = "SELECT t_course_name, COUNT(*), SUM(t_score), AVG(t_score), "
+            + "MIN(t_score), MAX(t_score) FROM t_student_course GROUP BY t_course_name";
+
+    @Test
+    public void testGroups() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 20);
+        getNodeQueries();
+        Assert.assertEquals("[c0 4 250 62.5 55 70, c1 4 234 58.5 51 66, c2 4 238 59.5 52 67, "
+                + "c3 4 242 60.5 53 68, c4 4 246 61.5 54 69]",
+                query(conn, GROUPS + " ORDER BY t_course_name").toString());
+        List<String> list = getNodeQueries();
+        Assert.assertEquals(list.toString(), SHARD_COUNT, list.size());
+        for (String sql : list) {
+            Assert.assertTrue(sql, sql.contains(" GROUP BY T_COURSE_NAME"));
+            // the average is merged from the sum and the count
+            Assert.assertTrue(sql, sql.contains("SUM(T_SCORE), COUNT(T_SCORE)"));
+            Assert.assertFalse(sql, sql.contains("AVG("));
+        }
+        conn.close();
+    }
+
+    @Test
+    public void testHaving() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 20);
+        getNodeQueries();
+        // no data node has more than 2 scores of a course
+        Assert.assertEquals(5, query(conn, GROUPS + " HAVING COUNT(*) > 3").size());
+        for (String sql : getNodeQueries()) {
+            Assert.assertFalse(sql, sql.contains("HAVING"));
+        }
+        Assert.assertEquals("[c0 4 250 62.5 55 70, c4 4 246 61.5 54 69]",
+                query(conn, GROUPS + " HAVING AVG(t_score) > 61 ORDER BY t_course_name").toString());
+        Assert.assertEquals("[c1 4 234 58.5 51 66]",
+                query(conn, GROUPS + " HAVING MIN(t_score) < 52 AND MAX(t_score) > 65").toString());
+        // the student 5 is on shard2, together with the student 20
+        Assert.assertEquals("[c0 3 195 65.0 60 70]", query(conn,
+                "SELECT t_course_name, COUNT(*), SUM(t_score), AVG(t_score), MIN(t_score), MAX(t_score) "
+                + "FROM t_student_course WHERE f_student_id <> 5 GROUP BY t_course_name "
+                + "HAVING SUM(t_score) < 200").toString());
+        conn.close();
+    }
+
+    @Test
+    public void testNoGroups() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 20);
+        String query = "SELECT COUNT(*), SUM(t_score), AVG(t_score), MIN(t_score), MAX(t_score) "
+                + "FROM t_student_course";
+        Assert.assertEquals("20 1210 60.5 51 70", queryRow(conn, query));
+        // most data nodes have no rows, their partial sums are NULL
+        Assert.assertEquals("1 65 65.0 65 65", queryRow(conn, query + " WHERE f_student_id = 15"));
+        Assert.assertEquals("0 null null null null", queryRow(conn, query + " WHERE t_score > 100"));
+        conn.close();
+    }
+
+    private static String queryRow(Connection conn, String sql) throws SQLException {
+        Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery(sql);
+        Assert.assertTrue(rs.next());
+        String row = rs.getLong(1) + " " + getInt(rs, 2) + " " + getDouble(rs, 3) + " " + getInt(rs, 4) + " "
+                + getInt(rs, 5);
+        Assert.assertFalse(rs.next());
+        stat.close();
+        return row;
+    }
+
+    private static List<String> query(Connection conn, String sql) throws SQLException {
+        List<String> list = New.arrayList();
+        Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery(sql);
+        while (rs.next()) {
+            list.add(rs.getString(1) + " " + rs.getLong(2) + " " + getInt(rs, 3) + " " + getDouble(rs, 4) + " "
+                    + getInt(rs, 5) + " " + getInt(rs, 6));
+        }
+        stat.close();
+        return list;
+    }
+
+    private static String getInt(ResultSet rs, int column) throws SQLException {
+        long x = rs.getLong(column);
+        return rs.wasNull() ? "null" : String.valueOf(x);
+    }
+
+    private static String getDouble(ResultSet rs, int column) throws SQLException {
+        double x = rs.getDouble(column);
+        return rs.wasNull() ? "null" : String.valueOf(x);
+    }
+
+    /**
+     * Get the queries on the table t_student_course which the data nodes ran
+     * since the last call.
+     */
+    private static List<String> getNodeQueries() throws SQLException {
+        List<String> list = New.arrayList();
+        for (int i = 1; i <= SHARD_COUNT; i++) {
+            for (String sql : getNodeStatements(i)) {
+                if (sql.contains(" FROM t_student_course_00")) {
+                    list.add(sql);
+                }
+            }
+        }
+        return list;
+    }
+
+}
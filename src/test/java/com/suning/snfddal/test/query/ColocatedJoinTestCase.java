@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.query;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.test.BaseH2SampleCase;
+import com.suning.snfddal.util.New;
+
+/**
+ * Joins of tables which are sharded the same way, so that each data node
+ * joins its own rows (see <code>OPTIMIZE_JOIN_PUSHDOWN</code>). The tables
+ * t_student and t_student_course are both sharded by f_student_id.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class ColocatedJoinTestCase extends BaseH2SampleCase {
+
+    @Test
+    public void testJoinOnRuleColumns() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        String query = "SELECT s.f_name, c.t_score FROM t_student s, t_student_course c "
+                + "WHERE s.f_student_id = c.f_student_id AND s.f_sex = 1";
+        Assert.assertTrue(getPlan(conn, query).contains("join pushdown"));
+        List<String> list = getNodeQueries(conn, query);
+        Assert.assertEquals(list.toString(), SHARD_COUNT, list.size());
+        for (String sql : list) {
+            Assert.assertTrue(sql, sql.contains("FROM t_student_001 S, t_student_course_001 C"));
+        }
+        // 51 + 53 + ... + 65
+        Assert.assertEquals("464.00", queryString(conn, "SELECT SUM(c.t_score) FROM t_student s, "
+                + "t_student_course c WHERE s.f_student_id = c.f_student_id AND s.f_sex = 1"));
+        Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery(query + " AND s.f_student_id = 5");
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals("name5", rs.getString(1));
+        Assert.assertEquals(55, rs.getInt(2));
+        Assert.assertFalse(rs.next());
+        conn.close();
+    }
+
+    @Test
+    public void testRoutedJoin() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        // the condition on the rule column routes both tables to one data node
+        List<String> list = getNodeQueries(conn, "SELECT s.f_name, c.t_score FROM t_student s "
+                + "JOIN t_student_course c ON s.f_student_id = c.f_student_id WHERE s.f_student_id = 5");
+        Assert.assertEquals(list.toString(), 1, list.size());
+        Assert.assertTrue(list.get(0), list.get(0).contains("t_student_course_"));
+        conn.close();
+    }
+
+    @Test
+    public void testNotColocated() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        // f_school_id is not the rule column of t_student
+        String query = "SELECT s.f_name, c.t_score FROM t_student s, t_student_course c "
+                + "WHERE s.f_school_id = c.f_student_id";
+        Assert.assertFalse(getPlan(conn, query).contains("join pushdown"));
+        // 6 students of school 1, 5 of school 2
+        Assert.assertEquals(11, count(conn, query));
+
+        // an outer join is not pushed down
+        query = "SELECT s.f_name, c.t_score FROM t_student s LEFT JOIN t_student_course c "
+                + "ON s.f_student_id = c.f_student_id AND c.t_score > 60";
+        Assert.assertFalse(getPlan(conn, query).contains("join pushdown"));
+        Assert.assertEquals(16, count(conn, query));
+        Assert.assertEquals("6", queryString(conn, query.replace("s.f_name, c.t_score", "COUNT(c.t_score)")));
+
+        // t_school is not sharded
+        Statement stat = conn.createStatement();
+        stat.executeUpdate("INSERT INTO t_school(f_id, f_name) VALUES(1, 'school1')");
+        query = "SELECT s.f_name FROM t_student s, t_school c WHERE s.f_school_id = c.f_id";
+        Assert.assertFalse(getPlan(conn, query).contains("join pushdown"));
+        Assert.assertEquals(6, count(conn, query));
+        conn.close();
+    }
+
+    private static String getPlan(Connection conn, String query) throws SQLException {
+        return queryString(conn, "EXPLAIN " + query);
+    }
+
+    private static int count(Connection conn, String query) throws SQLException {
+        Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery(query);
+        int count = 0;
+        while (rs.next()) {
+            count++;
+        }
+        stat.close();
+        return count;
+    }
+
+    /**
+     * Run a query and get the queries on the sharded tables which the data
+     * nodes ran.
+     */
+    private static List<String> getNodeQueries(Connection conn, String query) throws SQLException {
+        for (int i = 1; i <= SHARD_COUNT; i++) {
+            getNodeStatements(i);
+        }
+        count(conn, query);
+        List<String> list = New.arrayList();
+        for (int i = 1; i <= SHARD_COUNT; i++) {
+            for (String sql : getNodeStatements(i)) {
+                if (sql.contains(" FROM t_student_")) {
+                    list.add(sql);
+                }
+            }
+        }
+        return list;
+    }
+
+}
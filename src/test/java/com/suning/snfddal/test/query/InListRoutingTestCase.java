@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.test.BaseH2SampleCase;
+import com.suning.snfddal.util.New;
+
+/**
+ * Each physical table only gets the values of an IN(..) condition on the
+ * rule column which route to it. The rule of t_student puts the student id
+ * on the data node (id % 16) / 4 + 1 and into the table id % 4 + 1, so that
+ * the students 1 and 17 are in shard1.t_student_002, 2 in
+ * shard1.t_student_003, and 5 in shard2.t_student_002.
+ * <p>
+ * The tests add rows to tables where they don't belong; such a row is only
+ * found if the table gets values which don't route to it.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class InListRoutingTestCase extends BaseH2SampleCase {
+
+    @Test
+    public void testInList() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        insertMisplaced(1, "t_student_002", 5);
+        String query = "SELECT f_student_id, f_name FROM t_student WHERE f_student_id IN (1, 2, 5, 6, 17) "
+                + "ORDER BY f_student_id";
+        Assert.assertEquals("[1 name1, 2 name2, 5 name5, 6 name6]", query(conn, query).toString());
+        getNodeQueries();
+        query(conn, query);
+        List<List<String>> list = getNodeQueries();
+        Assert.assertEquals(list.toString(), 1, list.get(0).size());
+        String sql = list.get(0).get(0);
+        Assert.assertTrue(sql, sql.contains("FROM t_student_002 T_STUDENT WHERE F_STUDENT_ID IN(?, ?)"));
+        Assert.assertTrue(sql, sql.contains("FROM t_student_003 T_STUDENT WHERE F_STUDENT_ID IN(?)"));
+        Assert.assertEquals(list.toString(), 1, list.get(1).size());
+        Assert.assertTrue(list.get(2).isEmpty());
+        Assert.assertTrue(list.get(3).isEmpty());
+        conn.close();
+    }
+
+    @Test
+    public void testParameters() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        insertMisplaced(1, "t_student_002", 5);
+        PreparedStatement prep = conn.prepareStatement("SELECT f_student_id, f_name FROM t_student "
+                + "WHERE f_student_id IN (?, ?) AND f_sex = ? ORDER BY f_student_id");
+        prep.setInt(1, 1);
+        prep.setInt(2, 5);
+        prep.setInt(3, 1);
+        Assert.assertEquals("[1 name1, 5 name5]", read(prep.executeQuery()).toString());
+        // the same statement with other values
+        prep.setInt(1, 5);
+        prep.setInt(2, 2);
+        Assert.assertEquals("[5 name5]", read(prep.executeQuery()).toString());
+        conn.close();
+    }
+
+    @Test
+    public void testInSelect() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        // the student 13 is in shard4.t_student_002
+        insertMisplaced(1, "t_student_002", 13);
+        // the scores of the students 11 to 16 are above 60
+        String query = "SELECT f_student_id, f_name FROM t_student WHERE f_student_id IN "
+                + "(SELECT f_student_id FROM t_student_course WHERE t_score > 60) AND f_sex = 1 "
+                + "ORDER BY f_student_id";
+        Assert.assertEquals("[11 name11, 13 name13, 15 name15]", query(conn, query).toString());
+        getNodeQueries();
+        query(conn, query);
+        List<List<String>> list = getNodeQueries();
+        // the subquery runs locally, the data nodes get its values
+        for (List<String> shard : list) {
+            for (String sql : shard) {
+                Assert.assertFalse(sql, sql.toUpperCase().contains("T_STUDENT_COURSE"));
+                Assert.assertTrue(sql, sql.contains("F_STUDENT_ID IN(?"));
+            }
+        }
+        // 16 is on shard1.t_student_001, 11 on shard3 and 12 to 15 on shard4
+        Assert.assertEquals(list.toString(), 1, list.get(0).size());
+        String sql = list.get(0).get(0);
+        Assert.assertTrue(sql, sql.contains("FROM t_student_001 T_STUDENT WHERE"));
+        Assert.assertTrue(sql, sql.contains("F_STUDENT_ID IN(?) "));
+        Assert.assertFalse(sql, sql.contains("t_student_002"));
+        Assert.assertTrue(list.get(1).isEmpty());
+        Assert.assertEquals(list.toString(), 1, list.get(2).size());
+        Assert.assertEquals(list.toString(), 1, list.get(3).size());
+
+        // the subquery has no rows
+        Assert.assertEquals("[]", query(conn, query.replace("> 60", "> 1000")).toString());
+        Assert.assertEquals("0", queryString(conn, "SELECT COUNT(*) FROM t_student WHERE f_student_id IN "
+                + "(SELECT f_student_id FROM t_student_course WHERE t_score > 1000)"));
+        Assert.assertEquals("3", queryString(conn, "SELECT COUNT(*) FROM t_student WHERE f_student_id IN "
+                + "(SELECT f_student_id FROM t_student_course WHERE t_score > 60) AND f_sex = 1"));
+        conn.close();
+    }
+
+    @Test
+    public void testInSelectOtherColumn() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        Statement stat = conn.createStatement();
+        stat.executeUpdate("INSERT INTO t_school(f_id, f_name) VALUES(1, 'school1')");
+        stat.executeUpdate("INSERT INTO t_school(f_id, f_name) VALUES(2, 'school2')");
+        // f_school_id is not the rule column, all tables get all values
+        Assert.assertEquals("[1 name1, 4 name4, 7 name7, 10 name10, 13 name13, 16 name16]", query(conn,
+                "SELECT f_student_id, f_name FROM t_student WHERE f_school_id IN "
+                + "(SELECT f_id FROM t_school WHERE f_name = 'school1') ORDER BY f_student_id").toString());
+        // t_school is not sharded
+        Assert.assertEquals("school2", queryString(conn, "SELECT f_name FROM t_school WHERE f_id IN "
+                + "(SELECT f_school_id FROM t_student WHERE f_student_id = 5)"));
+        conn.close();
+    }
+
+    private static void insertMisplaced(int shard, String table, int id) throws SQLException {
+        Connection conn = getNodeConnection(shard);
+        try {
+            Statement stat = conn.createStatement();
+            stat.executeUpdate("INSERT INTO " + table + "(f_student_id, f_name, f_sex) "
+                    + "VALUES(" + id + ", 'misplaced', " + id % 2 + ")");
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static List<String> query(Connection conn, String sql) throws SQLException {
+        Statement stat = conn.createStatement();
+        try {
+            return read(stat.executeQuery(sql));
+        } finally {
+            stat.close();
+        }
+    }
+
+    private static List<String> read(ResultSet rs) throws SQLException {
+        List<String> list = New.arrayList();
+        while (rs.next()) {
+            list.add(rs.getInt(1) + " " + rs.getString(2));
+        }
+        rs.close();
+        return list;
+    }
+
+    /**
+     * Get the queries on the table t_student which each data node ran since
+     * the last call.
+     */
+    private static List<List<String>> getNodeQueries() throws SQLException {
+        List<List<String>> list = New.arrayList();
+        for (int i = 1; i <= SHARD_COUNT; i++) {
+            List<String> shard = New.arrayList();
+            for (String sql : getNodeStatements(i)) {
+                if (sql.contains(" FROM t_student_00")) {
+                    shard.add(sql);
+                }
+            }
+            list.add(shard);
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.test.BaseH2SampleCase;
+import com.suning.snfddal.util.New;
+
+/**
+ * The rows of a sharded inner table of a join are read for a batch of rows of
+ * the outer table, with one IN(..) query per data node. The outer table is
+ * t_school, which is only stored on shard1, so the join is not done by the
+ * data nodes. The student id i is on the data node (i % 16) / 4 + 1.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class JoinBatchTestCase extends BaseH2SampleCase {
+
+    @Test
+    public void testOuterJoin() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        insertSchools(conn, new int[] { 1, 2, 5, 6, 12, 20, 100 });
+        String query = "SELECT sch.f_id, s.f_name FROM t_school sch "
+                + "LEFT JOIN t_student s ON s.f_student_id = sch.f_id ORDER BY sch.f_id";
+        getNodeQueries();
+        Assert.assertEquals("[1 name1, 2 name2, 5 name5, 6 name6, 12 name12, 20 null, 100 null]",
+                query(conn, query).toString());
+        List<List<String>> list = getNodeQueries();
+        // 1 and 2 are on shard1, 5, 6, 20 and 100 on shard2, and 12 on shard4
+        Assert.assertEquals(list.toString(), 1, list.get(0).size());
+        Assert.assertEquals(list.toString(), 1, list.get(1).size());
+        Assert.assertTrue(list.toString(), list.get(2).isEmpty());
+        Assert.assertEquals(list.toString(), 1, list.get(3).size());
+        for (List<String> shard : list) {
+            for (String sql : shard) {
+                Assert.assertTrue(sql, sql.contains("WHERE F_STUDENT_ID IN(?"));
+            }
+        }
+        // the keys are routed: shard1.t_student_002 gets 1, t_student_003 gets 2
+        String sql = list.get(0).get(0);
+        Assert.assertTrue(sql, sql.contains("t_student_002 S WHERE F_STUDENT_ID IN(?)"));
+        Assert.assertTrue(sql, sql.contains("t_student_003 S WHERE F_STUDENT_ID IN(?)"));
+        conn.close();
+    }
+
+    @Test
+    public void testInnerJoin() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        insertSchools(conn, new int[] { 3, 4, 7, 16, 30 });
+        Assert.assertEquals("[3 c3, 4 c4, 7 c2, 16 c1]", query(conn, "SELECT sch.f_id, c.t_course_name "
+                + "FROM t_school sch JOIN t_student_course c ON c.f_student_id = sch.f_id "
+                + "ORDER BY sch.f_id").toString());
+        // the other conditions of the inner table are sent with the keys
+        getNodeQueries();
+        Assert.assertEquals("[4 c4, 7 c2, 16 c1]", query(conn, "SELECT sch.f_id, c.t_course_name "
+                + "FROM t_school sch JOIN t_student_course c ON c.f_student_id = sch.f_id "
+                + "AND c.t_score > 53 ORDER BY sch.f_id").toString());
+        for (List<String> shard : getNodeQueries()) {
+            for (String sql : shard) {
+                Assert.assertTrue(sql, sql.contains("T_SCORE > ?"));
+            }
+        }
+        conn.close();
+    }
+
+    @Test
+    public void testManyOuterRows() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        int[] ids = new int[250];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+        }
+        insertSchools(conn, ids);
+        getNodeQueries();
+        List<String> rows = query(conn, "SELECT sch.f_id, s.f_name FROM t_school sch "
+                + "LEFT JOIN t_student s ON s.f_student_id = sch.f_id ORDER BY sch.f_id");
+        Assert.assertEquals(250, rows.size());
+        Assert.assertEquals("16 name16", rows.get(15));
+        Assert.assertEquals("17 null", rows.get(16));
+        // batches of 100 outer rows, each with one query per data node
+        for (List<String> shard : getNodeQueries()) {
+            Assert.assertEquals(shard.toString(), 3, shard.size());
+        }
+        conn.close();
+    }
+
+    private static void insertSchools(Connection conn, int[] ids) throws SQLException {
+        PreparedStatement prep = conn.prepareStatement("INSERT INTO t_school(f_id, f_name) VALUES(?, ?)");
+        for (int id : ids) {
+            prep.setInt(1, id);
+            prep.setString(2, "school" + id);
+            prep.executeUpdate();
+        }
+        prep.close();
+    }
+
+    private static List<String> query(Connection conn, String sql) throws SQLException {
+        List<String> list = New.arrayList();
+        Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery(sql);
+        while (rs.next()) {
+            list.add(rs.getInt(1) + " " + rs.getString(2));
+        }
+        stat.close();
+        return list;
+    }
+
+    /**
+     * Get the queries on the sharded tables which each data node ran since
+     * the last call. A query which ran more than once is in the list once
+     * per execution.
+     */
+    private static List<List<String>> getNodeQueries() throws SQLException {
+        List<List<String>> list = New.arrayList();
+        for (int i = 1; i <= SHARD_COUNT; i++) {
+            List<String> shard = New.arrayList();
+            Connection conn = getNodeConnection(i);
+            try {
+                Statement stat = conn.createStatement();
+                ResultSet rs = stat.executeQuery("SELECT SQL_STATEMENT, EXECUTION_COUNT "
+                        + "FROM INFORMATION_SCHEMA.QUERY_STATISTICS");
+                while (rs.next()) {
+                    String sql = rs.getString(1);
+                    for (int j = 0; j < rs.getInt(2) && sql.contains(" FROM t_student_"); j++) {
+                        shard.add(sql);
+                    }
+                }
+                stat.execute("SET QUERY_STATISTICS FALSE");
+                stat.execute("SET QUERY_STATISTICS TRUE");
+            } finally {
+                conn.close();
+            }
+            list.add(shard);
+        }
+        return list;
+    }
+
+}
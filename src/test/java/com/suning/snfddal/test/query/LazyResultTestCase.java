@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.test.BaseH2SampleCase;
+
+/**
+ * Forward-only queries whose rows are computed while the client reads them
+ * (see <code>LAZY_QUERY_EXECUTION</code>).
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class LazyResultTestCase extends BaseH2SampleCase {
+
+    private static final String DIVIDE = "SELECT 1 / (f_student_id - 16) FROM t_student ORDER BY f_student_id";
+
+    @Test
+    public void testRowsAreComputedWhileRead() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        // the last row fails, which is only noticed once it is read
+        Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery(DIVIDE);
+        for (int i = 1; i < 16; i++) {
+            Assert.assertTrue(rs.next());
+        }
+        try {
+            rs.next();
+            Assert.fail();
+        } catch (SQLException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Division by zero"));
+        }
+        stat.close();
+
+        // a scrollable result is computed completely
+        stat = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        try {
+            stat.executeQuery(DIVIDE);
+            Assert.fail();
+        } catch (SQLException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Division by zero"));
+        }
+        rs = stat.executeQuery("SELECT f_student_id FROM t_student ORDER BY f_student_id");
+        Assert.assertTrue(rs.last());
+        Assert.assertEquals(16, rs.getInt(1));
+        rs.beforeFirst();
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(1, rs.getInt(1));
+        conn.close();
+    }
+
+    @Test
+    public void testLimitOffset() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery("SELECT f_student_id FROM t_student ORDER BY f_student_id "
+                + "LIMIT 5 OFFSET 3");
+        for (int i = 4; i <= 8; i++) {
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals(i, rs.getInt(1));
+        }
+        Assert.assertFalse(rs.next());
+        rs = stat.executeQuery("SELECT f_student_id FROM t_student WHERE f_sex = 1 LIMIT 3");
+        int count = 0;
+        while (rs.next()) {
+            Assert.assertEquals(1, rs.getInt(1) % 2);
+            count++;
+        }
+        Assert.assertEquals(3, count);
+        conn.close();
+    }
+
+    @Test
+    public void testOtherStatementsWhileRead() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery("SELECT f_student_id FROM t_student ORDER BY f_student_id");
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(1, rs.getInt(1));
+        // the data nodes still have open cursors for the result
+        Statement other = conn.createStatement();
+        Assert.assertEquals(16, other.executeUpdate("UPDATE t_student SET f_address = 'x'"));
+        Assert.assertEquals("16", queryString(conn, "SELECT COUNT(*) FROM t_student WHERE f_address = 'x'"));
+        for (int i = 2; i <= 16; i++) {
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals(i, rs.getInt(1));
+        }
+        Assert.assertFalse(rs.next());
+        conn.close();
+    }
+
+    @Test
+    public void testPreparedStatementIsExecutedAgain() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        String sql = "SELECT f_student_id, f_sex FROM t_student WHERE f_sex = ? ORDER BY f_student_id";
+        PreparedStatement prep = conn.prepareStatement(sql);
+        prep.setInt(1, 1);
+        ResultSet first = prep.executeQuery();
+        Assert.assertTrue(first.next());
+        Assert.assertEquals(1, first.getInt(1));
+        // the first result set is closed by the next execution
+        prep.setInt(1, 0);
+        ResultSet second = prep.executeQuery();
+        Assert.assertTrue(first.isClosed());
+        int count = 0;
+        while (second.next()) {
+            Assert.assertEquals(0, second.getInt(2));
+            count++;
+        }
+        Assert.assertEquals(8, count);
+
+        // the command of an open result is not shared with another statement
+        prep.setInt(1, 1);
+        ResultSet rs = prep.executeQuery();
+        Assert.assertTrue(rs.next());
+        PreparedStatement prep2 = conn.prepareStatement(sql);
+        prep2.setInt(1, 0);
+        second = prep2.executeQuery();
+        Assert.assertTrue(second.next());
+        Assert.assertEquals(0, second.getInt(2));
+        count = 1;
+        while (rs.next()) {
+            Assert.assertEquals(1, rs.getInt(2));
+            count++;
+        }
+        Assert.assertEquals(8, count);
+        conn.close();
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.test.BaseH2SampleCase;
+import com.suning.snfddal.util.New;
+
+/**
+ * The data nodes get the LIMIT of a query, plus its OFFSET, and the OFFSET is
+ * applied once to the merged rows. Each of the 4 data nodes has 8 of the 32
+ * students.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class LimitPushdownTestCase extends BaseH2SampleCase {
+
+    @Test
+    public void testOrderBy() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 32);
+        getNodeQueries();
+        Assert.assertEquals("[6, 7, 8]",
+                query(conn, "SELECT f_student_id FROM t_student ORDER BY f_student_id LIMIT 3 OFFSET 5").toString());
+        assertNodeLimit(8);
+        // more rows than a data node has are skipped
+        Assert.assertEquals("[30, 31, 32]",
+                query(conn, "SELECT f_student_id FROM t_student ORDER BY f_student_id LIMIT 10 OFFSET 29")
+                .toString());
+        assertNodeLimit(39);
+        Assert.assertEquals("[22, 21]", query(conn,
+                "SELECT f_student_id FROM t_student ORDER BY f_student_id DESC LIMIT 2 OFFSET 10").toString());
+        assertNodeLimit(12);
+        conn.close();
+    }
+
+    @Test
+    public void testNoOrder() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 32);
+        getNodeQueries();
+        List<String> rows = query(conn, "SELECT f_student_id FROM t_student LIMIT 3 OFFSET 5");
+        Assert.assertEquals(3, rows.size());
+        Assert.assertEquals(3, new HashSet<String>(rows).size());
+        assertNodeLimit(8);
+        // if each data node skipped 29 rows, there would be none
+        rows = query(conn, "SELECT f_student_id FROM t_student LIMIT 10 OFFSET 29");
+        Assert.assertEquals(3, rows.size());
+        assertNodeLimit(39);
+        // the skipped and the returned rows are all rows
+        rows = query(conn, "SELECT f_student_id FROM t_student LIMIT 100 OFFSET 20");
+        Assert.assertEquals(12, rows.size());
+        Assert.assertEquals(0, query(conn, "SELECT f_student_id FROM t_student LIMIT 10 OFFSET 32").size());
+        conn.close();
+    }
+
+    @Test
+    public void testParameters() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 32);
+        PreparedStatement prep = conn.prepareStatement("SELECT f_student_id FROM t_student "
+                + "WHERE f_sex = ? ORDER BY f_student_id LIMIT ? OFFSET ?");
+        prep.setInt(1, 1);
+        prep.setInt(2, 2);
+        prep.setInt(3, 3);
+        getNodeQueries();
+        Assert.assertEquals("[7, 9]", read(prep.executeQuery()).toString());
+        // the limit of the data nodes is calculated when the statement runs
+        assertNodeLimit(5);
+        prep.setInt(2, 3);
+        prep.setInt(3, 14);
+        Assert.assertEquals("[29, 31]", read(prep.executeQuery()).toString());
+        assertNodeLimit(17);
+        prep.close();
+        conn.close();
+    }
+
+    /**
+     * Check that each data node got the given limit, and no offset.
+     */
+    private static void assertNodeLimit(int limit) throws SQLException {
+        List<String> list = getNodeQueries();
+        Assert.assertEquals(list.toString(), SHARD_COUNT, list.size());
+        for (String sql : list) {
+            Assert.assertTrue(sql, sql.endsWith(" LIMIT " + limit));
+            Assert.assertFalse(sql, sql.contains("OFFSET"));
+        }
+    }
+
+    private static List<String> query(Connection conn, String sql) throws SQLException {
+        Statement stat = conn.createStatement();
+        try {
+            return read(stat.executeQuery(sql));
+        } finally {
+            stat.close();
+        }
+    }
+
+    private static List<String> read(ResultSet rs) throws SQLException {
+        List<String> list = New.arrayList();
+        while (rs.next()) {
+            list.add(rs.getString(1));
+        }
+        rs.close();
+        return list;
+    }
+
+    /**
+     * Get the queries on the table t_student which the data nodes ran since
+     * the last call.
+     */
+    private static List<String> getNodeQueries() throws SQLException {
+        List<String> list = New.arrayList();
+        for (int i = 1; i <= SHARD_COUNT; i++) {
+            for (String sql : getNodeStatements(i)) {
+                if (sql.contains(" FROM t_student_00")) {
+                    list.add(sql);
+                }
+            }
+        }
+        return list;
+    }
+
+}
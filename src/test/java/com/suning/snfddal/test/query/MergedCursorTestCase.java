@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.query;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.test.BaseH2SampleCase;
+import com.suning.snfddal.util.New;
+
+/**
+ * Queries whose rows are merged from several physical tables.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class MergedCursorTestCase extends BaseH2SampleCase {
+
+    /**
+     * The number of rows per physical table, more than
+     * <code>MERGE_PREFETCH_ROWS</code>.
+     */
+    private static final int TABLE_ROWS = 400;
+
+    @Test
+    public void testSlowReadersDontKeepThreads() throws SQLException {
+        insertTableRows();
+        List<Connection> readers = New.arrayList();
+        try {
+            // more readers than threads per data node (SHARD_CONCURRENCY)
+            for (int i = 0; i < 20; i++) {
+                Connection conn = dataSource.getConnection();
+                readers.add(conn);
+                ResultSet rs = conn.createStatement().executeQuery("SELECT f_student_id FROM t_student");
+                Assert.assertTrue(rs.next());
+            }
+            Connection conn = dataSource.getConnection();
+            Assert.assertEquals(String.valueOf(TABLE_ROWS * 16),
+                    queryString(conn, "SELECT COUNT(*) FROM t_student WHERE f_sex >= 0"));
+            conn.close();
+            for (Connection reader : readers) {
+                ResultSet rs = reader.createStatement().executeQuery("SELECT f_student_id FROM t_student");
+                int count = 0;
+                while (rs.next()) {
+                    count++;
+                }
+                Assert.assertEquals(TABLE_ROWS * 16, count);
+            }
+        } finally {
+            for (Connection reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSortedMerge() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 64);
+        Statement stat = conn.createStatement();
+        stat.executeUpdate("UPDATE t_student SET f_sex = NULL WHERE f_student_id = 7");
+        getNodeStatements(1);
+        ResultSet rs = stat.executeQuery("SELECT f_student_id FROM t_student ORDER BY f_sex, f_student_id DESC");
+        // NULL first, then the even and the odd students
+        List<Integer> expected = New.arrayList();
+        expected.add(7);
+        for (int i = 64; i > 0; i--) {
+            if (i % 2 == 0) {
+                expected.add(i);
+            }
+        }
+        for (int i = 64; i > 0; i--) {
+            if (i % 2 == 1 && i != 7) {
+                expected.add(i);
+            }
+        }
+        Assert.assertEquals(expected, readInts(rs));
+        rs = stat.executeQuery("SELECT f_student_id FROM t_student ORDER BY f_student_id LIMIT 5");
+        Assert.assertEquals("[1, 2, 3, 4, 5]", readInts(rs).toString());
+        conn.close();
+        List<String> sqls = getNodeStatements(1);
+        Assert.assertTrue(sqls.toString(), sqls.toString().contains(" ORDER BY F_SEX, F_STUDENT_ID DESC"));
+        Assert.assertTrue(sqls.toString(), sqls.toString().contains(" ORDER BY F_STUDENT_ID"));
+    }
+
+    @Test
+    public void testStringSortIsNotPushedDown() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 64);
+        getNodeStatements(1);
+        ResultSet rs = conn.createStatement().executeQuery("SELECT f_name FROM t_student ORDER BY f_name DESC");
+        List<String> expected = New.arrayList();
+        for (int i = 1; i <= 64; i++) {
+            expected.add("name" + i);
+        }
+        Collections.sort(expected, Collections.reverseOrder());
+        List<String> names = New.arrayList();
+        while (rs.next()) {
+            names.add(rs.getString(1));
+        }
+        Assert.assertEquals(expected, names);
+        conn.close();
+        List<String> sqls = getNodeStatements(1);
+        Assert.assertFalse(sqls.toString(), sqls.toString().contains("ORDER BY"));
+    }
+
+    private static List<Integer> readInts(ResultSet rs) throws SQLException {
+        List<Integer> list = New.arrayList();
+        while (rs.next()) {
+            list.add(rs.getInt(1));
+        }
+        return list;
+    }
+
+    /**
+     * Insert the same rows into each physical table of t_student.
+     */
+    private static void insertTableRows() throws SQLException {
+        for (int shard = 1; shard <= SHARD_COUNT; shard++) {
+            Connection conn = getNodeConnection(shard);
+            try {
+                Statement stat = conn.createStatement();
+                for (int i = 1; i <= 4; i++) {
+                    stat.execute("INSERT INTO t_student_00" + i + "(f_student_id, f_name, f_sex) "
+                            + "SELECT X, 'name' || X, MOD(X, 2) FROM SYSTEM_RANGE(1, " + TABLE_ROWS + ")");
+                }
+            } finally {
+                conn.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.query;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.dbobject.index.ResultCursor;
+import com.suning.snfddal.test.BaseH2SampleCase;
+
+/**
+ * The cursors on the data nodes which a session keeps open while a statement
+ * runs.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class OpenCursorTestCase extends BaseH2SampleCase {
+
+    @Test
+    public void testExhaustedCursorsAreForgotten() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 64);
+        Statement stat = conn.createStatement();
+        for (int i = 0; i < 3; i++) {
+            stat.executeUpdate("INSERT INTO t_school(f_id, f_name) VALUES(" + i + ", 'school" + i + "')");
+        }
+        CursorList cursors = new CursorList();
+        getSession(conn).setOpenCursors(cursors);
+        // the subquery is run for each student; DISTINCT reads all rows while
+        // the statement runs
+        ResultSet rs = stat.executeQuery("SELECT DISTINCT s.f_name, "
+                + "(SELECT c.f_name FROM t_school c WHERE c.f_id = s.f_school_id) FROM t_student s");
+        int count = 0;
+        while (rs.next()) {
+            count++;
+        }
+        Assert.assertEquals(64, count);
+        Assert.assertTrue("added " + cursors.added, cursors.added > 64);
+        Assert.assertTrue("max " + cursors.max, cursors.max <= 32);
+        Assert.assertEquals(0, cursors.size());
+        conn.close();
+    }
+
+    /**
+     * A list of cursors which remembers how many cursors it held at most.
+     */
+    private static class CursorList extends ArrayList<ResultCursor> {
+
+        private static final long serialVersionUID = 1L;
+
+        int added;
+        int max;
+
+        @Override
+        public boolean add(ResultCursor cursor) {
+            added++;
+            super.add(cursor);
+            max = Math.max(max, size());
+            return true;
+        }
+
+    }
+
+}
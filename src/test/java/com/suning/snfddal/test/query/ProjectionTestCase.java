@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.query;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.test.BaseH2SampleCase;
+import com.suning.snfddal.util.New;
+
+/**
+ * Queries which only read the columns they reference from the data nodes.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class ProjectionTestCase extends BaseH2SampleCase {
+
+    @Test
+    public void testSelectList() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        String query = "SELECT f_name FROM t_student WHERE f_sex = 1 ORDER BY f_student_no";
+        // the columns of the condition and of the sort order are read as well
+        String sql = getNodeQuery(query);
+        Assert.assertTrue(sql, sql.contains("SELECT F_STUDENT_NO,F_NAME,F_SEX FROM t_student_00"));
+        Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery(query);
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals("name1", rs.getString(1));
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals("name11", rs.getString(1));
+        conn.close();
+    }
+
+    @Test
+    public void testAllColumns() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 4);
+        String sql = getNodeQuery("SELECT * FROM t_student WHERE f_student_id = 2");
+        Assert.assertTrue(sql, sql.contains("F_ADDRESS"));
+        Assert.assertTrue(sql, sql.contains("F_GMT"));
+        Assert.assertEquals("n2", queryString(conn, "SELECT f_student_no FROM t_student WHERE f_student_id = 2"));
+        conn.close();
+    }
+
+    @Test
+    public void testSubquery() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        Statement stat = conn.createStatement();
+        stat.executeUpdate("INSERT INTO t_school(f_id, f_name) VALUES(1, 'school1')");
+        // the subquery references a column of the outer query
+        String query = "SELECT s.f_name, (SELECT c.f_name FROM t_school c WHERE c.f_id = s.f_school_id) "
+                + "FROM t_student s WHERE s.f_student_id = 4";
+        String sql = getNodeQuery(query);
+        Assert.assertTrue(sql, sql.contains("SELECT F_STUDENT_ID,F_NAME,F_SCHOOL_ID FROM t_student_00"));
+        ResultSet rs = stat.executeQuery(query);
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals("name4", rs.getString(1));
+        Assert.assertEquals("school1", rs.getString(2));
+        Assert.assertFalse(rs.next());
+        conn.close();
+    }
+
+    /**
+     * Run a query and get the query which the data nodes ran for the table
+     * t_student.
+     */
+    private String getNodeQuery(String query) throws SQLException {
+        for (int i = 1; i <= SHARD_COUNT; i++) {
+            getNodeStatements(i);
+        }
+        Connection conn = dataSource.getConnection();
+        try {
+            Statement stat = conn.createStatement();
+            ResultSet rs = stat.executeQuery(query);
+            while (rs.next()) {
+                // read all rows
+            }
+        } finally {
+            conn.close();
+        }
+        List<String> list = New.arrayList();
+        for (int i = 1; i <= SHARD_COUNT; i++) {
+            list.addAll(getNodeStatements(i));
+        }
+        for (String sql : list) {
+            if (sql.contains(" FROM t_student_00")) {
+                return sql;
+            }
+        }
+        throw new AssertionError(list.toString());
+    }
+
+}
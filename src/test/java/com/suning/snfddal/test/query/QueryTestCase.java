@@ -100,6 +100,15 @@ public class QueryTestCase extends BaseSampleCase{
         this.query_Sql(sql, null);
     }
 
+    @Test
+    public void testQuery_Aggregate_GroupByHaving(){
+        String sql = "SELECT f_student_id, min(t_score), avg(t_score) FROM t_student_course where f_student_id > ? group by f_student_id having count(*) > ?";
+        List<Object> args = New.arrayList();
+        args.add(3);
+        args.add(1);
+        this.query_Sql(sql, args);
+    }
+
 
     @Test
     public void testQuery_SimpleOR(){
@@ -145,7 +154,16 @@ public class QueryTestCase extends BaseSampleCase{
         args.add(100);
         this.query_Sql(sql, args);
     }
-    
+
+    @Test
+    public void testQuery_SimpleLeftJoin(){
+        String sql = "SELECT a.f_student_id, b.t_score FROM t_student a left join t_student_course b on a.f_student_id = b.f_student_id and b.t_score > ? where a.f_student_id < ?";
+        List<Object> args = New.arrayList();
+        args.add(60);
+        args.add(100);
+        this.query_Sql(sql, args);
+    }
+
     @Test
     public void testQuery_SubQueryIn(){
         String sql = "SELECT * FROM t_student where f_student_id in (select f_student_id from t_student_course where t_score > 80)";
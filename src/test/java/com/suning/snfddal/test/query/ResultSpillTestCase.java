@@ -0,0 +1,245 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.query;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.command.expression.Expression;
+import com.suning.snfddal.command.expression.ValueExpression;
+import com.suning.snfddal.engine.Constants;
+import com.suning.snfddal.engine.Database;
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.result.LocalResult;
+import com.suning.snfddal.result.Row;
+import com.suning.snfddal.result.RowList;
+import com.suning.snfddal.result.SortOrder;
+import com.suning.snfddal.test.BaseH2SampleCase;
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueInt;
+import com.suning.snfddal.value.ValueNull;
+import com.suning.snfddal.value.ValueString;
+
+/**
+ * Results and row lists which are larger than the memory limit, so that
+ * their rows are written to temporary files.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class ResultSpillTestCase extends BaseH2SampleCase {
+
+    private static final int ROWS = 2000;
+
+    @Test
+    public void testLocalResult() throws SQLException {
+        List<Value[]> data = createRows();
+        List<String> expected = read(addRows(createResult(Integer.MAX_VALUE, false), data));
+        int files = countTempFiles();
+        LocalResult result = addRows(createResult(7, false), data);
+        List<String> actual = read(result);
+        Assert.assertEquals(ROWS, actual.size());
+        Assert.assertEquals(expected, actual);
+        // a result can be read again
+        result.reset();
+        Assert.assertEquals(expected, read(result));
+        result.close();
+        Assert.assertEquals(files, countTempFiles());
+    }
+
+    @Test
+    public void testDistinct() throws SQLException {
+        List<Value[]> data = createRows();
+        LocalResult result = createResult(Integer.MAX_VALUE, false);
+        result.setDistinct();
+        List<String> expected = read(addRows(result, data));
+        int files = countTempFiles();
+        result = createResult(7, false);
+        result.setDistinct();
+        addRows(result, data);
+        List<String> actual = read(result);
+        Assert.assertEquals(actual.size(), result.getRowCount());
+        Collections.sort(expected);
+        Collections.sort(actual);
+        Assert.assertEquals(expected, actual);
+        Value[] first = data.get(0);
+        Assert.assertTrue(result.containsDistinct(first));
+        result.removeDistinct(first);
+        Assert.assertFalse(result.containsDistinct(first));
+        Assert.assertEquals(expected.size() - 1, result.getRowCount());
+        result.close();
+        Assert.assertEquals(files, countTempFiles());
+    }
+
+    @Test
+    public void testSorted() throws SQLException {
+        List<Value[]> data = createRows();
+        LocalResult result = createResult(Integer.MAX_VALUE, true);
+        List<String> expected = read(addRows(result, data));
+        int files = countTempFiles();
+        result = createResult(7, true);
+        Assert.assertEquals(expected, read(addRows(result, data)));
+        result.close();
+        Assert.assertEquals(files, countTempFiles());
+
+        result = createResult(7, true);
+        result.setOffset(5);
+        result.setLimit(100);
+        Assert.assertEquals(expected.subList(5, 105), read(addRows(result, data)));
+        result.close();
+        Assert.assertEquals(files, countTempFiles());
+    }
+
+    @Test
+    public void testQuery() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 100);
+        Database database = getDatabase(conn);
+        int maxMemoryRows = database.getMaxMemoryRows();
+        database.setMaxMemoryRows(5);
+        int files = countTempFiles();
+        try {
+            Statement stat = conn.createStatement();
+            ResultSet rs = stat.executeQuery("SELECT f_name, f_student_id FROM t_student "
+                    + "ORDER BY f_name, f_student_id");
+            String last = "";
+            int count = 0;
+            while (rs.next()) {
+                String name = rs.getString(1);
+                Assert.assertTrue(name.compareTo(last) > 0);
+                last = name;
+                count++;
+            }
+            Assert.assertEquals(100, count);
+            rs = stat.executeQuery("SELECT DISTINCT f_school_id, f_sex FROM t_student");
+            count = 0;
+            while (rs.next()) {
+                count++;
+            }
+            Assert.assertEquals(6, count);
+            stat.close();
+            Assert.assertEquals(files, countTempFiles());
+        } finally {
+            database.setMaxMemoryRows(maxMemoryRows);
+        }
+        conn.close();
+    }
+
+    @Test
+    public void testRowList() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        Session session = getSession(conn);
+        Database database = session.getDatabase();
+        int maxOperationMemory = database.getMaxOperationMemory();
+        database.setMaxOperationMemory(500);
+        int files = countTempFiles();
+        RowList list;
+        try {
+            list = new RowList(session);
+        } finally {
+            database.setMaxOperationMemory(maxOperationMemory);
+        }
+        for (int i = 0; i < ROWS; i++) {
+            Value name = i % 3 == 0 ? ValueNull.INSTANCE : ValueString.get("r" + i);
+            Row row = new Row(new Value[] { ValueInt.get(i), name }, Row.MEMORY_CALCULATE);
+            row.setKey(i * 7L);
+            list.add(row);
+        }
+        Assert.assertEquals(files + 1, countTempFiles());
+        for (int pass = 0; pass < 2; pass++) {
+            int i = 0;
+            for (list.reset(); list.hasNext(); i++) {
+                Row row = list.next();
+                Assert.assertEquals(i * 7L, row.getKey());
+                Assert.assertEquals(i, row.getValue(0).getInt());
+                Assert.assertEquals(i % 3 == 0 ? null : "r" + i, row.getValue(1).getString());
+            }
+            Assert.assertEquals(ROWS, i);
+        }
+        list.close();
+        Assert.assertEquals(files, countTempFiles());
+        conn.close();
+    }
+
+    private LocalResult createResult(int maxMemoryRows, boolean sort) throws SQLException {
+        Connection conn = dataSource.getConnection();
+        Session session = getSession(conn);
+        Expression[] expressions = { ValueExpression.get(ValueInt.get(0)),
+                ValueExpression.get(ValueString.get("")) };
+        LocalResult result = new LocalResult(session, expressions, 2);
+        result.setMaxMemoryRows(maxMemoryRows);
+        if (sort) {
+            // the string descending, then the number
+            result.setSortOrder(new SortOrder(session.getDatabase(), new int[] { 1, 0 },
+                    new int[] { SortOrder.DESCENDING, SortOrder.ASCENDING }, null));
+        }
+        conn.close();
+        return result;
+    }
+
+    private static LocalResult addRows(LocalResult result, List<Value[]> data) {
+        for (Value[] row : data) {
+            result.addRow(row);
+        }
+        result.done();
+        return result;
+    }
+
+    private static List<Value[]> createRows() {
+        Random random = new Random(1);
+        List<Value[]> list = New.arrayList();
+        for (int i = 0; i < ROWS; i++) {
+            int x = random.nextInt(300);
+            list.add(new Value[] { ValueInt.get(x), ValueString.get("sé中" + x % 17) });
+        }
+        return list;
+    }
+
+    private static List<String> read(LocalResult result) {
+        List<String> list = New.arrayList();
+        while (result.next()) {
+            Value[] row = result.currentRow();
+            list.add(row[0].getInt() + ":" + row[1].getString());
+        }
+        return list;
+    }
+
+    private static int countTempFiles() {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        String[] files = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith("snfddal") && name.endsWith(Constants.SUFFIX_TEMP_FILE);
+            }
+        });
+        return files == null ? 0 : files.length;
+    }
+
+}
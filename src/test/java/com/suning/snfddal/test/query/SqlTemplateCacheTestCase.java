@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.test.BaseH2SampleCase;
+import com.suning.snfddal.util.New;
+
+/**
+ * Prepared queries which reuse the queries they sent to the data nodes (see
+ * <code>SqlTemplateCache</code>), so that only the parameters are read again.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class SqlTemplateCacheTestCase extends BaseH2SampleCase {
+
+    @Test
+    public void testParametersChange() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        PreparedStatement prep = conn.prepareStatement("SELECT f_student_id FROM t_student "
+                + "WHERE f_school_id = ? AND f_name <> 'name1'");
+        for (int i = 1; i <= SHARD_COUNT; i++) {
+            getNodeStatements(i);
+        }
+        prep.setInt(1, 0);
+        Assert.assertEquals(5, count(prep.executeQuery()));
+        prep.setInt(1, 1);
+        Assert.assertEquals(5, count(prep.executeQuery()));
+        prep.setInt(1, 2);
+        Assert.assertEquals(5, count(prep.executeQuery()));
+        prep.setInt(1, 3);
+        Assert.assertEquals(0, count(prep.executeQuery()));
+        // each data node ran the same query with different parameters
+        for (int i = 1; i <= SHARD_COUNT; i++) {
+            List<String> queries = New.arrayList();
+            for (String sql : getNodeStatements(i)) {
+                if (sql.contains(" FROM t_student_00")) {
+                    queries.add(sql);
+                }
+            }
+            Assert.assertEquals(queries.toString(), 1, queries.size());
+            Assert.assertTrue(queries.get(0), queries.get(0).contains("F_SCHOOL_ID = ?"));
+        }
+        prep.close();
+        conn.close();
+    }
+
+    @Test
+    public void testLimitChanges() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        PreparedStatement prep = conn.prepareStatement("SELECT f_student_id FROM t_student "
+                + "WHERE f_sex = ? LIMIT ?");
+        prep.setInt(1, 1);
+        prep.setInt(2, 3);
+        Assert.assertEquals(3, count(prep.executeQuery()));
+        prep.setInt(1, 0);
+        prep.setInt(2, 5);
+        Assert.assertEquals(5, count(prep.executeQuery()));
+        prep.setInt(2, 100);
+        Assert.assertEquals(8, count(prep.executeQuery()));
+        prep.close();
+        conn.close();
+    }
+
+    @Test
+    public void testJoinReadsOuterRows() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        // the condition of the inner table reads the row of the outer table
+        PreparedStatement prep = conn.prepareStatement("SELECT SUM(c.t_score) FROM t_student s, "
+                + "t_student_course c WHERE c.f_student_id = s.f_student_id + ? AND s.f_sex = 1");
+        prep.setInt(1, 0);
+        // 51 + 53 + ... + 65
+        Assert.assertEquals(464, queryInt(prep));
+        prep.setInt(1, 1);
+        // 52 + 54 + ... + 66
+        Assert.assertEquals(472, queryInt(prep));
+        prep.close();
+        conn.close();
+    }
+
+    private static int queryInt(PreparedStatement prep) throws SQLException {
+        ResultSet rs = prep.executeQuery();
+        Assert.assertTrue(rs.next());
+        int value = rs.getInt(1);
+        rs.close();
+        return value;
+    }
+
+    private static int count(ResultSet rs) throws SQLException {
+        int count = 0;
+        while (rs.next()) {
+            count++;
+        }
+        rs.close();
+        return count;
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.route;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.suning.snfddal.engine.DbSettings;
+import com.suning.snfddal.route.HedgePolicy;
+import com.suning.snfddal.route.MultiNodeExecutor;
+import com.suning.snfddal.util.New;
+
+/**
+ * When the hedge of a slow query on a data node is sent: only once there are
+ * enough recent queries, after the usual duration, within the budget, and
+ * only if a thread is free.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class HedgePolicyTestCase {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final MultiNodeExecutor executor;
+    private HedgePolicy policy;
+
+    public HedgePolicyTestCase() {
+        HashMap<String, String> settings = New.hashMap();
+        settings.put("SHARD_MAX_THREADS", "1");
+        executor = new MultiNodeExecutor(DbSettings.getInstance(settings));
+    }
+
+    @After
+    public void destroy() {
+        if (policy != null) {
+            policy.shutdown();
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRecentQueriesNeeded() throws InterruptedException {
+        policy = newPolicy(100);
+        AtomicInteger sent = new AtomicInteger();
+        Assert.assertNull(policy.schedule("shard1", count(sent), executor));
+        for (int i = 0; i < 19; i++) {
+            policy.record("shard1", MILLIS, false);
+        }
+        Assert.assertNull(policy.schedule("shard1", count(sent), executor));
+        policy.record("shard1", MILLIS, false);
+        // the durations of the other data nodes don't count
+        Assert.assertNull(policy.schedule("shard2", count(sent), executor));
+        Assert.assertNotNull(policy.schedule("shard1", count(sent), executor));
+        awaitCount(sent, 1);
+        Assert.assertEquals(4, policy.getQueryCount());
+        Assert.assertEquals(1, policy.getHedgeCount());
+        Assert.assertEquals(0, policy.getSkippedCount());
+    }
+
+    @Test
+    public void testQueryFinishedFirst() throws InterruptedException {
+        policy = newPolicy(100);
+        record(policy, "shard1", 200 * MILLIS);
+        AtomicInteger sent = new AtomicInteger();
+        ScheduledFuture<?> timer = policy.schedule("shard1", count(sent), executor);
+        // the query finished before the usual duration
+        timer.cancel(false);
+        Thread.sleep(300);
+        Assert.assertEquals(0, sent.get());
+        Assert.assertEquals(0, policy.getHedgeCount());
+    }
+
+    @Test
+    public void testBudget() throws InterruptedException {
+        policy = newPolicy(5);
+        record(policy, "shard1", MILLIS);
+        AtomicInteger sent = new AtomicInteger();
+        // each query adds 5 percent of a hedge
+        for (int i = 0; i < 19; i++) {
+            policy.schedule("shard1", count(sent), executor);
+        }
+        awaitSkipped(policy, 19);
+        Assert.assertEquals(0, sent.get());
+        policy.schedule("shard1", count(sent), executor);
+        awaitCount(sent, 1);
+        Assert.assertEquals(1, policy.getHedgeCount());
+        Assert.assertEquals(19, policy.getSkippedCount());
+        policy.record("shard1", MILLIS, true);
+        Assert.assertEquals(1, policy.getWinCount());
+    }
+
+    @Test
+    public void testNoFreeThread() throws InterruptedException {
+        policy = newPolicy(100);
+        record(policy, "shard1", MILLIS);
+        final CountDownLatch release = new CountDownLatch(1);
+        Assert.assertTrue(executor.tryExecute("shard2", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        }));
+        AtomicInteger sent = new AtomicInteger();
+        policy.schedule("shard1", count(sent), executor);
+        awaitSkipped(policy, 1);
+        release.countDown();
+        // the hedge doesn't wait for the thread
+        Thread.sleep(50);
+        Assert.assertEquals(0, sent.get());
+        policy.schedule("shard1", count(sent), executor);
+        awaitCount(sent, 1);
+        Assert.assertEquals(1, policy.getHedgeCount());
+    }
+
+    @Test
+    public void testShutdown() {
+        policy = newPolicy(100);
+        record(policy, "shard1", MILLIS);
+        policy.shutdown();
+        Assert.assertNull(policy.schedule("shard1", count(new AtomicInteger()), executor));
+    }
+
+    private static HedgePolicy newPolicy(int budget) {
+        HashMap<String, String> settings = New.hashMap();
+        settings.put("SHARD_HEDGE_BUDGET", String.valueOf(budget));
+        return new HedgePolicy(DbSettings.getInstance(settings));
+    }
+
+    /**
+     * Record enough queries with the given duration to send hedges.
+     */
+    private static void record(HedgePolicy policy, String shardName, long nanos) {
+        for (int i = 0; i < 20; i++) {
+            policy.record(shardName, nanos, false);
+        }
+    }
+
+    private static Runnable count(final AtomicInteger sent) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                sent.incrementAndGet();
+            }
+        };
+    }
+
+    private static void awaitCount(AtomicInteger count, int expected) throws InterruptedException {
+        for (int i = 0; i < 500 && count.get() < expected; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, count.get());
+    }
+
+    private static void awaitSkipped(HedgePolicy policy, long expected) throws InterruptedException {
+        for (int i = 0; i < 500 && policy.getSkippedCount() < expected; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, policy.getSkippedCount());
+    }
+
+}
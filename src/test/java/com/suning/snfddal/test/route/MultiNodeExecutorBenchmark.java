@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月10日
+// $Id$
+
+package com.suning.snfddal.test.route;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.suning.snfddal.engine.Database;
+import com.suning.snfddal.engine.DbSettings;
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.route.MultiNodeExecutor;
+import com.suning.snfddal.route.NodeCallable;
+import com.suning.snfddal.util.New;
+
+/**
+ * Measures the statements per second of the MultiNodeExecutor with many
+ * concurrent sessions. Each session runs statements on all data nodes at the
+ * same time. The data nodes are stand-ins which wait for the given latency
+ * instead of running a query. Run with
+ * <code>java -cp ... com.suning.snfddal.test.route.MultiNodeExecutorBenchmark [sessions] [shards] [latencyMillis] [seconds]</code>,
+ * on Java 21 with <code>-Dh2.shardVirtualThreads=true</code> to compare
+ * virtual threads with the thread pool, and with
+ * <code>-Dh2.shardConcurrency=0</code> to remove the limit per data node.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class MultiNodeExecutorBenchmark {
+
+    public static void main(String... args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        final int latency = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        Database database = new Database();
+        DbSettings settings = database.getSettings();
+        System.out.println("sessions=" + sessions + " shards=" + shards + " latency=" + latency + "ms"
+                + " virtualThreads=" + settings.shardVirtualThreads + " maxThreads=" + settings.shardMaxThreads
+                + " shardConcurrency=" + settings.shardConcurrency + " runInline=" + settings.shardRunInline
+                + " java=" + System.getProperty("java.version"));
+        final MultiNodeExecutor executor = database.getMultiNodeExecutor();
+        final List<NodeCallable<Integer>> calls = New.arrayList(shards);
+        for (int i = 0; i < shards; i++) {
+            calls.add(new NodeCallable<Integer>("shard" + i) {
+                @Override
+                public Integer call() throws Exception {
+                    Thread.sleep(latency);
+                    return 1;
+                }
+            });
+        }
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong statements = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        Thread[] threads = new Thread[sessions];
+        for (int i = 0; i < sessions; i++) {
+            final Session session = new Session(database, null, i + 1);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        try {
+                            executor.execute(session, calls);
+                            statements.incrementAndGet();
+                        } catch (DbException e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            }, "session" + i);
+            threads[i].start();
+        }
+        // the first second is warm-up
+        Thread.sleep(1000);
+        long startCount = statements.get();
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        long count = statements.get() - startCount;
+        long time = System.nanoTime() - start;
+        stop.set(true);
+        for (Thread t : threads) {
+            t.join();
+        }
+        database.close();
+        double perSecond = count * 1000000000d / time;
+        System.out.println((long) perSecond + " statements/s, " + (long) (perSecond * shards)
+                + " data node calls/s, " + errors.get() + " errors");
+    }
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.route;
+
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.engine.DbSettings;
+import com.suning.snfddal.engine.Session;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.route.MultiNodeExecutor;
+import com.suning.snfddal.route.NodeCallable;
+import com.suning.snfddal.test.BaseH2SampleCase;
+import com.suning.snfddal.util.New;
+
+/**
+ * The scheduling of the tasks of statements on the data nodes: the limit of
+ * tasks per data node, the queue timeout, and the order in which the
+ * sessions get a thread.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class MultiNodeExecutorTestCase extends BaseH2SampleCase {
+
+    @Test
+    public void testConcurrencyPerShard() throws Exception {
+        MultiNodeExecutor executor = newExecutor(4, 2, 10000, false);
+        Connection conn = dataSource.getConnection();
+        Connection conn2 = dataSource.getConnection();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        try {
+            List<NodeCallable<String>> slow = New.arrayList();
+            for (int i = 0; i < 6; i++) {
+                slow.add(new NodeCallable<String>("shard1") {
+                    @Override
+                    public String call() throws Exception {
+                        int r = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), r));
+                        }
+                        release.await();
+                        running.decrementAndGet();
+                        return getShardName();
+                    }
+                });
+            }
+            Execution<String> first = execute(executor, getSession(conn), slow);
+            Thread.sleep(100);
+            Assert.assertEquals(2, running.get());
+            // the other threads are free for the other data nodes
+            List<String> result = executor.execute(getSession(conn2), tasks("shard2", "shard3"));
+            Assert.assertEquals("[shard2, shard3]", result.toString());
+            release.countDown();
+            Assert.assertEquals(6, first.get().size());
+            Assert.assertEquals(2, maxRunning.get());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            conn.close();
+            conn2.close();
+        }
+    }
+
+    @Test
+    public void testQueueTimeout() throws Exception {
+        MultiNodeExecutor executor = newExecutor(1, 16, 200, false);
+        Connection conn = dataSource.getConnection();
+        Connection conn2 = dataSource.getConnection();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Execution<String> first = execute(executor, getSession(conn), blockers("shard1", release, 1));
+            Thread.sleep(50);
+            long start = System.currentTimeMillis();
+            try {
+                executor.execute(getSession(conn2), tasks("shard2", "shard3"));
+                Assert.fail();
+            } catch (DbException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("Timeout waiting for a thread"));
+            }
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+            release.countDown();
+            Assert.assertEquals(1, first.get().size());
+            // the removed tasks don't run later
+            Assert.assertEquals("[shard4]", executor.execute(getSession(conn2), tasks("shard4")).toString());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            conn.close();
+            conn2.close();
+        }
+    }
+
+    @Test
+    public void testSessionsTakeTurns() throws Exception {
+        MultiNodeExecutor executor = newExecutor(1, 16, 10000, false);
+        Connection conn = dataSource.getConnection();
+        Connection conn2 = dataSource.getConnection();
+        Connection conn3 = dataSource.getConnection();
+        CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(New.<String> arrayList());
+        try {
+            Execution<String> blocker = execute(executor, getSession(conn), blockers("shard1", release, 1));
+            Thread.sleep(50);
+            List<NodeCallable<String>> many = New.arrayList();
+            for (int i = 0; i < 5; i++) {
+                many.add(record("a", order));
+            }
+            Execution<String> a = execute(executor, getSession(conn2), many);
+            Thread.sleep(50);
+            Execution<String> b = execute(executor, getSession(conn3), Collections.singletonList(record("b", order)));
+            Thread.sleep(50);
+            release.countDown();
+            blocker.get();
+            Assert.assertEquals(5, a.get().size());
+            Assert.assertEquals(1, b.get().size());
+            // the second session doesn't wait for all tasks of the first one
+            Assert.assertEquals("[a, b, a, a, a, a]", order.toString());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            conn.close();
+            conn2.close();
+            conn3.close();
+        }
+    }
+
+    @Test
+    public void testRunInline() throws Exception {
+        MultiNodeExecutor executor = newExecutor(1, 16, 10000, true);
+        Connection conn = dataSource.getConnection();
+        Connection conn2 = dataSource.getConnection();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Execution<String> first = execute(executor, getSession(conn), blockers("shard1", release, 1));
+            Thread.sleep(50);
+            // all threads are busy, the calling thread runs the tasks
+            final Thread caller = Thread.currentThread();
+            NodeCallable<String> task = new NodeCallable<String>("shard2") {
+                @Override
+                public String call() {
+                    return String.valueOf(Thread.currentThread() == caller);
+                }
+            };
+            Assert.assertEquals("[true]", executor.execute(getSession(conn2),
+                    Collections.singletonList(task)).toString());
+            release.countDown();
+            first.get();
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            conn.close();
+            conn2.close();
+        }
+    }
+
+    private static MultiNodeExecutor newExecutor(int maxThreads, int concurrency, int queueTimeout,
+            boolean runInline) {
+        HashMap<String, String> settings = New.hashMap();
+        settings.put("SHARD_MAX_THREADS", String.valueOf(maxThreads));
+        settings.put("SHARD_CONCURRENCY", String.valueOf(concurrency));
+        settings.put("SHARD_QUEUE_TIMEOUT", String.valueOf(queueTimeout));
+        settings.put("SHARD_RUN_INLINE", String.valueOf(runInline));
+        return new MultiNodeExecutor(DbSettings.getInstance(settings));
+    }
+
+    private static List<NodeCallable<String>> tasks(String... shardNames) {
+        List<NodeCallable<String>> list = New.arrayList();
+        for (String shardName : shardNames) {
+            list.add(new NodeCallable<String>(shardName) {
+                @Override
+                public String call() {
+                    return getShardName();
+                }
+            });
+        }
+        return list;
+    }
+
+    private static List<NodeCallable<String>> blockers(String shardName, final CountDownLatch release, int count) {
+        List<NodeCallable<String>> list = New.arrayList();
+        for (int i = 0; i < count; i++) {
+            list.add(new NodeCallable<String>(shardName) {
+                @Override
+                public String call() throws Exception {
+                    release.await();
+                    return getShardName();
+                }
+            });
+        }
+        return list;
+    }
+
+    private static NodeCallable<String> record(final String name, final List<String> order) {
+        return new NodeCallable<String>("shard2") {
+            @Override
+            public String call() {
+                order.add(name);
+                return name;
+            }
+        };
+    }
+
+    private static <T> Execution<T> execute(MultiNodeExecutor executor, Session session,
+            List<NodeCallable<T>> calls) {
+        Execution<T> e = new Execution<T>(executor, session, calls);
+        e.start();
+        return e;
+    }
+
+    /**
+     * Runs the tasks of a session in another thread.
+     */
+    private static class Execution<T> extends Thread {
+
+        private final MultiNodeExecutor executor;
+        private final Session session;
+        private final List<NodeCallable<T>> calls;
+        private final AtomicReference<List<T>> result = new AtomicReference<List<T>>();
+        private final AtomicReference<RuntimeException> error = new AtomicReference<RuntimeException>();
+
+        Execution(MultiNodeExecutor executor, Session session, List<NodeCallable<T>> calls) {
+            this.executor = executor;
+            this.session = session;
+            this.calls = calls;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.set(executor.execute(session, calls));
+            } catch (RuntimeException e) {
+                error.set(e);
+            }
+        }
+
+        List<T> get() throws InterruptedException {
+            join(TimeUnit.SECONDS.toMillis(10));
+            if (error.get() != null) {
+                throw error.get();
+            }
+            Assert.assertNotNull(result.get());
+            return result.get();
+        }
+
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.route;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.engine.Database;
+import com.suning.snfddal.route.ShardGroup;
+import com.suning.snfddal.test.BaseH2SampleCase;
+import com.suning.snfddal.util.New;
+
+/**
+ * The choice between the master and the replicas of a data node. Each data
+ * node of /config/h2-config.xml has one replica, which is the same database
+ * as the master, so the tests count the open replica connections.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class ReplicaSelectionTestCase extends BaseH2SampleCase {
+
+    private static final String ALL = "SELECT f_student_id FROM t_student";
+
+    @Test
+    public void testWeights() throws SQLException {
+        ShardGroup group = new ShardGroup("shard1", newDataSource(), new DataSource[] { newDataSource(),
+                newDataSource() }, new int[] { 2, 1 });
+        List<Connection> list = New.arrayList();
+        for (int i = 0; i < 30; i++) {
+            list.add(group.getReplicaConnection());
+        }
+        Assert.assertEquals(20, group.getOutstanding(0));
+        Assert.assertEquals(10, group.getOutstanding(1));
+        for (int i = 0; i < 10; i++) {
+            group.closeReplicaConnection(list.remove(list.size() - 1));
+        }
+        Assert.assertEquals(20, group.getOutstanding(0) + group.getOutstanding(1));
+        for (Connection conn : list) {
+            group.closeReplicaConnection(conn);
+            Assert.assertTrue(conn.isClosed());
+        }
+        Assert.assertEquals(0, group.getOutstanding(0));
+        Assert.assertEquals(0, group.getOutstanding(1));
+    }
+
+    @Test
+    public void testSameLoadInTurn() throws SQLException {
+        ShardGroup group = new ShardGroup("shard1", newDataSource(), new DataSource[] { newDataSource(),
+                newDataSource(), newDataSource() }, new int[] { 1, 1, 1 });
+        for (int i = 0; i < 6; i++) {
+            Connection conn = group.getReplicaConnection();
+            // the other replicas are used before this one is used again
+            Assert.assertEquals(1, group.getOutstanding(i % 3));
+            group.closeReplicaConnection(conn);
+        }
+    }
+
+    @Test
+    public void testHedgeConnection() throws SQLException {
+        ShardGroup group = new ShardGroup("shard1", newDataSource(), new DataSource[] { newDataSource(),
+                newDataSource() }, new int[] { 1, 1 });
+        Connection first = group.getReplicaConnection();
+        Connection a = group.getReplicaConnection();
+        Connection b = group.getReplicaConnection();
+        Connection c = group.getReplicaConnection();
+        group.closeReplicaConnection(b);
+        Assert.assertEquals(1, group.getOutstanding(0));
+        Assert.assertEquals(2, group.getOutstanding(1));
+        // the hedge uses another replica, even if it has more connections
+        Connection hedge = group.getHedgeConnection(first);
+        Assert.assertEquals(1, group.getOutstanding(0));
+        Assert.assertEquals(3, group.getOutstanding(1));
+        group.closeReplicaConnection(hedge);
+        group.closeReplicaConnection(a);
+        group.closeReplicaConnection(c);
+        group.closeReplicaConnection(first);
+
+        // without another replica, the hedge uses the master
+        group = new ShardGroup("shard1", newDataSource(), new DataSource[] { newDataSource() }, new int[] { 1 });
+        first = group.getReplicaConnection();
+        hedge = group.getHedgeConnection(first);
+        Assert.assertEquals(1, group.getOutstanding(0));
+        Assert.assertSame(group.getHealth(), group.getHealth(hedge));
+        group.closeReplicaConnection(hedge);
+        Assert.assertTrue(hedge.isClosed());
+        group.closeReplicaConnection(first);
+        Assert.assertEquals(0, group.getOutstanding(0));
+    }
+
+    @Test
+    public void testAutoCommitReads() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        Database database = getDatabase(conn);
+        int before = getReplicaConnections(database);
+        Assert.assertEquals(16, count(conn, ALL));
+        // one replica connection per data node, which is kept by the session
+        Assert.assertEquals(before + SHARD_COUNT, getReplicaConnections(database));
+        Assert.assertEquals(16, count(conn, ALL));
+        Assert.assertEquals(before + SHARD_COUNT, getReplicaConnections(database));
+        Connection conn2 = dataSource.getConnection();
+        Assert.assertEquals(0, count(conn2, ALL + " WHERE f_student_id = 100"));
+        Assert.assertEquals(before + SHARD_COUNT + 1, getReplicaConnections(database));
+        conn.close();
+        conn2.close();
+        Assert.assertEquals(before, getReplicaConnections(database));
+    }
+
+    @Test
+    public void testWriteTransaction() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        Database database = getDatabase(conn);
+        int before = getReplicaConnections(database);
+        conn.setAutoCommit(false);
+        // a transaction which did not change data reads from the replicas
+        Assert.assertEquals(16, count(conn, ALL));
+        Assert.assertEquals(before + SHARD_COUNT, getReplicaConnections(database));
+        conn.commit();
+        conn.close();
+
+        conn = dataSource.getConnection();
+        conn.setAutoCommit(false);
+        Statement stat = conn.createStatement();
+        stat.executeUpdate("INSERT INTO t_student(f_student_id, f_name) VALUES(100, 'x')");
+        // the rows of the transaction are only visible on the master
+        Assert.assertEquals(17, count(conn, ALL));
+        Assert.assertEquals(before, getReplicaConnections(database));
+        conn.rollback();
+        Assert.assertEquals(16, count(conn, ALL));
+        Assert.assertEquals(before + SHARD_COUNT, getReplicaConnections(database));
+        conn.close();
+    }
+
+    @Test
+    public void testForUpdate() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        Database database = getDatabase(conn);
+        int before = getReplicaConnections(database);
+        Assert.assertEquals(16, count(conn, ALL + " FOR UPDATE"));
+        Assert.assertEquals(before, getReplicaConnections(database));
+        conn.close();
+    }
+
+    @Test
+    public void testReadOnlyConnection() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        Database database = getDatabase(conn);
+        int before = getReplicaConnections(database);
+        conn.setAutoCommit(false);
+        conn.setReadOnly(true);
+        Statement stat = conn.createStatement();
+        stat.executeUpdate("INSERT INTO t_student(f_student_id, f_name) VALUES(100, 'x')");
+        // a read only connection reads from the replicas even after a write
+        count(conn, ALL);
+        Assert.assertEquals(before + SHARD_COUNT, getReplicaConnections(database));
+        conn.rollback();
+        conn.close();
+        Assert.assertEquals(before, getReplicaConnections(database));
+    }
+
+    /**
+     * Get the number of open replica connections of all data nodes.
+     */
+    private static int getReplicaConnections(Database database) {
+        int count = 0;
+        for (int i = 1; i <= SHARD_COUNT; i++) {
+            count += database.getShardGroup("shard" + i).getOutstanding(0);
+        }
+        return count;
+    }
+
+    private static int count(Connection conn, String query) throws SQLException {
+        Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery(query);
+        int count = 0;
+        while (rs.next()) {
+            count++;
+        }
+        stat.close();
+        return count;
+    }
+
+    /**
+     * Create a data source which connects to a new in-memory database.
+     */
+    private static DataSource newDataSource() {
+        return (DataSource) Proxy.newProxyInstance(ReplicaSelectionTestCase.class.getClassLoader(),
+                new Class[] { DataSource.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getConnection")) {
+                            return DriverManager.getConnection("jdbc:h2:mem:");
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+}
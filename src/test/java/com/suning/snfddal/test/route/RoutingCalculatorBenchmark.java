@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月4日
+// $Id$
+
+package com.suning.snfddal.test.route;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+import com.suning.snfddal.route.rule.RoutingCalculatorImpl;
+import com.suning.snfddal.route.rule.RoutingResult;
+import com.suning.snfddal.route.rule.TableRouter;
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueInt;
+
+/**
+ * Measures routes per second and the bytes allocated per route of the
+ * RoutingCalculatorImpl, for point routes and for IN lists. Run with
+ * <code>java -cp ... com.suning.snfddal.test.route.RoutingCalculatorBenchmark [iterations]</code>.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class RoutingCalculatorBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final int MEASURE_ROUNDS = 5;
+
+    public static void main(String... args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        TableRouter router = RoutingCalculatorTestCase.newRouter();
+        RoutingCalculatorImpl calculator = new RoutingCalculatorImpl();
+        for (int inSize : new int[] { 1, 10 }) {
+            List<Map<String, List<Value>>> params = New.arrayList();
+            for (int i = 0; i < 1024; i++) {
+                List<Value> values = New.arrayList();
+                for (int j = 0; j < inSize; j++) {
+                    values.add(ValueInt.get(i * 7 + j));
+                }
+                Map<String, List<Value>> columnValue = New.hashMap();
+                columnValue.put("F_STUDENT_ID", values);
+                params.add(columnValue);
+            }
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                run(calculator, router, params, iterations);
+            }
+            long bestTime = Long.MAX_VALUE;
+            long bestBytes = Long.MAX_VALUE;
+            for (int i = 0; i < MEASURE_ROUNDS; i++) {
+                long before = getAllocatedBytes();
+                long time = run(calculator, router, params, iterations);
+                long bytes = before < 0 ? -1 : getAllocatedBytes() - before;
+                bestTime = Math.min(bestTime, time);
+                bestBytes = Math.min(bestBytes, bytes);
+            }
+            System.out.println("values=" + inSize + ": " + (long) (iterations * 1000000000d / bestTime)
+                    + " routes/s, " + (bestBytes < 0 ? "n/a" : String.valueOf(bestBytes / iterations))
+                    + " bytes/route");
+        }
+    }
+
+    private static long run(RoutingCalculatorImpl calculator, TableRouter router,
+            List<Map<String, List<Value>>> params, int iterations) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            RoutingResult result = calculator.calculate(router, params.get(i & 1023));
+            sum += result.getMatchedShards().size();
+        }
+        long time = System.nanoTime() - start;
+        if (sum == 42) {
+            System.out.println();
+        }
+        return time;
+    }
+
+    /**
+     * Get the bytes allocated by the current thread, using the
+     * com.sun.management.ThreadMXBean extension if available.
+     *
+     * @return the allocated bytes, or -1 if not supported
+     */
+    private static long getAllocatedBytes() {
+        try {
+            Object bean = ManagementFactory.getThreadMXBean();
+            Method m = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes",
+                    long.class);
+            return (Long) m.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+}
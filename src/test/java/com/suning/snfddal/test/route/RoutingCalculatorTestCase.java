@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月8日
+// $Id$
+
+package com.suning.snfddal.test.route;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.route.rule.RoutingCalculatorImpl;
+import com.suning.snfddal.route.rule.RoutingResult;
+import com.suning.snfddal.route.rule.RuleExpression;
+import com.suning.snfddal.route.rule.TableRouter;
+import com.suning.snfddal.route.rule.ValueRange;
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueDecimal;
+import com.suning.snfddal.value.ValueInt;
+import com.suning.snfddal.value.ValueLong;
+import com.suning.snfddal.value.ValueString;
+
+/**
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ *
+ */
+public class RoutingCalculatorTestCase {
+
+    private final RoutingCalculatorImpl calculator = new RoutingCalculatorImpl();
+
+    static TableRouter newRouter() {
+        return newRouter(RuleEvaluatorTestCase.newRule(" (F_STUDENT_ID % 16 ) / 4", "F_STUDENT_ID"),
+                RuleEvaluatorTestCase.newRule(" F_STUDENT_ID % 4", "F_STUDENT_ID"));
+    }
+
+    private static TableRouter newRouter(RuleExpression shardRule, RuleExpression tableRule) {
+        Map<String, Set<String>> partition = New.linkedHashMap();
+        for (int i = 1; i <= 4; i++) {
+            Set<String> suffixes = New.linkedHashSet();
+            for (int j = 1; j <= 4; j++) {
+                suffixes.add("_00" + j);
+            }
+            partition.put("shard" + i, suffixes);
+        }
+        TableRouter router = new TableRouter();
+        router.setId("partition4_with_id_mod");
+        router.setPartition(partition);
+        router.setShardRuleExpression(shardRule);
+        router.setTableRuleExpression(tableRule);
+        router.initTopology("t_student");
+        return router;
+    }
+
+    @Test
+    public void testRangeSameAsPoints() {
+        TableRouter router = newRouter();
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            long low = random.nextInt(2000);
+            long high = low + random.nextInt(i % 2 == 0 ? 20 : 300);
+            Set<String> expected = New.hashSet();
+            for (long x = low; x <= high; x++) {
+                expected.addAll(route(router, ValueLong.get(x)));
+            }
+            Assert.assertEquals(low + ".." + high, new TreeSet<String>(expected),
+                    route(router, new ValueRange(ValueLong.get(low), ValueLong.get(high))));
+        }
+    }
+
+    @Test
+    public void testOpenRange() {
+        TableRouter router = newRouter();
+        Assert.assertEquals(16, route(router, new ValueRange(ValueInt.get(5), null)).size());
+        // negative values route to no shard, 0..5 route to the first two shards
+        Assert.assertEquals(8, route(router, new ValueRange(null, ValueInt.get(5))).size());
+        // F_STUDENT_ID / 1000 is 1 for every value of the range
+        router = newRouter(RuleEvaluatorTestCase.newRule("F_STUDENT_ID / 1000", "F_STUDENT_ID"),
+                RuleEvaluatorTestCase.newRule("F_STUDENT_ID % 4", "F_STUDENT_ID"));
+        Assert.assertEquals("[shard2.t_student_001, shard2.t_student_002, shard2.t_student_003, shard2.t_student_004]",
+                route(router, new ValueRange(ValueInt.get(1000), ValueInt.get(1999))).toString());
+    }
+
+    @Test
+    public void testMonotonicRule() {
+        RuleExpression shardRule = RuleEvaluatorTestCase.newRule("F_AMOUNT.intValue() / 100", "F_AMOUNT");
+        RuleExpression tableRule = RuleEvaluatorTestCase.newRule("F_AMOUNT.intValue() % 4", "F_AMOUNT");
+        TableRouter router = newRouter(shardRule, tableRule);
+        ValueRange range = new ValueRange(ValueDecimal.get(new BigDecimal("150.5")),
+                ValueDecimal.get(new BigDecimal("250")));
+        // not declared monotonic, the range is not enumerable
+        Assert.assertEquals(16, route(router, range).size());
+
+        shardRule.setMonotonic(true);
+        Assert.assertEquals(8, route(router, range).size());
+        Assert.assertEquals("[shard2.t_student_001, shard3.t_student_001]",
+                shards(route(router, range)).toString());
+        range = new ValueRange(ValueDecimal.get(new BigDecimal("150.5")), null);
+        Assert.assertEquals("[shard2.t_student_001, shard3.t_student_001, shard4.t_student_001]",
+                shards(route(router, range)).toString());
+
+        // the bounds outside of the topology are moved to the first or last shard
+        range = new ValueRange(ValueDecimal.get(new BigDecimal("150.5")), ValueDecimal.get(new BigDecimal("1000")));
+        Assert.assertEquals("[shard2.t_student_001, shard3.t_student_001, shard4.t_student_001]",
+                shards(route(router, range)).toString());
+        range = new ValueRange(ValueDecimal.get(new BigDecimal("-500")), ValueDecimal.get(new BigDecimal("150")));
+        Assert.assertEquals("[shard1.t_student_001, shard2.t_student_001]",
+                shards(route(router, range)).toString());
+    }
+
+    @Test
+    public void testNonIntegerRange() {
+        TableRouter router = newRouter();
+        // the arithmetic rule only works on integers, the range is not enumerable
+        ValueRange range = new ValueRange(ValueDecimal.get(new BigDecimal("5.5")),
+                ValueDecimal.get(new BigDecimal("20")));
+        Assert.assertEquals(16, route(router, range).size());
+        range = new ValueRange(ValueString.get("5"), ValueString.get("20"));
+        Assert.assertEquals(16, route(router, range).size());
+    }
+
+    @Test
+    public void testColocatedRouters() {
+        TableRouter router = newRouter();
+        Assert.assertTrue(router.isColocated(newRouter()));
+        TableRouter other = newRouter(RuleEvaluatorTestCase.newRule(" (F_STUDENT_ID % 16 ) / 4", "F_STUDENT_ID"),
+                RuleEvaluatorTestCase.newRule("F_STUDENT_ID % 4 ", "F_STUDENT_ID"));
+        Assert.assertTrue(router.isColocated(other));
+        other = newRouter(RuleEvaluatorTestCase.newRule(" (F_STUDENT_ID % 16 ) / 4", "F_STUDENT_ID"),
+                RuleEvaluatorTestCase.newRule("(F_STUDENT_ID + 1) % 4", "F_STUDENT_ID"));
+        Assert.assertFalse(router.isColocated(other));
+        other = newRouter();
+        other.getPartition().get("shard4").remove("_004");
+        Assert.assertFalse(router.isColocated(other));
+    }
+
+    private Set<String> route(TableRouter router, Value value) {
+        Map<String, List<Value>> columnValue = New.hashMap();
+        List<Value> values = New.arrayList();
+        values.add(value);
+        columnValue.put(router.getRuleColumns().get(0).getName(), values);
+        return toSet(calculator.calculate(router, columnValue));
+    }
+
+    private Set<String> route(TableRouter router, ValueRange range) {
+        Map<String, List<Value>> columnValue = Collections.emptyMap();
+        Map<String, ValueRange> columnRange = New.hashMap();
+        columnRange.put(router.getRuleColumns().get(0).getName(), range);
+        return toSet(calculator.calculate(router, columnValue, columnRange));
+    }
+
+    private static Set<String> toSet(RoutingResult result) {
+        Set<String> set = new TreeSet<String>();
+        for (RoutingResult.MatchedShard shard : result.getMatchedShards()) {
+            for (String table : shard.getTables()) {
+                set.add(shard.getShardName() + "." + table);
+            }
+        }
+        return set;
+    }
+
+    private static Set<String> shards(Set<String> tables) {
+        Set<String> set = new TreeSet<String>();
+        for (String table : tables) {
+            if (table.endsWith("_001")) {
+                set.add(table);
+            }
+        }
+        return set;
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月2日
+// $Id$
+
+package com.suning.snfddal.test.route;
+
+import java.util.Map;
+
+import com.suning.snfddal.route.rule.CompiledRuleEvaluator;
+import com.suning.snfddal.route.rule.OgnlRuleEvaluator;
+import com.suning.snfddal.route.rule.RuleEvaluator;
+import com.suning.snfddal.route.rule.RuleExpression;
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueInt;
+
+/**
+ * Compares the throughput of the rule evaluators. Run with
+ * <code>java -cp ... com.suning.snfddal.test.route.RuleEvaluatorBenchmark [iterations]</code>.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class RuleEvaluatorBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final int MEASURE_ROUNDS = 5;
+
+    public static void main(String... args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        RuleExpression rule = RuleEvaluatorTestCase.newRule(" (F_STUDENT_ID % 16 ) / 4", "F_STUDENT_ID");
+        RuleEvaluator[] evaluators = { new OgnlRuleEvaluator(), new CompiledRuleEvaluator() };
+        for (RuleEvaluator evaluator : evaluators) {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                run(evaluator, rule, iterations);
+            }
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < MEASURE_ROUNDS; i++) {
+                best = Math.min(best, run(evaluator, rule, iterations));
+            }
+            double nsPerOp = (double) best / iterations;
+            System.out.println(evaluator.getClass().getSimpleName() + ": " + String.format("%.1f", nsPerOp)
+                    + " ns/op, " + (long) (1000000000d / nsPerOp) + " ops/s");
+        }
+    }
+
+    private static long run(RuleEvaluator evaluator, RuleExpression rule, int iterations) {
+        Map<String, Value> params = New.hashMap();
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            params.put("F_STUDENT_ID", ValueInt.get(i));
+            sum += ((Number) evaluator.evaluate(rule, params)).longValue();
+        }
+        long time = System.nanoTime() - start;
+        if (sum == 42) {
+            System.out.println();
+        }
+        return time;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月2日
+// $Id$
+
+package com.suning.snfddal.test.route;
+
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.route.rule.CompiledRuleEvaluator;
+import com.suning.snfddal.route.rule.OgnlRuleEvaluator;
+import com.suning.snfddal.route.rule.RuleColumn;
+import com.suning.snfddal.route.rule.RuleExpression;
+import com.suning.snfddal.util.New;
+import com.suning.snfddal.value.Value;
+import com.suning.snfddal.value.ValueInt;
+import com.suning.snfddal.value.ValueLong;
+import com.suning.snfddal.value.ValueShort;
+import com.suning.snfddal.value.ValueString;
+
+/**
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ *
+ */
+public class RuleEvaluatorTestCase {
+
+    private final OgnlRuleEvaluator ognl = new OgnlRuleEvaluator();
+
+    private final CompiledRuleEvaluator compiled = new CompiledRuleEvaluator();
+
+    static RuleExpression newRule(String expression, String... columns) {
+        List<RuleColumn> ruleColumns = New.arrayList();
+        for (String name : columns) {
+            RuleColumn col = new RuleColumn();
+            col.setName(name);
+            ruleColumns.add(col);
+        }
+        RuleExpression rule = new RuleExpression();
+        rule.setRuleColumns(ruleColumns);
+        rule.setExpression(expression);
+        return rule;
+    }
+
+    @Test
+    public void testSameResultAsOgnl() {
+        RuleExpression shardRule = newRule(" (F_STUDENT_ID % 16 ) / 4", "F_STUDENT_ID");
+        RuleExpression tableRule = newRule("F_STUDENT_ID % 4", "F_STUDENT_ID");
+        RuleExpression multiRule = newRule("(A * 3 + B - -2) % 7", "A", "B");
+        for (int i = -100; i < 100; i++) {
+            Map<String, Value> args = New.hashMap();
+            args.put("F_STUDENT_ID", ValueInt.get(i));
+            args.put("A", ValueLong.get(i * 31L));
+            args.put("B", ValueInt.get(i / 3));
+            assertSame(shardRule, args);
+            assertSame(tableRule, args);
+            assertSame(multiRule, args);
+        }
+        Assert.assertTrue(compiled.isCompiled(shardRule));
+        Assert.assertTrue(compiled.isCompiled(multiRule));
+    }
+
+    @Test
+    public void testOverflow() {
+        RuleExpression shardRule = newRule("(F_STUDENT_ID * 4 + 3) % 7", "F_STUDENT_ID");
+        RuleExpression multiRule = newRule("(A * 65536 + B) / 3 % 1000", "A", "B");
+        RuleExpression addRule = newRule("F_STUDENT_ID + 2147483647", "F_STUDENT_ID");
+        int[] values = { 1 << 30, Integer.MAX_VALUE, Integer.MIN_VALUE, -1 - (1 << 29), 123456789 };
+        for (int x : values) {
+            // int arguments overflow like int arithmetic
+            Map<String, Value> args = New.hashMap();
+            args.put("F_STUDENT_ID", ValueInt.get(x));
+            args.put("A", ValueInt.get(x));
+            args.put("B", ValueShort.get((short) x));
+            assertSame(shardRule, args);
+            assertSame(multiRule, args);
+            assertSame(addRule, args);
+            // a long argument doesn't
+            args.put("F_STUDENT_ID", ValueLong.get(x));
+            args.put("A", ValueLong.get(x));
+            assertSame(shardRule, args);
+            assertSame(multiRule, args);
+            assertSame(addRule, args);
+        }
+        Map<String, Value> args = New.hashMap();
+        args.put("F_STUDENT_ID", ValueInt.get(1 << 30));
+        Assert.assertEquals(Integer.valueOf(3), compiled.evaluate(shardRule, args));
+        args.put("F_STUDENT_ID", ValueLong.get(1 << 30));
+        Assert.assertEquals(Long.valueOf(0), compiled.evaluate(shardRule, args));
+        Assert.assertTrue(compiled.isCompiled(shardRule));
+    }
+
+    @Test
+    public void testFallback() {
+        RuleExpression hashRule = newRule("F_STUDENT_ID.hashCode() % 4", "F_STUDENT_ID");
+        Assert.assertFalse(compiled.isCompiled(hashRule));
+        Map<String, Value> args = New.hashMap();
+        args.put("F_STUDENT_ID", ValueString.get("17"));
+        assertSame(hashRule, args);
+
+        RuleExpression modRule = newRule("F_STUDENT_ID % 4", "F_STUDENT_ID");
+        assertSame(modRule, args);
+    }
+
+    private void assertSame(RuleExpression rule, Map<String, Value> args) {
+        Object expected = ognl.evaluate(rule, args);
+        Object actual = compiled.evaluate(rule, args);
+        Assert.assertEquals(rule.getExpression() + " " + args, expected.toString(), actual.toString());
+    }
+
+}
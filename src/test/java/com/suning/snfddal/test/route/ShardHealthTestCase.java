@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.route;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.HashMap;
+
+import javax.sql.DataSource;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.suning.snfddal.engine.DbSettings;
+import com.suning.snfddal.message.DbException;
+import com.suning.snfddal.route.HealthMonitor;
+import com.suning.snfddal.route.ShardGroup;
+import com.suning.snfddal.route.ShardHealth;
+import com.suning.snfddal.util.New;
+
+/**
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ *
+ */
+public class ShardHealthTestCase {
+
+    private static final SQLException CONNECTION_ERROR = new SQLNonTransientConnectionException("down", "08S01");
+
+    private final HealthMonitor monitor;
+
+    public ShardHealthTestCase() {
+        HashMap<String, String> settings = New.hashMap();
+        settings.put("SHARD_FAILURE_RATE", "50");
+        settings.put("SHARD_HEALTH_WINDOW", "10");
+        settings.put("SHARD_PROBE_INTERVAL", "20");
+        monitor = new HealthMonitor(DbSettings.getInstance(settings));
+    }
+
+    @After
+    public void destroy() {
+        monitor.shutdown();
+    }
+
+    @Test
+    public void testOpenAfterFailureRate() {
+        TestDataSource ds = new TestDataSource();
+        ShardHealth health = monitor.createHealth("data node shard1", ds.dataSource);
+        ds.available = false;
+        for (int i = 0; i < 4; i++) {
+            health.record(0, null);
+        }
+        for (int i = 0; i < 3; i++) {
+            health.record(0, CONNECTION_ERROR);
+        }
+        // other errors mean that the database answered
+        health.record(0, new SQLException("syntax error", "42000"));
+        health.record(0, CONNECTION_ERROR);
+        Assert.assertEquals(ShardHealth.CLOSED, health.getState());
+        Assert.assertEquals(4, health.getFailureCount());
+        // 5 of 10 failed
+        health.record(0, CONNECTION_ERROR);
+        Assert.assertEquals(ShardHealth.OPEN, health.getState());
+        Assert.assertEquals(1, health.getOpenCount());
+        try {
+            health.check();
+            Assert.fail();
+        } catch (DbException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("data node shard1 is unavailable"));
+        }
+        Assert.assertEquals(1, health.getRejectedCount());
+    }
+
+    @Test
+    public void testHalfOpen() throws InterruptedException {
+        TestDataSource ds = new TestDataSource();
+        ShardHealth health = monitor.createHealth("data node shard1", ds.dataSource);
+        ds.available = false;
+        open(health);
+        // the probes fail while the database is down
+        Thread.sleep(100);
+        Assert.assertEquals(ShardHealth.OPEN, health.getState());
+        ds.available = true;
+        awaitState(health, ShardHealth.HALF_OPEN);
+
+        // only a few trial statements are admitted
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(health.isAvailable());
+            health.begin();
+        }
+        Assert.assertFalse(health.isAvailable());
+        try {
+            health.begin();
+            Assert.fail();
+        } catch (DbException e) {
+            // expected
+        }
+        for (int i = 0; i < 3; i++) {
+            health.record(0, null);
+        }
+        Assert.assertEquals(ShardHealth.CLOSED, health.getState());
+        Assert.assertTrue(health.isAvailable());
+    }
+
+    @Test
+    public void testHalfOpenCanceled() throws InterruptedException {
+        TestDataSource ds = new TestDataSource();
+        ShardHealth health = monitor.createHealth("data node shard1", ds.dataSource);
+        open(health);
+        awaitState(health, ShardHealth.HALF_OPEN);
+        for (int i = 0; i < 3; i++) {
+            health.begin();
+        }
+        Assert.assertFalse(health.isAvailable());
+        // a canceled trial statement is neither a success nor a failure
+        health.canceled();
+        Assert.assertEquals(ShardHealth.HALF_OPEN, health.getState());
+        Assert.assertTrue(health.isAvailable());
+        health.begin();
+        for (int i = 0; i < 3; i++) {
+            health.record(0, null);
+        }
+        Assert.assertEquals(ShardHealth.CLOSED, health.getState());
+        // the outcome is unknown, it is not added to the window
+        health.canceled();
+        Assert.assertEquals(0, health.getFailureCount());
+    }
+
+    @Test
+    public void testHalfOpenFailure() throws InterruptedException {
+        TestDataSource ds = new TestDataSource();
+        ShardHealth health = monitor.createHealth("data node shard1", ds.dataSource);
+        open(health);
+        awaitState(health, ShardHealth.HALF_OPEN);
+        health.begin();
+        ds.available = false;
+        health.record(0, CONNECTION_ERROR);
+        Assert.assertEquals(ShardHealth.OPEN, health.getState());
+        Assert.assertEquals(2, health.getOpenCount());
+        ds.available = true;
+        awaitState(health, ShardHealth.HALF_OPEN);
+    }
+
+    @Test
+    public void testReplicaHealth() throws SQLException {
+        TestDataSource master = new TestDataSource();
+        TestDataSource dead = new TestDataSource();
+        TestDataSource replica = new TestDataSource();
+        ShardGroup group = new ShardGroup("shard1", master.dataSource, new DataSource[] { dead.dataSource,
+                replica.dataSource }, new int[] { 1, 1 });
+        group.createHealth(monitor);
+        dead.available = false;
+        open(group.getReplicaHealth(0));
+
+        // a dead replica does not affect the master
+        Assert.assertEquals(ShardHealth.CLOSED, group.getHealth().getState());
+        group.getHealth().check();
+        for (int i = 0; i < 10; i++) {
+            Connection conn = group.getReplicaConnection();
+            Assert.assertSame(group.getReplicaHealth(1), group.getHealth(conn));
+            group.closeReplicaConnection(conn);
+        }
+        Assert.assertEquals(0, dead.connections);
+
+        // no replica is available
+        open(group.getReplicaHealth(1));
+        Assert.assertNull(group.getReplicaConnection());
+    }
+
+    @Test
+    public void testReplicaConnectFailed() {
+        TestDataSource master = new TestDataSource();
+        TestDataSource dead = new TestDataSource();
+        ShardGroup group = new ShardGroup("shard1", master.dataSource, new DataSource[] { dead.dataSource },
+                new int[] { 1 });
+        group.createHealth(monitor);
+        dead.available = false;
+        for (int i = 0; i < 5; i++) {
+            try {
+                group.getReplicaConnection();
+                Assert.fail();
+            } catch (SQLException e) {
+                // expected
+            }
+        }
+        Assert.assertEquals(ShardHealth.OPEN, group.getReplicaHealth(0).getState());
+        Assert.assertEquals(ShardHealth.CLOSED, group.getHealth().getState());
+        Assert.assertEquals(0, group.getOutstanding(0));
+    }
+
+    private static void open(ShardHealth health) {
+        for (int i = 0; i < 5; i++) {
+            health.record(0, CONNECTION_ERROR);
+        }
+        Assert.assertEquals(ShardHealth.OPEN, health.getState());
+    }
+
+    private static void awaitState(ShardHealth health, int state) throws InterruptedException {
+        for (int i = 0; i < 500 && health.getState() != state; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(state, health.getState());
+    }
+
+    /**
+     * A data source of an in-memory database, which fails to connect while
+     * it is not available.
+     */
+    private static class TestDataSource implements InvocationHandler {
+
+        final DataSource dataSource = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { DataSource.class }, this);
+        volatile boolean available = true;
+        volatile int connections;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("getConnection")) {
+                if (!available) {
+                    throw CONNECTION_ERROR;
+                }
+                connections++;
+                return DriverManager.getConnection("jdbc:h2:mem:");
+            }
+            try {
+                return method.invoke(this, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+    }
+
+}
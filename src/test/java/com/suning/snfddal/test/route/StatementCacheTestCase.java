@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.route;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.route.StatementCache;
+import com.suning.snfddal.test.BaseH2SampleCase;
+
+/**
+ * The cache of the prepared statements of the data node connections.
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class StatementCacheTestCase extends BaseH2SampleCase {
+
+    private static final String A = "SELECT 1", B = "SELECT 2", C = "SELECT 3";
+
+    @Test
+    public void testHit() throws SQLException {
+        StatementCache cache = new StatementCache(4);
+        Connection conn = getNodeConnection(1);
+        Connection conn2 = getNodeConnection(1);
+        PreparedStatement a = cache.prepare(conn, A);
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        cache.release(conn, A, a);
+        Assert.assertEquals(1, cache.getSize());
+        // the statements of a connection are not used by other connections
+        PreparedStatement other = cache.prepare(conn2, A);
+        Assert.assertNotSame(a, other);
+        Assert.assertSame(a, cache.prepare(conn, A));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        // a statement is not cached while it is used
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertNotSame(a, cache.prepare(conn, A));
+        conn.close();
+        conn2.close();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsClosed() throws SQLException {
+        StatementCache cache = new StatementCache(2);
+        Connection conn = getNodeConnection(1);
+        PreparedStatement a = cache.prepare(conn, A);
+        PreparedStatement b = cache.prepare(conn, B);
+        cache.release(conn, A, a);
+        cache.release(conn, B, b);
+        // A is used again, so B is the least recently used statement
+        Assert.assertSame(a, cache.prepare(conn, A));
+        cache.release(conn, A, a);
+        PreparedStatement c = cache.prepare(conn, C);
+        cache.release(conn, C, c);
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertTrue(b.isClosed());
+        Assert.assertFalse(a.isClosed());
+        Assert.assertFalse(c.isClosed());
+        Assert.assertNotSame(b, cache.prepare(conn, B));
+        conn.close();
+    }
+
+    @Test
+    public void testSameStatementTwice() throws SQLException {
+        StatementCache cache = new StatementCache(4);
+        Connection conn = getNodeConnection(1);
+        PreparedStatement first = cache.prepare(conn, A);
+        PreparedStatement second = cache.prepare(conn, A);
+        cache.release(conn, A, first);
+        cache.release(conn, A, second);
+        // only one statement per SQL statement is kept
+        Assert.assertEquals(1, cache.getSize());
+        Assert.assertTrue(first.isClosed());
+        Assert.assertSame(second, cache.prepare(conn, A));
+        conn.close();
+    }
+
+    @Test
+    public void testCloseStatements() throws SQLException {
+        StatementCache cache = new StatementCache(4);
+        Connection conn = getNodeConnection(1);
+        Connection conn2 = getNodeConnection(2);
+        PreparedStatement a = cache.prepare(conn, A);
+        PreparedStatement b = cache.prepare(conn2, B);
+        cache.release(conn, A, a);
+        cache.release(conn2, B, b);
+        Assert.assertEquals(2, cache.getSize());
+        cache.closeStatements(conn);
+        Assert.assertTrue(a.isClosed());
+        Assert.assertFalse(b.isClosed());
+        Assert.assertEquals(1, cache.getSize());
+        cache.closeStatements(conn2);
+        Assert.assertTrue(b.isClosed());
+        Assert.assertEquals(0, cache.getSize());
+        conn.close();
+        conn2.close();
+    }
+
+    @Test
+    public void testQueriesReuseStatements() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 4);
+        StatementCache cache = getDatabase(conn).getStatementCache();
+        Assert.assertNotNull(cache);
+        PreparedStatement prep = conn.prepareStatement("SELECT f_name FROM t_student WHERE f_student_id = ?");
+        prep.setInt(1, 1);
+        readAll(prep.executeQuery());
+        long hits = cache.getHitCount();
+        for (int i = 0; i < 10; i++) {
+            prep.setInt(1, 1);
+            readAll(prep.executeQuery());
+        }
+        // the statement on the data node is cached once its rows are read
+        Assert.assertEquals(hits + 10, cache.getHitCount());
+        conn.close();
+    }
+
+    private static void readAll(ResultSet rs) throws SQLException {
+        while (rs.next()) {
+            // read all rows
+        }
+        rs.close();
+    }
+
+}
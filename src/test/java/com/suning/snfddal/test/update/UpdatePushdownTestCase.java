@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 suning.com Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Created on 2015年6月19日
+// $Id$
+
+package com.suning.snfddal.test.update;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.suning.snfddal.test.BaseH2SampleCase;
+
+/**
+ * UPDATE and DELETE statements which are sent to the physical tables (see
+ * <code>OPTIMIZE_UPDATE_PUSHDOWN</code>).
+ *
+ * @author <a href="mailto:jorgie.mail@gmail.com">jorgie li</a>
+ */
+public class UpdatePushdownTestCase extends BaseH2SampleCase {
+
+    @Test
+    public void testUpdate() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        Statement stat = conn.createStatement();
+        Assert.assertEquals(4, stat.executeUpdate("UPDATE t_student SET f_name = 'x' WHERE f_student_id < 5"));
+        Assert.assertEquals("4", queryString(conn, "SELECT COUNT(*) FROM t_student WHERE f_name = 'x'"));
+        Assert.assertEquals(16, stat.executeUpdate("UPDATE t_student SET f_sex = f_sex + 1"));
+        Assert.assertEquals("24", queryString(conn, "SELECT SUM(f_sex) FROM t_student"));
+        conn.close();
+    }
+
+    @Test
+    public void testDelete() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        Statement stat = conn.createStatement();
+        Assert.assertEquals(1, stat.executeUpdate("DELETE FROM t_student WHERE f_student_id = 3"));
+        Assert.assertEquals(8, stat.executeUpdate("DELETE FROM t_student WHERE f_sex = 0"));
+        Assert.assertEquals("7", queryString(conn, "SELECT COUNT(*) FROM t_student"));
+        conn.close();
+    }
+
+    @Test
+    public void testAliasIsNotSent() throws SQLException {
+        Connection conn = dataSource.getConnection();
+        insertStudents(conn, 16);
+        // the student 3 is in the table t_student_004 of shard1
+        getNodeStatements(1);
+        Statement stat = conn.createStatement();
+        Assert.assertEquals(1, stat.executeUpdate("UPDATE t_student s SET s.f_name = 'x' WHERE s.f_student_id = 3"));
+        Assert.assertEquals(1, stat.executeUpdate("DELETE FROM t_student AS s WHERE s.f_student_id = 3"));
+        conn.close();
+        List<String> sqls = getNodeStatements(1);
+        Assert.assertTrue(sqls.toString(), sqls.contains("UPDATE t_student_004 SET F_NAME = ? WHERE F_STUDENT_ID = ?"));
+        Assert.assertTrue(sqls.toString(), sqls.contains("DELETE FROM t_student_004 WHERE F_STUDENT_ID = ?"));
+    }
+}